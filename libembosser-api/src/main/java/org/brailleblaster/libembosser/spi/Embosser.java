@@ -8,6 +8,7 @@
 
 package org.brailleblaster.libembosser.spi;
 
+import org.brailleblaster.libembosser.utils.ByteBufferInputStream;
 import org.brailleblaster.libembosser.utils.PefUtils;
 import org.jetbrains.annotations.NotNull;
 import org.w3c.dom.Document;
@@ -18,11 +19,20 @@ import javax.print.StreamPrintServiceFactory;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Stream;
 
 /**
@@ -35,6 +45,10 @@ import java.util.stream.Stream;
  */
 @SuppressWarnings("deprecation")
 public interface Embosser extends IEmbosser {
+    /**
+     * Size of the pipe buffer used when converting a BRF to PEF for embossing.
+     */
+    int BRF_CONVERSION_PIPE_SIZE = 64 * 1024;
     /**
      * Get the ID of the embosser.
      * <p>
@@ -113,6 +127,8 @@ public interface Embosser extends IEmbosser {
 
     /**
      * Emboss a BRF document.
+     * <p>
+     * The default implementation converts the BRF to PEF as a stream which is passed to embossPef(PrintService, InputStream, EmbossingAttributeSet), so drivers able to emboss a PEF without building a DOM can emboss a BRF in constant memory.
      *
      * @param embosserDevice The embosser printer device.
      * @param brf            The BRF to be embossed.
@@ -122,13 +138,86 @@ public interface Embosser extends IEmbosser {
      */
     default void embossBrf(@NotNull PrintService embosserDevice, @NotNull InputStream brf, @NotNull EmbossingAttributeSet attributes)
             throws EmbossException {
-        Document doc;
+        // Convert on another thread through a pipe so the PEF is embossed as it is written rather than held in memory
+        final PipedInputStream pef = new PipedInputStream(BRF_CONVERSION_PIPE_SIZE);
+        final PipedOutputStream pefOutput;
         try {
-            doc = PefUtils.fromBrf(brf, "BrfEmboss", 40, 25, false);
-        } catch (ParserConfigurationException | IOException e) {
+            pefOutput = new PipedOutputStream(pef);
+        } catch (IOException e) {
             throw new EmbossException("Unable to convert the BRF to PEF for embossing.", e);
         }
-        embossPef(embosserDevice, doc, attributes);
+        final CompletableFuture<Void> conversion = CompletableFuture.runAsync(() -> {
+            try (OutputStream out = pefOutput) {
+                PefUtils.fromBrf(brf, out, "BrfEmboss", 40, 25, false);
+            } catch (XMLStreamException | IOException e) {
+                throw new CompletionException(e);
+            }
+        }, r -> {
+            Thread t = new Thread(r, "BRF to PEF conversion");
+            t.setDaemon(true);
+            t.start();
+        });
+        EmbossException embossException = null;
+        try (InputStream in = pef) {
+            embossPef(embosserDevice, in, attributes);
+        } catch (EmbossException e) {
+            embossException = e;
+        } catch (IOException e) {
+            embossException = new EmbossException("Unable to convert the BRF to PEF for embossing.", e);
+        }
+        try {
+            conversion.join();
+        } catch (CompletionException e) {
+            if (embossException != null) {
+                // Once embossing fails the pipe is closed causing the conversion to fail, so report the embossing problem
+                embossException.addSuppressed(e.getCause());
+                throw embossException;
+            }
+            throw new EmbossException("Unable to convert the BRF to PEF for embossing.", e.getCause());
+        }
+        if (embossException != null) {
+            throw embossException;
+        }
+    }
+
+    /**
+     * Emboss a PEF file.
+     * <p>
+     * The file is memory mapped rather than being copied through stream buffers. The default implementation passes the mapped file to embossPef(PrintService, InputStream, EmbossingAttributeSet).
+     *
+     * @param embosserDevice The printer device of the embosser.
+     * @param pef            The path of the PEF file to emboss.
+     * @param attributes     Additional information about how to emboss the
+     *                       document.
+     * @throws EmbossException When there is a problem embossing the document.
+     */
+    default void embossPef(@NotNull PrintService embosserDevice, @NotNull Path pef, @NotNull EmbossingAttributeSet attributes)
+            throws EmbossException {
+        try (FileChannel channel = FileChannel.open(pef, StandardOpenOption.READ)) {
+            embossPef(embosserDevice, ByteBufferInputStream.openMapped(channel), attributes);
+        } catch (IOException e) {
+            throw new EmbossException("Problem reading the PEF file", e);
+        }
+    }
+
+    /**
+     * Emboss a BRF file.
+     * <p>
+     * The file is memory mapped rather than being copied through stream buffers. The default implementation passes the mapped file to embossBrf(PrintService, InputStream, EmbossingAttributeSet), drivers able to scan the mapped file directly should override this.
+     *
+     * @param embosserDevice The embosser printer device.
+     * @param brf            The path of the BRF file to be embossed.
+     * @param attributes     Additional information about how to emboss the
+     *                       document.
+     * @throws EmbossException When there is a problem embossing the document.
+     */
+    default void embossBrf(@NotNull PrintService embosserDevice, @NotNull Path brf, @NotNull EmbossingAttributeSet attributes)
+            throws EmbossException {
+        try (FileChannel channel = FileChannel.open(brf, StandardOpenOption.READ)) {
+            embossBrf(embosserDevice, ByteBufferInputStream.openMapped(channel), attributes);
+        } catch (IOException e) {
+            throw new EmbossException("Problem reading the BRF file", e);
+        }
     }
 
     /**
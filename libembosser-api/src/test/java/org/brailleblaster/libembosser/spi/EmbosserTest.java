@@ -0,0 +1,50 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.spi;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.expectThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+
+import org.testng.annotations.Test;
+
+import com.google.common.base.Strings;
+
+public class EmbosserTest {
+	/**
+	 * Create an embosser using the default methods, where embossing a PEF stream fails part way through.
+	 */
+	private static Embosser createFailingEmbosser(String message) {
+		final InvocationHandler handler = (proxy, method, args) -> {
+			if (method.getName().equals("embossPef") && args[1] instanceof InputStream) {
+				((InputStream)args[1]).read(new byte[1024]);
+				throw new EmbossException(message);
+			}
+			if (method.isDefault()) {
+				return InvocationHandler.invokeDefault(proxy, method, args);
+			}
+			throw new UnsupportedOperationException(method.getName());
+		};
+		return (Embosser)Proxy.newProxyInstance(Embosser.class.getClassLoader(), new Class<?>[] {Embosser.class}, handler);
+	}
+	@Test
+	public void testEmbossBrfReportsEmbossingProblem() {
+		final Embosser embosser = createFailingEmbosser("Printer failed");
+		// Large enough that the conversion is still writing when embossing fails
+		final byte[] brf = Strings.repeat(",a l9e ( ,brl\r\n", 100000).getBytes(StandardCharsets.US_ASCII);
+		final EmbossException e = expectThrows(EmbossException.class, () -> embosser.embossBrf(null, new ByteArrayInputStream(brf), new EmbossingAttributeSet()));
+		assertEquals(e.getMessage(), "Printer failed");
+		assertEquals(e.getSuppressed().length, 1, "The conversion problem should be kept as suppressed");
+	}
+}
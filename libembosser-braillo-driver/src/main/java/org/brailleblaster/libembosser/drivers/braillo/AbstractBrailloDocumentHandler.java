@@ -8,17 +8,31 @@
 
 package org.brailleblaster.libembosser.drivers.braillo;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import org.brailleblaster.libembosser.drivers.utils.document.BrfPassthroughHandler;
 import org.brailleblaster.libembosser.drivers.utils.document.ByteSourceHandlerToFunctionAdapter;
 import org.brailleblaster.libembosser.drivers.utils.document.GenericTextDocumentHandler;
+import org.brailleblaster.libembosser.drivers.utils.document.ResettableDocumentHandler;
+import org.brailleblaster.libembosser.drivers.utils.document.StreamingDocumentHandler;
 import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
 
 import com.google.common.io.ByteSource;
 
-public abstract class AbstractBrailloDocumentHandler implements ByteSourceHandlerToFunctionAdapter {
+public abstract class AbstractBrailloDocumentHandler implements ByteSourceHandlerToFunctionAdapter, BrfPassthroughHandler, StreamingDocumentHandler, ResettableDocumentHandler {
 	private GenericTextDocumentHandler handler;
 	protected AbstractBrailloDocumentHandler(int cellsPerLine, double sheetLength, int topMargin, int bottomMargin, int leftMargin, int rightMargin, boolean interpoint, int copies) {
+		this(new GenericTextDocumentHandler.Builder(), cellsPerLine, sheetLength, topMargin, bottomMargin, leftMargin, rightMargin, interpoint, copies);
+	}
+	/**
+	 * Create the handler with the text handler settings not set by the layout, such as where output buffers come from.
+	 */
+	protected AbstractBrailloDocumentHandler(GenericTextDocumentHandler.Builder textBuilder, int cellsPerLine, double sheetLength, int topMargin, int bottomMargin, int leftMargin, int rightMargin, boolean interpoint, int copies) {
 		int linesPerPage = (int)Math.floor(sheetLength * 2.54);
-		handler = new GenericTextDocumentHandler.Builder()
+		handler = textBuilder
 				.setTopMargin(topMargin)
 				.setLeftMargin(leftMargin)
 				.setCellsPerLine(cellsPerLine - leftMargin - rightMargin)
@@ -34,8 +48,34 @@ public abstract class AbstractBrailloDocumentHandler implements ByteSourceHandle
 		handler.onEvent(event);
 	}
 	@Override
+	public boolean passthroughBrf(ByteBuffer brf) {
+		return handler.passthroughBrf(brf);
+	}
+	@Override
+	public boolean fitsPage(ByteBuffer brf) {
+		return handler.fitsPage(brf);
+	}
+	@Override
+	public void streamBrf(ByteBuffer brf, OutputStream output) throws IOException {
+		getHeader().copyTo(output);
+		handler.streamBrf(brf, output);
+	}
+	@Override
 	public ByteSource asByteSource() {
 		// TODO Auto-generated method stub
 		return ByteSource.concat(getHeader(), handler.asByteSource());
 	}
+	@Override
+	public void reset() {
+		handler.reset();
+	}
+	@Override
+	public boolean isStreamable() {
+		return handler.isStreamable();
+	}
+	@Override
+	public void streamTo(Iterator<DocumentEvent> events, OutputStream output) throws IOException {
+		getHeader().copyTo(output);
+		handler.streamTo(events, output);
+	}
 }
@@ -11,11 +11,14 @@ package org.brailleblaster.libembosser.drivers.braillo;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
+import org.brailleblaster.libembosser.drivers.utils.document.BaseTextHandlerBuilder;
+import org.brailleblaster.libembosser.drivers.utils.document.GenericTextDocumentHandler;
+
 import com.google.common.base.Charsets;
 import com.google.common.io.ByteSource;
 
 public class Braillo200DocumentHandler extends AbstractBrailloDocumentHandler {
-	public static class Builder {
+	public static class Builder extends BaseTextHandlerBuilder<Builder> {
 		private int cellsPerLine = 40;
 		private double sheetLength = 11.0;
 		private int topMargin = 0;
@@ -26,7 +29,7 @@ public class Braillo200DocumentHandler extends AbstractBrailloDocumentHandler {
 		private int copies = 1;
 		private boolean zfolding;
 		public Braillo200DocumentHandler build() {
-			return new Braillo200DocumentHandler(cellsPerLine, sheetLength, topMargin, bottomMargin, leftMargin, rightMargin, interpoint, zfolding, copies);
+			return new Braillo200DocumentHandler(getTextBuilder(), cellsPerLine, sheetLength, topMargin, bottomMargin, leftMargin, rightMargin, interpoint, zfolding, copies);
 		}
 
 		public Builder setCellsperLine(int cellsPerLine) {
@@ -87,8 +90,8 @@ public class Braillo200DocumentHandler extends AbstractBrailloDocumentHandler {
 		}
 	}
 	private ByteSource headerSource;
-	private Braillo200DocumentHandler(int cellsPerLine, double sheetLength, int topMargin, int bottomMargin, int leftMargin, int rightMargin, boolean interpoint, boolean zfolding, int copies) {
-		super(cellsPerLine, sheetLength, topMargin, bottomMargin, leftMargin, rightMargin, interpoint, copies);
+	private Braillo200DocumentHandler(GenericTextDocumentHandler.Builder textBuilder, int cellsPerLine, double sheetLength, int topMargin, int bottomMargin, int leftMargin, int rightMargin, boolean interpoint, boolean zfolding, int copies) {
+		super(textBuilder, cellsPerLine, sheetLength, topMargin, bottomMargin, leftMargin, rightMargin, interpoint, copies);
 		headerSource = ByteSource.wrap(String.format("\u001bS1\u001bJ0\u001bN0\u001bR0\u001bA%02d\u001bB%02d\u001bC%d\u001bH%d", (int)Math.ceil(sheetLength * 2), cellsPerLine, interpoint? 1:0, zfolding?1:0).getBytes(Charsets.US_ASCII));
 	}
 	@Override
@@ -9,6 +9,10 @@
 package org.brailleblaster.libembosser.drivers.braillo;
 
 import static com.google.common.base.Preconditions.checkArgument;
+
+import org.brailleblaster.libembosser.drivers.utils.document.BaseTextHandlerBuilder;
+import org.brailleblaster.libembosser.drivers.utils.document.GenericTextDocumentHandler;
+
 import com.google.common.base.Charsets;
 import com.google.common.io.ByteSource;
 
@@ -48,7 +52,7 @@ public class Braillo270DocumentHandler extends AbstractBrailloDocumentHandler {
 			return maxSheetLength;
 		}
 	}
-	public static class Builder {
+	public static class Builder extends BaseTextHandlerBuilder<Builder> {
 		private final Firmware firmware;
 		private int cellsPerLine = 40;
 		private double sheetLength = 11.0;
@@ -63,7 +67,7 @@ public class Braillo270DocumentHandler extends AbstractBrailloDocumentHandler {
 			this.firmware = firmware;
 		}
 		public Braillo270DocumentHandler build() {
-			return new Braillo270DocumentHandler(firmware, cellsPerLine, sheetLength, topMargin, bottomMargin, leftMargin, rightMargin, interpoint, zfolding, copies);
+			return new Braillo270DocumentHandler(getTextBuilder(), firmware, cellsPerLine, sheetLength, topMargin, bottomMargin, leftMargin, rightMargin, interpoint, zfolding, copies);
 		}
 		public Builder setCopies(int copies) {
 			checkArgument(copies > 0);
@@ -107,8 +111,8 @@ public class Braillo270DocumentHandler extends AbstractBrailloDocumentHandler {
 		}
 	}
 	private ByteSource headerSource;
-	private Braillo270DocumentHandler(Firmware firmware, int cellsPerLine, double sheetLength, int topMargin, int bottomMargin, int leftMargin, int rightMargin, boolean interpoint, boolean zfolding, int copies) {
-		super(cellsPerLine, sheetLength, topMargin, bottomMargin, leftMargin, rightMargin, interpoint, copies);
+	private Braillo270DocumentHandler(GenericTextDocumentHandler.Builder textBuilder, Firmware firmware, int cellsPerLine, double sheetLength, int topMargin, int bottomMargin, int leftMargin, int rightMargin, boolean interpoint, boolean zfolding, int copies) {
+		super(textBuilder, cellsPerLine, sheetLength, topMargin, bottomMargin, leftMargin, rightMargin, interpoint, copies);
 		headerSource = firmware.getHeader(cellsPerLine, sheetLength, interpoint, zfolding);
 	}
 	@Override
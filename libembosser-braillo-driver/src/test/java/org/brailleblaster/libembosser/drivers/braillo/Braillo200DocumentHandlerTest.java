@@ -22,6 +22,7 @@ import java.util.stream.DoubleStream;
 import java.util.stream.IntStream;
 
 import org.brailleblaster.libembosser.drivers.braillo.Braillo200DocumentHandler.Builder;
+import org.brailleblaster.libembosser.drivers.utils.document.OutputBufferPool;
 import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.EndDocumentEvent;
@@ -261,4 +262,23 @@ public class Braillo200DocumentHandlerTest {
 		String actual = handler.getHeader().asCharSource(Charsets.US_ASCII).read();
 		assertThat(actual).containsOnlyOnce(expectedHeader);
 	}
+	@Test
+	public void testOutputBufferFromPool() throws IOException {
+		OutputBufferPool pool = new OutputBufferPool(OutputBufferPool.DEFAULT_MAX_POOLED_BYTES);
+		Braillo200DocumentHandler handler = new Braillo200DocumentHandler.Builder().setBufferPool(pool).setSizeHint(256 * 1024).build();
+		for (DocumentEvent event: ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new EndPageEvent(), new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent())) {
+			handler.onEvent(event);
+		}
+		handler.asByteSource().read();
+		handler.reset();
+		assertThat(pool.getPooledBytes()).isEqualTo(256L * 1024);
+	}
+	@Test
+	public void testLenientIgnoresInvalidEvents() throws IOException {
+		Braillo200DocumentHandler handler = new Braillo200DocumentHandler.Builder().setStrict(false).build();
+		for (DocumentEvent event: ImmutableList.of(new StartDocumentEvent(), new EndPageEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new StartLineEvent(), new BrailleEvent("\u2803"), new EndLineEvent(), new EndLineEvent(), new EndPageEvent(), new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent())) {
+			handler.onEvent(event);
+		}
+		assertThat(handler.asByteSource().asCharSource(Charsets.US_ASCII).read()).endsWith("B\r\n\f");
+	}
 }
@@ -0,0 +1,78 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.brailleblaster.libembosser.drivers.utils.DocumentParser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Time to parse an 8 MiB BRF in to document events, from a stream and from a memory mapped file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class BrfParserBenchmark {
+	private static final int BRF_SIZE = 8 * 1024 * 1024;
+	private final DocumentParser parser = new DocumentParser();
+	private byte[] brf;
+	private Path brfFile;
+	private long events;
+
+	@Setup
+	public void setup() throws IOException {
+		Random random = new Random(42L);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(BRF_SIZE + 128);
+		int lineCount = 0;
+		while (out.size() < BRF_SIZE) {
+			int length = random.nextInt(41);
+			for (int i = 0; i < length; ++i) {
+				out.write(0x20 + random.nextInt(0x40));
+			}
+			out.write(++lineCount % 25 == 0 ? '\f' : '\n');
+		}
+		brf = out.toByteArray();
+		brfFile = Files.createTempFile("benchmark", ".brf");
+		Files.write(brfFile, brf);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.delete(brfFile);
+	}
+
+	@Benchmark
+	public long parseStream() throws ParseException {
+		events = 0;
+		parser.parseBrf(new ByteArrayInputStream(brf), e -> ++events);
+		return events;
+	}
+
+	@Benchmark
+	public long parseMapped() throws ParseException {
+		events = 0;
+		parser.parseBrf(brfFile, e -> ++events);
+		return events;
+	}
+}
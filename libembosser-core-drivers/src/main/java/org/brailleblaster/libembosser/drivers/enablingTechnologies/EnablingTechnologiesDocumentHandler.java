@@ -12,10 +12,18 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
 
+import org.brailleblaster.libembosser.drivers.utils.document.BrfPassthroughHandler;
+import org.brailleblaster.libembosser.drivers.utils.document.BaseTextHandlerBuilder;
 import org.brailleblaster.libembosser.drivers.utils.document.ByteSourceHandlerToFunctionAdapter;
 import org.brailleblaster.libembosser.drivers.utils.document.GenericTextDocumentHandler;
+import org.brailleblaster.libembosser.drivers.utils.document.ResettableDocumentHandler;
+import org.brailleblaster.libembosser.drivers.utils.document.StreamingDocumentHandler;
 import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
 import org.brailleblaster.libembosser.spi.BrlCell;
 import org.brailleblaster.libembosser.spi.Layout;
@@ -28,8 +36,8 @@ import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
 
-public class EnablingTechnologiesDocumentHandler implements ByteSourceHandlerToFunctionAdapter {
-	public static class Builder {
+public class EnablingTechnologiesDocumentHandler implements ByteSourceHandlerToFunctionAdapter, BrfPassthroughHandler, StreamingDocumentHandler, ResettableDocumentHandler {
+	public static class Builder extends BaseTextHandlerBuilder<Builder> {
 		private int leftMargin = 0;
 		private int cellsPerLine = 40;
 		private int topMargin = 0;
@@ -48,7 +56,7 @@ public class EnablingTechnologiesDocumentHandler implements ByteSourceHandlerToF
 		}
 		public EnablingTechnologiesDocumentHandler build() {
 			// 2019-12-13: Reduce the margin if leftMargin + cellsPerLine would be too wide for embosser
-			return new EnablingTechnologiesDocumentHandler(model, Math.min(leftMargin, model.getMaxCellsPerLine() - cellsPerLine), cellsPerLine, topMargin, pageLength, linesPerPage, cell, paperMode, copies);
+			return new EnablingTechnologiesDocumentHandler(getTextBuilder(), model, Math.min(leftMargin, model.getMaxCellsPerLine() - cellsPerLine), cellsPerLine, topMargin, pageLength, linesPerPage, cell, paperMode, copies);
 		}
 		
 		
@@ -95,6 +103,7 @@ public class EnablingTechnologiesDocumentHandler implements ByteSourceHandlerToF
 			return this;
 		}
 
+
 		public Builder setCell(BrlCell cell) {
 			if (CELL_MAPPING.containsKey(cell)) {
 				this.cell = cell;
@@ -132,12 +141,12 @@ public class EnablingTechnologiesDocumentHandler implements ByteSourceHandlerToF
 
 	private ByteSource headerSource;
 	private GenericTextDocumentHandler handler;
-	private EnablingTechnologiesDocumentHandler(Model model, int leftMargin, int cellsPerLine, int topMargin, int pageLength, int linesPerPage, BrlCell cell, Layout duplex, int copies) {
+	private EnablingTechnologiesDocumentHandler(GenericTextDocumentHandler.Builder textBuilder, Model model, int leftMargin, int cellsPerLine, int topMargin, int pageLength, int linesPerPage, BrlCell cell, Layout duplex, int copies) {
 		final int totalLines = topMargin + linesPerPage;
 		final int totalCellsPerLine = leftMargin + cellsPerLine;
 		final int maxLines = cell.getLinesForHeight(new BigDecimal(pageLength).multiply(new BigDecimal("25.4")));
 		checkState(isNumberArgValid(totalLines) && totalLines <= maxLines, "The sum of top margin and lines per page must be less than %s which is the maximum for page length %s, topMargin=%s, linesPerPage=%s, total=%s", maxLines, pageLength, topMargin, linesPerPage, totalLines);
-		this.handler = new GenericTextDocumentHandler.Builder()
+		this.handler = textBuilder
 				.setLeftMargin(leftMargin)
 				.setCellsPerLine(cellsPerLine)
 				.setTopMargin(topMargin)
@@ -182,10 +191,36 @@ public class EnablingTechnologiesDocumentHandler implements ByteSourceHandlerToF
 	public void onEvent(DocumentEvent event) {
 		handler.onEvent(event);
 	}
+	@Override
+	public boolean passthroughBrf(ByteBuffer brf) {
+		return handler.passthroughBrf(brf);
+	}
+	@Override
+	public boolean fitsPage(ByteBuffer brf) {
+		return handler.fitsPage(brf);
+	}
+	@Override
+	public void streamBrf(ByteBuffer brf, OutputStream output) throws IOException {
+		headerSource.copyTo(output);
+		handler.streamBrf(brf, output);
+	}
 	
 	@Override
 	public ByteSource asByteSource() {
 		return ByteSource.concat(headerSource, handler.asByteSource());
 	}
+	@Override
+	public void reset() {
+		handler.reset();
+	}
+	@Override
+	public boolean isStreamable() {
+		return handler.isStreamable();
+	}
+	@Override
+	public void streamTo(Iterator<DocumentEvent> events, OutputStream output) throws IOException {
+		headerSource.copyTo(output);
+		handler.streamTo(events, output);
+	}
 
 }
@@ -11,11 +11,19 @@ package org.brailleblaster.libembosser.drivers.indexBraille;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.OptionalInt;
 
+import org.brailleblaster.libembosser.drivers.utils.document.BrfPassthroughHandler;
+import org.brailleblaster.libembosser.drivers.utils.document.BaseTextHandlerBuilder;
 import org.brailleblaster.libembosser.drivers.utils.document.ByteSourceHandlerToFunctionAdapter;
 import org.brailleblaster.libembosser.drivers.utils.document.GenericTextDocumentHandler;
+import org.brailleblaster.libembosser.drivers.utils.document.ResettableDocumentHandler;
+import org.brailleblaster.libembosser.drivers.utils.document.StreamingDocumentHandler;
 import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
 import org.brailleblaster.libembosser.spi.Layout;
 
@@ -23,8 +31,8 @@ import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteSource;
 
-public class IndexBrailleDocumentHandler implements ByteSourceHandlerToFunctionAdapter {
-	public static class Builder {
+public class IndexBrailleDocumentHandler implements ByteSourceHandlerToFunctionAdapter, BrfPassthroughHandler, StreamingDocumentHandler, ResettableDocumentHandler {
+	public static class Builder extends BaseTextHandlerBuilder<Builder> {
 		private int leftMargin = 0;
 		private int topMargin = 0;
 		private int cellsPerLine = 40;
@@ -68,14 +76,14 @@ public class IndexBrailleDocumentHandler implements ByteSourceHandlerToFunctionA
 			return this;
 		}
 		public IndexBrailleDocumentHandler build() {
-			return new IndexBrailleDocumentHandler(leftMargin, topMargin, cellsPerLine, linesPerPage, paperMode, paperSize, copies);
+			return new IndexBrailleDocumentHandler(getTextBuilder(), leftMargin, topMargin, cellsPerLine, linesPerPage, paperMode, paperSize, copies);
 		}
 	}
 	private final static ImmutableMap<Layout, Integer> PAPER_MODE_MAPPINGS = new ImmutableMap.Builder<Layout, Integer>().put(Layout.P1ONLY, 1).put(Layout.P2ONLY, 1).put(Layout.INTERPOINT, 2).put(Layout.Z_FOLDING_DOUBLE_HORIZONTAL, 3).put(Layout.SADDLE_STITCH_DOUBLE_SIDED, 4).put(Layout.Z_FOLDING_SINGLE_HORIZONTAL, 5).put(Layout.Z_FOLDING_DOUBLE_VERTICAL, 6).put(Layout.Z_FOLDING_SINGLE_VERTICAL, 7).put(Layout.SADDLE_STITCH_SINGLE_SIDED, 8).build();
 	private final GenericTextDocumentHandler textHandler;
 	private final ByteSource header;
-	private IndexBrailleDocumentHandler(int leftMargin, int topMargin, int cellsPerLine, int linesPerPage, Layout paperMode, OptionalInt paperSize, int copies) {
-		this.textHandler = new GenericTextDocumentHandler.Builder()
+	private IndexBrailleDocumentHandler(GenericTextDocumentHandler.Builder textBuilder, int leftMargin, int topMargin, int cellsPerLine, int linesPerPage, Layout paperMode, OptionalInt paperSize, int copies) {
+		this.textHandler = textBuilder
 				.setLeftMargin(0) // Left margin is handled by the escape sequences and needs no padding
 				.setTopMargin(0) // Top margin handled by escape sequence and need not be padded.
 				.setCellsPerLine(cellsPerLine)
@@ -96,7 +104,33 @@ public class IndexBrailleDocumentHandler implements ByteSourceHandlerToFunctionA
 		textHandler.onEvent(event);
 	}
 	@Override
+	public boolean passthroughBrf(ByteBuffer brf) {
+		return textHandler.passthroughBrf(brf);
+	}
+	@Override
+	public boolean fitsPage(ByteBuffer brf) {
+		return textHandler.fitsPage(brf);
+	}
+	@Override
+	public void streamBrf(ByteBuffer brf, OutputStream output) throws IOException {
+		header.copyTo(output);
+		textHandler.streamBrf(brf, output);
+	}
+	@Override
 	public ByteSource asByteSource() {
 		return ByteSource.concat(header, textHandler.asByteSource());
 	}
+	@Override
+	public void reset() {
+		textHandler.reset();
+	}
+	@Override
+	public boolean isStreamable() {
+		return textHandler.isStreamable();
+	}
+	@Override
+	public void streamTo(Iterator<DocumentEvent> events, OutputStream output) throws IOException {
+		header.copyTo(output);
+		textHandler.streamTo(events, output);
+	}
 }
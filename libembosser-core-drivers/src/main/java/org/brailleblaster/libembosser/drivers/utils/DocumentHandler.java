@@ -13,4 +13,14 @@ import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEven
 @FunctionalInterface	
 public interface DocumentHandler {
 	void onEvent(DocumentEvent event);
+	/**
+	 * Whether the handler needs any more events.
+	 * 
+	 * Parsers check this as they pass events to the handler and stop reading the document once it is true, so a handler only wanting the start of a document does not need the rest to be parsed. A handler which completes early must already have passed on any events needed to end its document.
+	 * 
+	 * @return True if the handler does not need any more events.
+	 */
+	default boolean isComplete() {
+		return false;
+	}
 }
\ No newline at end of file
@@ -24,17 +24,14 @@ import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
+import org.brailleblaster.libembosser.drivers.utils.document.EventDispatchTable;
+import org.brailleblaster.libembosser.drivers.utils.document.OptionFrame;
+import org.brailleblaster.libembosser.drivers.utils.document.PageBlock;
 import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
-import org.brailleblaster.libembosser.drivers.utils.document.events.EndDocumentEvent;
-import org.brailleblaster.libembosser.drivers.utils.document.events.EndGraphicEvent;
-import org.brailleblaster.libembosser.drivers.utils.document.events.EndLineEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.EndPageEvent;
-import org.brailleblaster.libembosser.drivers.utils.document.events.EndSectionEvent;
-import org.brailleblaster.libembosser.drivers.utils.document.events.EndVolumeEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EventKind;
 import org.brailleblaster.libembosser.drivers.utils.document.events.GraphicOption;
-import org.brailleblaster.libembosser.drivers.utils.document.events.Option;
-import org.brailleblaster.libembosser.drivers.utils.document.events.RowGap;
 import org.brailleblaster.libembosser.drivers.utils.document.events.StartDocumentEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.StartGraphicEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.StartLineEvent;
@@ -48,14 +45,16 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.ImmutableList;
 
-public class DocumentToPrintableHandler implements DocumentHandler, Function<Iterator<DocumentEvent>, Printable> {
+public class DocumentToPrintableHandler implements PageBlockHandler, Function<Iterator<DocumentEvent>, Printable> {
 	private static final Logger log = LoggerFactory.getLogger(DocumentToPrintableHandler.class);
 	public static class Builder {
 		private LayoutHelper layoutHelper;
 		private boolean duplex;
+		private boolean strict;
 		public Builder() {
 			layoutHelper = new DefaultLayoutHelper();
 			duplex = false;
+			strict = true;
 		}
 		public Builder setLayoutHelper(LayoutHelper layoutHelper) {
 			this.layoutHelper = checkNotNull(layoutHelper);
@@ -65,8 +64,20 @@ public class DocumentToPrintableHandler implements DocumentHandler, Function<Ite
 			this.duplex = duplex;
 			return this;
 		}
+		/**
+		 * Set whether events out of place in the document should throw an exception.
+		 * <p>
+		 * When not strict such events are ignored.
+		 * 
+		 * @param strict Whether to reject invalid events.
+		 * @return This builder.
+		 */
+		public Builder setStrict(boolean strict) {
+			this.strict = strict;
+			return this;
+		}
 		public DocumentToPrintableHandler build() {
-			return new DocumentToPrintableHandler(layoutHelper, duplex);
+			return new DocumentToPrintableHandler(layoutHelper, duplex, strict);
 		}
 	}
 	/**
@@ -196,7 +207,7 @@ public class DocumentToPrintableHandler implements DocumentHandler, Function<Ite
 		}
 	}
 	static class Graphic implements PageElement {
-		final private Image image;
+		final private GraphicOption.ImageData image;
 		final private int width;
 		final private int height;
 		final private int indent;
@@ -204,13 +215,33 @@ public class DocumentToPrintableHandler implements DocumentHandler, Function<Ite
 			this(image, width, height, 0);
 		}
 		public Graphic(Image image, int width, int height, int indent) {
+			this(new GraphicOption.ImageData(image), width, height, indent);
+		}
+		public Graphic(GraphicOption.ImageData image, int width, int height, int indent) {
 			this.image = image;
 			this.height = height;
 			this.indent = indent;
 			this.width = width;
 		}
+		/**
+		 * Get the image of the graphic, decoding it if it is not already loaded.
+		 * 
+		 * @return The image or null if the image cannot be decoded.
+		 */
 		public Image getImage() {
-			return image;
+			return image.getValue();
+		}
+		/**
+		 * Start decoding the image ahead of the graphic being printed.
+		 */
+		public void prefetch() {
+			image.prefetch();
+		}
+		/**
+		 * Release the decoded image, it will be decoded again if the graphic is printed again.
+		 */
+		public void release() {
+			image.release();
 		}
 		public int getHeight() {
 			return height;
@@ -240,22 +271,47 @@ public class DocumentToPrintableHandler implements DocumentHandler, Function<Ite
 			if (height != other.height || indent != other.indent || width != other.width) {
 				return false;
 			}
-			return ImageUtils.imageEquals(image, other.image);
+			return ImageUtils.imageEquals(getImage(), other.getImage());
 		}
 		
 	}
 	private static class DocPrintable implements Printable {
 		private final List<Page> pages;
 		private final LayoutHelper layoutHelper;
+		private int lastPageIndex = -1;
 		public DocPrintable(Stream<Page> pages, LayoutHelper layoutHelper) {
 			this.pages = pages.collect(ImmutableList.toImmutableList());
 			this.layoutHelper = layoutHelper;
 		}
+		private void prefetchImages(int pageIndex) {
+			if (pageIndex < pages.size()) {
+				pages.get(pageIndex).getElements().stream().filter(e -> e instanceof Graphic).forEach(e -> ((Graphic)e).prefetch());
+			}
+		}
+		private void releaseImages(int pageIndex) {
+			if (pageIndex < pages.size()) {
+				pages.get(pageIndex).getElements().stream().filter(e -> e instanceof Graphic).forEach(e -> ((Graphic)e).release());
+			}
+		}
 		@Override
 		public int print(Graphics graphics, PageFormat pageFormat, int pageIndex) throws PrinterException {
 			if (pageIndex < 0 || pageIndex >= pages.size()) {
 				return NO_SUCH_PAGE;
 			}
+			// A page may be printed more than once, so only release the images of a page once printing moves to another page.
+			if (lastPageIndex != pageIndex) {
+				if (lastPageIndex >= 0) {
+					releaseImages(lastPageIndex);
+					if (lastPageIndex + 1 != pageIndex) {
+						// The next page was prefetched but is not the one being printed
+						releaseImages(lastPageIndex + 1);
+					}
+				}
+				// Only the images of this page and the next are held at any time
+				prefetchImages(pageIndex);
+				prefetchImages(pageIndex + 1);
+				lastPageIndex = pageIndex;
+			}
 			Map<TextAttribute, Object> brailleAttributes = layoutHelper.getBrailleAttributes(BrlCell.NLS);
 			Font font = Font.getFont(brailleAttributes);
 			Graphics2D g2d = (Graphics2D)graphics;
@@ -289,130 +345,98 @@ public class DocumentToPrintableHandler implements DocumentHandler, Function<Ite
 					final double height = lineHeight * graphic.getHeight();
 					final double width = cellWidth * graphic.getWidth();
 					final Image image = graphic.getImage();
-					final int imgWidth = image.getWidth(null);
-					final int imgHeight = image.getHeight(null);
-					final double scalingRatio = Math.min(width/(double)imgWidth, height/(double)imgHeight);
-					// Remember Braille/strings is from baseline, graphics from top left corner.
-					// Therefore for graphics move to top of line.
-					g2d.drawImage(image, (int)xPos, (int)yPos - brailleMetrics.getAscent(), (int)(imgWidth * scalingRatio), (int)(imgHeight * scalingRatio), null);
+					if (image != null) {
+						final int imgWidth = image.getWidth(null);
+						final int imgHeight = image.getHeight(null);
+						final double scalingRatio = Math.min(width/(double)imgWidth, height/(double)imgHeight);
+						// Remember Braille/strings is from baseline, graphics from top left corner.
+						// Therefore for graphics move to top of line.
+						g2d.drawImage(image, (int)xPos, (int)yPos - brailleMetrics.getAscent(), (int)(imgWidth * scalingRatio), (int)(imgHeight * scalingRatio), null);
+					}
 					yPos += height;
 				}
 			}
 			return PAGE_EXISTS;
 		}
 	}
-	private static void throwInvalidStateException(DocumentEvent event, String state) {
-		throw new IllegalStateException(String.format("Invalid event %s for state %s", event.getClass().getName(), state));
-	}
 	private enum HandlerStates {
-		READY{
-			@Override
-			void accept(DocumentToPrintableHandler h, DocumentEvent e) {
-				if (e instanceof StartDocumentEvent) {
-					h.startDocument((StartDocumentEvent)e);
-				} else {
-					throwInvalidStateException(e, "READY");
-				}
-			}
-		},
-		DOCUMENT{
-			@Override
-			void accept(DocumentToPrintableHandler h, DocumentEvent e) {
-				if (e instanceof StartVolumeEvent) {
-					h.startVolume((StartVolumeEvent)e);
-				} else if (e instanceof EndDocumentEvent) {
-					h.optionStack.pop();
-					h.stateStack.pop();
-				} else if (ClassUtils.isInstanceOf(e, StartDocumentEvent.class, StartSectionEvent.class, StartPageEvent.class, StartLineEvent.class, BrailleEvent.class, EndLineEvent.class, StartGraphicEvent.class, EndGraphicEvent.class, EndPageEvent.class, EndSectionEvent.class, EndVolumeEvent.class)) {
-					throwInvalidStateException(e, "DOCUMENT");
-				}
-			}
-		},
-		VOLUME{
-			@Override
-			void accept(DocumentToPrintableHandler h, DocumentEvent e) {
-				if (e instanceof StartSectionEvent) {
-					h.stateStack.push(HandlerStates.SECTION);
-					h.optionStack.push(((StartSectionEvent)e).getOptions());
-				} else if (e instanceof EndVolumeEvent) {
-					h.optionStack.pop();
-					h.stateStack.pop();
-				} else if (ClassUtils.isInstanceOf(e, StartDocumentEvent.class, StartVolumeEvent.class, StartPageEvent.class, StartLineEvent.class, BrailleEvent.class, EndLineEvent.class, StartGraphicEvent.class, EndGraphicEvent.class, EndPageEvent.class, EndSectionEvent.class, EndDocumentEvent.class)) {
-					throwInvalidStateException(e, "VOLUME");
-				}
-			}
-		},
-		SECTION{
-			@Override
-			void accept(DocumentToPrintableHandler h, DocumentEvent e) {
-				if (e instanceof StartPageEvent) {
-					h.startPage((StartPageEvent)e);
-				} else if (e instanceof EndSectionEvent) {
-					h.optionStack.pop();
-					h.stateStack.pop();
-				} else if (ClassUtils.isInstanceOf(e, StartDocumentEvent.class, StartVolumeEvent.class, StartSectionEvent.class, StartLineEvent.class, BrailleEvent.class, EndLineEvent.class, StartGraphicEvent.class, EndGraphicEvent.class, EndPageEvent.class, EndVolumeEvent.class, EndDocumentEvent.class)) {
-					throwInvalidStateException(e, "SECTION");
-				}
-			}
-		},
-		PAGE {
-			@Override
-			void accept(DocumentToPrintableHandler h, DocumentEvent e) {
-				if (e instanceof StartLineEvent) {
-					h.startLine((StartLineEvent)e);
-				} else if (e instanceof StartGraphicEvent) {
-					h.startGraphic((StartGraphicEvent)e);
-				} else if (e instanceof EndPageEvent) {
-					h.endPage((EndPageEvent)e);
-				} else if (ClassUtils.isInstanceOf(e, StartDocumentEvent.class, StartVolumeEvent.class, StartSectionEvent.class, StartPageEvent.class, BrailleEvent.class, EndLineEvent.class, EndGraphicEvent.class, EndSectionEvent.class, EndVolumeEvent.class, EndDocumentEvent.class)) {
-					throwInvalidStateException(e, "PAGE");
-				}
-			}
-		},
-		GRAPHIC {
-			@Override
-			void accept(DocumentToPrintableHandler h, DocumentEvent e) {
-				if (e instanceof StartLineEvent) {
-					h.startLine((StartLineEvent)e);
-				} else if (e instanceof EndGraphicEvent) {
-					h.endGraphic();
-				} else {
-					throwInvalidStateException(e, "GRAPHIC");
-				}
-			}
-		},
-		LINE {
-			@Override
-			void accept(DocumentToPrintableHandler h, DocumentEvent e) {
-				if (e instanceof BrailleEvent) {
-					h.addBraille((BrailleEvent)e);
-				} else if (e instanceof EndLineEvent) {
-					h.endLine();
-				} else if (ClassUtils.isInstanceOf(e, StartDocumentEvent.class, StartVolumeEvent.class, StartSectionEvent.class, StartPageEvent.class, StartLineEvent.class, StartGraphicEvent.class, EndGraphicEvent.class, EndPageEvent.class, EndSectionEvent.class, EndVolumeEvent.class, EndDocumentEvent.class)) {
-					throwInvalidStateException(e, "LINE");
-				}
-			}
-		};
-		abstract void accept(DocumentToPrintableHandler h, DocumentEvent e);
+		READY, DOCUMENT, VOLUME, SECTION, PAGE, GRAPHIC, LINE
 	}
+	private static final EventDispatchTable<DocumentToPrintableHandler, HandlerStates> TRANSITIONS = EventDispatchTable.<DocumentToPrintableHandler, HandlerStates>builder(HandlerStates.class)
+			.on(HandlerStates.READY, EventKind.START_DOCUMENT, (h, e) -> h.startDocument((StartDocumentEvent)e))
+			.on(HandlerStates.DOCUMENT, EventKind.START_VOLUME, (h, e) -> h.startVolume((StartVolumeEvent)e))
+			.on(HandlerStates.DOCUMENT, EventKind.END_DOCUMENT, (h, e) -> h.endLevel())
+			.ignore(HandlerStates.DOCUMENT, EventKind.OTHER)
+			.on(HandlerStates.VOLUME, EventKind.START_SECTION, (h, e) -> {
+				h.stateStack.push(HandlerStates.SECTION);
+				h.optionFrame = h.optionFrame.push(((StartSectionEvent)e).getOptions());
+			})
+			.on(HandlerStates.VOLUME, EventKind.END_VOLUME, (h, e) -> h.endLevel())
+			.ignore(HandlerStates.VOLUME, EventKind.OTHER)
+			.on(HandlerStates.SECTION, EventKind.START_PAGE, (h, e) -> h.startPage((StartPageEvent)e))
+			.on(HandlerStates.SECTION, EventKind.END_SECTION, (h, e) -> h.endLevel())
+			.ignore(HandlerStates.SECTION, EventKind.OTHER)
+			.on(HandlerStates.PAGE, EventKind.START_LINE, (h, e) -> h.startLine((StartLineEvent)e))
+			.on(HandlerStates.PAGE, EventKind.START_GRAPHIC, (h, e) -> h.startGraphic((StartGraphicEvent)e))
+			.on(HandlerStates.PAGE, EventKind.END_PAGE, (h, e) -> h.endPage((EndPageEvent)e))
+			.ignore(HandlerStates.PAGE, EventKind.OTHER)
+			.on(HandlerStates.GRAPHIC, EventKind.START_LINE, (h, e) -> h.startLine((StartLineEvent)e))
+			.on(HandlerStates.GRAPHIC, EventKind.END_GRAPHIC, (h, e) -> h.endGraphic())
+			.on(HandlerStates.LINE, EventKind.BRAILLE, (h, e) -> h.addBraille((BrailleEvent)e))
+			.on(HandlerStates.LINE, EventKind.END_LINE, (h, e) -> h.endLine())
+			.ignore(HandlerStates.LINE, EventKind.OTHER)
+			.build();
 	private Deque<HandlerStates> stateStack = new LinkedList<>();
-	final private Deque<Set<? extends Option>> optionStack = new LinkedList<>();
+	private OptionFrame optionFrame = OptionFrame.root();
 	private int graphicHeight = 0;
 	private List<Page> pages = new LinkedList<>();
 	private List<PageElement> pageElements = new LinkedList<>();
 	private StringBuilder braille = new StringBuilder();
 	private final LayoutHelper layoutHelper;
 	private final boolean duplex;
+	private final boolean strict;
 	
-	private DocumentToPrintableHandler(LayoutHelper layoutHelper, boolean duplex) {
+	private DocumentToPrintableHandler(LayoutHelper layoutHelper, boolean duplex, boolean strict) {
 		this.layoutHelper = layoutHelper;
 		this.duplex = duplex;
+		this.strict = strict;
 		stateStack.push(HandlerStates.READY);
 	}
 
 	@Override
 	public void onEvent(DocumentEvent event) {
-		stateStack.peek().accept(this, event);
+		TRANSITIONS.dispatch(this, stateStack.peek(), event, strict);
+	}
+	@Override
+	public void onPage(PageBlock page) {
+		if (stateStack.peek() != HandlerStates.SECTION || page.hasOtherEvents()) {
+			// Let the events report or ignore the page being out of place
+			for (DocumentEvent event: page.getEvents()) {
+				onEvent(event);
+			}
+			return;
+		}
+		startPage(page.getStartEvent());
+		for (PageBlock.Element element: page.getElements()) {
+			if (element instanceof PageBlock.Row) {
+				addRow((PageBlock.Row)element);
+			} else {
+				final PageBlock.Graphic graphic = (PageBlock.Graphic)element;
+				startGraphic(graphic.getStartEvent());
+				for (PageBlock.Row row: graphic.getRows()) {
+					addRow(row);
+				}
+				endGraphic();
+			}
+		}
+		endPage(page.getEndEvent());
+	}
+	private void addRow(PageBlock.Row row) {
+		startLine(row.getStartEvent());
+		for (BrailleEvent brailleEvent: row.getBraille()) {
+			addBraille(brailleEvent);
+		}
+		endLine();
 	}
 	
 	public Printable asPrintable() {
@@ -427,30 +451,34 @@ public class DocumentToPrintableHandler implements DocumentHandler, Function<Ite
 	}
 	private void startDocument(StartDocumentEvent event) {
 		stateStack.push(HandlerStates.DOCUMENT);
-		optionStack.clear();
-		optionStack.push(event.getOptions());
+		optionFrame = OptionFrame.root();
+		optionFrame = optionFrame.push(event.getOptions());
 		pages.clear();
 	}
 	private void startVolume(StartVolumeEvent event) {
 		stateStack.push(HandlerStates.VOLUME);
-		optionStack.push(event.getOptions());
+		optionFrame = optionFrame.push(event.getOptions());
 		if (duplex && getpageCount() % 2 != 0) {
 			pages.add(new Page());
 		}
 	}
+	private void endLevel() {
+		optionFrame = optionFrame.pop();
+		stateStack.pop();
+	}
 	private void startPage(StartPageEvent event) {
 		stateStack.push(HandlerStates.PAGE);
-		optionStack.push(event.getOptions());
+		optionFrame = optionFrame.push(event.getOptions());
 		pageElements.clear();
 	}
 	private void endPage(EndPageEvent event) {
 		pages.add(new Page(pageElements.stream()));
-		optionStack.pop();
+		optionFrame = optionFrame.pop();
 		stateStack.pop();
 	}
 	private void startLine(StartLineEvent event) {
 		stateStack.push(HandlerStates.LINE);
-		optionStack.push(event.getOptions());
+		optionFrame = optionFrame.push(event.getOptions());
 		if (!isInGraphic()) {
 			braille.delete(0, braille.length());
 		}
@@ -461,39 +489,38 @@ public class DocumentToPrintableHandler implements DocumentHandler, Function<Ite
 		}
 	}
 	private void endLine() {
-		int rowgap = optionStack.parallelStream().flatMap(Collection::stream).filter(o -> o instanceof RowGap).mapToInt(o -> ((RowGap)o).getValue()).findFirst().orElse(0);
+		int rowgap = optionFrame.getRowGap(0);
 		if (isInGraphic()) {
 			graphicHeight += rowgap + 1;
 		} else {
 			pageElements.add(new Row(braille.toString(), rowgap));
 		} 
-		optionStack.pop();
+		optionFrame = optionFrame.pop();
 		stateStack.pop();
 	}
 	private void startGraphic(StartGraphicEvent event) {
 		graphicHeight = 0;
 		stateStack.push(HandlerStates.GRAPHIC);
-		optionStack.push(event.getOptions());
+		optionFrame = optionFrame.push(event.getOptions());
 	}
 	private void endGraphic() {
-		Optional<Image> graphic = optionStack.peek().stream().filter(o -> o instanceof GraphicOption.ImageData).map(o -> ((GraphicOption.ImageData)o).getValue()).findFirst();
+		// The image is not decoded here, it is left until the page is printed
+		Optional<GraphicOption.ImageData> graphic = optionFrame.getOptions().stream().filter(o -> o instanceof GraphicOption.ImageData).map(o -> (GraphicOption.ImageData)o).findFirst();
 		if (graphic.isPresent()) {
-			int indent = optionStack.peek().stream().filter(o -> o instanceof GraphicOption.Indent).mapToInt(o -> ((GraphicOption.Indent)o).getValue()).findFirst().orElse(0);
-			int height = optionStack.peek().stream().filter(o -> o instanceof GraphicOption.Height).mapToInt(o -> ((GraphicOption.Height)o).getValue()).findFirst().orElse(graphicHeight);
-			int width = optionStack.peek().stream().filter(o -> o instanceof GraphicOption.Width).mapToInt(o -> ((GraphicOption.Width)o).getValue()).findFirst().orElse(0);
+			int indent = optionFrame.getOptions().stream().filter(o -> o instanceof GraphicOption.Indent).mapToInt(o -> ((GraphicOption.Indent)o).getValue()).findFirst().orElse(0);
+			int height = optionFrame.getOptions().stream().filter(o -> o instanceof GraphicOption.Height).mapToInt(o -> ((GraphicOption.Height)o).getValue()).findFirst().orElse(graphicHeight);
+			int width = optionFrame.getOptions().stream().filter(o -> o instanceof GraphicOption.Width).mapToInt(o -> ((GraphicOption.Width)o).getValue()).findFirst().orElse(0);
 			pageElements.add(new Graphic(graphic.get(), width, height, indent));
 		}
-		optionStack.pop();
+		optionFrame = optionFrame.pop();
 		stateStack.pop();
 	}
 	private boolean isInGraphic() {
-		return optionStack.stream().flatMap(Collection::stream).anyMatch(o -> o instanceof GraphicOption.ImageData);
+		return optionFrame.isInGraphic();
 	}
 	@Override
 	public Printable apply(Iterator<DocumentEvent> doc) {
-		while (doc.hasNext()) {
-			onEvent(doc.next());
-		}
+		PageBlockHandler.deliver(doc, this);
 		return asPrintable();
 	}
 }
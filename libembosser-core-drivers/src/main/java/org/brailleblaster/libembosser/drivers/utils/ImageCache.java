@@ -0,0 +1,115 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Cache of decoded images keyed by a hash of their encoded data.
+ * <p>
+ * The same images are often found in many documents, so decoded images are shared between jobs rather than being decoded for each one. The size of the cache is limited by the bytes needed for the pixels of the decoded images, least recently used images being evicted first.
+ */
+public class ImageCache {
+	/**
+	 * The limit of the default cache in bytes.
+	 */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+	private static final ImageCache DEFAULT = new ImageCache(DEFAULT_MAX_BYTES);
+	private final Cache<HashCode, Optional<Image>> cache;
+
+	/**
+	 * Create an image cache.
+	 *
+	 * @param maxBytes The largest number of bytes of decoded pixels to be held by the cache.
+	 */
+	public ImageCache(long maxBytes) {
+		checkArgument(maxBytes >= 0, "maxBytes must not be negative");
+		// A single segment so the byte limit applies to the cache as a whole rather than being split between segments
+		cache = CacheBuilder.newBuilder().concurrencyLevel(1).maximumWeight(maxBytes).weigher((HashCode k, Optional<Image> v) -> v.map(ImageCache::imageBytes).orElse(1)).recordStats().build();
+	}
+
+	/**
+	 * Get the image cache shared by the whole process.
+	 *
+	 * @return The default image cache.
+	 */
+	public static ImageCache getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Get the decoded image for some encoded image data.
+	 * <p>
+	 * Should the image not be in the cache it will be decoded by the decoder and then stored. An empty result from the decoder is also cached, so data which cannot be decoded is not tried again.
+	 *
+	 * @param data The encoded image data.
+	 * @param decoder Function to decode the data.
+	 * @return The decoded image.
+	 */
+	public Optional<Image> get(String data, Function<String, Optional<Image>> decoder) {
+		final HashCode key = Hashing.sha256().hashUnencodedChars(data);
+		try {
+			return cache.get(key, () -> decoder.apply(data));
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			throw new RuntimeException("Problem decoding image", e.getCause());
+		}
+	}
+
+	/**
+	 * Remove all images from the cache.
+	 */
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Get the statistics of the cache.
+	 *
+	 * @return The cache statistics.
+	 */
+	public CacheStats stats() {
+		return cache.stats();
+	}
+	public long getHitCount() {
+		return cache.stats().hitCount();
+	}
+	public long getMissCount() {
+		return cache.stats().missCount();
+	}
+	public long getEvictionCount() {
+		return cache.stats().evictionCount();
+	}
+
+	/**
+	 * Estimate the bytes used by the pixels of an image.
+	 */
+	static int imageBytes(Image image) {
+		final long bytes;
+		if (image instanceof BufferedImage) {
+			final BufferedImage img = (BufferedImage)image;
+			bytes = (long)img.getWidth() * img.getHeight() * Math.max(1, (img.getColorModel().getPixelSize() + 7) / 8);
+		} else {
+			bytes = 4L * Math.max(0, image.getWidth(null)) * Math.max(0, image.getHeight(null));
+		}
+		return (int)Math.max(1, Math.min(Integer.MAX_VALUE, bytes));
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils;
+
+import java.util.Iterator;
+
+import org.brailleblaster.libembosser.drivers.utils.document.PageBlock;
+import org.brailleblaster.libembosser.drivers.utils.document.PageBlockCollector;
+import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
+
+/**
+ * A document handler able to take a whole page at a time.
+ * <p>
+ * Events outside of pages are still passed to onEvent, each page is passed to onPage rather than as separate events. Use PageBlockCollector to pass a stream of events to a page handler and adapt to pass pages to a handler which only takes events.
+ */
+public interface PageBlockHandler extends DocumentHandler {
+	/**
+	 * Process a whole page.
+	 * <p>
+	 * This must have the same result as passing each of the events of the page to onEvent. The block may be refilled with the next page once this returns, so copy anything needed later.
+	 * 
+	 * @param page The page.
+	 */
+	void onPage(PageBlock page);
+
+	/**
+	 * Get a page handler passing to a handler.
+	 * 
+	 * @param handler The handler to pass events to.
+	 * @return The handler itself when it already takes pages, otherwise a page handler passing each event of a page to handler.
+	 */
+	static PageBlockHandler adapt(DocumentHandler handler) {
+		if (handler instanceof PageBlockHandler) {
+			return (PageBlockHandler)handler;
+		}
+		return new PageBlockHandler() {
+			@Override
+			public void onEvent(DocumentEvent event) {
+				handler.onEvent(event);
+			}
+			@Override
+			public void onPage(PageBlock page) {
+				for (DocumentEvent event: page.getEvents()) {
+					handler.onEvent(event);
+				}
+			}
+			@Override
+			public boolean isComplete() {
+				return handler.isComplete();
+			}
+		};
+	}
+
+	/**
+	 * Get a handler grouping events in to pages for a page handler.
+	 * 
+	 * @param handler The page handler.
+	 * @return A handler passing pages to handler.
+	 */
+	static DocumentHandler collectPages(PageBlockHandler handler) {
+		return new PageBlockCollector(handler);
+	}
+
+	/**
+	 * Pass the events of a document to a page handler a page at a time.
+	 * 
+	 * @param events The events of the document.
+	 * @param handler The page handler.
+	 */
+	static void deliver(Iterator<? extends DocumentEvent> events, PageBlockHandler handler) {
+		final PageBlockCollector collector = new PageBlockCollector(handler);
+		while (events.hasNext()) {
+			collector.onEvent(events.next());
+		}
+		collector.flush();
+	}
+}
@@ -0,0 +1,607 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Longs;
+
+/**
+ * Index of the byte offsets of the pages of a BRF or PEF file.
+ * <p>
+ * The index is built in a single pass over the file and allows a parser to go straight to the pages wanted rather than parsing the whole document. For a BRF each page starts after a form feed. For a PEF the start and end of each page element is recorded along with the start tags of the enclosing pef, body, volume and section elements and the location of any other elements of the pef element such as tg:images, so that a page can be parsed without the rest of the document.
+ * <p>
+ * An index can be saved alongside the document it indexes and loaded again later, the size and modification time of the document are recorded so that an index for a changed document is not used.
+ */
+public final class PageIndex {
+	public enum Format {
+		BRF, PEF
+	}
+	/**
+	 * The extension added to the name of a document for its index file.
+	 */
+	public static final String SIDECAR_EXTENSION = ".pageindex";
+	private static final int MAGIC = 0x4c455049;
+	private static final int VERSION = 1;
+	private static final Pattern ENCODING_PATTERN = Pattern.compile("encoding\\s*=\\s*[\"']([^\"']*)[\"']");
+	private final Format format;
+	private final long documentSize;
+	private final long documentModified;
+	private final long[] pageStarts;
+	private final long[] pageEnds;
+	private final int[] pageVolumes;
+	private final int[] pageSections;
+	private final byte[] rootTag;
+	private final byte[] bodyTag;
+	private final long[] resourceRanges;
+	private final List<byte[]> volumeTags;
+	private final List<byte[]> sectionTags;
+
+	private PageIndex(Format format, long documentSize, long documentModified, long[] pageStarts, long[] pageEnds, int[] pageVolumes, int[] pageSections, byte[] rootTag, byte[] bodyTag, long[] resourceRanges, List<byte[]> volumeTags, List<byte[]> sectionTags) {
+		this.format = format;
+		this.documentSize = documentSize;
+		this.documentModified = documentModified;
+		this.pageStarts = pageStarts;
+		this.pageEnds = pageEnds;
+		this.pageVolumes = pageVolumes;
+		this.pageSections = pageSections;
+		this.rootTag = rootTag;
+		this.bodyTag = bodyTag;
+		this.resourceRanges = resourceRanges;
+		this.volumeTags = volumeTags;
+		this.sectionTags = sectionTags;
+	}
+
+	/**
+	 * Build the index of a BRF file.
+	 *
+	 * @param brf The path of the BRF.
+	 * @return The page index of the BRF.
+	 * @throws IOException When there is a problem reading the file.
+	 */
+	public static PageIndex indexBrf(Path brf) throws IOException {
+		final long size = Files.size(brf);
+		final long modified = Files.getLastModifiedTime(brf).toMillis();
+		final List<Long> starts = new ArrayList<>();
+		starts.add(0L);
+		// Like the parser, a form feed only starts a page once Braille follows it
+		final List<Long> pendingStarts = new ArrayList<>();
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(brf), 64 * 1024)) {
+			final byte[] buf = new byte[64 * 1024];
+			long offset = 0;
+			int read;
+			while ((read = in.read(buf)) >= 0) {
+				for (int i = 0; i < read; ++i) {
+					switch (buf[i]) {
+					case 0xc:
+						pendingStarts.add(offset + i + 1);
+						break;
+					case 0xa:
+					case 0xd:
+						break;
+					default:
+						if (!pendingStarts.isEmpty()) {
+							starts.addAll(pendingStarts);
+							pendingStarts.clear();
+						}
+					}
+				}
+				offset += read;
+			}
+		}
+		final int pageCount = starts.size();
+		final long[] pageStarts = Longs.toArray(starts);
+		final long[] pageEnds = new long[pageCount];
+		for (int i = 0; i < pageCount; ++i) {
+			pageEnds[i] = i + 1 < pageCount ? pageStarts[i + 1] : size;
+		}
+		return new PageIndex(Format.BRF, size, modified, pageStarts, pageEnds, new int[pageCount], new int[pageCount], new byte[0], new byte[0], new long[0], ImmutableList.of(), ImmutableList.of());
+	}
+
+	/**
+	 * Build the index of a PEF file.
+	 * <p>
+	 * Only PEF files in UTF-8 or an ASCII subset can be indexed.
+	 *
+	 * @param pef The path of the PEF.
+	 * @return The page index of the PEF.
+	 * @throws IOException When there is a problem reading the file or it is not a PEF which can be indexed.
+	 */
+	public static PageIndex indexPef(Path pef) throws IOException {
+		final long size = Files.size(pef);
+		final long modified = Files.getLastModifiedTime(pef).toMillis();
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(pef), 64 * 1024)) {
+			return new PefScanner(in).scan(size, modified);
+		}
+	}
+
+	/**
+	 * Get the path of the index file for a document.
+	 *
+	 * @param document The path of the document.
+	 * @return The path the index for the document is saved to.
+	 */
+	public static Path sidecarPath(Path document) {
+		return document.resolveSibling(document.getFileName().toString() + SIDECAR_EXTENSION);
+	}
+
+	/**
+	 * Load the saved index of a document.
+	 *
+	 * @param document The path of the document.
+	 * @return The index of the document, empty if there is no saved index or the document has changed since the index was saved.
+	 * @throws IOException When there is a problem reading the index file.
+	 */
+	public static Optional<PageIndex> loadSidecar(Path document) throws IOException {
+		final Path sidecar = sidecarPath(document);
+		if (!Files.isRegularFile(sidecar)) {
+			return Optional.empty();
+		}
+		final PageIndex index;
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(sidecar))) {
+			index = readFrom(in);
+		}
+		return index.isCurrent(document) ? Optional.of(index) : Optional.empty();
+	}
+
+	/**
+	 * Save the index alongside the document.
+	 *
+	 * @param document The path of the document this is the index of.
+	 * @throws IOException When there is a problem writing the index file.
+	 */
+	public void saveSidecar(Path document) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(sidecarPath(document)))) {
+			writeTo(out);
+		}
+	}
+
+	/**
+	 * Read an index previously written with writeTo.
+	 *
+	 * @param input The stream to read the index from.
+	 * @return The index.
+	 * @throws IOException When there is a problem reading or the stream does not contain an index.
+	 */
+	public static PageIndex readFrom(InputStream input) throws IOException {
+		final DataInputStream in = new DataInputStream(input);
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a page index");
+		}
+		final int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported page index version " + version);
+		}
+		final Format format = Format.values()[in.readUnsignedByte()];
+		final long documentSize = in.readLong();
+		final long documentModified = in.readLong();
+		final int pageCount = in.readInt();
+		final long[] pageStarts = new long[pageCount];
+		final long[] pageEnds = new long[pageCount];
+		final int[] pageVolumes = new int[pageCount];
+		final int[] pageSections = new int[pageCount];
+		for (int i = 0; i < pageCount; ++i) {
+			pageStarts[i] = in.readLong();
+			pageEnds[i] = in.readLong();
+			pageVolumes[i] = in.readInt();
+			pageSections[i] = in.readInt();
+		}
+		final byte[] rootTag = readBytes(in);
+		final byte[] bodyTag = readBytes(in);
+		final long[] resourceRanges = new long[in.readInt() * 2];
+		for (int i = 0; i < resourceRanges.length; ++i) {
+			resourceRanges[i] = in.readLong();
+		}
+		final List<byte[]> volumeTags = readTags(in);
+		final List<byte[]> sectionTags = readTags(in);
+		return new PageIndex(format, documentSize, documentModified, pageStarts, pageEnds, pageVolumes, pageSections, rootTag, bodyTag, resourceRanges, volumeTags, sectionTags);
+	}
+
+	/**
+	 * Write the index to a stream.
+	 *
+	 * @param output The stream to write to, this is not closed.
+	 * @throws IOException When there is a problem writing the index.
+	 */
+	public void writeTo(OutputStream output) throws IOException {
+		final DataOutputStream out = new DataOutputStream(output);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeByte(format.ordinal());
+		out.writeLong(documentSize);
+		out.writeLong(documentModified);
+		out.writeInt(pageStarts.length);
+		for (int i = 0; i < pageStarts.length; ++i) {
+			out.writeLong(pageStarts[i]);
+			out.writeLong(pageEnds[i]);
+			out.writeInt(pageVolumes[i]);
+			out.writeInt(pageSections[i]);
+		}
+		writeBytes(out, rootTag);
+		writeBytes(out, bodyTag);
+		out.writeInt(resourceRanges.length / 2);
+		for (long l: resourceRanges) {
+			out.writeLong(l);
+		}
+		writeTags(out, volumeTags);
+		writeTags(out, sectionTags);
+		out.flush();
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	private static List<byte[]> readTags(DataInputStream in) throws IOException {
+		final int count = in.readInt();
+		final ImmutableList.Builder<byte[]> tags = ImmutableList.builderWithExpectedSize(count);
+		for (int i = 0; i < count; ++i) {
+			tags.add(readBytes(in));
+		}
+		return tags.build();
+	}
+	private static void writeTags(DataOutputStream out, List<byte[]> tags) throws IOException {
+		out.writeInt(tags.size());
+		for (byte[] tag: tags) {
+			writeBytes(out, tag);
+		}
+	}
+
+	/**
+	 * Whether this index is for the current content of a document.
+	 *
+	 * @param document The path of the document.
+	 * @return True if the size and modification time of the document are those recorded when the index was built.
+	 * @throws IOException When the document cannot be read.
+	 */
+	public boolean isCurrent(Path document) throws IOException {
+		return Files.size(document) == documentSize && Files.getLastModifiedTime(document).toMillis() == documentModified;
+	}
+	public Format getFormat() {
+		return format;
+	}
+	public int getPageCount() {
+		return pageStarts.length;
+	}
+	/**
+	 * Get the byte offset of the start of a page.
+	 *
+	 * @param page The page number, starting from 1.
+	 * @return The byte offset in the document of the start of the page.
+	 */
+	public long getPageStart(int page) {
+		checkElementIndex(page - 1, pageStarts.length, "page");
+		return pageStarts[page - 1];
+	}
+	/**
+	 * Get the byte offset of the end of a page.
+	 *
+	 * @param page The page number, starting from 1.
+	 * @return The byte offset in the document immediately after the page.
+	 */
+	public long getPageEnd(int page) {
+		checkElementIndex(page - 1, pageEnds.length, "page");
+		return pageEnds[page - 1];
+	}
+	/**
+	 * Get the volume containing a page.
+	 *
+	 * @param page The page number, starting from 1.
+	 * @return The index of the volume, starting from 0. For a BRF this is always 0.
+	 */
+	public int getPageVolume(int page) {
+		checkElementIndex(page - 1, pageVolumes.length, "page");
+		return pageVolumes[page - 1];
+	}
+	/**
+	 * Get the section containing a page.
+	 *
+	 * @param page The page number, starting from 1.
+	 * @return The index of the section in the whole document, starting from 0. For a BRF this is always 0.
+	 */
+	public int getPageSection(int page) {
+		checkElementIndex(page - 1, pageSections.length, "page");
+		return pageSections[page - 1];
+	}
+	/**
+	 * Get the XML which opens the elements enclosing a PEF page.
+	 * <p>
+	 * This is the start tag of the pef element, any elements other than head and body inside the pef element, followed by the start tags of the body, volume and section containing the page. The elements inside the pef element are not held in the index, so are read from the document.
+	 *
+	 * @param page The page number, starting from 1.
+	 * @param document The stream of the whole document, used for reading the elements inside the pef element.
+	 * @return The UTF-8 XML to put before the page.
+	 * @throws IOException When there is a problem reading the document.
+	 */
+	byte[] createPefPrefix(int page, DocumentRegionReader document) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(rootTag);
+		for (int i = 0; i < resourceRanges.length; i += 2) {
+			out.write(document.read(resourceRanges[i], resourceRanges[i + 1]));
+		}
+		out.write(bodyTag);
+		out.write(volumeTags.get(getPageVolume(page)));
+		out.write(sectionTags.get(getPageSection(page)));
+		return out.toByteArray();
+	}
+	/**
+	 * Get the XML which closes the elements enclosing a PEF page.
+	 *
+	 * @param page The page number, starting from 1.
+	 * @return The UTF-8 XML to put after the page.
+	 */
+	byte[] createPefSuffix(int page) {
+		final StringBuilder suffix = new StringBuilder();
+		suffix.append("</").append(tagName(sectionTags.get(getPageSection(page)))).append('>');
+		suffix.append("</").append(tagName(volumeTags.get(getPageVolume(page)))).append('>');
+		suffix.append("</").append(tagName(bodyTag)).append('>');
+		suffix.append("</").append(tagName(rootTag)).append('>');
+		return suffix.toString().getBytes(Charsets.UTF_8);
+	}
+	private static String tagName(byte[] tag) {
+		int end = 1;
+		while (end < tag.length && !isNameEnd(tag[end])) {
+			++end;
+		}
+		return new String(tag, 1, end - 1, Charsets.UTF_8);
+	}
+	private static boolean isNameEnd(int b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '/' || b == '>';
+	}
+
+	/**
+	 * Reads regions of the indexed document.
+	 */
+	interface DocumentRegionReader {
+		byte[] read(long start, long end) throws IOException;
+	}
+
+	/**
+	 * Scans the bytes of a PEF for the elements to be indexed.
+	 * <p>
+	 * This only understands enough of XML to find where elements start and end, skipping comments, processing instructions, CDATA sections and the document type declaration. Elements are identified by their local name and depth.
+	 */
+	private static final class PefScanner {
+		private final InputStream in;
+		private long offset = 0;
+		private final ByteArrayOutputStream tag = new ByteArrayOutputStream(256);
+		private final List<Long> pageStarts = new ArrayList<>();
+		private final List<Long> pageEnds = new ArrayList<>();
+		private final List<Integer> pageVolumes = new ArrayList<>();
+		private final List<Integer> pageSections = new ArrayList<>();
+		private final List<Long> resourceRanges = new ArrayList<>();
+		private final List<byte[]> volumeTags = new ArrayList<>();
+		private final List<byte[]> sectionTags = new ArrayList<>();
+		private byte[] rootTag;
+		private byte[] bodyTag;
+		private int depth = 0;
+		private boolean inBody = false;
+		private long resourceStart = -1;
+		PefScanner(InputStream in) {
+			this.in = in;
+		}
+		private int read() throws IOException {
+			final int b = in.read();
+			if (b >= 0) {
+				++offset;
+			}
+			return b;
+		}
+		PageIndex scan(long size, long modified) throws IOException {
+			int b = read();
+			if (b == 0xef) {
+				// UTF-8 byte order mark
+				if (read() != 0xbb || read() != 0xbf) {
+					throw new IOException("PEF is not UTF-8");
+				}
+				b = read();
+			} else if (b == 0xfe || b == 0xff || b == 0) {
+				throw new IOException("PEF is not UTF-8");
+			}
+			while (b >= 0) {
+				if (b == '<') {
+					markup(offset - 1);
+				}
+				b = read();
+			}
+			if (rootTag == null || bodyTag == null) {
+				throw new IOException("Not a PEF document");
+			}
+			final int pageCount = pageStarts.size();
+			final int[] volumes = new int[pageCount];
+			final int[] sections = new int[pageCount];
+			for (int i = 0; i < pageCount; ++i) {
+				volumes[i] = pageVolumes.get(i);
+				sections[i] = pageSections.get(i);
+			}
+			return new PageIndex(Format.PEF, size, modified, Longs.toArray(pageStarts), Longs.toArray(pageEnds), volumes, sections, rootTag, bodyTag, Longs.toArray(resourceRanges), ImmutableList.copyOf(volumeTags), ImmutableList.copyOf(sectionTags));
+		}
+		private void markup(long start) throws IOException {
+			int b = read();
+			switch (b) {
+			case '?':
+				final String pi = skipUntil("?>");
+				if (start == 0 || pi.startsWith("xml ")) {
+					checkEncoding(pi);
+				}
+				break;
+			case '!':
+				b = read();
+				if (b == '-') {
+					skipUntil("-->");
+				} else if (b == '[') {
+					skipUntil("]]>");
+				} else {
+					skipDoctype();
+				}
+				break;
+			case '/':
+				skipUntil(">");
+				endElement();
+				break;
+			default:
+				startElement(start, b);
+			}
+		}
+		private void checkEncoding(String declaration) throws IOException {
+			final Matcher m = ENCODING_PATTERN.matcher(declaration);
+			if (m.find()) {
+				final String encoding = m.group(1);
+				if (!"UTF-8".equalsIgnoreCase(encoding) && !"US-ASCII".equalsIgnoreCase(encoding) && !"ASCII".equalsIgnoreCase(encoding)) {
+					throw new IOException("PEF with encoding " + encoding + " cannot be indexed");
+				}
+			}
+		}
+		private String skipUntil(String end) throws IOException {
+			final StringBuilder text = new StringBuilder();
+			final int[] window = new int[end.length()];
+			int count = 0;
+			int b;
+			while ((b = read()) >= 0) {
+				window[count++ % window.length] = b;
+				if (text.length() < 256) {
+					text.append((char)b);
+				}
+				if (count >= window.length && windowMatches(window, count, end)) {
+					break;
+				}
+			}
+			return text.toString();
+		}
+		private static boolean windowMatches(int[] window, int count, String end) {
+			for (int i = 0; i < window.length; ++i) {
+				if (window[(count + i) % window.length] != end.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		private void skipDoctype() throws IOException {
+			int subsetDepth = 0;
+			int b;
+			while ((b = read()) >= 0) {
+				if (b == '[') {
+					++subsetDepth;
+				} else if (b == ']') {
+					--subsetDepth;
+				} else if (b == '>' && subsetDepth <= 0) {
+					return;
+				}
+			}
+		}
+		private void startElement(long start, int first) throws IOException {
+			tag.reset();
+			tag.write('<');
+			int b = first;
+			int quote = 0;
+			int prev = '<';
+			while (b >= 0) {
+				tag.write(b);
+				if (quote != 0) {
+					if (b == quote) {
+						quote = 0;
+					}
+				} else if (b == '"' || b == '\'') {
+					quote = b;
+				} else if (b == '>') {
+					break;
+				}
+				prev = b;
+				b = read();
+			}
+			if (b < 0) {
+				throw new IOException("PEF ends within a tag");
+			}
+			final boolean empty = prev == '/';
+			final byte[] tagBytes = tag.toByteArray();
+			final String name = tagName(tagBytes);
+			final String localName = name.substring(name.indexOf(':') + 1);
+			++depth;
+			switch (depth) {
+			case 1:
+				rootTag = tagBytes;
+				break;
+			case 2:
+				if ("body".equals(localName)) {
+					bodyTag = tagBytes;
+					inBody = !empty;
+				} else if (!"head".equals(localName)) {
+					resourceStart = start;
+				}
+				break;
+			case 3:
+				if (inBody) {
+					volumeTags.add(emptyToStart(tagBytes, empty));
+				}
+				break;
+			case 4:
+				if (inBody) {
+					sectionTags.add(emptyToStart(tagBytes, empty));
+				}
+				break;
+			case 5:
+				if (inBody && "page".equals(localName)) {
+					pageStarts.add(start);
+					pageVolumes.add(volumeTags.size() - 1);
+					pageSections.add(sectionTags.size() - 1);
+				}
+				break;
+			default:
+				break;
+			}
+			if (empty) {
+				endElement();
+			}
+		}
+		private byte[] emptyToStart(byte[] tagBytes, boolean empty) {
+			if (!empty) {
+				return tagBytes;
+			}
+			final byte[] result = new byte[tagBytes.length - 1];
+			System.arraycopy(tagBytes, 0, result, 0, tagBytes.length - 2);
+			result[result.length - 1] = '>';
+			return result;
+		}
+		private void endElement() {
+			if (depth == 5 && pageEnds.size() < pageStarts.size()) {
+				pageEnds.add(offset);
+			} else if (depth == 2 && resourceStart >= 0) {
+				resourceRanges.add(resourceStart);
+				resourceRanges.add(offset);
+				resourceStart = -1;
+			} else if (depth == 2) {
+				inBody = false;
+			}
+			--depth;
+		}
+	}
+}
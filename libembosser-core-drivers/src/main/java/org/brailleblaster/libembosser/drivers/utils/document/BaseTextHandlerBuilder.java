@@ -0,0 +1,68 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+/**
+ * Base of the builders of document handlers which write their output through a GenericTextDocumentHandler.
+ * 
+ * The settings which belong to the text handler rather than to the embosser are set here, so each embosser builder only adds its own.
+ *
+ * @param <B> The type of the builder, returned by the setters so calls can be chained.
+ */
+public abstract class BaseTextHandlerBuilder<B extends BaseTextHandlerBuilder<B>> {
+	private final GenericTextDocumentHandler.Builder textBuilder = new GenericTextDocumentHandler.Builder();
+	@SuppressWarnings("unchecked")
+	private B self() {
+		return (B)this;
+	}
+	/**
+	 * Set whether events out of place in the document should throw an exception.
+	 * 
+	 * @see GenericTextDocumentHandler.Builder#setStrict(boolean)
+	 */
+	public B setStrict(boolean strict) {
+		textBuilder.setStrict(strict);
+		return self();
+	}
+	/**
+	 * Set the expected size of the output of a document.
+	 * 
+	 * @see GenericTextDocumentHandler.Builder#setSizeHint(int)
+	 */
+	public B setSizeHint(int sizeHint) {
+		textBuilder.setSizeHint(sizeHint);
+		return self();
+	}
+	/**
+	 * Set the pool output buffers are taken from.
+	 * 
+	 * @see GenericTextDocumentHandler.Builder#setBufferPool(OutputBufferPool)
+	 */
+	public B setBufferPool(OutputBufferPool bufferPool) {
+		textBuilder.setBufferPool(bufferPool);
+		return self();
+	}
+	/**
+	 * Set the arena to hold output off the heap in.
+	 * 
+	 * @see GenericTextDocumentHandler.Builder#setBufferArena(DirectBufferArena)
+	 */
+	public B setBufferArena(DirectBufferArena bufferArena) {
+		textBuilder.setBufferArena(bufferArena);
+		return self();
+	}
+	/**
+	 * Get the builder of the text handler holding the settings made here.
+	 * 
+	 * @return The text handler builder to configure the layout on and build from.
+	 */
+	protected GenericTextDocumentHandler.Builder getTextBuilder() {
+		return textBuilder;
+	}
+}
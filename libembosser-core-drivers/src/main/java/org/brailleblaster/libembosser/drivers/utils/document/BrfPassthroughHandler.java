@@ -0,0 +1,51 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.brailleblaster.libembosser.drivers.utils.DocumentToByteSourceHandler;
+
+/**
+ * A handler which can write a BRF without it being parsed in to document events.
+ * <p>
+ * Text embossers mostly output a BRF with little change, so where the BRF already fits the page the handler can copy the lines straight from the BRF rather than have the lines passed through the document event pipeline.
+ */
+public interface BrfPassthroughHandler extends DocumentToByteSourceHandler {
+	/**
+	 * Whether the lines and pages of a BRF fit the page of the handler, so the BRF can be passed through.
+	 * <p>
+	 * Nothing is written and the handler is left unchanged.
+	 * 
+	 * @param brf The buffer holding the BRF from its position to its limit. The position of the buffer is not changed.
+	 * @return True if the BRF can be passed through.
+	 */
+	boolean fitsPage(ByteBuffer brf);
+	/**
+	 * Write a BRF as if the document events of the BRF had been passed to the handler.
+	 * <p>
+	 * Only a BRF whose lines and pages fit the page of the handler can be passed through. When the BRF does not fit nothing is written and the handler is left ready for the document events of the BRF to be passed to it instead.
+	 * 
+	 * @param brf The buffer holding the BRF from its position to its limit. The position of the buffer is not changed.
+	 * @return True if the BRF has been written, false if the BRF needs to be reformatted to fit the page.
+	 */
+	boolean passthroughBrf(ByteBuffer brf);
+	/**
+	 * Write a BRF to a stream as it is passed through.
+	 * <p>
+	 * The output is the same as asByteSource would give after passthroughBrf, but each page is written to the stream once it ends. The BRF must fit the page and the output of the handler must be streamable. The stream is not closed.
+	 * 
+	 * @param brf The buffer holding the BRF from its position to its limit. The position of the buffer is not changed.
+	 * @param output The stream to write the output to.
+	 * @throws IOException When there is a problem writing to the stream.
+	 */
+	void streamBrf(ByteBuffer brf, OutputStream output) throws IOException;
+}
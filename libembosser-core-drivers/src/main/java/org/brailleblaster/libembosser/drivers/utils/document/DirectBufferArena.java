@@ -0,0 +1,149 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded arena of direct byte buffers for holding documents and output off the heap.
+ * <p>
+ * Buffers are given in power of two sizes from MIN_BUFFER_SIZE to MAX_BUFFER_SIZE and the arena never reserves more than its limit of direct memory. Direct memory is only freed by the garbage collector, so released buffers are kept by the arena and reused, a buffer of another size being dropped only when the arena needs the room. Should a request not fit in the arena null is returned and the caller should fall back to other storage, such as a temporary file.
+ * <p>
+ * Buffers must be released once the job using them completes, a buffer which is never released is counted as in use for the life of the arena.
+ */
+public final class DirectBufferArena {
+	/**
+	 * The smallest buffer given by the arena.
+	 */
+	public static final int MIN_BUFFER_SIZE = 4 * 1024;
+	/**
+	 * The largest buffer given by the arena.
+	 */
+	public static final int MAX_BUFFER_SIZE = 64 * 1024 * 1024;
+	private final List<ArrayDeque<ByteBuffer>> buckets;
+	private final long maxBytes;
+	private long reservedBytes = 0;
+	private long usedBytes = 0;
+	private long peakUsedBytes = 0;
+	private long exhaustedCount = 0;
+
+	/**
+	 * Create an arena.
+	 * 
+	 * @param maxBytes The most direct memory the arena may reserve.
+	 */
+	public DirectBufferArena(long maxBytes) {
+		checkArgument(maxBytes >= 0, "maxBytes must not be negative");
+		this.maxBytes = maxBytes;
+		final int bucketCount = bucketOf(MAX_BUFFER_SIZE) + 1;
+		buckets = new ArrayList<>(bucketCount);
+		for (int i = 0; i < bucketCount; i++) {
+			buckets.add(new ArrayDeque<>());
+		}
+	}
+
+	/**
+	 * Get a buffer from the arena.
+	 * 
+	 * @param minCapacity The smallest capacity the buffer must have.
+	 * @return A cleared direct buffer of at least minCapacity bytes, the contents are undefined. Null when the arena does not have room for the buffer.
+	 */
+	public synchronized ByteBuffer acquire(int minCapacity) {
+		checkArgument(minCapacity >= 0, "minCapacity must not be negative");
+		if (minCapacity > MAX_BUFFER_SIZE) {
+			exhaustedCount++;
+			return null;
+		}
+		final int bucket = 32 - Integer.numberOfLeadingZeros(Math.max(minCapacity - 1, 0) / MIN_BUFFER_SIZE);
+		final int size = MIN_BUFFER_SIZE << bucket;
+		ByteBuffer buffer = buckets.get(bucket).poll();
+		if (buffer == null) {
+			if (!makeRoom(size)) {
+				exhaustedCount++;
+				return null;
+			}
+			buffer = ByteBuffer.allocateDirect(size);
+			reservedBytes += size;
+		}
+		usedBytes += size;
+		peakUsedBytes = Math.max(peakUsedBytes, usedBytes);
+		return buffer.clear();
+	}
+
+	/**
+	 * Return a buffer to the arena.
+	 * <p>
+	 * The buffer must have been given by this arena and must no longer be used by the caller.
+	 * 
+	 * @param buffer The buffer to return.
+	 */
+	public synchronized void release(ByteBuffer buffer) {
+		final int capacity = buffer.capacity();
+		checkArgument(buffer.isDirect() && capacity >= MIN_BUFFER_SIZE && capacity <= MAX_BUFFER_SIZE && Integer.bitCount(capacity) == 1, "Buffer was not given by an arena");
+		checkArgument(usedBytes >= capacity, "More buffers released than acquired");
+		usedBytes -= capacity;
+		buckets.get(bucketOf(capacity)).push(buffer);
+	}
+
+	/**
+	 * Drop free buffers, largest first, until size more bytes may be reserved.
+	 */
+	private boolean makeRoom(int size) {
+		if (usedBytes + size > maxBytes) {
+			return false;
+		}
+		for (int i = buckets.size() - 1; i >= 0 && reservedBytes + size > maxBytes; i--) {
+			final ArrayDeque<ByteBuffer> free = buckets.get(i);
+			while (!free.isEmpty() && reservedBytes + size > maxBytes) {
+				reservedBytes -= free.pop().capacity();
+			}
+		}
+		return true;
+	}
+
+	private static int bucketOf(int capacity) {
+		return Integer.numberOfTrailingZeros(capacity / MIN_BUFFER_SIZE);
+	}
+
+	/**
+	 * Get the most direct memory the arena may reserve.
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+	/**
+	 * Get the direct memory reserved by the arena, both in use and free.
+	 */
+	public synchronized long getReservedBytes() {
+		return reservedBytes;
+	}
+	/**
+	 * Get the size of the buffers currently in use.
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+	/**
+	 * Get the largest size of the buffers in use at once.
+	 */
+	public synchronized long getPeakUsedBytes() {
+		return peakUsedBytes;
+	}
+	/**
+	 * Get the number of requests which could not be met as the arena was full.
+	 */
+	public synchronized long getExhaustedCount() {
+		return exhaustedCount;
+	}
+}
@@ -8,10 +8,16 @@
 
 package org.brailleblaster.libembosser.drivers.utils.document;
 
+import java.io.Closeable;
 import java.util.Iterator;
 
 import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
 
-public interface DocumentEventReader extends Iterator<DocumentEvent> {
+/**
+ * An iterator of document events which parses the document as events are requested.
+ * <p>
+ * Readers only parse as much of the input as is needed to supply the next event, so a handler pulling events from a reader never needs the whole document in memory. As Iterator methods cannot throw checked exceptions, a problem parsing the input is thrown from hasNext or next as a DocumentParser.UncheckedParseException. Closing the reader releases any resources held by the reader, it does not close the input the reader was created from.
+ */
+public interface DocumentEventReader extends Iterator<DocumentEvent>, Closeable {
 
 }
@@ -0,0 +1,400 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.brailleblaster.libembosser.drivers.utils.DocumentHandler;
+import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndDocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndGraphicEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndLineEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndSectionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndVolumeEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.OptionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.OptionInterner;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A compact recording of the events of a document which can be replayed any number of times.
+ * <p>
+ * Events are encoded as one byte opcodes in a byte buffer. Start events are held once in a table for each distinct set of options and referred to by a varint index, so a document repeating the same options on every page stores each start event only once. Braille made up of Unicode Braille cells is held as one byte per cell, ASCII Braille as its bytes and any other text as UTF-8. Events not defined by this library are kept in the table.
+ * <p>
+ * Replaying the tape creates a BrailleEvent for each line of Braille, all other events are shared between replays. A tape is immutable once recorded, so may be replayed by several threads at once.
+ * <p>
+ * A tape recorded with an arena holds its events off the heap in a direct buffer from the arena, falling back to the heap should the arena be full. Such a tape must be released once the job using it completes.
+ */
+public final class DocumentTape implements Iterable<DocumentEvent> {
+	private static final int INITIAL_CAPACITY = 4096;
+	private static final byte OP_TABLE_EVENT = 0;
+	private static final byte OP_END_LINE = 1;
+	private static final byte OP_END_GRAPHIC = 2;
+	private static final byte OP_END_PAGE = 3;
+	private static final byte OP_END_SECTION = 4;
+	private static final byte OP_END_VOLUME = 5;
+	private static final byte OP_END_DOCUMENT = 6;
+	private static final byte OP_BRAILLE_CELLS = 7;
+	private static final byte OP_BRAILLE_ASCII = 8;
+	private static final byte OP_BRAILLE_TEXT = 9;
+	private static final EndLineEvent END_LINE = new EndLineEvent();
+	private static final EndGraphicEvent END_GRAPHIC = new EndGraphicEvent();
+	private static final EndPageEvent END_PAGE = new EndPageEvent();
+	private static final EndSectionEvent END_SECTION = new EndSectionEvent();
+	private static final EndVolumeEvent END_VOLUME = new EndVolumeEvent();
+	private static final EndDocumentEvent END_DOCUMENT = new EndDocumentEvent();
+
+	private final ByteBuffer tape;
+	private final ImmutableList<DocumentEvent> table;
+	private final int eventCount;
+	private final DirectBufferArena arena;
+	private final ByteBuffer arenaBuffer;
+	private volatile boolean released = false;
+
+	private DocumentTape(ByteBuffer tape, ImmutableList<DocumentEvent> table, int eventCount, DirectBufferArena arena, ByteBuffer arenaBuffer) {
+		this.tape = tape;
+		this.table = table;
+		this.eventCount = eventCount;
+		this.arena = arena;
+		this.arenaBuffer = arenaBuffer;
+	}
+
+	/**
+	 * Record events in to a tape.
+	 * 
+	 * @param events The events to record.
+	 * @return The tape of the events.
+	 */
+	public static DocumentTape record(Iterator<? extends DocumentEvent> events) {
+		final Recorder recorder = new Recorder();
+		while (events.hasNext()) {
+			recorder.onEvent(events.next());
+		}
+		return recorder.build();
+	}
+
+	/**
+	 * Get the number of events recorded.
+	 */
+	public int getEventCount() {
+		return eventCount;
+	}
+	/**
+	 * Get the number of bytes used to encode the events, not including the table of start events.
+	 */
+	public int getEncodedSize() {
+		return tape.limit();
+	}
+	/**
+	 * Get the number of distinct events held in the table.
+	 */
+	public int getTableSize() {
+		return table.size();
+	}
+
+	/**
+	 * Whether the events are held off the heap.
+	 */
+	public boolean isDirect() {
+		return tape.isDirect();
+	}
+
+	/**
+	 * Return the buffer of the tape to its arena.
+	 * <p>
+	 * The tape may not be replayed once released. Releasing a tape recorded without an arena does nothing other than stopping further replays.
+	 */
+	public void release() {
+		if (released) {
+			return;
+		}
+		released = true;
+		if (arenaBuffer != null) {
+			arena.release(arenaBuffer);
+		}
+	}
+
+	/**
+	 * Replay the events of the tape.
+	 */
+	@Override
+	public Iterator<DocumentEvent> iterator() {
+		checkState(!released, "Tape has been released");
+		return new Iterator<DocumentEvent>() {
+			private int pos = 0;
+			@Override
+			public boolean hasNext() {
+				return pos < tape.limit();
+			}
+			@Override
+			public DocumentEvent next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				// The buffer may be in use by another job once released
+				checkState(!released, "Tape has been released");
+				final byte op = tape.get(pos++);
+				switch (op) {
+				case OP_TABLE_EVENT:
+					return table.get(readVarint());
+				case OP_END_LINE:
+					return END_LINE;
+				case OP_END_GRAPHIC:
+					return END_GRAPHIC;
+				case OP_END_PAGE:
+					return END_PAGE;
+				case OP_END_SECTION:
+					return END_SECTION;
+				case OP_END_VOLUME:
+					return END_VOLUME;
+				case OP_END_DOCUMENT:
+					return END_DOCUMENT;
+				case OP_BRAILLE_CELLS: {
+					final int length = readVarint();
+					final char[] cells = new char[length];
+					for (int i = 0; i < length; i++) {
+						cells[i] = (char)(0x2800 | (tape.get(pos + i) & 0xff));
+					}
+					pos += length;
+					return new BrailleEvent(new String(cells));
+				}
+				case OP_BRAILLE_ASCII: {
+					final int length = readVarint();
+					final BrailleEvent event = BrailleEvent.fromAscii(tape, pos, length);
+					pos += length;
+					return event;
+				}
+				case OP_BRAILLE_TEXT: {
+					final int length = readVarint();
+					final byte[] text = new byte[length];
+					tape.get(pos, text);
+					pos += length;
+					return new BrailleEvent(new String(text, StandardCharsets.UTF_8));
+				}
+				default:
+					throw new IllegalStateException("Unknown opcode " + op);
+				}
+			}
+			private int readVarint() {
+				int value = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = tape.get(pos++);
+					value |= (b & 0x7f) << shift;
+					shift += 7;
+				} while (b < 0);
+				return value;
+			}
+		};
+	}
+
+	/**
+	 * Handler recording the events passed to it in to a tape.
+	 */
+	public static final class Recorder implements DocumentHandler {
+		private final DirectBufferArena arena;
+		private ByteBuffer buffer;
+		private byte[] asciiScratch = new byte[0];
+		private final List<DocumentEvent> table = new ArrayList<>();
+		private final List<Map<Set<?>, Integer>> startEventIndexes = new ArrayList<>();
+		private final OptionInterner interner = OptionInterner.getDefault();
+		private int eventCount = 0;
+		private boolean built = false;
+
+		/**
+		 * Create a recorder holding the events on the heap.
+		 */
+		public Recorder() {
+			this(null);
+		}
+		/**
+		 * Create a recorder.
+		 * 
+		 * @param arena The arena to hold the events off the heap in, null to hold them on the heap.
+		 */
+		public Recorder(DirectBufferArena arena) {
+			this.arena = arena;
+			buffer = allocate(INITIAL_CAPACITY);
+			for (int i = 0; i < 6; i++) {
+				startEventIndexes.add(new IdentityHashMap<>());
+			}
+		}
+
+		@Override
+		public void onEvent(DocumentEvent event) {
+			checkState(!built, "Tape has already been built");
+			eventCount++;
+			switch (event.getKind()) {
+			case START_DOCUMENT:
+			case START_VOLUME:
+			case START_SECTION:
+			case START_PAGE:
+			case START_LINE:
+			case START_GRAPHIC:
+				writeStartEvent(event);
+				break;
+			case END_LINE:
+				writeOp(OP_END_LINE);
+				break;
+			case END_GRAPHIC:
+				writeOp(OP_END_GRAPHIC);
+				break;
+			case END_PAGE:
+				writeOp(OP_END_PAGE);
+				break;
+			case END_SECTION:
+				writeOp(OP_END_SECTION);
+				break;
+			case END_VOLUME:
+				writeOp(OP_END_VOLUME);
+				break;
+			case END_DOCUMENT:
+				writeOp(OP_END_DOCUMENT);
+				break;
+			case BRAILLE:
+				writeBraille((BrailleEvent)event);
+				break;
+			default:
+				writeTableEvent(addToTable(event));
+			}
+		}
+
+		/**
+		 * Finish recording.
+		 * 
+		 * @return The tape of the events recorded.
+		 */
+		public DocumentTape build() {
+			checkState(!built, "Tape has already been built");
+			built = true;
+			final ImmutableList<DocumentEvent> events = ImmutableList.copyOf(table);
+			if (buffer.isDirect()) {
+				final ByteBuffer arenaBuffer = buffer;
+				buffer = null;
+				return new DocumentTape(arenaBuffer.slice(0, arenaBuffer.position()).asReadOnlyBuffer(), events, eventCount, arena, arenaBuffer);
+			}
+			final ByteBuffer tape = ByteBuffer.allocate(buffer.position());
+			tape.put(0, buffer, 0, buffer.position());
+			buffer = null;
+			return new DocumentTape(tape.asReadOnlyBuffer(), events, eventCount, null, null);
+		}
+
+		/**
+		 * Abandon recording, returning any buffer to the arena.
+		 * <p>
+		 * For when the document cannot be recorded in full, such as when it fails to parse.
+		 */
+		public void release() {
+			if (!built) {
+				built = true;
+				if (buffer.isDirect()) {
+					arena.release(buffer);
+				}
+				buffer = null;
+			}
+		}
+
+		private void writeStartEvent(DocumentEvent event) {
+			// Interned sets share an identity when their options have the same values
+			final Set<?> options = interner.internSet(((OptionEvent)event).getOptions());
+			final Map<Set<?>, Integer> indexes = startEventIndexes.get(event.getKind().ordinal());
+			Integer index = indexes.get(options);
+			if (index == null) {
+				index = addToTable(event);
+				indexes.put(options, index);
+			}
+			writeTableEvent(index);
+		}
+		private int addToTable(DocumentEvent event) {
+			table.add(event);
+			return table.size() - 1;
+		}
+		private void writeTableEvent(int index) {
+			ensureCapacity(6);
+			buffer.put(OP_TABLE_EVENT);
+			writeVarint(index);
+		}
+		private void writeOp(byte op) {
+			ensureCapacity(1);
+			buffer.put(op);
+		}
+		private void writeBraille(BrailleEvent event) {
+			if (event.isAsciiBraille()) {
+				final int length = event.getAsciiLength();
+				if (asciiScratch.length < length) {
+					asciiScratch = new byte[Math.max(length, asciiScratch.length * 2)];
+				}
+				event.getAsciiBraille(0, asciiScratch, 0, length);
+				ensureCapacity(6 + length);
+				buffer.put(OP_BRAILLE_ASCII);
+				writeVarint(length);
+				buffer.put(asciiScratch, 0, length);
+				return;
+			}
+			final String braille = event.getBraille();
+			final int length = braille.length();
+			boolean cells = true;
+			for (int i = 0; i < length && cells; i++) {
+				cells = (braille.charAt(i) & 0xff00) == 0x2800;
+			}
+			if (cells) {
+				ensureCapacity(6 + length);
+				buffer.put(OP_BRAILLE_CELLS);
+				writeVarint(length);
+				for (int i = 0; i < length; i++) {
+					buffer.put((byte)braille.charAt(i));
+				}
+			} else {
+				final byte[] text = braille.getBytes(StandardCharsets.UTF_8);
+				ensureCapacity(6 + text.length);
+				buffer.put(OP_BRAILLE_TEXT);
+				writeVarint(text.length);
+				buffer.put(text);
+			}
+		}
+		private void writeVarint(int value) {
+			while ((value & ~0x7f) != 0) {
+				buffer.put((byte)((value & 0x7f) | 0x80));
+				value >>>= 7;
+			}
+			buffer.put((byte)value);
+		}
+		private void ensureCapacity(int bytes) {
+			if (buffer.remaining() < bytes) {
+				final ByteBuffer larger = allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+				buffer.flip();
+				larger.put(buffer);
+				if (buffer.isDirect()) {
+					arena.release(buffer);
+				}
+				buffer = larger;
+			}
+		}
+		/**
+		 * Take a buffer from the arena, or from the heap when there is no arena or it is full.
+		 */
+		private ByteBuffer allocate(int capacity) {
+			final ByteBuffer direct = arena != null ? arena.acquire(capacity) : null;
+			return direct != null ? direct : ByteBuffer.allocate(capacity);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.function.BiConsumer;
+
+import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EventKind;
+
+/**
+ * Transition table for the state machine of a document handler.
+ * <p>
+ * The table holds the action for each combination of handler state and event kind, so dispatching an event is an array lookup. An event may be handled, ignored or invalid in a state. When dispatching strictly an invalid event throws IllegalStateException, otherwise invalid events are ignored so a handler can make the best of a malformed document.
+ *
+ * @param <H> The type of the handler.
+ * @param <S> The states of the handler.
+ */
+public final class EventDispatchTable<H, S extends Enum<S>> {
+	private static final BiConsumer<Object, DocumentEvent> IGNORE = (h, e) -> {};
+	private final BiConsumer<? super H, DocumentEvent>[][] actions;
+
+	private EventDispatchTable(BiConsumer<? super H, DocumentEvent>[][] actions) {
+		this.actions = actions;
+	}
+
+	/**
+	 * Create a builder for a table, initially with every event invalid in every state.
+	 *
+	 * @param stateClass The enum of the handler states.
+	 * @return A builder for the table.
+	 */
+	public static <H, S extends Enum<S>> Builder<H, S> builder(Class<S> stateClass) {
+		return new Builder<>(stateClass);
+	}
+
+	/**
+	 * Pass an event to the action for the state.
+	 *
+	 * @param handler The handler receiving the event.
+	 * @param state The current state of the handler.
+	 * @param event The event.
+	 * @param strict Whether an invalid event should throw an exception rather than be ignored.
+	 * @throws IllegalStateException When strict and the event is not valid in the state.
+	 */
+	public void dispatch(H handler, S state, DocumentEvent event, boolean strict) {
+		final BiConsumer<? super H, DocumentEvent> action = actions[state.ordinal()][event.getKind().ordinal()];
+		if (action != null) {
+			action.accept(handler, event);
+		} else if (strict) {
+			throw new IllegalStateException(String.format("Invalid event %s for state %s", event.getClass().getName(), state.name()));
+		}
+	}
+
+	/**
+	 * Whether an event kind is valid in a state.
+	 *
+	 * @param state The state of the handler.
+	 * @param kind The kind of the event.
+	 * @return True if the event is either handled or ignored in the state.
+	 */
+	public boolean isValid(S state, EventKind kind) {
+		return actions[state.ordinal()][kind.ordinal()] != null;
+	}
+
+	public static final class Builder<H, S extends Enum<S>> {
+		private final BiConsumer<? super H, DocumentEvent>[][] actions;
+		private boolean built = false;
+
+		@SuppressWarnings("unchecked")
+		private Builder(Class<S> stateClass) {
+			actions = new BiConsumer[stateClass.getEnumConstants().length][EventKind.values().length];
+		}
+		/**
+		 * Set the action for an event kind in a state.
+		 *
+		 * @param state The state of the handler.
+		 * @param kind The kind of event.
+		 * @param action The action to take, given the handler and the event.
+		 * @return This builder.
+		 */
+		public Builder<H, S> on(S state, EventKind kind, BiConsumer<? super H, DocumentEvent> action) {
+			checkState(!built, "Table has already been built");
+			actions[state.ordinal()][kind.ordinal()] = checkNotNull(action);
+			return this;
+		}
+		/**
+		 * Make event kinds valid in a state without any action being taken.
+		 *
+		 * @param state The state of the handler.
+		 * @param kinds The kinds of event to ignore.
+		 * @return This builder.
+		 */
+		public Builder<H, S> ignore(S state, EventKind... kinds) {
+			for (EventKind kind: kinds) {
+				on(state, kind, IGNORE);
+			}
+			return this;
+		}
+		public EventDispatchTable<H, S> build() {
+			checkState(!built, "Table has already been built");
+			built = true;
+			return new EventDispatchTable<>(actions);
+		}
+	}
+}
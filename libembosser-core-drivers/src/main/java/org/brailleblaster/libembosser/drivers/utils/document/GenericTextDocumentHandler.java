@@ -8,26 +8,22 @@
 
 package org.brailleblaster.libembosser.drivers.utils.document;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
-import org.brailleblaster.libembosser.drivers.utils.ClassUtils;
+import org.brailleblaster.libembosser.drivers.utils.PageBlockHandler;
 import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
-import org.brailleblaster.libembosser.drivers.utils.document.events.CellsPerLine;
 import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentOption;
-import org.brailleblaster.libembosser.drivers.utils.document.events.Duplex;
-import org.brailleblaster.libembosser.drivers.utils.document.events.EndDocumentEvent;
-import org.brailleblaster.libembosser.drivers.utils.document.events.EndLineEvent;
-import org.brailleblaster.libembosser.drivers.utils.document.events.EndPageEvent;
-import org.brailleblaster.libembosser.drivers.utils.document.events.EndSectionEvent;
-import org.brailleblaster.libembosser.drivers.utils.document.events.EndVolumeEvent;
-import org.brailleblaster.libembosser.drivers.utils.document.events.LinesPerPage;
-import org.brailleblaster.libembosser.drivers.utils.document.events.Option;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EventKind;
 import org.brailleblaster.libembosser.drivers.utils.document.events.PageOption;
-import org.brailleblaster.libembosser.drivers.utils.document.events.RowGap;
 import org.brailleblaster.libembosser.drivers.utils.document.events.RowOption;
 import org.brailleblaster.libembosser.drivers.utils.document.events.SectionOption;
 import org.brailleblaster.libembosser.drivers.utils.document.events.StartDocumentEvent;
@@ -39,88 +35,53 @@ import org.brailleblaster.libembosser.drivers.utils.document.events.VolumeOption
 import org.brailleblaster.libembosser.utils.BrailleMapper;
 
 import com.google.common.base.Charsets;
-import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
 
-public class GenericTextDocumentHandler implements ByteSourceHandlerToFunctionAdapter {
-	private static void throwInvalidStateException(DocumentEvent event, String state) {
-		throw new IllegalStateException(String.format("Invalid event %s for state %s", event.getClass().getName(), state));
+public class GenericTextDocumentHandler implements ByteSourceHandlerToFunctionAdapter, BrfPassthroughHandler, StreamingDocumentHandler, ResettableDocumentHandler, PageBlockHandler {
+	/**
+	 * The default number of bytes of output held in memory before the output is moved to a temporary file.
+	 */
+	public static final int DEFAULT_MEMORY_THRESHOLD = 1024 * 1024;
+	/**
+	 * The default expected size of the output of a document.
+	 */
+	public static final int DEFAULT_SIZE_HINT = 64 * 1024;
+	/**
+	 * The ASCII Braille output for each ASCII byte, the same as mapping the character with UNICODE_TO_ASCII_FAST.
+	 */
+	private static final byte[] ASCII_BRAILLE_TABLE = new byte[128];
+	static {
+		for (int i = 0; i < ASCII_BRAILLE_TABLE.length; i++) {
+			ASCII_BRAILLE_TABLE[i] = (byte)BrailleMapper.UNICODE_TO_ASCII_FAST.map((char)i);
+		}
 	}
+	private static final byte[] REPLACEMENT_CHAR_BYTES = String.valueOf(BrailleMapper.UNICODE_TO_ASCII_FAST.map('\ufffd')).getBytes(Charsets.UTF_8);
 	private enum HandlerStates {
-		READY{
-			@Override
-			public void accept(GenericTextDocumentHandler h, DocumentEvent e) {
-				if (e instanceof StartDocumentEvent) {
-					h.startDocument(((StartDocumentEvent)e).getOptions());
-				} else {
-					throwInvalidStateException(e, "READY");
-				}
-			}
-		},
-		DOCUMENT{
-			@Override
-			public void accept(GenericTextDocumentHandler h, DocumentEvent e) {
-				if (e instanceof StartVolumeEvent) {
-					h.startVolume(((StartVolumeEvent)e).getOptions());
-				} else if (e instanceof EndDocumentEvent) {
-					h.endDocument();
-				} else {
-					throwInvalidStateException(e, "DOCUMENT");
-				}
-			}
-		},
-		VOLUME{
-			@Override
-			public void accept(GenericTextDocumentHandler h, DocumentEvent e) {
-				if (e instanceof StartSectionEvent) {
-					h.startSection(((StartSectionEvent)e).getOptions());
-				} else if (e instanceof EndVolumeEvent) {
-					h.endVolume();
-				} else {
-					throwInvalidStateException(e, "VOLUME");
-				}
-			}
-		},
-		SECTION{
-			private ImmutableList<Class<?>> invalidEventTypes = ImmutableList.of(StartDocumentEvent.class, StartVolumeEvent.class, StartSectionEvent.class, StartLineEvent.class, BrailleEvent.class, EndLineEvent.class, EndPageEvent.class, EndVolumeEvent.class, EndDocumentEvent.class);
-			@Override
-			public void accept(GenericTextDocumentHandler h, DocumentEvent e) {
-				if (e instanceof StartPageEvent) {
-					h.startPage(((StartPageEvent)e).getOptions());
-				} else if (e instanceof EndSectionEvent) {
-					h.endSection();
-				} else if (ClassUtils.isInstanceOf(e, invalidEventTypes.stream())) {
-					throwInvalidStateException(e, "SECTION");
-				}
-			}
-		},
-		PAGE{
-			ImmutableList<Class<?>> invalidEventTypes = ImmutableList.of(StartDocumentEvent.class, StartVolumeEvent.class, StartSectionEvent.class, StartPageEvent.class, BrailleEvent.class, EndLineEvent.class, EndSectionEvent.class, EndVolumeEvent.class, EndDocumentEvent.class);
-			@Override
-			public void accept(GenericTextDocumentHandler h, DocumentEvent e) {
-				if (e instanceof StartLineEvent) {
-					h.startLine(((StartLineEvent)e).getOptions());
-				} else if (e instanceof EndPageEvent) {
-					h.endPage();
-				} else if (ClassUtils.isInstanceOf(e, invalidEventTypes.stream())) {
-					throwInvalidStateException(e, "PAGE");
-				}
-			}
-		},
-		LINE{ 
-			@Override
-			public void accept(GenericTextDocumentHandler h, DocumentEvent e) {
-				if (e instanceof BrailleEvent) {
-					h.writeBraille(((BrailleEvent)e).getBraille());
-				} else if (e instanceof EndLineEvent) {
-					h.endLine();
+		READY, DOCUMENT, VOLUME, SECTION, PAGE, LINE
+	}
+	private static final EventDispatchTable<GenericTextDocumentHandler, HandlerStates> TRANSITIONS = EventDispatchTable.<GenericTextDocumentHandler, HandlerStates>builder(HandlerStates.class)
+			.on(HandlerStates.READY, EventKind.START_DOCUMENT, (h, e) -> h.startDocument(((StartDocumentEvent)e).getOptions()))
+			.on(HandlerStates.DOCUMENT, EventKind.START_VOLUME, (h, e) -> h.startVolume(((StartVolumeEvent)e).getOptions()))
+			.on(HandlerStates.DOCUMENT, EventKind.END_DOCUMENT, (h, e) -> h.endDocument())
+			.on(HandlerStates.VOLUME, EventKind.START_SECTION, (h, e) -> h.startSection(((StartSectionEvent)e).getOptions()))
+			.on(HandlerStates.VOLUME, EventKind.END_VOLUME, (h, e) -> h.endVolume())
+			.on(HandlerStates.SECTION, EventKind.START_PAGE, (h, e) -> h.startPage(((StartPageEvent)e).getOptions()))
+			.on(HandlerStates.SECTION, EventKind.END_SECTION, (h, e) -> h.endSection())
+			.ignore(HandlerStates.SECTION, EventKind.START_GRAPHIC, EventKind.END_GRAPHIC, EventKind.OTHER)
+			.on(HandlerStates.PAGE, EventKind.START_LINE, (h, e) -> h.startLine(((StartLineEvent)e).getOptions()))
+			.on(HandlerStates.PAGE, EventKind.END_PAGE, (h, e) -> h.endPage())
+			.ignore(HandlerStates.PAGE, EventKind.START_GRAPHIC, EventKind.END_GRAPHIC, EventKind.OTHER)
+			.on(HandlerStates.LINE, EventKind.BRAILLE, (h, e) -> {
+				final BrailleEvent brailleEvent = (BrailleEvent)e;
+				if (brailleEvent.isAsciiBraille()) {
+					h.writeAsciiBraille(brailleEvent);
 				} else {
-					throwInvalidStateException(e, "LINE");
+					h.writeBraille(brailleEvent.getBraille());
 				}
-			}
-		};
-		public abstract void accept(GenericTextDocumentHandler h, DocumentEvent e);
-	}
+			})
+			.on(HandlerStates.LINE, EventKind.END_LINE, (h, e) -> h.endLine())
+			.build();
 	public final static class Builder {
 		private int cellsPerLine = 40;
 		private int linesPerPage = 25;
@@ -134,6 +95,86 @@ public class GenericTextDocumentHandler implements ByteSourceHandlerToFunctionAd
 		private boolean eopOnFullPage = true;
 		private byte[] header = new byte[0];
 		private byte[] footer = new byte[0];
+		private int memoryThreshold = DEFAULT_MEMORY_THRESHOLD;
+		private int sizeHint = DEFAULT_SIZE_HINT;
+		private OutputBufferPool bufferPool = OutputBufferPool.getDefault();
+		private DirectBufferArena bufferArena = null;
+		private boolean strict = true;
+		/**
+		 * Set whether events out of place in the document should throw an exception.
+		 * <p>
+		 * When not strict such events are ignored.
+		 * 
+		 * @param strict Whether to reject invalid events.
+		 * @return This builder.
+		 */
+		public Builder setStrict(boolean strict) {
+			this.strict = strict;
+			return this;
+		}
+		public boolean isStrict() {
+			return strict;
+		}
+		/**
+		 * Set the expected size of the output of a document.
+		 * <p>
+		 * The output buffer taken from the pool is sized for this, so most documents need no larger buffer.
+		 * 
+		 * @param sizeHint The expected number of bytes of output.
+		 * @return This builder.
+		 */
+		public Builder setSizeHint(int sizeHint) {
+			checkArgument(sizeHint >= 0, "sizeHint must not be negative");
+			this.sizeHint = sizeHint;
+			return this;
+		}
+		public int getSizeHint() {
+			return sizeHint;
+		}
+		/**
+		 * Set the pool output buffers are taken from.
+		 * 
+		 * @param bufferPool The pool of output buffers.
+		 * @return This builder.
+		 */
+		public Builder setBufferPool(OutputBufferPool bufferPool) {
+			this.bufferPool = checkNotNull(bufferPool);
+			return this;
+		}
+		public OutputBufferPool getBufferPool() {
+			return bufferPool;
+		}
+		/**
+		 * Set the arena to hold output off the heap in.
+		 * <p>
+		 * When set the output is held in direct buffers from the arena rather than arrays from the pool, so the heap used by a job does not grow with its size. The buffers are returned to the arena when the handler is reset.
+		 * 
+		 * @param bufferArena The arena of direct buffers, null to hold output on the heap.
+		 * @return This builder.
+		 */
+		public Builder setBufferArena(DirectBufferArena bufferArena) {
+			this.bufferArena = bufferArena;
+			return this;
+		}
+		public DirectBufferArena getBufferArena() {
+			return bufferArena;
+		}
+		/**
+		 * Set how much output may be held in memory.
+		 * <p>
+		 * Should the output of a document be larger than this it is moved to a temporary file, so large jobs do not need the whole output to be held on the heap.
+		 * 
+		 * @param memoryThreshold The number of bytes of output to hold in memory.
+		 * @return This builder.
+		 */
+		public Builder setMemoryThreshold(int memoryThreshold) {
+			checkArgument(memoryThreshold >= 0, "memoryThreshold must not be negative");
+			this.memoryThreshold = memoryThreshold;
+			return this;
+		}
+		public int getMemoryThreshold() {
+			return memoryThreshold;
+		}
 		public Builder setHeader(byte[] header) {
 			checkNotNull(header);
 			this.header = Arrays.copyOf(header, header.length);
@@ -193,11 +234,14 @@ public class GenericTextDocumentHandler implements ByteSourceHandlerToFunctionAd
 			return this;
 		}
 		public GenericTextDocumentHandler build() {
-			return new GenericTextDocumentHandler(leftMargin, topMargin, cellsPerLine, linesPerPage, endOfLine, endOfPage, eopOnFullPage, padWithBlanks, interpoint, copies, header, footer);
+			return new GenericTextDocumentHandler(leftMargin, topMargin, cellsPerLine, linesPerPage, endOfLine, endOfPage, eopOnFullPage, padWithBlanks, interpoint, copies, header, footer, new OutputBuffer(bufferPool, bufferArena, sizeHint, memoryThreshold), strict);
 		}
 	}
-	private ByteArrayOutputStream output;
-	private final int initialBufferCapacity;
+	private final OutputBuffer output;
+	/**
+	 * Where the output of each page is written when streaming, null when the output is held for asByteSource.
+	 */
+	private OutputStream sink;
 	private final int maxCellsPerLine;
 	private final int maxLinesPerPage;
 	private final boolean defaultInterpoint;
@@ -208,7 +252,7 @@ public class GenericTextDocumentHandler implements ByteSourceHandlerToFunctionAd
 	private final int copies;
 	private int cellsPerLine;
 	private int cellsRemaining = 0;
-	private final Deque<Set<? extends Option>> optionStack = new LinkedList<>();
+	private OptionFrame optionFrame = OptionFrame.root();
 	private final Deque<HandlerStates> stateStack = new LinkedList<>();
 	private final byte[] newLineBytes;
 	private byte[] newPageBytes;
@@ -218,8 +262,10 @@ public class GenericTextDocumentHandler implements ByteSourceHandlerToFunctionAd
 	private boolean rightPage = true;
 	private final ByteSource header;
 	private final ByteSource footer;
+	private byte[] asciiScratch = new byte[64];
+	private final boolean strict;
 
-	private GenericTextDocumentHandler(int leftMargin, int topMargin, int cellsPerLine, int linesPerPage, byte[] endOfLine, byte[] endOfPage, boolean eopOnFullPage, boolean bottomPadding, boolean interpoint, int copies, byte[] header, byte[] footer) {
+	private GenericTextDocumentHandler(int leftMargin, int topMargin, int cellsPerLine, int linesPerPage, byte[] endOfLine, byte[] endOfPage, boolean eopOnFullPage, boolean bottomPadding, boolean interpoint, int copies, byte[] header, byte[] footer, OutputBuffer output, boolean strict) {
 		maxCellsPerLine = cellsPerLine;
 		this.copies = copies;
 		this.bottomPadding = bottomPadding;
@@ -229,27 +275,55 @@ public class GenericTextDocumentHandler implements ByteSourceHandlerToFunctionAd
 		defaultRowGap = 0;
 		this.leftMargin = leftMargin;
 		this.topMargin = topMargin;
-		initialBufferCapacity = 1000000;
-		output = new ByteArrayOutputStream(initialBufferCapacity);
+		this.output = output;
 		newLineBytes = endOfLine;
 		newPageBytes = endOfPage;
 		this.eopOnFullPage = eopOnFullPage;
 		this.header = ByteSource.wrap(header);
 		this.footer = ByteSource.wrap(footer);
+		this.strict = strict;
 	}
 	
 	@Override
 	public void onEvent(DocumentEvent event) {
 		HandlerStates state = stateStack.isEmpty()? HandlerStates.READY : stateStack.peek();
-		state.accept(this, event);
+		TRANSITIONS.dispatch(this, state, event, strict);
+	}
+	/**
+	 * Write a whole page.
+	 * <p>
+	 * Graphics are ignored as they are when passed as events, the rows placed over them are written as any other row.
+	 */
+	@Override
+	public void onPage(PageBlock page) {
+		if (stateStack.peek() != HandlerStates.SECTION || page.hasOtherEvents()) {
+			// Let the events report or ignore the page being out of place
+			for (DocumentEvent event: page.getEvents()) {
+				onEvent(event);
+			}
+			return;
+		}
+		startPage(page.getOptions());
+		for (PageBlock.Row row: page.getRows()) {
+			startLine(row.getOptions());
+			for (BrailleEvent brailleEvent: row.getBraille()) {
+				if (brailleEvent.isAsciiBraille()) {
+					writeAsciiBraille(brailleEvent);
+				} else {
+					writeBraille(brailleEvent.getBraille());
+				}
+			}
+			endLine();
+		}
+		endPage();
 	}
 	
 	public void startDocument(Set<DocumentOption> options) {
 		output.reset();
 		// Reset the option stack, in case of previous failure.
-		optionStack.clear();
+		optionFrame = OptionFrame.root();
 		// Push the options to the stack
-		optionStack.push(options);
+		optionFrame = optionFrame.push(options);
 		stateStack.push(HandlerStates.DOCUMENT);
 		// Documents always start with a right page
 		rightPage = true;
@@ -257,24 +331,24 @@ public class GenericTextDocumentHandler implements ByteSourceHandlerToFunctionAd
 	
 	public void endDocument() {
 		// Remove document options from the stack
-		optionStack.pop();
+		optionFrame = optionFrame.pop();
 		stateStack.pop();
 	}
 	
 	public void startVolume(Set<VolumeOption> options) {
 		// Push the volume options to the stack
-		optionStack.push(options);
+		optionFrame = optionFrame.push(options);
 		stateStack.push(HandlerStates.VOLUME);
 	}
 
 	public void endVolume() {
 		// Remove the volume options
-		optionStack.pop();
+		optionFrame = optionFrame.pop();
 		stateStack.pop();
 	}
 	
 	public void startSection(Set<SectionOption> options) {
-		optionStack.push(options);
+		optionFrame = optionFrame.push(options);
 		stateStack.push(HandlerStates.SECTION);
 		// Ensure the section starts on a right page if duplex
 		ensureRightPage();
@@ -289,19 +363,19 @@ public class GenericTextDocumentHandler implements ByteSourceHandlerToFunctionAd
 	
 	public void endSection() {
 		ensureRightPage();
-		optionStack.pop();
+		optionFrame = optionFrame.pop();
 		stateStack.pop();
 	}
 
 	public void startPage(Set<PageOption> options) {
-		optionStack.push(options);
+		optionFrame = optionFrame.push(options);
 		// Get the linesPerPage
-		linesRemaining = Math.min(maxLinesPerPage, optionStack.stream().flatMap(Collection::stream).filter(o -> o instanceof LinesPerPage).findFirst().map(o -> ((LinesPerPage)o).getValue()).orElse(maxLinesPerPage) - 1);
-		cellsPerLine = Math.min(maxCellsPerLine, optionStack.stream().flatMap(Collection::stream).filter(o -> o instanceof CellsPerLine).findFirst().map(o -> ((CellsPerLine)o).getValue()).orElse(maxCellsPerLine));
+		linesRemaining = Math.min(maxLinesPerPage, optionFrame.getLinesPerPage(maxLinesPerPage) - 1);
+		cellsPerLine = Math.min(maxCellsPerLine, optionFrame.getCellsPerLine(maxCellsPerLine));
 		// Add the top margin
 		pendingLines = topMargin;
 		stateStack.push(HandlerStates.PAGE);
-		if (defaultInterpoint && (!rightPage) && optionStack.stream().flatMap(Collection::stream).filter(o -> o instanceof Duplex).anyMatch(o -> !((Duplex) o).getValue())) {
+		if (defaultInterpoint && (!rightPage) && optionFrame.isSimplex()) {
 			write(newPageBytes);
 			rightPage = !rightPage;
 		}
@@ -321,8 +395,9 @@ public class GenericTextDocumentHandler implements ByteSourceHandlerToFunctionAd
 			write(newLineBytes);
 		}
 		rightPage = !rightPage;
-		optionStack.pop();
+		optionFrame = optionFrame.pop();
 		stateStack.pop();
+		flushToSink();
 	}
 
 	private byte[] repeatedBytes(byte[] inBytes, int count) {
@@ -334,7 +409,7 @@ public class GenericTextDocumentHandler implements ByteSourceHandlerToFunctionAd
 	}
 
 	public void startLine(Set<RowOption> options) {
-		optionStack.push(options);
+		optionFrame = optionFrame.push(options);
 		if (pendingLines > 0) {
 			write(repeatedBytes(newLineBytes, pendingLines));
 		}
@@ -349,30 +424,250 @@ public class GenericTextDocumentHandler implements ByteSourceHandlerToFunctionAd
 	}
 
 	public void endLine() {
-		int rowGap = optionStack.stream().flatMap(Collection::stream).filter(o -> o instanceof RowGap).findFirst().map(o -> ((RowGap)o).getValue()).orElse(defaultRowGap) + 1;
+		int rowGap = optionFrame.getRowGap(defaultRowGap) + 1;
 		pendingLines = Math.min(linesRemaining, rowGap);
 		linesRemaining -= rowGap;
-		optionStack.pop();
+		optionFrame = optionFrame.pop();
 		stateStack.pop();
 	}
 
-	public void writeBraille(String braille) {
+	/**
+	 * Write a line of Unicode Braille, truncated to the cells remaining on the line.
+	 * <p>
+	 * The cells are read one at a time with charAt and mapped straight into a reused array, so no copy of the line is made.
+	 * 
+	 * @param braille The Unicode Braille to write.
+	 */
+	public void writeBraille(CharSequence braille) {
+		if (linesRemaining >= 0) {
+			final int cells = Math.min(braille.length(), cellsRemaining);
+			final int length = BrailleMapper.UNICODE_TO_ASCII_FAST.map(braille, 0, cells, getAsciiScratch(cells * 3), 0);
+			writeOutput(asciiScratch, 0, length);
+			cellsRemaining -= cells;
+		}
+	}
+	/**
+	 * Write the ASCII Braille of an event.
+	 * <p>
+	 * This produces the same output as writeBraille(event.getBraille()) but copies the bytes straight from the event without creating any strings.
+	 * 
+	 * @param event An event holding ASCII Braille.
+	 */
+	public void writeAsciiBraille(BrailleEvent event) {
+		if (linesRemaining >= 0) {
+			final int length = Math.min(event.getAsciiLength(), cellsRemaining);
+			event.getAsciiBraille(0, getAsciiScratch(length), 0, length);
+			writeAsciiScratch(length);
+		}
+	}
+	private void writeAsciiBraille(ByteBuffer buffer, int index, int length) {
 		if (linesRemaining >= 0) {
-			String asciiBraille = BrailleMapper.UNICODE_TO_ASCII_FAST.map(braille.substring(0, Math.min(braille.length(), cellsRemaining)));
-			write(asciiBraille.getBytes(Charsets.UTF_8));
-			cellsRemaining -= asciiBraille.length();
+			final int cells = Math.min(length, cellsRemaining);
+			buffer.get(index, getAsciiScratch(cells), 0, cells);
+			writeAsciiScratch(cells);
+		}
+	}
+	private byte[] getAsciiScratch(int length) {
+		if (asciiScratch.length < length) {
+			asciiScratch = new byte[Math.max(length, asciiScratch.length * 2)];
+		}
+		return asciiScratch;
+	}
+	private void writeAsciiScratch(int length) {
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			final byte b = asciiScratch[i];
+			if (b < 0) {
+				// Not ASCII, decoding gives the replacement character which is left unmapped
+				writeOutput(asciiScratch, start, i - start);
+				write(REPLACEMENT_CHAR_BYTES);
+				start = i + 1;
+			} else {
+				asciiScratch[i] = ASCII_BRAILLE_TABLE[b];
+			}
+		}
+		writeOutput(asciiScratch, start, length - start);
+		cellsRemaining -= length;
+	}
+	@Override
+	public boolean fitsPage(ByteBuffer brf) {
+		return scanBrf(brf, false);
+	}
+	@Override
+	public boolean passthroughBrf(ByteBuffer brf) {
+		checkState(stateStack.isEmpty(), "Handler must be ready to start a new document");
+		// Check the whole BRF before writing anything, so a BRF which does not fit leaves the handler untouched
+		if (!fitsPage(brf)) {
+			return false;
+		}
+		scanBrf(brf, true);
+		return true;
+	}
+	@Override
+	public void streamBrf(ByteBuffer brf, OutputStream out) throws IOException {
+		checkState(isStreamable(), "Multiple copies cannot be streamed");
+		checkState(stateStack.isEmpty(), "Handler must be ready to start a new document");
+		checkArgument(fitsPage(brf), "The BRF does not fit the page");
+		header.copyTo(out);
+		sink = out;
+		try {
+			scanBrf(brf, true);
+			flushToSink();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			sink = null;
+		}
+		footer.copyTo(out);
+		out.flush();
+	}
+	/**
+	 * Go through the lines and pages of a BRF.
+	 * <p>
+	 * Line and page breaks are processed in the same way as by DocumentParser.parseBrf.
+	 * 
+	 * @param brf The buffer holding the BRF, the position is not changed.
+	 * @param write When false only check the BRF fits the page, when true write the BRF which must already be known to fit.
+	 * @return False if a line or page of the BRF does not fit the page.
+	 */
+	private boolean scanBrf(ByteBuffer brf, boolean write) {
+		if (write) {
+			startDocument(ImmutableSet.of());
+			startVolume(ImmutableSet.of());
+			startSection(ImmutableSet.of());
+			startPage(ImmutableSet.of());
+		}
+		final int limit = brf.limit();
+		int pos = brf.position();
+		int newLines = 0;
+		int newPages = 0;
+		int prevByte = -1;
+		int linesOnPage = 0;
+		while (true) {
+			int i = pos;
+			int b = -1;
+			while (i < limit) {
+				b = brf.get(i) & 0xff;
+				if (b == 0xa || b == 0xc || b == 0xd) {
+					break;
+				}
+				++i;
+			}
+			if (i > pos) {
+				final int blankLines = Math.max(newLines - 1, 0);
+				if (newPages > 0) {
+					linesOnPage = 0;
+				}
+				linesOnPage += blankLines + 1;
+				if (!write) {
+					if (i - pos > maxCellsPerLine || linesOnPage > maxLinesPerPage) {
+						return false;
+					}
+				} else {
+					for (; newPages > 0; --newPages) {
+						endPage();
+						startPage(ImmutableSet.of());
+					}
+					for (int j = 0; j < blankLines; ++j) {
+						startLine(ImmutableSet.of());
+						endLine();
+					}
+					startLine(ImmutableSet.of());
+					writeAsciiBraille(brf, pos, i - pos);
+					endLine();
+				}
+				newPages = 0;
+				newLines = 0;
+				prevByte = brf.get(i - 1) & 0xff;
+			}
+			if (i >= limit) {
+				break;
+			}
+			switch (b) {
+			case 0xc:
+				newLines = 0;
+				++newPages;
+				break;
+			case 0xa:
+				if (prevByte != 0xd) {
+					++newLines;
+				}
+				break;
+			default:
+				++newLines;
+			}
+			prevByte = b;
+			pos = i + 1;
+		}
+		if (write) {
+			endPage();
+			endSection();
+			endVolume();
+			endDocument();
 		}
+		return true;
 	}
 	private void write(byte[] bytes) {
-		output.write(bytes, 0, bytes.length);
+		writeOutput(bytes, 0, bytes.length);
+	}
+	private void writeOutput(byte[] bytes, int off, int len) {
+		try {
+			output.write(bytes, off, len);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	private void flushToSink() {
+		if (sink != null) {
+			try {
+				output.asByteSource().copyTo(sink);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			output.reset();
+		}
+	}
+	/**
+	 * Make the handler ready for a new document, returning its output buffer to the pool or arena.
+	 */
+	@Override
+	public void reset() {
+		optionFrame = OptionFrame.root();
+		stateStack.clear();
+		output.release();
+	}
+	@Override
+	public boolean isStreamable() {
+		return copies == 1;
+	}
+	@Override
+	public void streamTo(Iterator<DocumentEvent> events, OutputStream out) throws IOException {
+		checkState(isStreamable(), "Multiple copies cannot be streamed");
+		header.copyTo(out);
+		sink = out;
+		try {
+			PageBlockHandler.deliver(events, this);
+			flushToSink();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			sink = null;
+		}
+		footer.copyTo(out);
+		out.flush();
 	}
+	/**
+	 * Get the output of the document.
+	 * <p>
+	 * The returned source reads the output buffered by the handler without copying it, so it must be read before the handler is reset or used for another document. Reading it after then throws IllegalStateException rather than giving the output of another document.
+	 */
 	@Override
 	public ByteSource asByteSource() {
-		final byte[] outputBytes = output.toByteArray();
+		final ByteSource outputSource = output.asByteSource();
 		final List<ByteSource> sources = new ArrayList<>(copies +2);
 		sources.add(header);
 		for (int i = 0; i < copies; i++) {
-			sources.add(ByteSource.wrap(outputBytes));
+			sources.add(outputSource);
 		}
 		sources.add(footer);
 		return ByteSource.concat(sources);
@@ -0,0 +1,134 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Set;
+
+import org.brailleblaster.libembosser.drivers.utils.document.events.CellsPerLine;
+import org.brailleblaster.libembosser.drivers.utils.document.events.Duplex;
+import org.brailleblaster.libembosser.drivers.utils.document.events.GraphicOption;
+import org.brailleblaster.libembosser.drivers.utils.document.events.LinesPerPage;
+import org.brailleblaster.libembosser.drivers.utils.document.events.Option;
+import org.brailleblaster.libembosser.drivers.utils.document.events.RowGap;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The options in effect at a level of a document.
+ * <p>
+ * Handlers push a frame as each document, volume, section, page, line or graphic starts and pop it when it ends. The options a handler looks up are resolved once when the frame is pushed, an option set at a level taking precedence over the same option from the enclosing levels, so looking them up is a field read rather than a search through the options of every level.
+ */
+public final class OptionFrame {
+	private static final int NOT_SET = Integer.MIN_VALUE;
+	private static final OptionFrame ROOT = new OptionFrame();
+	private final OptionFrame parent;
+	private final Set<? extends Option> options;
+	private final int cellsPerLine;
+	private final int linesPerPage;
+	private final int rowGap;
+	private final boolean simplex;
+	private final boolean inGraphic;
+
+	private OptionFrame() {
+		parent = null;
+		options = ImmutableSet.of();
+		cellsPerLine = NOT_SET;
+		linesPerPage = NOT_SET;
+		rowGap = NOT_SET;
+		simplex = false;
+		inGraphic = false;
+	}
+	private OptionFrame(OptionFrame parent, Set<? extends Option> options) {
+		this.parent = parent;
+		this.options = checkNotNull(options);
+		int cells = parent.cellsPerLine;
+		int lines = parent.linesPerPage;
+		int gap = parent.rowGap;
+		boolean anySimplex = parent.simplex;
+		boolean anyImage = parent.inGraphic;
+		for (Option option: options) {
+			if (option instanceof CellsPerLine) {
+				cells = ((CellsPerLine)option).getValue();
+			} else if (option instanceof LinesPerPage) {
+				lines = ((LinesPerPage)option).getValue();
+			} else if (option instanceof RowGap) {
+				gap = ((RowGap)option).getValue();
+			} else if (option instanceof Duplex) {
+				anySimplex |= !((Duplex)option).getValue();
+			} else if (option instanceof GraphicOption.ImageData) {
+				anyImage = true;
+			}
+		}
+		cellsPerLine = cells;
+		linesPerPage = lines;
+		rowGap = gap;
+		simplex = anySimplex;
+		inGraphic = anyImage;
+	}
+
+	/**
+	 * Get the frame outside of any document.
+	 *
+	 * @return The frame with no options.
+	 */
+	public static OptionFrame root() {
+		return ROOT;
+	}
+
+	/**
+	 * Create the frame for a level inside this one.
+	 *
+	 * @param options The options set at the new level.
+	 * @return The frame for the new level.
+	 */
+	public OptionFrame push(Set<? extends Option> options) {
+		return new OptionFrame(this, options);
+	}
+
+	/**
+	 * Get the frame of the enclosing level.
+	 *
+	 * @return The enclosing frame.
+	 */
+	public OptionFrame pop() {
+		checkState(parent != null, "Cannot pop the root frame");
+		return parent;
+	}
+
+	/**
+	 * Get the options set at this level, not including those from enclosing levels.
+	 */
+	public Set<? extends Option> getOptions() {
+		return options;
+	}
+	public int getCellsPerLine(int defaultValue) {
+		return cellsPerLine != NOT_SET ? cellsPerLine : defaultValue;
+	}
+	public int getLinesPerPage(int defaultValue) {
+		return linesPerPage != NOT_SET ? linesPerPage : defaultValue;
+	}
+	public int getRowGap(int defaultValue) {
+		return rowGap != NOT_SET ? rowGap : defaultValue;
+	}
+	/**
+	 * Whether this or any enclosing level sets duplex to false.
+	 */
+	public boolean isSimplex() {
+		return simplex;
+	}
+	/**
+	 * Whether this or any enclosing level has image data, meaning this level is inside a graphic.
+	 */
+	public boolean isInGraphic() {
+		return inGraphic;
+	}
+}
@@ -0,0 +1,317 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.google.common.base.Optional;
+import com.google.common.io.ByteSource;
+import com.google.common.io.MoreFiles;
+
+/**
+ * Buffer for the output of a document handler.
+ * <p>
+ * Output is held in an array from a pool until it grows beyond the memory threshold, it is then moved to a temporary file. When given an arena the output is instead held off the heap in a direct buffer from the arena, also being moved to a temporary file should the arena be full. The output can be read through asByteSource without being copied. As the array, direct buffer or file may be handed on once the output is discarded, each discard starts a new generation and a source from an earlier generation refuses to be read.
+ */
+final class OutputBuffer {
+	private static final Cleaner CLEANER = Cleaner.create();
+	private final OutputBufferPool pool;
+	private final DirectBufferArena arena;
+	private final int initialCapacity;
+	private final int memoryThreshold;
+	private byte[] memory;
+	private ByteBuffer direct;
+	private int count;
+	private SpillFile spillFile;
+	private Cleaner.Cleanable spillCleanable;
+	private volatile int generation;
+
+	/**
+	 * Create a buffer.
+	 *
+	 * @param pool The pool to take arrays from.
+	 * @param initialCapacity The capacity of the first array taken from the pool.
+	 * @param memoryThreshold The number of bytes which may be held in memory.
+	 */
+	OutputBuffer(OutputBufferPool pool, int initialCapacity, int memoryThreshold) {
+		this(pool, null, initialCapacity, memoryThreshold);
+	}
+	/**
+	 * Create a buffer.
+	 *
+	 * @param pool The pool to take arrays from.
+	 * @param arena The arena to take direct buffers from, null to hold the output in arrays from the pool.
+	 * @param initialCapacity The capacity of the first buffer taken.
+	 * @param memoryThreshold The number of bytes which may be held in memory.
+	 */
+	OutputBuffer(OutputBufferPool pool, DirectBufferArena arena, int initialCapacity, int memoryThreshold) {
+		checkArgument(initialCapacity >= 0, "initialCapacity must not be negative");
+		checkArgument(memoryThreshold >= 0, "memoryThreshold must not be negative");
+		this.pool = checkNotNull(pool);
+		this.arena = arena;
+		this.initialCapacity = Math.min(initialCapacity, memoryThreshold);
+		this.memoryThreshold = memoryThreshold;
+	}
+
+	void write(byte[] bytes, int off, int len) throws IOException {
+		if (spillFile == null && (count + len > memoryThreshold || !ensureCapacity(count + len))) {
+			spill();
+		}
+		if (spillFile != null) {
+			spillFile.output.write(bytes, off, len);
+		} else if (direct != null) {
+			direct.put(count, bytes, off, len);
+			count += len;
+		} else {
+			System.arraycopy(bytes, off, memory, count, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * Make sure the memory can hold capacity bytes.
+	 *
+	 * @return False when the arena is full, so the output must go to a temporary file.
+	 */
+	private boolean ensureCapacity(int capacity) {
+		if (arena != null) {
+			return ensureDirectCapacity(capacity);
+		}
+		if (memory == null) {
+			memory = pool.acquire(Math.max(capacity, initialCapacity));
+		} else if (memory.length < capacity) {
+			final byte[] larger = pool.acquire(Math.max(capacity, Math.min(memory.length * 2, memoryThreshold)));
+			System.arraycopy(memory, 0, larger, 0, count);
+			++generation;
+			pool.release(memory);
+			memory = larger;
+		}
+		return true;
+	}
+
+	private boolean ensureDirectCapacity(int capacity) {
+		if (direct != null && direct.capacity() >= capacity) {
+			return true;
+		}
+		final int newCapacity = direct == null ? Math.max(capacity, initialCapacity) : Math.max(capacity, Math.min(direct.capacity() * 2, memoryThreshold));
+		final ByteBuffer larger = arena.acquire(newCapacity);
+		if (larger == null) {
+			return false;
+		}
+		if (direct != null) {
+			larger.put(0, direct, 0, count);
+			++generation;
+			arena.release(direct);
+		}
+		direct = larger;
+		return true;
+	}
+
+	private void spill() throws IOException {
+		final Path file = Files.createTempFile("libembosser", ".out");
+		spillFile = new SpillFile(file, new BufferedOutputStream(Files.newOutputStream(file)));
+		spillCleanable = CLEANER.register(this, spillFile);
+		if (direct != null) {
+			// Free the room in the arena for other jobs
+			Channels.newChannel(spillFile.output).write(direct.slice(0, count));
+			++generation;
+			arena.release(direct);
+			direct = null;
+		} else if (count > 0) {
+			spillFile.output.write(memory, 0, count);
+		}
+		count = 0;
+	}
+
+	/**
+	 * Get the output written since the buffer was last reset.
+	 * <p>
+	 * The source reads the buffer directly, so is only valid until the buffer is next written to or reset. Once the buffer is reset, or its memory is handed back to the pool or arena, reading the source throws IllegalStateException.
+	 */
+	ByteSource asByteSource() {
+		if (spillFile != null) {
+			try {
+				spillFile.output.flush();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return new GenerationByteSource(MoreFiles.asByteSource(spillFile.file), generation);
+		}
+		if (direct != null) {
+			return new GenerationByteSource(new DirectByteSource(direct.slice(0, count)), generation);
+		}
+		return memory == null ? ByteSource.empty() : new GenerationByteSource(ByteSource.wrap(memory).slice(0, count), generation);
+	}
+
+	/**
+	 * Discard the output, keeping the array for the next document.
+	 */
+	void reset() {
+		++generation;
+		count = 0;
+		if (spillCleanable != null) {
+			spillCleanable.clean();
+			spillCleanable = null;
+			spillFile = null;
+		}
+	}
+
+	/**
+	 * Discard the output and return the array to the pool, or the direct buffer to the arena.
+	 */
+	void release() {
+		reset();
+		if (memory != null) {
+			pool.release(memory);
+			memory = null;
+		}
+		if (direct != null) {
+			arena.release(direct);
+			direct = null;
+		}
+	}
+
+	/**
+	 * Source of the output of one generation of the buffer.
+	 */
+	private final class GenerationByteSource extends ByteSource {
+		private final ByteSource source;
+		private final int sourceGeneration;
+		GenerationByteSource(ByteSource source, int sourceGeneration) {
+			this.source = source;
+			this.sourceGeneration = sourceGeneration;
+		}
+		private void checkCurrent() {
+			checkState(generation == sourceGeneration, "The output has been discarded, it must be read before the handler is reset or used for another document");
+		}
+		@Override
+		public InputStream openStream() throws IOException {
+			checkCurrent();
+			return new FilterInputStream(source.openStream()) {
+				@Override
+				public int read() throws IOException {
+					checkCurrent();
+					return super.read();
+				}
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					checkCurrent();
+					return super.read(b, off, len);
+				}
+				@Override
+				public long skip(long n) throws IOException {
+					checkCurrent();
+					return super.skip(n);
+				}
+			};
+		}
+		@Override
+		public long size() throws IOException {
+			checkCurrent();
+			return source.size();
+		}
+		@Override
+		public Optional<Long> sizeIfKnown() {
+			checkCurrent();
+			return source.sizeIfKnown();
+		}
+		@Override
+		public long copyTo(OutputStream output) throws IOException {
+			checkCurrent();
+			return source.copyTo(output);
+		}
+	}
+
+	/**
+	 * Source reading the bytes of a direct buffer.
+	 */
+	private static final class DirectByteSource extends ByteSource {
+		private final ByteBuffer buffer;
+		DirectByteSource(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+		@Override
+		public InputStream openStream() {
+			final ByteBuffer input = buffer.duplicate();
+			return new InputStream() {
+				@Override
+				public int read() {
+					return input.hasRemaining() ? input.get() & 0xff : -1;
+				}
+				@Override
+				public int read(byte[] b, int off, int len) {
+					if (len == 0) {
+						return 0;
+					}
+					if (!input.hasRemaining()) {
+						return -1;
+					}
+					final int n = Math.min(len, input.remaining());
+					input.get(b, off, n);
+					return n;
+				}
+				@Override
+				public int available() {
+					return input.remaining();
+				}
+			};
+		}
+		@Override
+		public long size() {
+			return buffer.remaining();
+		}
+		@Override
+		public Optional<Long> sizeIfKnown() {
+			return Optional.of((long)buffer.remaining());
+		}
+		@Override
+		public long copyTo(OutputStream output) throws IOException {
+			return Channels.newChannel(output).write(buffer.duplicate());
+		}
+	}
+
+	/**
+	 * Closes and deletes the temporary file, either when the buffer is reset or when the buffer is no longer reachable.
+	 */
+	private static final class SpillFile implements Runnable {
+		private final Path file;
+		private final OutputStream output;
+		SpillFile(Path file, OutputStream output) {
+			this.file = file;
+			this.output = output;
+		}
+		@Override
+		public void run() {
+			try {
+				output.close();
+			} catch (IOException e) {
+				// Deleting the file matters more than any unwritten output
+			}
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				file.toFile().deleteOnExit();
+			}
+		}
+	}
+}
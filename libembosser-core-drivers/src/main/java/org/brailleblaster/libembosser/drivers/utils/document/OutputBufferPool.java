@@ -0,0 +1,132 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of byte arrays for the output buffers of document handlers.
+ * <p>
+ * Arrays are pooled in power of two sizes from MIN_BUFFER_SIZE to MAX_BUFFER_SIZE, a request being rounded up to the next size and met by a pooled array of that size when there is one. Handlers return their arrays when reset, so a service embossing many short jobs reuses the same few arrays rather than allocating new ones for each job. The total size of the pooled arrays is limited, arrays returned beyond the limit are left for the garbage collector.
+ */
+public final class OutputBufferPool {
+	/**
+	 * The smallest array given by the pool.
+	 */
+	public static final int MIN_BUFFER_SIZE = 4 * 1024;
+	/**
+	 * The largest array held by the pool, larger requests are allocated without pooling.
+	 */
+	public static final int MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+	/**
+	 * The limit of the default pool in bytes.
+	 */
+	public static final long DEFAULT_MAX_POOLED_BYTES = 64L * 1024 * 1024;
+	private static final OutputBufferPool DEFAULT = new OutputBufferPool(DEFAULT_MAX_POOLED_BYTES);
+	private final List<Queue<byte[]>> buckets;
+	private final long maxPooledBytes;
+	private final AtomicLong pooledBytes = new AtomicLong();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 * Create a pool.
+	 *
+	 * @param maxPooledBytes The largest total size of the arrays held by the pool.
+	 */
+	public OutputBufferPool(long maxPooledBytes) {
+		checkArgument(maxPooledBytes >= 0, "maxPooledBytes must not be negative");
+		this.maxPooledBytes = maxPooledBytes;
+		final int bucketCount = bucketOf(MAX_BUFFER_SIZE) + 1;
+		buckets = new ArrayList<>(bucketCount);
+		for (int i = 0; i < bucketCount; i++) {
+			buckets.add(new ConcurrentLinkedQueue<>());
+		}
+	}
+
+	/**
+	 * Get the pool shared by the whole process.
+	 *
+	 * @return The default pool.
+	 */
+	public static OutputBufferPool getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Get an array from the pool.
+	 *
+	 * @param minCapacity The smallest length the array must have.
+	 * @return An array of at least minCapacity bytes, the contents are undefined.
+	 */
+	public byte[] acquire(int minCapacity) {
+		checkArgument(minCapacity >= 0, "minCapacity must not be negative");
+		if (minCapacity > MAX_BUFFER_SIZE) {
+			missCount.incrementAndGet();
+			return new byte[minCapacity];
+		}
+		final int bucket = 32 - Integer.numberOfLeadingZeros(Math.max(minCapacity - 1, 0) / MIN_BUFFER_SIZE);
+		final byte[] pooled = buckets.get(bucket).poll();
+		if (pooled != null) {
+			pooledBytes.addAndGet(-pooled.length);
+			hitCount.incrementAndGet();
+			return pooled;
+		}
+		missCount.incrementAndGet();
+		return new byte[MIN_BUFFER_SIZE << bucket];
+	}
+
+	/**
+	 * Return an array to the pool.
+	 * <p>
+	 * The array must no longer be used by the caller.
+	 *
+	 * @param buffer The array to return.
+	 */
+	public void release(byte[] buffer) {
+		final int length = buffer.length;
+		if (length < MIN_BUFFER_SIZE || length > MAX_BUFFER_SIZE || Integer.bitCount(length) != 1) {
+			return;
+		}
+		if (pooledBytes.addAndGet(length) > maxPooledBytes) {
+			pooledBytes.addAndGet(-length);
+			return;
+		}
+		buckets.get(bucketOf(length)).offer(buffer);
+	}
+
+	private static int bucketOf(int length) {
+		return Integer.numberOfTrailingZeros(length / MIN_BUFFER_SIZE);
+	}
+
+	/**
+	 * Get the number of requests met by a pooled array.
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+	/**
+	 * Get the number of requests which needed a new array.
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+	/**
+	 * Get the total size of the arrays currently held by the pool.
+	 */
+	public long getPooledBytes() {
+		return pooledBytes.get();
+	}
+}
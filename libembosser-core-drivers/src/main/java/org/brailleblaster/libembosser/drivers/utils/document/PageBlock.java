@@ -0,0 +1,252 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.GraphicOption;
+import org.brailleblaster.libembosser.drivers.utils.document.events.PageOption;
+import org.brailleblaster.libembosser.drivers.utils.document.events.RowOption;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartGraphicEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartLineEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartPageEvent;
+
+/**
+ * A whole page of a document as a single block.
+ * <p>
+ * The block holds the events of the page from its StartPageEvent to its EndPageEvent along with the rows and graphics of the page and the options in effect for each, so a handler can process the page with a loop rather than receiving each event separately.
+ * <p>
+ * A block created with of is not changed afterwards. PageBlockCollector refills a single block, along with its rows and graphics, for each page it passes on, so a handler must not keep the block or its elements once onPage returns.
+ */
+public final class PageBlock {
+	/**
+	 * A row or graphic of a page.
+	 */
+	public static abstract class Element {
+		private OptionFrame frame;
+		private Element() {
+		}
+		/**
+		 * Get the options in effect for the element, including those of the enclosing page, section, volume and document.
+		 */
+		public OptionFrame getFrame() {
+			return frame;
+		}
+	}
+	public static final class Row extends Element {
+		private StartLineEvent start;
+		private final List<BrailleEvent> braille = new ArrayList<>();
+		private final List<BrailleEvent> brailleView = Collections.unmodifiableList(braille);
+		private Row() {
+		}
+		private Row fill(StartLineEvent start, OptionFrame frame) {
+			this.start = start;
+			super.frame = frame;
+			braille.clear();
+			return this;
+		}
+		public StartLineEvent getStartEvent() {
+			return start;
+		}
+		public Set<RowOption> getOptions() {
+			return start.getOptions();
+		}
+		/**
+		 * Get the Braille of the row, usually there is a single event for each row.
+		 */
+		public List<BrailleEvent> getBraille() {
+			return brailleView;
+		}
+	}
+	public static final class Graphic extends Element {
+		private StartGraphicEvent start;
+		private final List<Row> rows = new ArrayList<>();
+		private final List<Row> rowsView = Collections.unmodifiableList(rows);
+		private Graphic() {
+		}
+		private Graphic fill(StartGraphicEvent start, OptionFrame frame) {
+			this.start = start;
+			super.frame = frame;
+			rows.clear();
+			return this;
+		}
+		public StartGraphicEvent getStartEvent() {
+			return start;
+		}
+		public Set<GraphicOption> getOptions() {
+			return start.getOptions();
+		}
+		/**
+		 * Get the rows of Braille placed over the graphic.
+		 */
+		public List<Row> getRows() {
+			return rowsView;
+		}
+	}
+
+	private final List<DocumentEvent> events = new ArrayList<>();
+	private final List<DocumentEvent> eventsView = Collections.unmodifiableList(events);
+	private OptionFrame frame;
+	private final List<Element> elements = new ArrayList<>();
+	private final List<Element> elementsView = Collections.unmodifiableList(elements);
+	private final List<Row> rows = new ArrayList<>();
+	private final List<Row> rowsView = Collections.unmodifiableList(rows);
+	private boolean otherEvents;
+	// Rows and graphics of earlier pages, filled again rather than created for each page
+	private final List<Row> spareRows = new ArrayList<>();
+	private final List<Graphic> spareGraphics = new ArrayList<>();
+
+	PageBlock() {
+	}
+
+	/**
+	 * Create a block from the events of a page.
+	 * 
+	 * @param enclosing The options in effect outside the page.
+	 * @param events The events of the page, starting with a StartPageEvent and ending with an EndPageEvent.
+	 * @return The block of the page.
+	 * @throws IllegalArgumentException When the events are not a single well formed page.
+	 */
+	public static PageBlock of(OptionFrame enclosing, List<? extends DocumentEvent> events) {
+		final PageBlock block = new PageBlock();
+		checkArgument(block.fill(checkNotNull(enclosing), events), "Events are not a well formed page");
+		return block;
+	}
+
+	/**
+	 * Fill the block with the events of a page, reusing the rows and graphics of the page previously held.
+	 * 
+	 * @return Whether the events are a well formed page, when not the content of the block is undefined.
+	 */
+	boolean fill(OptionFrame enclosing, List<? extends DocumentEvent> events) {
+		this.events.clear();
+		elements.clear();
+		rows.clear();
+		otherEvents = false;
+		final int size = events.size();
+		if (size < 2 || !(events.get(0) instanceof StartPageEvent) || !(events.get(size - 1) instanceof EndPageEvent)) {
+			return false;
+		}
+		frame = enclosing.push(((StartPageEvent)events.get(0)).getOptions());
+		int graphicCount = 0;
+		Graphic graphic = null;
+		Row row = null;
+		for (int i = 1; i < size - 1; i++) {
+			final DocumentEvent event = events.get(i);
+			switch (event.getKind()) {
+			case START_LINE:
+				if (row != null) {
+					return false;
+				}
+				final StartLineEvent lineStart = (StartLineEvent)event;
+				if (rows.size() == spareRows.size()) {
+					spareRows.add(new Row());
+				}
+				row = spareRows.get(rows.size()).fill(lineStart, (graphic != null ? graphic.getFrame() : frame).push(lineStart.getOptions()));
+				break;
+			case BRAILLE:
+				if (row == null) {
+					return false;
+				}
+				row.braille.add((BrailleEvent)event);
+				break;
+			case END_LINE:
+				if (row == null) {
+					return false;
+				}
+				rows.add(row);
+				if (graphic != null) {
+					graphic.rows.add(row);
+				} else {
+					elements.add(row);
+				}
+				row = null;
+				break;
+			case START_GRAPHIC:
+				if (row != null || graphic != null) {
+					return false;
+				}
+				final StartGraphicEvent graphicStart = (StartGraphicEvent)event;
+				if (graphicCount == spareGraphics.size()) {
+					spareGraphics.add(new Graphic());
+				}
+				graphic = spareGraphics.get(graphicCount++).fill(graphicStart, frame.push(graphicStart.getOptions()));
+				break;
+			case END_GRAPHIC:
+				if (row != null || graphic == null) {
+					return false;
+				}
+				elements.add(graphic);
+				graphic = null;
+				break;
+			case OTHER:
+				otherEvents = true;
+				break;
+			default:
+				return false;
+			}
+		}
+		if (row != null || graphic != null) {
+			return false;
+		}
+		this.events.addAll(events);
+		return true;
+	}
+
+	public StartPageEvent getStartEvent() {
+		return (StartPageEvent)events.get(0);
+	}
+	public EndPageEvent getEndEvent() {
+		return (EndPageEvent)events.get(events.size() - 1);
+	}
+	public Set<PageOption> getOptions() {
+		return getStartEvent().getOptions();
+	}
+	/**
+	 * Get the options in effect for the page, including those of the enclosing section, volume and document.
+	 */
+	public OptionFrame getFrame() {
+		return frame;
+	}
+	/**
+	 * Get the rows and graphics of the page in the order they appear.
+	 */
+	public List<Element> getElements() {
+		return elementsView;
+	}
+	/**
+	 * Get every row of the page in order, including the rows placed over graphics.
+	 */
+	public List<Row> getRows() {
+		return rowsView;
+	}
+	/**
+	 * Get the events of the page, from the StartPageEvent to the EndPageEvent.
+	 */
+	public List<DocumentEvent> getEvents() {
+		return eventsView;
+	}
+	/**
+	 * Whether the page contains events not defined by this library.
+	 * <p>
+	 * Such events are only held in getEvents, so handlers which need to see them should process the events rather than the rows.
+	 */
+	public boolean hasOtherEvents() {
+		return otherEvents;
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.brailleblaster.libembosser.drivers.utils.DocumentHandler;
+import org.brailleblaster.libembosser.drivers.utils.PageBlockHandler;
+import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.OptionEvent;
+
+/**
+ * Handler grouping the events of each page in to a PageBlock for a page handler.
+ * <p>
+ * The same block is filled with each page, so the page handler must not keep it after onPage returns.
+ * <p>
+ * Events outside of pages are passed straight on. Should the events of a page not form a well formed page, or a page not be ended before its section, the events are passed on individually so the page handler reports or ignores them as it would without the collector.
+ */
+public class PageBlockCollector implements DocumentHandler {
+	private final PageBlockHandler handler;
+	private final List<DocumentEvent> pageEvents = new ArrayList<>();
+	// Filled again for each page, so a page does not allocate a new block and rows
+	private final PageBlock page = new PageBlock();
+	private OptionFrame frame = OptionFrame.root();
+	private boolean inPage = false;
+
+	public PageBlockCollector(PageBlockHandler handler) {
+		this.handler = checkNotNull(handler);
+	}
+
+	@Override
+	public void onEvent(DocumentEvent event) {
+		switch (event.getKind()) {
+		case START_PAGE:
+			if (inPage) {
+				passPageEvents();
+			}
+			inPage = true;
+			pageEvents.add(event);
+			break;
+		case END_PAGE:
+			if (inPage) {
+				pageEvents.add(event);
+				if (page.fill(frame, pageEvents)) {
+					pageEvents.clear();
+					inPage = false;
+					handler.onPage(page);
+				} else {
+					passPageEvents();
+				}
+			} else {
+				handler.onEvent(event);
+			}
+			break;
+		case START_DOCUMENT:
+		case START_VOLUME:
+		case START_SECTION:
+		case END_SECTION:
+		case END_VOLUME:
+		case END_DOCUMENT:
+			if (inPage) {
+				passPageEvents();
+			}
+			updateFrame(event);
+			handler.onEvent(event);
+			break;
+		default:
+			if (inPage) {
+				pageEvents.add(event);
+			} else {
+				handler.onEvent(event);
+			}
+		}
+	}
+
+	/**
+	 * Pass on the events of a page which has not ended.
+	 * <p>
+	 * Call this once the events of a document have all been given, so a document ending part way through a page is handled as it would be without the collector.
+	 */
+	public void flush() {
+		if (inPage) {
+			passPageEvents();
+		}
+	}
+
+	private void passPageEvents() {
+		for (DocumentEvent event: pageEvents) {
+			handler.onEvent(event);
+		}
+		pageEvents.clear();
+		inPage = false;
+	}
+
+	private void updateFrame(DocumentEvent event) {
+		switch (event.getKind()) {
+		case START_DOCUMENT:
+			frame = OptionFrame.root().push(((OptionEvent)event).getOptions());
+			break;
+		case START_VOLUME:
+		case START_SECTION:
+			frame = frame.push(((OptionEvent)event).getOptions());
+			break;
+		default:
+			if (frame != OptionFrame.root()) {
+				frame = frame.pop();
+			}
+		}
+	}
+
+	@Override
+	public boolean isComplete() {
+		return handler.isComplete();
+	}
+}
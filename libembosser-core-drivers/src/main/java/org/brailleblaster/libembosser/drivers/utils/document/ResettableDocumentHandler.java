@@ -0,0 +1,23 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import org.brailleblaster.libembosser.drivers.utils.DocumentHandler;
+
+/**
+ * A document handler which can be used for more than one document.
+ */
+public interface ResettableDocumentHandler extends DocumentHandler {
+	/**
+	 * Return the handler to the state for starting a new document.
+	 * <p>
+	 * This can be called whatever state the previous document left the handler in, such as after a parse error. Any output held by the handler is released, so output got from the handler before it was reset must not be read afterwards.
+	 */
+	void reset();
+}
@@ -0,0 +1,42 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import org.brailleblaster.libembosser.drivers.utils.DocumentToByteSourceHandler;
+import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
+
+/**
+ * A handler which can write its output as the document is processed.
+ * <p>
+ * Rather than building the whole output for asByteSource, the output for each page is written to a stream once the page ends. This allows the embosser to start on the first page whilst later pages are still being processed.
+ */
+public interface StreamingDocumentHandler extends DocumentToByteSourceHandler {
+	/**
+	 * Whether the output can be streamed.
+	 * <p>
+	 * Some output, such as multiple copies of the document, needs the whole document to be processed before it can be written. Such handlers should be used through asByteSource.
+	 * 
+	 * @return True if streamTo can be used.
+	 */
+	boolean isStreamable();
+	/**
+	 * Process the events of a document writing the output to a stream.
+	 * <p>
+	 * The output is the same as asByteSource would give after the events had been passed to onEvent. The stream is not closed.
+	 * 
+	 * @param events The events of the document.
+	 * @param output The stream to write the output to.
+	 * @throws IOException When there is a problem writing to the stream.
+	 */
+	void streamTo(Iterator<DocumentEvent> events, OutputStream output) throws IOException;
+}
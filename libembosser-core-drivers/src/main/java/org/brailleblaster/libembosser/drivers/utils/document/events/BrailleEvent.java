@@ -8,18 +8,86 @@
 
 package org.brailleblaster.libembosser.drivers.utils.document.events;
 
+import static com.google.common.base.Preconditions.checkState;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Event containing the Braille of a line.
+ * <p>
+ * The Braille may either be held as a String or, when read from a BRF, as the bytes of the ASCII Braille. Handlers writing ASCII Braille can check isAsciiBraille and copy the bytes directly, getBraille will decode the bytes to a String when it is first called.
+ */
 public class BrailleEvent implements DocumentEvent {
 	private String braille;
+	private final byte[] asciiBraille;
 	public BrailleEvent(String braille) {
 		this.braille =braille;
+		this.asciiBraille = null;
+	}
+	private BrailleEvent(byte[] asciiBraille) {
+		this.braille = null;
+		this.asciiBraille = asciiBraille;
+	}
+	/**
+	 * Create a Braille event from ASCII Braille bytes.
+	 * 
+	 * @param buffer The buffer containing the ASCII Braille.
+	 * @param index The index in the buffer of the first byte of the Braille.
+	 * @param length The number of bytes of Braille.
+	 * @return A Braille event holding a copy of the ASCII Braille.
+	 */
+	public static BrailleEvent fromAscii(ByteBuffer buffer, int index, int length) {
+		final byte[] asciiBraille = new byte[length];
+		buffer.get(index, asciiBraille);
+		return new BrailleEvent(asciiBraille);
 	}
 	public String getBraille() {
+		if (braille == null && asciiBraille != null) {
+			braille = new String(asciiBraille, StandardCharsets.US_ASCII);
+		}
 		return braille;
 	}
+	/**
+	 * Whether the Braille of this event is held as ASCII Braille bytes.
+	 * 
+	 * @return True if the ASCII Braille methods can be used.
+	 */
+	public boolean isAsciiBraille() {
+		return asciiBraille != null;
+	}
+	/**
+	 * Get the number of bytes of ASCII Braille.
+	 * 
+	 * @return The length of the ASCII Braille.
+	 * @throws IllegalStateException When the event does not hold ASCII Braille.
+	 */
+	public int getAsciiLength() {
+		checkState(asciiBraille != null, "Event does not contain ASCII Braille");
+		return asciiBraille.length;
+	}
+	/**
+	 * Copy bytes of the ASCII Braille.
+	 * 
+	 * @param srcOffset The offset in the Braille of the first byte to copy.
+	 * @param dst The array to copy the bytes in to.
+	 * @param dstOffset The offset in dst to copy the first byte to.
+	 * @param length The number of bytes to copy.
+	 * @throws IllegalStateException When the event does not hold ASCII Braille.
+	 */
+	public void getAsciiBraille(int srcOffset, byte[] dst, int dstOffset, int length) {
+		checkState(asciiBraille != null, "Event does not contain ASCII Braille");
+		System.arraycopy(asciiBraille, srcOffset, dst, dstOffset, length);
+	}
+	@Override
+	public EventKind getKind() {
+		return EventKind.BRAILLE;
+	}
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
+		final String braille = getBraille();
 		result = prime * result + ((braille == null) ? 0 : braille.hashCode());
 		return result;
 	}
@@ -32,8 +100,9 @@ public class BrailleEvent implements DocumentEvent {
 		if (getClass() != obj.getClass())
 			return false;
 		BrailleEvent other = (BrailleEvent) obj;
+		final String braille = getBraille();
 		if (braille == null) {
-			return other.braille == null;
-		} else return braille.equals(other.braille);
+			return other.getBraille() == null;
+		} else return braille.equals(other.getBraille());
 	}
-}
\ No newline at end of file
+}
@@ -8,4 +8,13 @@
 
 package org.brailleblaster.libembosser.drivers.utils.document.events;
 
-public interface DocumentEvent {}
\ No newline at end of file
+public interface DocumentEvent {
+	/**
+	 * Get the kind of this event.
+	 * 
+	 * @return The kind of the event, OTHER for events not defined by this library.
+	 */
+	default EventKind getKind() {
+		return EventKind.OTHER;
+	}
+}
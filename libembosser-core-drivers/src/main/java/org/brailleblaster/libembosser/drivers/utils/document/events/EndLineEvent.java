@@ -9,6 +9,10 @@
 package org.brailleblaster.libembosser.drivers.utils.document.events;
 
 public class EndLineEvent implements DocumentEvent {
+	@Override
+	public EventKind getKind() {
+		return EventKind.END_LINE;
+	}
 	@Override
 	public boolean equals(Object obj) {
 		return obj != null && getClass().equals(obj.getClass());
@@ -9,6 +9,10 @@
 package org.brailleblaster.libembosser.drivers.utils.document.events;
 
 public class EndSectionEvent implements DocumentEvent {
+	@Override
+	public EventKind getKind() {
+		return EventKind.END_SECTION;
+	}
 	@Override
 	public boolean equals(Object obj) {
 		return obj != null && getClass().equals(obj.getClass());
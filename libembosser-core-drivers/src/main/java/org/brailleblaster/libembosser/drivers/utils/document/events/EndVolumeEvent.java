@@ -9,6 +9,10 @@
 package org.brailleblaster.libembosser.drivers.utils.document.events;
 
 public class EndVolumeEvent implements DocumentEvent {
+	@Override
+	public EventKind getKind() {
+		return EventKind.END_VOLUME;
+	}
 	@Override
 	public boolean equals(Object obj) {
 		return obj != null && getClass().equals(obj.getClass());
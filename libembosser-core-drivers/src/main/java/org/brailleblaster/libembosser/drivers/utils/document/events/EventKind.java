@@ -0,0 +1,34 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document.events;
+
+/**
+ * The kind of a document event.
+ * <p>
+ * Handlers can switch on or index tables by the kind of an event rather than testing its class against each event type.
+ */
+public enum EventKind {
+	START_DOCUMENT,
+	START_VOLUME,
+	START_SECTION,
+	START_PAGE,
+	START_LINE,
+	START_GRAPHIC,
+	BRAILLE,
+	END_LINE,
+	END_GRAPHIC,
+	END_PAGE,
+	END_SECTION,
+	END_VOLUME,
+	END_DOCUMENT,
+	/**
+	 * An event not defined by this library.
+	 */
+	OTHER
+}
@@ -8,6 +8,10 @@
 
 package org.brailleblaster.libembosser.drivers.utils.document.events;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.function.Supplier;
+
 public interface GraphicOption extends Option {
 
 	class Height extends BaseValueOption<Integer> implements GraphicOption {
@@ -22,9 +26,88 @@ public interface GraphicOption extends Option {
 		}
 	}
 
-	class ImageData extends BaseValueOption<java.awt.Image> implements GraphicOption {
+	/**
+	 * The image of a graphic.
+	 * <p>
+	 * The image may be given directly or be given as a loader, in which case the image is only decoded when getValue is first called. As images can be large, once the image is no longer needed it can be released and will be loaded again should it be needed later.
+	 */
+	class ImageData extends BaseOption implements ValueOption<java.awt.Image>, GraphicOption {
+		private final Supplier<java.awt.Image> loader;
+		private java.awt.Image image;
+		private boolean loaded;
 		public ImageData(java.awt.Image image) {
-			super(image);
+			this.loader = null;
+			this.image = image;
+			this.loaded = true;
+		}
+		/**
+		 * Create image data which loads the image when first needed.
+		 * 
+		 * @param loader Supplies the image, null may be supplied should the image not be loadable.
+		 */
+		public ImageData(Supplier<java.awt.Image> loader) {
+			this.loader = checkNotNull(loader);
+			this.image = null;
+			this.loaded = false;
+		}
+		/**
+		 * Get the image, loading it if required.
+		 * 
+		 * @return The image or null if the image could not be loaded.
+		 */
+		@Override
+		public synchronized java.awt.Image getValue() {
+			if (!loaded) {
+				image = loader.get();
+				loaded = true;
+			}
+			return image;
+		}
+		/**
+		 * Whether the image is currently held in memory.
+		 * 
+		 * @return True if the image has been loaded and not released.
+		 */
+		public synchronized boolean isLoaded() {
+			return loaded;
+		}
+		/**
+		 * Release the loaded image, along with any image prefetched but not yet taken.
+		 * <p>
+		 * This has no effect for an image which was not given as a loader.
+		 */
+		public synchronized void release() {
+			if (loader != null) {
+				image = null;
+				loaded = false;
+				if (loader instanceof PrefetchingLoader) {
+					((PrefetchingLoader)loader).release();
+				}
+			}
+		}
+		/**
+		 * Start loading the image in the background, should the loader support it.
+		 * <p>
+		 * Handlers call this shortly before the image is needed, such as when printing the page before it, so only the images of graphics which will be printed are decoded ahead of being needed.
+		 */
+		public synchronized void prefetch() {
+			if (!loaded && loader instanceof PrefetchingLoader) {
+				((PrefetchingLoader)loader).prefetch();
+			}
+		}
+		/**
+		 * A loader able to start loading the image before it is needed.
+		 */
+		public interface PrefetchingLoader extends Supplier<java.awt.Image> {
+			/**
+			 * Start loading the image, the image is then taken with get.
+			 */
+			void prefetch();
+			/**
+			 * Drop any image prefetched but not yet taken.
+			 */
+			default void release() {
+			}
 		}
 	}
 
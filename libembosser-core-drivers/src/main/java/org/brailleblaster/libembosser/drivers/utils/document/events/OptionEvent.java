@@ -12,7 +12,28 @@ import java.util.Set;
 
 public interface OptionEvent {
 	Set<? extends Option> getOptions();
-	default boolean optionsEquals(OptionEvent other){
+	/**
+	 * Whether the options of this event differ from those of another event.
+	 * 
+	 * @param other The event to compare against.
+	 * @return True if the options differ.
+	 */
+	default boolean optionsDiffer(OptionEvent other) {
+		if (getOptions() == other.getOptions()) {
+			// Interned option sets can be compared by identity, the same set never differs
+			return false;
+		}
 		return getOptions().size() != other.getOptions().size() && !getOptions().containsAll(other.getOptions());
 	}
+	/**
+	 * Whether the options of this event differ from those of another event.
+	 * 
+	 * @deprecated Despite its name this returns true when the options differ, use optionsDiffer instead.
+	 * @param other The event to compare against.
+	 * @return True if the options differ.
+	 */
+	@Deprecated
+	default boolean optionsEquals(OptionEvent other) {
+		return optionsDiffer(other);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,122 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document.events;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Canonical instances of options and option sets.
+ * <p>
+ * Options only compare equal by class, so options are interned by their class and value. Sets of options are interned by the class and value of their members, so documents repeating the same options on every page share a single immutable set which can be compared by identity. Only options extending BaseValueOption are interned, other options such as image data may be costly to get the value of.
+ * <p>
+ * The number of interned options and sets is limited, once the limit is reached further options and sets are returned without being interned.
+ */
+public final class OptionInterner {
+	private static final int MAX_ENTRIES = 4096;
+	private static final OptionInterner DEFAULT = new OptionInterner();
+	private final ConcurrentMap<ValueKey, Option> options = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Set<ValueKey>, Set<? extends Option>> optionSets = new ConcurrentHashMap<>();
+
+	/**
+	 * Get the interner shared by the whole process.
+	 *
+	 * @return The default interner.
+	 */
+	public static OptionInterner getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Get the canonical instance of an option.
+	 *
+	 * @param option The option to intern.
+	 * @return The canonical instance with the same class and value as option.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Option> T intern(T option) {
+		if (!(option instanceof BaseValueOption)) {
+			return option;
+		}
+		final ValueKey key = new ValueKey((BaseValueOption<?>)option);
+		final Option existing = options.get(key);
+		if (existing != null) {
+			return (T)existing;
+		}
+		if (options.size() >= MAX_ENTRIES) {
+			return option;
+		}
+		final Option previous = options.putIfAbsent(key, option);
+		return previous != null ? (T)previous : option;
+	}
+
+	/**
+	 * Get the canonical immutable set of some options.
+	 *
+	 * @param members The options of the set.
+	 * @return An immutable set of the canonical instances of the options.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Option> Set<T> internSet(Collection<? extends T> members) {
+		if (members.isEmpty()) {
+			return ImmutableSet.of();
+		}
+		final ImmutableSet.Builder<ValueKey> keyBuilder = ImmutableSet.builderWithExpectedSize(members.size());
+		for (T member: members) {
+			if (!(member instanceof BaseValueOption)) {
+				return ImmutableSet.copyOf(members);
+			}
+			keyBuilder.add(new ValueKey((BaseValueOption<?>)member));
+		}
+		final Set<ValueKey> key = keyBuilder.build();
+		final Set<? extends Option> existing = optionSets.get(key);
+		if (existing != null) {
+			return (Set<T>)existing;
+		}
+		final ImmutableSet.Builder<T> setBuilder = ImmutableSet.builderWithExpectedSize(members.size());
+		for (T member: members) {
+			setBuilder.add(intern(member));
+		}
+		final Set<T> result = setBuilder.build();
+		if (optionSets.size() >= MAX_ENTRIES) {
+			return result;
+		}
+		final Set<? extends Option> previous = optionSets.putIfAbsent(key, result);
+		return previous != null ? (Set<T>)previous : result;
+	}
+
+	private static final class ValueKey {
+		private final Class<?> optionClass;
+		private final Object value;
+		ValueKey(BaseValueOption<?> option) {
+			this.optionClass = option.getClass();
+			this.value = option.getValue();
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof ValueKey)) {
+				return false;
+			}
+			final ValueKey other = (ValueKey)obj;
+			return optionClass.equals(other.optionClass) && Objects.equals(value, other.value);
+		}
+		@Override
+		public int hashCode() {
+			return 31 * optionClass.hashCode() + Objects.hashCode(value);
+		}
+	}
+}
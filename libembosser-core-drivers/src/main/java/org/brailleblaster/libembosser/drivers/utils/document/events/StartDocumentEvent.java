@@ -18,6 +18,10 @@ public class StartDocumentEvent extends BaseOptionEvent<DocumentOption> {
 		super(options);
 	}
 	@Override
+	public EventKind getKind() {
+		return EventKind.START_DOCUMENT;
+	}
+	@Override
 	public boolean equals(Object obj) {
 		if (obj == null) {
 			return false;
@@ -26,7 +30,7 @@ public class StartDocumentEvent extends BaseOptionEvent<DocumentOption> {
 			return false;
 		}
 		StartDocumentEvent other = (StartDocumentEvent)obj;
-		return !optionsEquals(other);
+		return !optionsDiffer(other);
 	}
 	@Override
 	public int hashCode() {
@@ -18,6 +18,10 @@ public class StartGraphicEvent extends BaseOptionEvent<GraphicOption> {
 		super(options);
 	}
 	@Override
+	public EventKind getKind() {
+		return EventKind.START_GRAPHIC;
+	}
+	@Override
 	public boolean equals(Object obj) {
 		if (obj == null) {
 			return false;
@@ -26,7 +30,7 @@ public class StartGraphicEvent extends BaseOptionEvent<GraphicOption> {
 			return false;
 		}
 		StartGraphicEvent other = (StartGraphicEvent)obj;
-		return !optionsEquals(other);
+		return !optionsDiffer(other);
 	}
 	@Override
 	public int hashCode() {
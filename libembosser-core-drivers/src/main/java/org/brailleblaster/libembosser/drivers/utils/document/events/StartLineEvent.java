@@ -18,6 +18,10 @@ public class StartLineEvent extends BaseOptionEvent<RowOption> {
 		super(options);
 	}
 	@Override
+	public EventKind getKind() {
+		return EventKind.START_LINE;
+	}
+	@Override
 	public boolean equals(Object obj) {
 		if (obj == null) {
 			return false;
@@ -26,7 +30,7 @@ public class StartLineEvent extends BaseOptionEvent<RowOption> {
 			return false;
 		}
 		StartLineEvent other = (StartLineEvent)obj;
-		return !optionsEquals(other);
+		return !optionsDiffer(other);
 	}
 	@Override
 	public int hashCode() {
@@ -18,6 +18,10 @@ public class StartPageEvent extends BaseOptionEvent<PageOption> {
 		super(options);
 	}
 	@Override
+	public EventKind getKind() {
+		return EventKind.START_PAGE;
+	}
+	@Override
 	public boolean equals(Object obj) {
 		if (obj == null) {
 			return false;
@@ -26,7 +30,7 @@ public class StartPageEvent extends BaseOptionEvent<PageOption> {
 			return false;
 		}
 		StartPageEvent other = (StartPageEvent)obj;
-		return !optionsEquals(other);
+		return !optionsDiffer(other);
 	}
 	@Override
 	public int hashCode() {
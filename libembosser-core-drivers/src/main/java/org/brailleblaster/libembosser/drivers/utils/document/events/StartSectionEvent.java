@@ -18,6 +18,10 @@ public class StartSectionEvent extends BaseOptionEvent<SectionOption> {
 		super(options);
 	}
 	@Override
+	public EventKind getKind() {
+		return EventKind.START_SECTION;
+	}
+	@Override
 	public boolean equals(Object obj) {
 		if (obj == null) {
 			return false;
@@ -26,7 +30,7 @@ public class StartSectionEvent extends BaseOptionEvent<SectionOption> {
 			return false;
 		}
 		StartSectionEvent other = (StartSectionEvent)obj;
-		return !optionsEquals(other);
+		return !optionsDiffer(other);
 	}
 	@Override
 	public int hashCode() {
@@ -18,6 +18,10 @@ public class StartVolumeEvent extends BaseOptionEvent<VolumeOption> {
 		super(options);
 	}
 	@Override
+	public EventKind getKind() {
+		return EventKind.START_VOLUME;
+	}
+	@Override
 	public boolean equals(Object obj) {
 		if (obj == null) {
 			return false;
@@ -26,7 +30,7 @@ public class StartVolumeEvent extends BaseOptionEvent<VolumeOption> {
 			return false;
 		}
 		StartVolumeEvent other = (StartVolumeEvent)obj;
-		return !optionsEquals(other);
+		return !optionsDiffer(other);
 	}
 	@Override
 	public int hashCode() {
@@ -8,7 +8,9 @@
 
 package org.brailleblaster.libembosser.drivers.utils.document.filters;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.function.Function;
@@ -19,6 +21,8 @@ import org.brailleblaster.libembosser.drivers.utils.document.events.EndPageEvent
 import org.brailleblaster.libembosser.drivers.utils.document.events.StartGraphicEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.StartPageEvent;
 
+import com.google.common.collect.AbstractIterator;
+
 /**
  * A document transform to ensure the back of a graphic is blank.
  * 
@@ -28,16 +32,32 @@ import org.brailleblaster.libembosser.drivers.utils.document.events.StartPageEve
 public class InterpointGraphicTransform implements Function<Iterator<DocumentEvent>, Iterator<DocumentEvent>> {
 	@Override
 	public Iterator<DocumentEvent> apply(Iterator<DocumentEvent> input) {
-		List<DocumentEvent> output = new ArrayList<>();
-		List<DocumentEvent> page = new ArrayList<>();
-		boolean inPage = false;
-		boolean pageHasGraphic = false;
-		boolean prevPageHasGraphic = false;
-		boolean pageHasContent = false;
-		boolean prevPageHasContent = false;
-		int pageCounter = 0;
-		while (input.hasNext()) {
-			final DocumentEvent event = input.next();
+		return new InterpointGraphicIterator(input);
+	}
+	/**
+	 * Applies the transform as events are requested, only the events of the current page are held.
+	 */
+	private static class InterpointGraphicIterator extends AbstractIterator<DocumentEvent> {
+		private final Iterator<DocumentEvent> input;
+		private final Deque<DocumentEvent> output = new ArrayDeque<>();
+		private final List<DocumentEvent> page = new ArrayList<>();
+		private boolean inPage = false;
+		private boolean pageHasGraphic = false;
+		private boolean prevPageHasGraphic = false;
+		private boolean pageHasContent = false;
+		private boolean prevPageHasContent = false;
+		private int pageCounter = 0;
+		private InterpointGraphicIterator(Iterator<DocumentEvent> input) {
+			this.input = input;
+		}
+		@Override
+		protected DocumentEvent computeNext() {
+			while (output.isEmpty() && input.hasNext()) {
+				processEvent(input.next());
+			}
+			return output.isEmpty() ? endOfData() : output.remove();
+		}
+		private void processEvent(DocumentEvent event) {
 			if (event instanceof StartPageEvent) {
 				pageCounter++;
 				page.clear();
@@ -64,11 +84,11 @@ public class InterpointGraphicTransform implements Function<Iterator<DocumentEve
 					pageCounter++;
 				}
 				output.addAll(page);
+				page.clear();
 				prevPageHasGraphic = pageHasGraphic;
 				prevPageHasContent = pageHasContent;
 				inPage = false;
 			}
 		}
-		return output.iterator();
 	}
 }
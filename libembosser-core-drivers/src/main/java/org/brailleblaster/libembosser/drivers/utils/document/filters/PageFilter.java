@@ -10,49 +10,153 @@ package org.brailleblaster.libembosser.drivers.utils.document.filters;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.function.Function;
 
 import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndDocumentEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.EndPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndSectionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndVolumeEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.StartDocumentEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.StartPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartSectionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartVolumeEvent;
 import org.brailleblaster.libembosser.embossing.attribute.PageRanges;
 
-import com.google.common.collect.Iterators;
+import com.google.common.collect.AbstractIterator;
 
 /**
  * Filter document events based upon pages.
  * 
  * This transform will keep the events on the pages to be embossed whilst filtering out those which are not to be embossed. 
  * 
+ * Once the last page to be embossed has ended no later page can be kept, so the filter stops reading events and instead ends the open sections, volumes and document itself. Any volumes and sections after the last page are therefore not passed on.
+ * 
  * @author Michael Whapples
  *
  */
 public class PageFilter implements Function<Iterator<DocumentEvent>, Iterator<DocumentEvent>> {
 	private PageRanges pages;
+	private final int lastPage;
 	private int page = 0;
 	private boolean passOnEvents = true;
+	private boolean exhausted = false;
+	private final Deque<DocumentEvent> closingEvents = new ArrayDeque<>();
 	public PageFilter(PageRanges pages) {
 		this.pages = checkNotNull(pages);
+		this.lastPage = Arrays.stream(pages.getMembers()).mapToInt(r -> r[1]).max().orElse(0);
 	}
 
 	boolean retainEvent(DocumentEvent event) {
 		if (event instanceof StartDocumentEvent) {
 			page = 1;
 			passOnEvents = true;
+			exhausted = false;
+			closingEvents.clear();
+		} else if (exhausted) {
+			return false;
 		} else if (event instanceof StartPageEvent) {
 			passOnEvents = pages.contains(page);
 		}
+		trackClosingEvents(event);
 		boolean result = passOnEvents;
 		if (event instanceof EndPageEvent) {
 			passOnEvents = true;
+			exhausted = page >= lastPage;
 			++page;
 		}
 		return result;
 	}
+	private void trackClosingEvents(DocumentEvent event) {
+		if (event instanceof StartDocumentEvent) {
+			closingEvents.push(new EndDocumentEvent());
+		} else if (event instanceof StartVolumeEvent) {
+			closingEvents.push(new EndVolumeEvent());
+		} else if (event instanceof StartSectionEvent) {
+			closingEvents.push(new EndSectionEvent());
+		} else if ((event instanceof EndDocumentEvent || event instanceof EndVolumeEvent || event instanceof EndSectionEvent) && !closingEvents.isEmpty()) {
+			closingEvents.pop();
+		}
+	}
+	/**
+	 * Whether the last page to keep has ended.
+	 * 
+	 * Once exhausted no further events from the document will be kept, the open sections, volumes and document should be ended with the events from pollClosingEvent.
+	 */
+	boolean isExhausted() {
+		return exhausted;
+	}
+	/**
+	 * Get the next event to end the sections, volumes and document open when the filter was exhausted.
+	 * 
+	 * @return The next closing event or null when all have been given.
+	 */
+	DocumentEvent pollClosingEvent() {
+		return exhausted ? closingEvents.poll() : null;
+	}
 	@Override
 	public Iterator<DocumentEvent> apply(Iterator<DocumentEvent> doc) {
-		return Iterators.filter(doc, this::retainEvent);
+		return new AbstractIterator<DocumentEvent>() {
+			@Override
+			protected DocumentEvent computeNext() {
+				while (!exhausted && doc.hasNext()) {
+					final DocumentEvent event = doc.next();
+					if (retainEvent(event)) {
+						return event;
+					}
+				}
+				final DocumentEvent closingEvent = pollClosingEvent();
+				return closingEvent != null ? closingEvent : endOfData();
+			}
+		};
+	}
+	/**
+	 * Get the pages kept by the filter.
+	 * 
+	 * @return The page ranges of the pages to keep.
+	 */
+	public PageRanges getPages() {
+		return pages;
+	}
+	/**
+	 * Whether the filter will keep all pages.
+	 * 
+	 * @return True if the page ranges contain every page.
+	 */
+	public boolean isUnrestricted() {
+		return Arrays.stream(pages.getMembers()).anyMatch(r -> r[0] <= 1 && r[1] == Integer.MAX_VALUE);
+	}
+	@Override
+	public <V> FilteredHandler<V> andThen(Function<? super Iterator<DocumentEvent>, ? extends V> after) {
+		return new FilteredHandler<>(this, after);
+	}
+	/**
+	 * A handler which is passed the events kept by a page filter.
+	 * <p>
+	 * This is the result of PageFilter.andThen, unlike the function Function.andThen would give the filter and handler can be got so that an embosser can see what the handler is and whether the filter will remove any pages.
+	 *
+	 * @param <V> The result type of the handler.
+	 */
+	public static final class FilteredHandler<V> implements Function<Iterator<DocumentEvent>, V> {
+		private final PageFilter filter;
+		private final Function<? super Iterator<DocumentEvent>, ? extends V> handler;
+		private FilteredHandler(PageFilter filter, Function<? super Iterator<DocumentEvent>, ? extends V> handler) {
+			this.filter = filter;
+			this.handler = checkNotNull(handler);
+		}
+		public PageFilter getFilter() {
+			return filter;
+		}
+		public Function<? super Iterator<DocumentEvent>, ? extends V> getHandler() {
+			return handler;
+		}
+		@Override
+		public V apply(Iterator<DocumentEvent> doc) {
+			return handler.apply(filter.apply(doc));
+		}
 	}
 }
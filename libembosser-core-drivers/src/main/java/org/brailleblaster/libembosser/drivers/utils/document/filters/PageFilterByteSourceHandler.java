@@ -32,6 +32,13 @@ public class PageFilterByteSourceHandler implements DocumentToByteSourceHandler
 	public void onEvent(DocumentEvent event) {
 		if (filter.retainEvent(event)) {
 			delegate.onEvent(event);
+			for (DocumentEvent closingEvent = filter.pollClosingEvent(); closingEvent != null; closingEvent = filter.pollClosingEvent()) {
+				delegate.onEvent(closingEvent);
+			}
 		}
 	}
+	@Override
+	public boolean isComplete() {
+		return filter.isExhausted() || delegate.isComplete();
+	}
 }
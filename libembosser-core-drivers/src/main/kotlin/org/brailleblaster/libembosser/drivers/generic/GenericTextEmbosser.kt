@@ -46,7 +46,9 @@ class GenericTextEmbosser private constructor(id: String, model: String, maxPape
         return GenericTextEmbosser(id, model, maximumPaper, minimumPaper, addMargins, eol, eop, padWithBlanks, eopOnFullPage, header = header, footer = footer)
     }
 
-    override fun createHandler(attributes: EmbossingAttributeSet): Function<Iterator<DocumentEvent>, ByteSource> {
+    override fun createHandler(attributes: EmbossingAttributeSet): Function<Iterator<DocumentEvent>, ByteSource> = createHandler(attributes, GenericTextDocumentHandler.DEFAULT_SIZE_HINT)
+
+    override fun createHandler(attributes: EmbossingAttributeSet, sizeHint: Int): Function<Iterator<DocumentEvent>, ByteSource> {
         val cell = Optional.ofNullable(attributes[BrailleCellType::class.java]).map { v: Attribute -> (v as BrailleCellType).value }.orElse(BrlCell.NLS)
         val paper = Optional.ofNullable(attributes[PaperSize::class.java]).map { v: Attribute -> (v as PaperSize).value }.orElse(maximumPaper)
         val margins = Optional.ofNullable(attributes[PaperMargins::class.java]).map { v: Attribute -> (v as PaperMargins).value }.orElse(Margins.NO_MARGINS)
@@ -64,7 +66,7 @@ class GenericTextEmbosser private constructor(id: String, model: String, maxPape
             leftMarginCells = cell.getCellsForWidth(leftMargin)
         }
         val builder = GenericTextDocumentHandler.Builder()
-        builder.setTopMargin(topMarginCells).setLeftMargin(leftMarginCells).setCellsPerLine(cellsPerLine).setLinesPerPage(linesPerPage)
+        builder.setTopMargin(topMarginCells).setLeftMargin(leftMarginCells).setCellsPerLine(cellsPerLine).setLinesPerPage(linesPerPage).setSizeHint(sizeHint)
         attributes[Copies::class.java]?.let { builder.setCopies((it as Copies).value) }
         builder.setInterpoint(Optional.ofNullable(attributes[PaperLayout::class.java]).filter { p -> (p as PaperLayout).value == Layout.INTERPOINT }.isPresent).setEopOnFullPage(eopOnFullPage.boolean).setEndOfPage(eop.bytes).setEndOfLine(eol.bytes).padWithBlankLines(padWithBlanks.boolean).setHeader(header.bytes).setFooter(footer.bytes)
         val handler = builder.build()
@@ -10,17 +10,22 @@ package org.brailleblaster.libembosser.drivers.utils
 
 import com.google.common.collect.ImmutableSet
 import org.brailleblaster.libembosser.drivers.utils.DocumentToPrintableHandler.LayoutHelper
+import org.brailleblaster.libembosser.drivers.utils.document.DocumentEventReader
 import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent
 import org.brailleblaster.libembosser.drivers.utils.document.filters.InterpointGraphicTransform
 import org.brailleblaster.libembosser.drivers.utils.document.filters.PageFilter
 import org.brailleblaster.libembosser.embossing.attribute.*
 import org.brailleblaster.libembosser.embossing.attribute.PaperSize
 import org.brailleblaster.libembosser.spi.*
+import org.slf4j.LoggerFactory
 import org.w3c.dom.Document
 import java.awt.print.PrinterException
 import java.awt.print.PrinterJob
+import java.io.IOException
 import java.io.InputStream
+import java.nio.file.Path
 import java.util.*
+import java.util.concurrent.ForkJoinPool
 import java.util.function.Function
 import javax.print.DocFlavor
 import javax.print.PrintService
@@ -48,30 +53,85 @@ abstract class BaseGraphicsEmbosser protected constructor(private val id: String
     abstract fun getLayoutHelper(cell: BrlCell?): LayoutHelper
     @Throws(EmbossException::class)
     override fun embossPef(embosserDevice: PrintService, pef: Document, attributes: EmbossingAttributeSet) {
-        emboss(embosserDevice, pef, attributes, { inputDoc: Document, handler: DocumentHandler -> DocumentParser().parsePef(inputDoc, handler) })
+        emboss(embosserDevice, DocumentParser(imageDecodePool = IMAGE_DECODE_POOL).createPefReader(pef), attributes)
+    }
+
+    @Throws(EmbossException::class)
+    override fun embossPef(embosserDevice: PrintService, pef: InputStream, attributes: EmbossingAttributeSet) {
+        emboss(embosserDevice, DocumentParser(imageDecodePool = IMAGE_DECODE_POOL).createPefReader(pef), attributes)
     }
 
     @Throws(EmbossException::class)
     override fun embossBrf(embosserDevice: PrintService, brf: InputStream, attributes: EmbossingAttributeSet) {
-        emboss(embosserDevice, brf, attributes, { input: InputStream, handler: DocumentHandler -> DocumentParser().parseBrf(input, handler) })
+        emboss(embosserDevice, DocumentParser().createBrfReader(brf), attributes)
     }
 
     @Throws(EmbossException::class)
-    private fun <T> emboss(ps: PrintService, input: T, attributes: EmbossingAttributeSet, parseMethod: ThrowingBiConsumer<T, DocumentHandler, DocumentParser.ParseException>) {
-        val events: MutableList<DocumentEvent> = LinkedList()
-        try {
-            parseMethod.accept(input, DocumentHandler { e: DocumentEvent -> events.add(e) })
+    override fun embossPef(embosserDevice: PrintService, pef: Path, attributes: EmbossingAttributeSet) {
+        val reader = createIndexedReader(pef, PageIndex.Format.PEF, attributes)
+        if (reader != null) {
+            emboss(embosserDevice, reader, attributes, false)
+        } else {
+            super.embossPef(embosserDevice, pef, attributes)
+        }
+    }
+
+    @Throws(EmbossException::class)
+    override fun embossBrf(embosserDevice: PrintService, brf: Path, attributes: EmbossingAttributeSet) {
+        val indexedReader = createIndexedReader(brf, PageIndex.Format.BRF, attributes)
+        if (indexedReader != null) {
+            emboss(embosserDevice, indexedReader, attributes, false)
+            return
+        }
+        val reader = try {
+            DocumentParser().createBrfReader(brf)
         } catch (e: DocumentParser.ParseException) {
-            throw RuntimeException("Problem parsing document", e)
+            throw EmbossException("Problem reading the BRF file", e)
         }
+        emboss(embosserDevice, reader, attributes)
+    }
+
+    /**
+     * Create a reader of just the pages to emboss using the saved page index of a document.
+     *
+     * @return The reader, null if all pages are to be embossed or there is no current page index for the document.
+     */
+    @Throws(EmbossException::class)
+    private fun createIndexedReader(document: Path, format: PageIndex.Format, attributes: EmbossingAttributeSet): DocumentEventReader? {
+        val pages = attributes[PageRanges::class.java] as PageRanges? ?: return null
+        if (PageFilter(pages).isUnrestricted) {
+            return null
+        }
+        val index = try {
+            PageIndex.loadSidecar(document).orElse(null)
+        } catch (e: IOException) {
+            log.warn("Unable to load the page index of {}", document, e)
+            null
+        }
+        if (index == null || index.format != format) {
+            return null
+        }
+        return try {
+            DocumentParser(imageDecodePool = IMAGE_DECODE_POOL).createReader(document, index, pages)
+        } catch (e: DocumentParser.ParseException) {
+            throw EmbossException("Problem reading the document file", e)
+        }
+    }
+
+    @Throws(EmbossException::class)
+    private fun emboss(ps: PrintService, events: DocumentEventReader, attributes: EmbossingAttributeSet, filterPages: Boolean = true) {
         val duplex: PrintRequestAttribute = Optional.ofNullable(attributes[PaperLayout::class.java] as PaperLayout).filter { supportsInterpoint() }.filter { p: PaperLayout -> p.value.isDoubleSide }.map { Sides.TWO_SIDED_LONG_EDGE }.orElse(Sides.ONE_SIDED)
         val pages = Optional.ofNullable(attributes[PageRanges::class.java] as PageRanges).orElseGet { PageRanges() }
-        var transform: Function<Iterator<DocumentEvent?>?, Iterator<DocumentEvent?>?> = PageFilter(pages)
+        var transform: Function<Iterator<DocumentEvent?>?, Iterator<DocumentEvent?>?> = if (filterPages) PageFilter(pages) else Function.identity()
         if (DOUBLE_SIDED_MODES.contains(duplex)) {
             transform = transform.andThen(InterpointGraphicTransform())
         }
         val handler = transform.andThen(DocumentToPrintableHandler.Builder().setLayoutHelper(getLayoutHelper(BrlCell.NLS)).build())
-        val printable = handler.apply(events.iterator())
+        val printable = try {
+            events.use { handler.apply(it) }
+        } catch (e: DocumentParser.UncheckedParseException) {
+            throw EmbossException("Problem parsing document", e.cause)
+        }
         val printJob = PrinterJob.getPrinterJob()
         printJob.jobName = "BrailleBlasterEmboss"
         Optional.ofNullable(attributes[Copies::class.java]).map { v: Attribute -> (v as Copies).value }.ifPresent { copies -> printJob.copies = copies }
@@ -123,5 +183,11 @@ abstract class BaseGraphicsEmbosser protected constructor(private val id: String
 
     companion object {
         val DOUBLE_SIDED_MODES: Set<Sides> = ImmutableSet.of(Sides.DUPLEX, Sides.TWO_SIDED_LONG_EDGE, Sides.TUMBLE, Sides.TWO_SIDED_SHORT_EDGE)
+
+        /**
+         * Pool for decoding the images of tactile graphics in PEF documents, limited so large documents cannot take all the processors.
+         */
+        private val IMAGE_DECODE_POOL: ForkJoinPool by lazy { ForkJoinPool(minOf(4, Runtime.getRuntime().availableProcessors())) }
+        private val log = LoggerFactory.getLogger(BaseGraphicsEmbosser::class.java)
     }
 }
\ No newline at end of file
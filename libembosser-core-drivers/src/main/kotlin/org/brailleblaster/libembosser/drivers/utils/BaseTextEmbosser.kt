@@ -9,16 +9,41 @@
 package org.brailleblaster.libembosser.drivers.utils
 
 import com.google.common.io.ByteSource
+import com.google.common.io.ByteStreams
+import org.brailleblaster.libembosser.drivers.utils.document.BrfPassthroughHandler
+import org.brailleblaster.libembosser.drivers.utils.document.DocumentEventReader
+import org.brailleblaster.libembosser.drivers.utils.document.GenericTextDocumentHandler
+import org.brailleblaster.libembosser.drivers.utils.document.ResettableDocumentHandler
+import org.brailleblaster.libembosser.drivers.utils.document.StreamingDocumentHandler
 import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent
+import org.brailleblaster.libembosser.drivers.utils.document.filters.PageFilter
+import org.brailleblaster.libembosser.embossing.attribute.PageRanges
 import org.brailleblaster.libembosser.spi.EmbossException
 import org.brailleblaster.libembosser.spi.Embosser
 import org.brailleblaster.libembosser.spi.EmbossingAttributeSet
 import org.brailleblaster.libembosser.spi.Rectangle
+import org.brailleblaster.libembosser.utils.ByteBufferInputStream
 import org.brailleblaster.libembosser.utils.EmbossToStreamPrintServiceFactory
+import org.slf4j.LoggerFactory
 import org.w3c.dom.Document
+import java.io.ByteArrayInputStream
+import java.io.FilterInputStream
 import java.io.IOException
 import java.io.InputStream
+import java.io.OutputStream
+import java.io.PipedInputStream
+import java.io.PipedOutputStream
+import java.io.SequenceInputStream
+import java.io.UncheckedIOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
 import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.atomic.AtomicReference
 import java.util.function.Function
 import javax.print.*
 import javax.print.event.PrintJobEvent
@@ -51,32 +76,338 @@ abstract class BaseTextEmbosser(private val id: String, private val manufacturer
     }
 
     protected abstract fun createHandler(attributes: EmbossingAttributeSet): Function<Iterator<DocumentEvent>, ByteSource>
+
+    /**
+     * Create the handler for a job whose output is expected to be about a given size.
+     *
+     * By default the size is ignored and the handler is created by createHandler(EmbossingAttributeSet). Embossers whose handlers buffer their output can override this to size the buffer from the job.
+     *
+     * @param attributes The attributes of the job.
+     * @param sizeHint The expected size in bytes of the output, to size the output buffer of the handler.
+     * @return The handler to create the data to send to the embosser.
+     */
+    protected open fun createHandler(attributes: EmbossingAttributeSet, sizeHint: Int): Function<Iterator<DocumentEvent>, ByteSource> = createHandler(attributes)
     @Throws(EmbossException::class)
     override fun embossPef(embosserDevice: PrintService, pef: Document, attributes: EmbossingAttributeSet) {
-        val parser = DocumentParser()
-        emboss(embosserDevice, pef, { inputDoc: Document, handler: DocumentHandler -> parser.parsePef(inputDoc, handler) }, createHandler(attributes))
+        emboss(embosserDevice, DocumentParser().createPefReader(pef), createHandler(attributes, estimateOutputSize(attributes, null, PageIndex.Format.PEF)))
+    }
+
+    @Throws(EmbossException::class)
+    override fun embossPef(embosserDevice: PrintService, pef: InputStream, attributes: EmbossingAttributeSet) {
+        emboss(embosserDevice, DocumentParser().createPefReader(pef), createHandler(attributes, estimateOutputSize(attributes, null, PageIndex.Format.PEF)))
     }
 
     @Throws(EmbossException::class)
     override fun embossBrf(embosserDevice: PrintService, brf: InputStream, attributes: EmbossingAttributeSet) {
-        val parser = DocumentParser()
-        emboss(embosserDevice, brf, { input: InputStream, handler: DocumentHandler -> parser.parseBrf(input, handler) }, createHandler(attributes))
+        val handler = createHandler(attributes, estimateOutputSize(attributes, null, PageIndex.Format.BRF))
+        if (findPassthroughHandler(handler) == null) {
+            emboss(embosserDevice, DocumentParser().createBrfReader(brf), handler)
+            return
+        }
+        // Only a BRF small enough to hold in memory is passed through, a larger BRF is streamed through the document pipeline
+        val prefix = try {
+            ByteStreams.toByteArray(ByteStreams.limit(brf, BRF_PASSTHROUGH_LIMIT + 1L))
+        } catch (e: IOException) {
+            throw EmbossException("Problem reading the BRF", e)
+        }
+        if (prefix.size <= BRF_PASSTHROUGH_LIMIT && embossBrfPassthrough(embosserDevice, ByteBuffer.wrap(prefix), handler)) {
+            return
+        }
+        emboss(embosserDevice, DocumentParser().createBrfReader(SequenceInputStream(ByteArrayInputStream(prefix), brf)), handler)
     }
 
     @Throws(EmbossException::class)
-    protected fun <T> emboss(embosserDevice: PrintService, input: T, parseMethod: ThrowingBiConsumer<T, DocumentHandler, DocumentParser.ParseException>, handler: Function<Iterator<DocumentEvent>, ByteSource>): Boolean {
-        val events: MutableList<DocumentEvent> = LinkedList()
+    override fun embossPef(embosserDevice: PrintService, pef: Path, attributes: EmbossingAttributeSet) {
+        val handler = createHandler(attributes, estimateOutputSize(attributes, pef, PageIndex.Format.PEF))
+        if (embossIndexed(embosserDevice, pef, PageIndex.Format.PEF, handler)) {
+            return
+        }
         try {
-            parseMethod.accept(input, DocumentHandler { e: DocumentEvent -> events.add(e) })
+            FileChannel.open(pef, StandardOpenOption.READ).use { channel ->
+                emboss(embosserDevice, DocumentParser().createPefReader(ByteBufferInputStream.openMapped(channel)), handler)
+            }
+        } catch (e: IOException) {
+            throw EmbossException("Problem reading the PEF file", e)
+        }
+    }
+
+    @Throws(EmbossException::class)
+    override fun embossBrf(embosserDevice: PrintService, brf: Path, attributes: EmbossingAttributeSet) {
+        val handler = createHandler(attributes, estimateOutputSize(attributes, brf, PageIndex.Format.BRF))
+        if (embossIndexed(embosserDevice, brf, PageIndex.Format.BRF, handler)) {
+            return
+        }
+        if (findPassthroughHandler(handler) != null) {
+            try {
+                FileChannel.open(brf, StandardOpenOption.READ).use { channel ->
+                    val size = channel.size()
+                    if (size <= Int.MAX_VALUE && embossBrfPassthrough(embosserDevice, channel.map(FileChannel.MapMode.READ_ONLY, 0, size), handler)) {
+                        return
+                    }
+                }
+            } catch (e: IOException) {
+                throw EmbossException("Problem reading the BRF file", e)
+            }
+        }
+        val reader = try {
+            DocumentParser().createBrfReader(brf)
         } catch (e: DocumentParser.ParseException) {
-            throw EmbossException(e)
+            throw EmbossException("Problem reading the BRF file", e)
+        }
+        emboss(embosserDevice, reader, handler)
+    }
+
+    /**
+     * Emboss a BRF without parsing it in to document events.
+     *
+     * This is possible when the handler is a BrfPassthroughHandler, the handler is not filtering pages and the lines and pages of the BRF fit the page of the handler. Should any of these not be true then nothing is sent to the embosser and the BRF should be embossed through the document pipeline using emboss. When the output of the handler is streamable each page is sent to the embosser as it is written, as by emboss.
+     *
+     * @param embosserDevice The printer device representing the embosser.
+     * @param brf The buffer holding the BRF.
+     * @param handler The handler created for the job.
+     * @return True if the BRF was embossed, false if the BRF needs embossing through the document pipeline.
+     * @throws EmbossException Thrown if there is a problem embossing.
+     */
+    @Throws(EmbossException::class)
+    protected fun embossBrfPassthrough(embosserDevice: PrintService, brf: ByteBuffer, handler: Function<Iterator<DocumentEvent>, ByteSource>): Boolean {
+        val passthroughHandler = findPassthroughHandler(handler)
+        if (passthroughHandler == null || !passthroughHandler.fitsPage(brf)) {
+            log.debug("Embossing BRF on {} through the document pipeline", id)
+            return false
+        }
+        log.debug("Embossing BRF on {} by passthrough", id)
+        try {
+            if ((passthroughHandler as? StreamingDocumentHandler)?.isStreamable == true) {
+                embossThroughPipe(embosserDevice) { out -> passthroughHandler.streamBrf(brf, out) }
+            } else {
+                passthroughHandler.passthroughBrf(brf)
+                val embosserStream: InputStream = try {
+                    passthroughHandler.asByteSource().openStream()
+                } catch (e: IOException) {
+                    throw EmbossException(e)
+                }
+                embosserStream.use { embossStream(embosserDevice, it) }
+            }
+        } finally {
+            resetHandler(handler)
+        }
+        return true
+    }
+
+    /**
+     * Emboss only the wanted pages of a document using its saved page index.
+     *
+     * This is possible when the handler is filtering pages and a page index of the document which is still current has been saved alongside it. Only the regions of the document holding the wanted pages are parsed and passed to the handler the page filter wraps.
+     *
+     * @param embosserDevice The printer device representing the embosser.
+     * @param document The path of the document file.
+     * @param format The format of the document.
+     * @param handler The handler created for the job.
+     * @return True if the document was embossed, false if the whole document needs parsing.
+     * @throws EmbossException Thrown if there is a problem embossing.
+     */
+    @Throws(EmbossException::class)
+    protected fun embossIndexed(embosserDevice: PrintService, document: Path, format: PageIndex.Format, handler: Function<Iterator<DocumentEvent>, ByteSource>): Boolean {
+        val filtered = handler as? PageFilter.FilteredHandler<*> ?: return false
+        if (filtered.filter.isUnrestricted) {
+            return false
+        }
+        val index = try {
+            PageIndex.loadSidecar(document).orElse(null)
+        } catch (e: IOException) {
+            log.warn("Unable to load the page index of {}", document, e)
+            null
+        }
+        if (index == null || index.format != format) {
+            return false
+        }
+        log.debug("Embossing {} using its page index", document)
+        val reader = try {
+            DocumentParser().createReader(document, index, filtered.filter.pages)
+        } catch (e: DocumentParser.ParseException) {
+            throw EmbossException("Problem reading the document file", e)
+        }
+        @Suppress("UNCHECKED_CAST")
+        emboss(embosserDevice, reader, filtered.handler as Function<Iterator<DocumentEvent>, ByteSource>)
+        return true
+    }
+
+    /**
+     * Estimate the size of the output for a document, so the output buffer of the handler can be sized for it.
+     *
+     * The estimate is the smaller of that from the size of the document file and that from the number of pages to emboss, limited to the output a handler holds in memory.
+     *
+     * @param attributes The attributes of the job.
+     * @param document The path of the document file, null when the document is not a file.
+     * @param format The format of the document.
+     * @return The expected size in bytes of the output.
+     */
+    private fun estimateOutputSize(attributes: EmbossingAttributeSet, document: Path?, format: PageIndex.Format): Int {
+        var estimate = Long.MAX_VALUE
+        if (document != null) {
+            try {
+                val size = Files.size(document)
+                estimate = if (format == PageIndex.Format.PEF) size / PEF_BYTES_PER_OUTPUT_BYTE else size
+            } catch (e: IOException) {
+                log.debug("Unable to get the size of {}", document, e)
+            }
+        }
+        val pages = (attributes[PageRanges::class.java] as PageRanges?)?.members
+        if (pages != null && pages.none { it[1] == Int.MAX_VALUE }) {
+            estimate = minOf(estimate, pages.sumOf { it[1] - it[0] + 1L } * ESTIMATED_PAGE_SIZE)
         }
-        val embosserStream: InputStream = try {
-            handler.apply(events.iterator()).openStream()
+        return if (estimate == Long.MAX_VALUE) GenericTextDocumentHandler.DEFAULT_SIZE_HINT else estimate.coerceAtMost(GenericTextDocumentHandler.DEFAULT_MEMORY_THRESHOLD.toLong()).toInt()
+    }
+
+    private fun findPassthroughHandler(handler: Function<Iterator<DocumentEvent>, ByteSource>): BrfPassthroughHandler? = when (handler) {
+        is BrfPassthroughHandler -> handler
+        is PageFilter.FilteredHandler<*> -> if (handler.filter.isUnrestricted) handler.handler as? BrfPassthroughHandler else null
+        else -> null
+    }
+
+    /**
+     * Emboss a document by pulling its events through the handler.
+     *
+     * The handler reads events from the reader as it needs them, so the document is parsed as it is processed rather than being parsed in to a list of events first.
+     *
+     * @param embosserDevice The printer device representing the embosser.
+     * @param events The reader of the document events, this will be closed once the handler has finished with it.
+     * @param handler The handler to create the data to send to the embosser.
+     * @return True if the print job is successful false if there is a problem.
+     * @throws EmbossException Thrown if there is a problem parsing the document or embossing.
+     */
+    @Throws(EmbossException::class)
+    protected fun emboss(embosserDevice: PrintService, events: DocumentEventReader, handler: Function<Iterator<DocumentEvent>, ByteSource>): Boolean {
+        try {
+            val streamingHandler = findStreamingHandler(handler)
+            if (streamingHandler != null) {
+                val filter = (handler as? PageFilter.FilteredHandler<*>)?.filter
+                return embossStreaming(embosserDevice, events, filter, streamingHandler)
+            }
+            val embosserStream: InputStream = try {
+                events.use { handler.apply(it).openStream() }
+            } catch (e: DocumentParser.UncheckedParseException) {
+                throw EmbossException(e.cause)
+            } catch (e: UncheckedIOException) {
+                throw EmbossException(e.cause)
+            } catch (e: IOException) {
+                throw EmbossException(e)
+            }
+            return embosserStream.use { embossStream(embosserDevice, it) }
+        } finally {
+            resetHandler(handler)
+        }
+    }
+
+    /**
+     * Reset the handler once its output has been sent, so any buffers it holds can be reused.
+     */
+    private fun resetHandler(handler: Function<Iterator<DocumentEvent>, ByteSource>) {
+        val inner = if (handler is PageFilter.FilteredHandler<*>) handler.handler else handler
+        (inner as? ResettableDocumentHandler)?.reset()
+    }
+
+    /**
+     * Emboss a document whilst it is being processed.
+     *
+     * The handler writes each page on another thread in to a bounded pipe which is read by the print job. Should the embosser fall behind the handler blocks once the pipe is full, so only a pipe's worth of output is held in memory and the first page reaches the embosser without waiting for the rest of the document.
+     *
+     * @param embosserDevice The printer device representing the embosser.
+     * @param events The reader of the document events, this will be closed once the handler has finished with it.
+     * @param filter The page filter to apply to the events, if any.
+     * @param handler The handler to write the data to send to the embosser.
+     * @return True if the print job is successful false if there is a problem.
+     * @throws EmbossException Thrown if there is a problem parsing the document or embossing.
+     */
+    @Throws(EmbossException::class)
+    private fun embossStreaming(embosserDevice: PrintService, events: DocumentEventReader, filter: PageFilter?, handler: StreamingDocumentHandler): Boolean = embossThroughPipe(embosserDevice) { out ->
+        events.use { reader -> handler.streamTo(filter?.apply(reader) ?: reader, out) }
+    }
+
+    /**
+     * Send output to the embosser whilst it is being written.
+     *
+     * The output is written on another thread in to a bounded pipe which is read by the print job.
+     *
+     * @param embosserDevice The printer device representing the embosser.
+     * @param write Writes the output to the stream it is given.
+     * @return True if the print job is successful false if there is a problem.
+     * @throws EmbossException Thrown if there is a problem writing the output or embossing.
+     */
+    @Throws(EmbossException::class)
+    private fun embossThroughPipe(embosserDevice: PrintService, write: (OutputStream) -> Unit): Boolean {
+        val pipe = PipedInputStream(STREAMING_PIPE_SIZE)
+        val pipeOutput = try {
+            PipedOutputStream(pipe)
         } catch (e: IOException) {
             throw EmbossException(e)
         }
-        return embossStream(embosserDevice, embosserStream)
+        val writeFailure = AtomicReference<Throwable>()
+        val formatting = CompletableFuture.runAsync({
+            try {
+                write(pipeOutput)
+            } catch (e: Throwable) {
+                // Record the failure before closing the pipe so the print job sees an error rather than the end of the document
+                writeFailure.set(e)
+                throw if (e is IOException) CompletionException(e) else e
+            } finally {
+                pipeOutput.close()
+            }
+        }) { r -> Thread(r, "Embosser output").apply { isDaemon = true }.start() }
+        val input = IncompleteOutputInputStream(pipe, writeFailure)
+        var embossException: EmbossException? = null
+        val result = try {
+            input.use { embossStream(embosserDevice, it) }
+        } catch (e: EmbossException) {
+            embossException = e
+            false
+        }
+        try {
+            formatting.join()
+        } catch (e: CompletionException) {
+            // Once the print job fails the pipe is closed causing the handler to fail, so report the print job problem
+            // unless the print job only failed because the handler did not complete the document.
+            if (!input.incomplete) {
+                embossException?.let { throw it }
+            }
+            val cause = e.cause
+            throw EmbossException("Problem processing the document", if (cause is DocumentParser.UncheckedParseException) cause.cause else cause).apply {
+                embossException?.let { addSuppressed(it) }
+            }
+        }
+        embossException?.let { throw it }
+        return result
+    }
+
+    /**
+     * The print job's end of the streaming pipe.
+     *
+     * When the handler fails part way through the document the pipe ends early, so rather than reporting the end of
+     * the document, which would send a truncated job to the embosser, reading fails so the print job does not complete.
+     */
+    private class IncompleteOutputInputStream(input: InputStream, private val writeFailure: AtomicReference<Throwable>) : FilterInputStream(input) {
+        @Volatile
+        var incomplete = false
+            private set
+
+        override fun read(): Int = checkEnd(super.read())
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int = checkEnd(super.read(b, off, len))
+
+        private fun checkEnd(result: Int): Int {
+            if (result < 0) {
+                writeFailure.get()?.let {
+                    incomplete = true
+                    throw IOException("Output for the embosser was not completed", it)
+                }
+            }
+            return result
+        }
+    }
+
+    private fun findStreamingHandler(handler: Function<Iterator<DocumentEvent>, ByteSource>): StreamingDocumentHandler? {
+        val inner = if (handler is PageFilter.FilteredHandler<*>) handler.handler else handler
+        return (inner as? StreamingDocumentHandler)?.takeIf { it.isStreamable }
     }
 
     /**
@@ -94,6 +425,14 @@ abstract class BaseTextEmbosser(private val id: String, private val manufacturer
         try {
             dpj.print(doc, null)
         } catch (e: PrintException) {
+            // Do not leave a partially sent document to be embossed
+            if (dpj is CancelablePrintJob) {
+                try {
+                    dpj.cancel()
+                } catch (ce: PrintException) {
+                    e.addSuppressed(ce)
+                }
+            }
             throw EmbossException("Problem sending document to printer device", e)
         }
         dpj.addPrintJobListener(object : PrintJobListener {
@@ -130,5 +469,22 @@ abstract class BaseTextEmbosser(private val id: String, private val manufacturer
 
     companion object {
         const val ESC: Byte = 0x1B
+        /**
+         * Size of the pipe between the document handler and the print job when streaming.
+         */
+        const val STREAMING_PIPE_SIZE = 64 * 1024
+        /**
+         * The largest BRF read from a stream which will be passed through, larger BRFs are streamed through the document pipeline so they need not be held in memory.
+         */
+        const val BRF_PASSTHROUGH_LIMIT = 1024 * 1024
+        /**
+         * Size of the output for a page of 40 cells and 25 lines, used to estimate the output when only some pages are embossed.
+         */
+        private const val ESTIMATED_PAGE_SIZE = 40 * 25 + 2 * 25 + 1
+        /**
+         * The bytes of a PEF for each byte of output, as each cell is 3 bytes in UTF-8 and rows are marked up.
+         */
+        private const val PEF_BYTES_PER_OUTPUT_BYTE = 4
+        private val log = LoggerFactory.getLogger(BaseTextEmbosser::class.java)
     }
 }
\ No newline at end of file
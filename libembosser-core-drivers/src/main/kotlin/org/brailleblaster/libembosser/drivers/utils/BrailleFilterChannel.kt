@@ -0,0 +1,30 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.ReadableByteChannel
+
+/**
+ * Channel converting lowercase ASCII Braille to uppercase as it is read.
+ *
+ * This is the channel equivalent of BrailleFilterInputStream. The bytes read are translated in place in the buffer given to read, so when reading a file in to a direct buffer the bytes are never copied on to the heap.
+ */
+class BrailleFilterChannel(private val channel: ReadableByteChannel) : ReadableByteChannel by channel {
+    @Throws(IOException::class)
+    override fun read(dst: ByteBuffer): Int {
+        val start = dst.position()
+        val n = channel.read(dst)
+        if (n > 0) {
+            BrailleFilterInputStream.translate(dst, start, n)
+        }
+        return n
+    }
+}
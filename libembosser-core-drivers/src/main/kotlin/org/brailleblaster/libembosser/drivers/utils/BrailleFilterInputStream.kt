@@ -11,40 +11,71 @@ package org.brailleblaster.libembosser.drivers.utils
 import java.io.FilterInputStream
 import java.io.IOException
 import java.io.InputStream
+import java.nio.ByteBuffer
+import java.util.Objects
 
+/**
+ * Input stream converting lowercase ASCII Braille to uppercase as it is read.
+ */
 class BrailleFilterInputStream(arg0: InputStream?) : FilterInputStream(arg0) {
-    private fun translate(b: Byte): Byte {
-        return if (0xff and b.toInt() in 0x60..0x7f) {
-            (b - 0x20).toByte()
-        } else {
-            b
-        }
-    }
-
     @Throws(IOException::class)
     override fun read(): Int {
-        var result = super.read()
-        if (result in 0..255) {
-            result = java.lang.Byte.toUnsignedInt(translate(result.toByte()))
-        }
-        return result
+        val result = super.read()
+        return if (result < 0) result else TABLE[result].toInt() and 0xff
     }
 
+    // FilterInputStream.read(ByteArray) reads through this method, so needs no override of its own.
     @Throws(IOException::class)
-    override fun read(b: ByteArray): Int {
-        val n = super.read(b)
-        for (i in 0 until n) {
-            b[i] = translate(b[i])
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        val n = super.read(b, off, len)
+        if (n > 0) {
+            translate(b, off, n)
         }
         return n
     }
 
-    @Throws(IOException::class)
-    override fun read(b: ByteArray, off: Int, len: Int): Int {
-        val n = super.read(b, off, len)
-        for (i in 0 until n) {
-            b[i] = translate(b[i])
+    companion object {
+        /**
+         * The translation of every byte value, lowercase ASCII Braille 0x60 to 0x7f becomes 0x40 to 0x5f and all other bytes are unchanged.
+         */
+        private val TABLE = ByteArray(256) { i -> (if (i in 0x60..0x7f) i - 0x20 else i).toByte() }
+
+        /**
+         * Translate a region of an array in place.
+         *
+         * @param b The array of bytes.
+         * @param off The index of the first byte to translate.
+         * @param len The number of bytes to translate.
+         */
+        @JvmStatic
+        fun translate(b: ByteArray, off: Int, len: Int) {
+            Objects.checkFromIndexSize(off, len, b.size)
+            val table = TABLE
+            for (i in off until off + len) {
+                b[i] = table[b[i].toInt() and 0xff]
+            }
+        }
+
+        /**
+         * Translate a region of a buffer in place.
+         *
+         * Absolute gets and puts are used, so the position and limit of the buffer are unchanged. Buffers backed by an array are translated through the array, direct buffers are translated without copying the bytes on to the heap.
+         *
+         * @param buffer The buffer to translate.
+         * @param index The index of the first byte to translate.
+         * @param len The number of bytes to translate.
+         */
+        @JvmStatic
+        fun translate(buffer: ByteBuffer, index: Int, len: Int) {
+            Objects.checkFromIndexSize(index, len, buffer.limit())
+            if (buffer.hasArray()) {
+                translate(buffer.array(), buffer.arrayOffset() + index, len)
+            } else {
+                val table = TABLE
+                for (i in index until index + len) {
+                    buffer.put(i, table[buffer.get(i).toInt() and 0xff])
+                }
+            }
         }
-        return n
     }
-}
\ No newline at end of file
+}
@@ -8,12 +8,14 @@
 
 package org.brailleblaster.libembosser.drivers.utils
 
-import com.google.common.base.Charsets
 import com.google.common.collect.ImmutableSet
-import com.google.common.collect.Streams
 import com.google.common.io.BaseEncoding
+import com.google.common.io.ByteStreams
+import org.brailleblaster.libembosser.drivers.utils.document.DocumentEventReader
 import org.brailleblaster.libembosser.drivers.utils.document.events.*
 import org.brailleblaster.libembosser.drivers.utils.document.events.GraphicOption.*
+import org.brailleblaster.libembosser.embossing.attribute.PageRanges
+import org.brailleblaster.libembosser.utils.ByteBufferInputStream
 import org.brailleblaster.libembosser.utils.PEFElementType
 import org.brailleblaster.libembosser.utils.PEFNamespaceContext
 import org.slf4j.Logger
@@ -21,14 +23,34 @@ import org.slf4j.LoggerFactory
 import org.w3c.dom.*
 import java.awt.Image
 import java.io.*
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
 import java.util.*
-import java.util.stream.Collectors
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinTask
 import javax.imageio.ImageIO
+import javax.xml.stream.XMLInputFactory
+import javax.xml.stream.XMLStreamConstants
+import javax.xml.stream.XMLStreamException
+import javax.xml.stream.XMLStreamReader
 import javax.xml.xpath.XPathConstants
 import javax.xml.xpath.XPathExpressionException
 import javax.xml.xpath.XPathFactory
 
-class DocumentParser {
+/**
+ * Parser of BRF and PEF documents in to document events.
+ *
+ * @param mappedWindowSize The largest region of a BRF file which will be memory mapped at a time when parsing from a Path.
+ * @param imageDecodePool When given, the image of a tactile graphic is decoded on this pool when a handler prefetches it, such as DocumentToPrintableHandler does whilst printing the page before. When null images are only decoded when the image data is first used.
+ * @param imageCache Cache for sharing decoded images between documents, by default the process wide cache. When null images are always decoded.
+ */
+class DocumentParser @JvmOverloads constructor(private val mappedWindowSize: Int = DEFAULT_MAPPED_WINDOW_SIZE, private val imageDecodePool: ForkJoinPool? = null, private val imageCache: ImageCache? = ImageCache.getDefault()) {
     class ParseException : Exception {
         constructor() : super()
         constructor(msg: String?) : super(msg)
@@ -43,6 +65,15 @@ class DocumentParser {
         }
     }
 
+    /**
+     * Unchecked wrapper of a ParseException, thrown by a DocumentEventReader when it cannot parse the document.
+     */
+    class UncheckedParseException(override val cause: ParseException) : RuntimeException(cause) {
+        companion object {
+            private const val serialVersionUID = 4711584935026357452L
+        }
+    }
+
     /**
      * Parse the BRF passing the document events to handler.
      *
@@ -52,144 +83,148 @@ class DocumentParser {
      */
     @Throws(ParseException::class)
     fun parseBrf(input: InputStream, handler: DocumentHandler) {
-        val bufferedInput: InputStream = BufferedInputStream(input)
-        val lineBuffer = ByteArrayOutputStream(100)
-        var newLines = 0
-        var newPages = 0
-        var prevByte = -1
-        handler.onEvent(StartDocumentEvent())
-        handler.onEvent(StartVolumeEvent())
-        handler.onEvent(StartSectionEvent())
-        handler.onEvent(StartPageEvent())
-        var readByte: Int
-        try {
-            while (bufferedInput.read().also { readByte = it } >= 0) {
-                when (readByte) {
-                        0xc -> {
-                        newLines = 0
-                        ++newPages
-                        createLineEvents(handler, lineBuffer)
-                    }
-                    0xa -> if (prevByte != 0xd) {
-                        ++newLines
-                        createLineEvents(handler, lineBuffer)
-                    }
-                    0xd -> {
-                        ++newLines
-                        createLineEvents(handler, lineBuffer)
-                    }
-                    else -> {
-                        while (newPages > 0) {
-                            handler.onEvent(EndPageEvent())
-                            handler.onEvent(StartPageEvent())
-                            --newPages
-                        }
-                        while (newLines > 1) {
-                            handler.onEvent(StartLineEvent())
-                            handler.onEvent(EndLineEvent())
-                            --newLines
-                        }
-                        newLines = 0
-                        lineBuffer.write(readByte)
-                    }
-                }
-                prevByte = readByte
-            }
-            createLineEvents(handler, lineBuffer)
-        } catch (e: IOException) {
-            throw ParseException(e)
-        }
-        handler.onEvent(EndPageEvent())
-        handler.onEvent(EndSectionEvent())
-        handler.onEvent(EndVolumeEvent())
-        handler.onEvent(EndDocumentEvent())
+        walk(BrfWalker(input, handler), handler)
     }
 
-    @Throws(UnsupportedEncodingException::class)
-    private fun createLineEvents(handler: DocumentHandler, lineBuffer: ByteArrayOutputStream) {
-        if (lineBuffer.size() > 0) {
-            handler.onEvent(StartLineEvent())
-            handler.onEvent(BrailleEvent(lineBuffer.toString(Charsets.US_ASCII.name())))
-            handler.onEvent(EndLineEvent())
-        }
-        lineBuffer.reset()
+    /**
+     * Parse a BRF file passing the document events to handler.
+     *
+     * The file is memory mapped and the mapped region scanned directly, large files are mapped a window at a time.
+     *
+     * @param brf The path of the BRF file.
+     * @param handler The handler to receive document events.
+     * @throws ParseException Thrown when there is a problem reading the file.
+     */
+    @Throws(ParseException::class)
+    fun parseBrf(brf: Path, handler: DocumentHandler) {
+        walk(BrfWalker(openMappedBrf(brf), handler), handler)
     }
 
     fun parsePef(inputDoc: Document, handler: DocumentHandler) {
-        val root = inputDoc.documentElement
-        if (root != null && Optional.of(PEFElementType.PEF) == PEFElementType.findElementType(root)) {
-            processPefElement(root, handler)
+        walk(PefDomWalker(inputDoc, handler), handler)
+    }
+
+    /**
+     * Parse a PEF from a stream passing the document events to handler.
+     *
+     * Unlike parsePef(Document, DocumentHandler) no DOM is built, the PEF is read with a XMLStreamReader and events are passed to the handler as the elements are read. This means memory use is bounded by a single row rather than by the whole document. Where a tg:graphic refers to tg:imageData which comes later in the document, such as tg:images following the body, the graphic is still passed on straight away with image data which is resolved once the tg:imageData has been read. The rest of the PEF is read for this even should the handler complete earlier, so the images of all graphics passed on are available once this returns. Unlike the DOM walker a graphic referring to image data missing from the document gets image data which loads a null image.
+     *
+     * @param input The InputStream of the PEF.
+     * @param handler The handler to receive document events.
+     * @throws ParseException Thrown when there is a problem reading or parsing the PEF.
+     */
+    @Throws(ParseException::class)
+    fun parsePef(input: InputStream, handler: DocumentHandler) {
+        walk(PefStreamWalker(input, handler), handler)
+    }
+
+    /**
+     * Create a reader which parses the BRF as events are requested.
+     *
+     * @param input The InputStream of the BRF.
+     * @return A reader of the document events of the BRF.
+     */
+    fun createBrfReader(input: InputStream): DocumentEventReader = WalkerEventReader { BrfWalker(input, it) }
+
+    /**
+     * Create a reader which parses the BRF file as events are requested.
+     *
+     * The file is memory mapped in the same way as parseBrf(Path, DocumentHandler), the file is closed when the reader is closed.
+     *
+     * @param brf The path of the BRF file.
+     * @return A reader of the document events of the BRF.
+     * @throws ParseException Thrown when the file cannot be opened.
+     */
+    @Throws(ParseException::class)
+    fun createBrfReader(brf: Path): DocumentEventReader {
+        val source = openMappedBrf(brf)
+        return WalkerEventReader { BrfWalker(source, it) }
+    }
+
+    @Throws(ParseException::class)
+    private fun openMappedBrf(brf: Path): BrfSource {
+        return try {
+            MappedBrfSource(FileChannel.open(brf, StandardOpenOption.READ), mappedWindowSize)
+        } catch (e: IOException) {
+            throw ParseException(e)
         }
     }
 
-    private fun processPefElement(pefNode: Element, handler: DocumentHandler) {
-        val resourceNodes = getResourceNodes(pefNode)
-        val nodeStack: Deque<Node> = LinkedList()
-        var nextNode: Node? = pefNode
-        var descend: Boolean
-        do {
-            // Add any next node to the stack.
-            descend = if (nextNode != null) {
-                nodeStack.push(nextNode)
-                enterNode(nextNode, resourceNodes, handler)
-            } else {
-                false
+    /**
+     * Create a reader which parses the PEF as events are requested.
+     *
+     * The PEF is read with a XMLStreamReader in the same way as parsePef(InputStream, DocumentHandler).
+     *
+     * @param input The InputStream of the PEF.
+     * @return A reader of the document events of the PEF.
+     */
+    fun createPefReader(input: InputStream): DocumentEventReader = WalkerEventReader { PefStreamWalker(input, it) }
+
+    /**
+     * Create a reader which walks the PEF document as events are requested.
+     *
+     * @param inputDoc The PEF document.
+     * @return A reader of the document events of the PEF.
+     */
+    fun createPefReader(inputDoc: Document): DocumentEventReader = WalkerEventReader { PefDomWalker(inputDoc, it) }
+
+    /**
+     * Create a reader of some of the pages of a BRF or PEF file using the page index of the file.
+     *
+     * Only the regions of the file holding the wanted pages are parsed. The events are those a PageFilter for the pages would keep from the events of the whole document, except volumes and sections without any of the wanted pages are left out.
+     *
+     * @param document The path of the BRF or PEF file.
+     * @param index The page index of the file.
+     * @param pages The pages to read.
+     * @return A reader of the document events of the pages.
+     * @throws ParseException Thrown when the file cannot be opened.
+     */
+    @Throws(ParseException::class)
+    fun createReader(document: Path, index: PageIndex, pages: PageRanges): DocumentEventReader {
+        val runs = mutableListOf<IntRange>()
+        for (member in pages.members) {
+            val first = maxOf(1, member[0])
+            val last = minOf(index.pageCount, member[1])
+            if (first <= last) {
+                runs.add(first..last)
             }
-            val curNode = nodeStack.peek()
-            nextNode = if (descend) {
-                // Try and descend
-                curNode.firstChild
-            } else {
-                null
+        }
+        val channel = try {
+            FileChannel.open(document, StandardOpenOption.READ)
+        } catch (e: IOException) {
+            throw ParseException(e)
+        }
+        return WalkerEventReader { IndexedWalker(channel, index, runs, it) }
+    }
+
+    @Throws(ParseException::class)
+    private fun walk(walker: Walker, handler: DocumentHandler) {
+        try {
+            while (!handler.isComplete && walker.step()) {
+                // Events are passed to the handler as they are found
             }
-            // When not able to descend continue to next sibling
-            if (nextNode == null) {
-                nextNode = curNode.nextSibling
-                // Also remove the current node from the stack as we will be leaving the node
-                nodeStack.pop()
-                exitNode(curNode, handler)
+            walker.readResources()
+        } finally {
+            try {
+                walker.close()
+            } catch (e: IOException) {
+                log.warn("Problem closing the document parser", e)
             }
-        } while (!nodeStack.isEmpty())
+        }
     }
 
-    private fun enterNode(node: Node, resourceNodes: NodeList, handler: DocumentHandler): Boolean {
+    private fun enterNode(node: Node, images: DomImageResources, handler: DocumentHandler): Boolean {
         var result = true
         if (node is Element) {
             val elementType = PEFElementType.findElementType(node)
             if (elementType.isPresent) {
-                val cols: Optional<CellsPerLine>
-                val duplex: Optional<Duplex>
-                val rowGap: Optional<RowGap>
-                val rows: Optional<LinesPerPage>
                 when (elementType.get()) {
                     PEFElementType.BODY -> handler.onEvent(StartDocumentEvent())
-                    PEFElementType.VOLUME -> {
-                        cols = Optional.ofNullable(node.getAttribute("cols")).flatMap { v -> Optional.ofNullable(v.toIntOrNull()) }.map { value: Int? -> CellsPerLine(value) }
-                        duplex = Optional.ofNullable(node.getAttribute("duplex")).map { obj: String -> obj.lowercase() }.flatMap { v: String -> if (v == "true") Optional.of(Duplex(true)) else if (v == "false") Optional.of(Duplex(false)) else Optional.empty() }
-                        rowGap = Optional.ofNullable(node.getAttribute("rowgap")).flatMap { v -> Optional.ofNullable(v.toIntOrNull()) }.map { value: Int? -> RowGap(value) }
-                        rows = Optional.ofNullable(node.getAttribute("rows")).flatMap { v -> Optional.ofNullable(v.toIntOrNull()) }.map { value: Int? -> LinesPerPage(value) }
-                        val volOptions: Set<VolumeOption> = Streams.concat(Streams.stream(cols), Streams.stream(duplex), Streams.stream(rowGap), Streams.stream(rows)).collect(Collectors.toSet())
-                        handler.onEvent(StartVolumeEvent(volOptions))
-                    }
-                    PEFElementType.SECTION -> {
-                        cols = Optional.ofNullable(node.getAttribute("cols")).flatMap { v -> Optional.ofNullable(v.toIntOrNull()) }.map { value: Int? -> CellsPerLine(value) }
-                        duplex = Optional.ofNullable(node.getAttribute("duplex")).map { obj: String -> obj.lowercase() }.flatMap { v: String -> if (v == "true") Optional.of(Duplex(true)) else if (v == "false") Optional.of(Duplex(false)) else Optional.empty() }
-                        rowGap = Optional.ofNullable(node.getAttribute("rowgap")).flatMap { v -> Optional.ofNullable(v.toIntOrNull()) }.map { value: Int? -> RowGap(value) }
-                        rows = Optional.ofNullable(node.getAttribute("rows")).flatMap { v -> Optional.ofNullable(v.toIntOrNull()) }.map { value: Int? -> LinesPerPage(value) }
-                        val sectionOptions: Set<SectionOption> = Streams.concat(Streams.stream(cols), Streams.stream(duplex), Streams.stream(rowGap), Streams.stream(rows)).collect(Collectors.toSet())
-                        handler.onEvent(StartSectionEvent(sectionOptions))
-                    }
-                    PEFElementType.PAGE -> {
-                        cols = Optional.ofNullable(node.getAttribute("cols")).flatMap { v -> Optional.ofNullable(v.toIntOrNull()) }.map { value: Int? -> CellsPerLine(value) }
-                        rowGap = Optional.ofNullable(node.getAttribute("rowgap")).flatMap { v -> Optional.ofNullable(v.toIntOrNull()) }.map { value: Int? -> RowGap(value) }
-                        rows = Optional.ofNullable(node.getAttribute("rows")).flatMap { v -> Optional.ofNullable(v.toIntOrNull()) }.map { value: Int? -> LinesPerPage(value) }
-                        val pageOptions: Set<PageOption> = Streams.concat(Streams.stream(cols), Streams.stream(rowGap), Streams.stream(rows)).collect(Collectors.toSet())
-                        handler.onEvent(StartPageEvent(pageOptions))
-                    }
+                    PEFElementType.VOLUME -> handler.onEvent(StartVolumeEvent(createVolumeOptions { node.getAttribute(it) }))
+                    PEFElementType.SECTION -> handler.onEvent(StartSectionEvent(createSectionOptions { node.getAttribute(it) }))
+                    PEFElementType.PAGE -> handler.onEvent(StartPageEvent(createPageOptions { node.getAttribute(it) }))
                     PEFElementType.ROW -> {
-                        rowGap = Optional.ofNullable(node.getAttribute("rowgap")).flatMap { v -> Optional.ofNullable(v.toIntOrNull()) }.map { value: Int? -> RowGap(value) }
-                        val rowOptions: Set<RowOption> = Streams.stream(rowGap).collect(Collectors.toSet())
-                        handler.onEvent(StartLineEvent(rowOptions))
+                        handler.onEvent(StartLineEvent(createRowOptions { node.getAttribute(it) }))
                         val children = node.getChildNodes()
                         val sb = StringBuilder()
                         var i = 0
@@ -204,12 +239,8 @@ class DocumentParser {
                         result = false
                     }
                     PEFElementType.GRAPHIC -> {
-                        val img = Optional.ofNullable(node.getAttribute("idref")).flatMap { a: String -> findResourceById(resourceNodes, a) }.flatMap { e: Element -> loadImageFromElement(e) }.map { image: Image? -> ImageData(image) }
-                        val height = Optional.ofNullable(node.getAttribute("height")).flatMap { v -> Optional.ofNullable(v.toIntOrNull()) }.map { height: Int? -> Height(height) }
-                        val indent = Optional.ofNullable(node.getAttribute("indent")).flatMap { v -> Optional.ofNullable(v.toIntOrNull()) }.map { indent: Int? -> Indent(indent) }
-                        val width = Optional.ofNullable(node.getAttribute("width")).flatMap { v -> Optional.ofNullable(v.toIntOrNull()) }.map { width: Int? -> Width(width) }
-                        val graphicOptions: Set<GraphicOption> = Streams.concat(Streams.stream(img), Streams.stream(height), Streams.stream(indent), Streams.stream(width)).collect(ImmutableSet.toImmutableSet<GraphicOption>())
-                        handler.onEvent(StartGraphicEvent(graphicOptions))
+                        val img = images.findImage(node.getAttribute("idref"))
+                        handler.onEvent(StartGraphicEvent(createGraphicOptions(img) { node.getAttribute(it) }))
                         result = true
                     }
                     PEFElementType.HEAD -> result = false
@@ -256,34 +287,784 @@ class DocumentParser {
         }
     }
 
-    private fun findResourceById(resources: NodeList, id: String): Optional<Element> {
-        for (i in 0 until resources.length) {
-            val n = resources.item(i)
-            if (n is Element) {
-                if (id.contentEquals(n.getAttribute("id"))) {
-                    return Optional.of(n)
+    /**
+     * The tg:imageData elements of a PEF document indexed by id.
+     *
+     * The image data for each id is only created once, so graphics referring to the same image share its decoding.
+     */
+    private inner class DomImageResources(resources: NodeList) {
+        private val elements: Map<String, Element>
+        private val images: MutableMap<String, Optional<ImageData>> = HashMap()
+
+        init {
+            val index = HashMap<String, Element>()
+            for (i in 0 until resources.length) {
+                val n = resources.item(i)
+                if (n is Element) {
+                    // Keep the first element should ids be repeated
+                    index.putIfAbsent(n.getAttribute("id"), n)
                 }
             }
+            elements = index
+        }
+
+        fun findImage(id: String): Optional<ImageData> = images.getOrPut(id) {
+            val e = elements[id] ?: return@getOrPut Optional.empty()
+            if (imageDecodePool == null) {
+                lazyImage(e.getAttribute("encoding")) { e.textContent }
+            } else {
+                // The DOM cannot be read safely from the pool threads
+                val data = e.textContent
+                lazyImage(e.getAttribute("encoding")) { data }
+            }
         }
-        return Optional.empty()
     }
 
-    private fun loadImageFromElement(e: Element): Optional<Image> {
+    /**
+     * Create image data which will decode the image when it is first used.
+     *
+     * Decoding is left until the image is needed so that images on pages which are filtered out, or which are passed to text only embossers, are never decoded.
+     *
+     * @param encoding The encoding of the image data, only base64 is supported.
+     * @param data Supplies the encoded image.
+     * @return The image data or empty if the encoding is not supported.
+     */
+    private fun lazyImage(encoding: String, data: () -> String): Optional<ImageData> = Optional.ofNullable(imageLoader(encoding, data)?.let { ImageData(it) })
+
+    private fun imageLoader(encoding: String, data: () -> String): ImageLoader? = if ("base64".equals(encoding, ignoreCase = true)) ImageLoader(encoding, data) else null
+
+    /**
+     * Loads an image, starting the decode on the image decode pool when prefetched if there is a pool.
+     *
+     * Nothing is decoded until the image is prefetched or used, so images not referenced by a graphic or on pages filtered out are never decoded. The decoded image is only taken from the pool once, so should the image data be released it will be decoded again on the calling thread when next needed. Releasing also drops an image prefetched but not yet taken.
+     */
+    private inner class ImageLoader(private val encoding: String, private val data: () -> String) : ImageData.PrefetchingLoader {
+        private var prefetch: ForkJoinTask<Image?>? = null
+
+        private fun decode(): Image? = loadImage(encoding, data()).orElse(null)
+
+        override fun prefetch() {
+            if (prefetch == null) {
+                prefetch = imageDecodePool?.submit(Callable { decode() })
+            }
+        }
+
+        override fun get(): Image? {
+            val task = prefetch ?: return decode()
+            prefetch = null
+            return task.join()
+        }
+
+        override fun release() {
+            prefetch?.cancel(false)
+            prefetch = null
+        }
+    }
+
+    private fun loadImage(encoding: String, data: String): Optional<Image> {
+        if (!"base64".equals(encoding, ignoreCase = true)) {
+            return Optional.empty()
+        }
+        return imageCache?.get(data, ::decodeBase64Image) ?: decodeBase64Image(data)
+    }
+
+    private fun decodeBase64Image(data: String): Optional<Image> {
         var result: Optional<Image> = Optional.empty()
-        if ("base64".equals(e.getAttribute("encoding"), ignoreCase = true)) {
-            val s = e.textContent
+        try {
+            BaseEncoding.base64().decodingStream(StringReader(data)).use { input ->
+                val img = ImageIO.read(input)
+                result = Optional.ofNullable(img)
+            }
+        } catch (ex: IOException) {
+            // Cannot really do anything
+        }
+        return result
+    }
+
+    private fun createVolumeOptions(attribute: (String) -> String): Set<VolumeOption> = internOptions(OptionKind.VOLUME, attribute) {
+        listOfNotNull<VolumeOption>(cellsPerLine(attribute), duplex(attribute), rowGap(attribute), linesPerPage(attribute))
+    }
+
+    private fun createSectionOptions(attribute: (String) -> String): Set<SectionOption> = internOptions(OptionKind.SECTION, attribute) {
+        listOfNotNull<SectionOption>(cellsPerLine(attribute), duplex(attribute), rowGap(attribute), linesPerPage(attribute))
+    }
+
+    private fun createPageOptions(attribute: (String) -> String): Set<PageOption> = internOptions(OptionKind.PAGE, attribute) {
+        listOfNotNull<PageOption>(cellsPerLine(attribute), rowGap(attribute), linesPerPage(attribute))
+    }
+
+    private fun createRowOptions(attribute: (String) -> String): Set<RowOption> = internOptions(OptionKind.ROW, attribute) {
+        listOfNotNull<RowOption>(rowGap(attribute))
+    }
+
+    /**
+     * Get the interned options for the attributes of an element.
+     *
+     * Options are looked up by the raw attribute values, so elements repeating the attributes of an earlier element get the same set without any options being created.
+     */
+    @Suppress("UNCHECKED_CAST")
+    private fun <T : Option> internOptions(kind: OptionKind, attribute: (String) -> String, create: () -> List<T>): Set<T> {
+        val key = OptionAttributes(kind, attribute("cols"), attribute("rows"), attribute("rowgap"), attribute("duplex"))
+        optionsByAttributes[key]?.let { return it as Set<T> }
+        val options = OptionInterner.getDefault().internSet(create())
+        if (optionsByAttributes.size < MAX_INTERNED_ATTRIBUTES) {
+            optionsByAttributes.putIfAbsent(key, options)
+        }
+        return options
+    }
+
+    private enum class OptionKind { VOLUME, SECTION, PAGE, ROW }
+
+    private data class OptionAttributes(val kind: OptionKind, val cols: String, val rows: String, val rowGap: String, val duplex: String)
+
+    private fun createGraphicOptions(img: Optional<ImageData>, attribute: (String) -> String): Set<GraphicOption> {
+        val height = attribute("height").toIntOrNull()?.let { Height(it) }
+        val indent = attribute("indent").toIntOrNull()?.let { Indent(it) }
+        val width = attribute("width").toIntOrNull()?.let { Width(it) }
+        return ImmutableSet.copyOf(listOfNotNull(img.orElse(null), height, indent, width))
+    }
+
+    private fun cellsPerLine(attribute: (String) -> String): CellsPerLine? = attribute("cols").toIntOrNull()?.let { CellsPerLine(it) }
+
+    private fun linesPerPage(attribute: (String) -> String): LinesPerPage? = attribute("rows").toIntOrNull()?.let { LinesPerPage(it) }
+
+    private fun rowGap(attribute: (String) -> String): RowGap? = attribute("rowgap").toIntOrNull()?.let { RowGap(it) }
+
+    private fun duplex(attribute: (String) -> String): Duplex? = when (attribute("duplex").lowercase()) {
+        "true" -> Duplex(true)
+        "false" -> Duplex(false)
+        else -> null
+    }
+
+    /**
+     * Loader of an image whose tg:imageData comes after the graphic referring to it.
+     *
+     * Until the image data has been read there is no image to load, so the loader gives null and does not prefetch.
+     */
+    private class ForwardImageLoader : ImageData.PrefetchingLoader {
+        @Volatile
+        private var loader: ImageData.PrefetchingLoader? = null
+
+        fun resolve(loader: ImageData.PrefetchingLoader?) {
+            this.loader = loader
+        }
+
+        override fun prefetch() {
+            loader?.prefetch()
+        }
+
+        override fun get(): Image? = loader?.get()
+
+        override fun release() {
+            loader?.release()
+        }
+    }
+
+    /**
+     * Walks a PEF read by a XMLStreamReader producing the same events as the DOM walker of processPefElement.
+     *
+     * Each call to step consumes one XML event from the reader. A tg:graphic may refer to tg:imageData which has not yet been read, in this case the graphic is given image data with a ForwardImageLoader which is resolved once the tg:imageData is read.
+     */
+    private inner class PefStreamWalker(private val input: InputStream, private val handler: DocumentHandler) : Walker {
+        private lateinit var reader: XMLStreamReader
+        private val images: MutableMap<String, Optional<ImageData>> = HashMap()
+        private val forwardImages: MutableMap<String, ForwardImageLoader> = HashMap()
+        private var imagesRead = false
+        private var muted = false
+        private var depth = 0
+        private var skipDepth = 0
+        private var rowText: StringBuilder? = null
+        private var inImages = false
+        private var imageDataId: String? = null
+        private var imageDataEncoding = ""
+        private val imageDataText = StringBuilder()
+
+        /**
+         * Process the next XML event.
+         *
+         * @return False once the end of the PEF has been reached.
+         */
+        @Throws(ParseException::class)
+        override fun step(): Boolean {
             try {
-                BaseEncoding.base64().decodingStream(StringReader(s)).use { input ->
-                    val img = ImageIO.read(input)
-                    result = Optional.ofNullable(img)
+                if (!this::reader.isInitialized) {
+                    reader = xmlInputFactory.createXMLStreamReader(input)
+                }
+                if (!reader.hasNext()) {
+                    finish()
+                    return false
                 }
-            } catch (ex: IOException) {
-                // Cannot really do anything
+                when (reader.next()) {
+                    XMLStreamConstants.START_ELEMENT -> return startElement()
+                    XMLStreamConstants.END_ELEMENT -> return endElement()
+                    XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> characters()
+                    else -> Unit
+                }
+                return true
+            } catch (e: XMLStreamException) {
+                throw ParseException(e)
             }
         }
-        return result
+
+        @Throws(ParseException::class)
+        override fun readResources() {
+            // No more events are wanted, only the image data of graphics already passed on.
+            muted = true
+            while (forwardImages.isNotEmpty() && step()) {
+                // Image data is resolved as it is read
+            }
+        }
+
+        override fun close() {
+            if (this::reader.isInitialized) {
+                try {
+                    reader.close()
+                } catch (e: XMLStreamException) {
+                    throw IOException(e)
+                }
+            }
+        }
+
+        private fun startElement(): Boolean {
+            ++depth
+            if (depth == 1) {
+                // Only a PEF 2008-1 root element will be processed.
+                return PEFElementType.PEF.namespaceUri == reader.namespaceURI && PEFElementType.PEF.elementName == reader.localName && "2008-1" == attribute("version")
+            }
+            if (depth == 3 && inImages && PEFNamespaceContext.TG_NAMESPACE == reader.namespaceURI && "imageData" == reader.localName) {
+                imageDataId = attribute("id")
+                imageDataEncoding = attribute("encoding")
+                imageDataText.setLength(0)
+            } else if (depth == 2 && PEFNamespaceContext.TG_NAMESPACE == reader.namespaceURI && "images" == reader.localName) {
+                inImages = true
+            }
+            if (skipDepth > 0) {
+                return true
+            }
+            when (findElementType(reader.namespaceURI, reader.localName)) {
+                PEFElementType.BODY -> emit(StartDocumentEvent())
+                PEFElementType.VOLUME -> emit(StartVolumeEvent(createVolumeOptions { attribute(it) }))
+                PEFElementType.SECTION -> emit(StartSectionEvent(createSectionOptions { attribute(it) }))
+                PEFElementType.PAGE -> emit(StartPageEvent(createPageOptions { attribute(it) }))
+                PEFElementType.ROW -> {
+                    emit(StartLineEvent(createRowOptions { attribute(it) }))
+                    rowText = StringBuilder()
+                    skipDepth = depth
+                }
+                PEFElementType.GRAPHIC -> emit(StartGraphicEvent(createGraphicOptions(findImage(attribute("idref"))) { attribute(it) }))
+                PEFElementType.HEAD -> skipDepth = depth
+                else -> Unit
+            }
+            return true
+        }
+
+        private fun endElement(): Boolean {
+            val elementDepth = depth--
+            if (elementDepth == 3 && imageDataId != null) {
+                val data = imageDataText.toString()
+                val forward = forwardImages.remove(imageDataId!!)
+                if (forward != null) {
+                    forward.resolve(imageLoader(imageDataEncoding) { data })
+                } else {
+                    images.putIfAbsent(imageDataId!!, lazyImage(imageDataEncoding) { data })
+                }
+                imageDataId = null
+                imageDataText.setLength(0)
+            } else if (elementDepth == 2 && inImages) {
+                inImages = false
+                imagesRead = true
+            }
+            if (elementDepth == 1) {
+                finish()
+                return false
+            }
+            if (skipDepth > 0 && elementDepth > skipDepth) {
+                return true
+            }
+            skipDepth = 0
+            when (findElementType(reader.namespaceURI, reader.localName)) {
+                PEFElementType.BODY -> emit(EndDocumentEvent())
+                PEFElementType.VOLUME -> emit(EndVolumeEvent())
+                PEFElementType.SECTION -> emit(EndSectionEvent())
+                PEFElementType.PAGE -> emit(EndPageEvent())
+                PEFElementType.ROW -> {
+                    emit(BrailleEvent(rowText.toString().trim { it <= ' ' }))
+                    rowText = null
+                    emit(EndLineEvent())
+                }
+                PEFElementType.GRAPHIC -> emit(EndGraphicEvent())
+                else -> Unit
+            }
+            return true
+        }
+
+        private fun characters() {
+            if (imageDataId != null) {
+                imageDataText.append(reader.textCharacters, reader.textStart, reader.textLength)
+            }
+            if (rowText != null && depth == skipDepth) {
+                rowText!!.append(reader.textCharacters, reader.textStart, reader.textLength)
+            }
+        }
+
+        private fun attribute(name: String): String {
+            for (i in 0 until reader.attributeCount) {
+                if (reader.getAttributeNamespace(i).isNullOrEmpty() && name == reader.getAttributeLocalName(i)) {
+                    return reader.getAttributeValue(i)
+                }
+            }
+            return ""
+        }
+
+        /**
+         * Find the image data a graphic refers to.
+         *
+         * Once the tg:images element has been read an unknown id has no image, before then the image data may come later and so the graphic is given image data to be resolved when it does.
+         */
+        private fun findImage(idref: String): Optional<ImageData> {
+            images[idref]?.let { return it }
+            if (idref.isEmpty() || imagesRead) {
+                return Optional.empty()
+            }
+            val forward = ForwardImageLoader()
+            forwardImages[idref] = forward
+            return Optional.of(ImageData(forward)).also { images[idref] = it }
+        }
+
+        private fun emit(event: DocumentEvent) {
+            if (!muted) {
+                handler.onEvent(event)
+            }
+        }
+
+        private fun finish() {
+            // Any graphic still waiting refers to image data not in the document.
+            forwardImages.clear()
+        }
+    }
+
+    /**
+     * Incremental parse of a document, each step passes zero or more events to the handler of the walker.
+     */
+    private interface Walker : Closeable {
+        /**
+         * Advance the parse.
+         *
+         * @return False once the end of the document has been reached.
+         */
+        @Throws(ParseException::class)
+        fun step(): Boolean
+
+        /**
+         * Read any resources, such as image data, later in the document which events already passed on refer to.
+         *
+         * No more events are passed to the handler.
+         */
+        @Throws(ParseException::class)
+        fun readResources() {
+        }
+
+        @Throws(IOException::class)
+        override fun close() {
+        }
+    }
+
+    private class WalkerEventReader(createWalker: (DocumentHandler) -> Walker) : DocumentEventReader {
+        private val events: Deque<DocumentEvent> = ArrayDeque()
+        private val walker = createWalker(DocumentHandler { e: DocumentEvent -> events.add(e) })
+        private var finished = false
+
+        override fun hasNext(): Boolean {
+            while (events.isEmpty() && !finished) {
+                finished = try {
+                    !walker.step()
+                } catch (e: ParseException) {
+                    finished = true
+                    throw UncheckedParseException(e)
+                }
+            }
+            return !events.isEmpty()
+        }
+
+        override fun next(): DocumentEvent {
+            if (!hasNext()) {
+                throw NoSuchElementException()
+            }
+            return events.remove()
+        }
+
+        override fun remove() {
+            throw UnsupportedOperationException("remove")
+        }
+
+        @Throws(IOException::class)
+        override fun close() {
+            finished = true
+            events.clear()
+            try {
+                walker.readResources()
+            } catch (e: ParseException) {
+                throw IOException(e)
+            } finally {
+                walker.close()
+            }
+        }
+    }
+
+    /**
+     * Supplies the bytes of a BRF to a BrfWalker a buffer at a time.
+     */
+    private interface BrfSource : Closeable {
+        /**
+         * Get the next buffer of the BRF.
+         *
+         * The bytes of the current buffer from keepFrom up to its limit are the start of a line which has not yet been completed, these must be at the start of the returned buffer followed by the bytes which come after them in the BRF. When the end of the BRF has been reached the returned buffer only contains the carried over bytes.
+         *
+         * @param current The buffer the walker has finished scanning.
+         * @param keepFrom The index in current of the first byte to carry over.
+         * @return The next buffer to scan.
+         */
+        @Throws(IOException::class)
+        fun refill(current: ByteBuffer, keepFrom: Int): ByteBuffer
+
+        @Throws(IOException::class)
+        override fun close() {
+        }
+    }
+
+    /**
+     * Walks runs of consecutive pages of a document found from its page index.
+     *
+     * Each run is parsed from just its region of the file by its own walker. The events of the runs are joined in to one document, the end and start of a volume or section is left out between runs in the same volume or section.
+     */
+    private inner class IndexedWalker(private val channel: FileChannel, private val index: PageIndex, private val runs: List<IntRange>, private val handler: DocumentHandler) : Walker {
+        private var started = false
+        private var run = -1
+        private var current: Walker? = null
+
+        @Throws(ParseException::class)
+        override fun step(): Boolean {
+            if (!started) {
+                started = true
+                handler.onEvent(StartDocumentEvent())
+                return true
+            }
+            current?.let {
+                if (it.step()) {
+                    return true
+                }
+                current = null
+                try {
+                    it.close()
+                } catch (e: IOException) {
+                    throw ParseException(e)
+                }
+                return true
+            }
+            if (++run < runs.size) {
+                current = try {
+                    openRun(run)
+                } catch (e: IOException) {
+                    throw ParseException(e)
+                }
+                return true
+            }
+            handler.onEvent(EndDocumentEvent())
+            return false
+        }
+
+        @Throws(IOException::class)
+        private fun openRun(i: Int): Walker {
+            val pages = runs[i]
+            val previous = runs.getOrNull(i - 1)?.last
+            val next = runs.getOrNull(i + 1)?.first
+            val filter = RunEventFilter(
+                handler,
+                pages.last - pages.first + 1,
+                previous != null && sameVolume(previous, pages.first),
+                previous != null && sameSection(previous, pages.first),
+                next != null && sameVolume(pages.last, next),
+                next != null && sameSection(pages.last, next)
+            )
+            val region = readRegion(index.getPageStart(pages.first), index.getPageEnd(pages.last))
+            return when (index.format) {
+                PageIndex.Format.PEF -> {
+                    val prefix = index.createPefPrefix(pages.first) { start, end -> readBytes(start, end) }
+                    val input = SequenceInputStream(Collections.enumeration(listOf(ByteArrayInputStream(prefix), region, ByteArrayInputStream(index.createPefSuffix(pages.last)))))
+                    PefStreamWalker(input, filter)
+                }
+                else -> BrfWalker(region, filter)
+            }
+        }
+
+        private fun sameVolume(a: Int, b: Int) = index.getPageVolume(a) == index.getPageVolume(b)
+
+        private fun sameSection(a: Int, b: Int) = sameVolume(a, b) && index.getPageSection(a) == index.getPageSection(b)
+
+        @Throws(IOException::class)
+        private fun readRegion(start: Long, end: Long): InputStream {
+            return if (end - start <= Int.MAX_VALUE) {
+                ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start))
+            } else {
+                ByteStreams.limit(Channels.newInputStream(channel.position(start)), end - start)
+            }
+        }
+
+        @Throws(IOException::class)
+        private fun readBytes(start: Long, end: Long): ByteArray {
+            val buffer = ByteBuffer.allocate(Math.toIntExact(end - start))
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    throw EOFException("Document is shorter than its page index")
+                }
+            }
+            return buffer.array()
+        }
+
+        @Throws(ParseException::class)
+        override fun readResources() {
+            current?.readResources()
+        }
+
+        @Throws(IOException::class)
+        override fun close() {
+            try {
+                current?.close()
+            } finally {
+                channel.close()
+            }
+        }
+    }
+
+    /**
+     * Passes on the events of a run of pages, leaving out the document events and any volume and section events joining the run to the runs either side of it.
+     */
+    private class RunEventFilter(private val handler: DocumentHandler, private val pageCount: Int, private val continuesVolume: Boolean, private val continuesSection: Boolean, private val volumeContinues: Boolean, private val sectionContinues: Boolean) : DocumentHandler {
+        private var pagesStarted = 0
+        private var pagesEnded = 0
+
+        override fun onEvent(event: DocumentEvent) {
+            val keep = when (event) {
+                is StartDocumentEvent, is EndDocumentEvent -> false
+                is StartVolumeEvent -> pagesStarted > 0 || !continuesVolume
+                is StartSectionEvent -> pagesStarted > 0 || !continuesSection
+                is EndSectionEvent -> pagesEnded < pageCount || !sectionContinues
+                is EndVolumeEvent -> pagesEnded < pageCount || !volumeContinues
+                is StartPageEvent -> {
+                    ++pagesStarted
+                    true
+                }
+                is EndPageEvent -> {
+                    ++pagesEnded
+                    true
+                }
+                else -> true
+            }
+            if (keep) {
+                handler.onEvent(event)
+            }
+        }
+    }
+
+    private class InputStreamBrfSource(private val input: InputStream) : BrfSource {
+        @Throws(IOException::class)
+        override fun refill(current: ByteBuffer, keepFrom: Int): ByteBuffer {
+            var buffer = current
+            val carried = buffer.limit() - keepFrom
+            if (buffer.capacity() - carried < MIN_BRF_READ) {
+                // A single line is filling the buffer so it needs to be larger
+                buffer = ByteBuffer.allocate(maxOf(BRF_CHUNK_SIZE, buffer.capacity() * 2))
+            }
+            System.arraycopy(current.array(), keepFrom, buffer.array(), 0, carried)
+            var read: Int
+            do {
+                read = input.read(buffer.array(), carried, buffer.capacity() - carried)
+            } while (read == 0)
+            buffer.limit(carried + maxOf(read, 0))
+            return buffer
+        }
+    }
+
+    /**
+     * Maps a BRF file a window at a time, a window starts at the first byte to be carried over from the previous window.
+     */
+    private class MappedBrfSource(private val channel: FileChannel, private val windowSize: Int) : BrfSource {
+        private var windowStart = 0L
+
+        @Throws(IOException::class)
+        override fun refill(current: ByteBuffer, keepFrom: Int): ByteBuffer {
+            val start = windowStart + keepFrom
+            val carried = current.limit() - keepFrom
+            val remaining = channel.size() - start
+            if (remaining <= carried) {
+                return current.slice(keepFrom, carried)
+            }
+            // When a single line fills a window the window needs to be larger
+            val size = minOf(remaining, maxOf(windowSize.toLong(), carried * 2L), Int.MAX_VALUE.toLong()).toInt()
+            windowStart = start
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, size.toLong())
+        }
+
+        @Throws(IOException::class)
+        override fun close() {
+            channel.close()
+        }
+    }
+
+    /**
+     * Tokenize a BRF by scanning buffers of bytes for the line and page breaks.
+     *
+     * Each step scans from the current position to the next CR, LF or FF, any Braille before it is emitted as a line straight from the buffer and the break is then processed. When the end of the buffer is reached the source is asked to refill it, carrying over any incomplete line.
+     */
+    private class BrfWalker(private val source: BrfSource, private val handler: DocumentHandler) : Walker {
+        private var buffer: ByteBuffer = ByteBuffer.allocate(0)
+        private var lineStart = 0
+        private var pos = 0
+        private var newLines = 0
+        private var newPages = 0
+        private var prevByte = -1
+        private var started = false
+
+        constructor(input: InputStream, handler: DocumentHandler) : this(InputStreamBrfSource(input), handler)
+
+        @Throws(ParseException::class)
+        override fun step(): Boolean {
+            if (!started) {
+                started = true
+                handler.onEvent(StartDocumentEvent())
+                handler.onEvent(StartVolumeEvent())
+                handler.onEvent(StartSectionEvent())
+                handler.onEvent(StartPageEvent())
+                return true
+            }
+            val limit = buffer.limit()
+            var i = pos
+            var b = -1
+            while (i < limit) {
+                b = buffer.get(i).toInt() and 0xff
+                if (b == 0xa || b == 0xc || b == 0xd) {
+                    break
+                }
+                ++i
+            }
+            if (i > pos) {
+                while (newPages > 0) {
+                    handler.onEvent(EndPageEvent())
+                    handler.onEvent(StartPageEvent())
+                    --newPages
+                }
+                while (newLines > 1) {
+                    handler.onEvent(StartLineEvent())
+                    handler.onEvent(EndLineEvent())
+                    --newLines
+                }
+                newLines = 0
+                prevByte = buffer.get(i - 1).toInt() and 0xff
+            }
+            if (i < limit) {
+                when (b) {
+                    0xc -> {
+                        newLines = 0
+                        ++newPages
+                        createLineEvents(i)
+                    }
+                    0xa -> if (prevByte != 0xd) {
+                        ++newLines
+                        createLineEvents(i)
+                    }
+                    0xd -> {
+                        ++newLines
+                        createLineEvents(i)
+                    }
+                }
+                prevByte = b
+                pos = i + 1
+                lineStart = pos
+                return true
+            }
+            pos = limit - lineStart
+            buffer = try {
+                source.refill(buffer, lineStart)
+            } catch (e: IOException) {
+                throw ParseException(e)
+            }
+            lineStart = 0
+            if (buffer.limit() == pos) {
+                // Nothing more to read
+                createLineEvents(pos)
+                handler.onEvent(EndPageEvent())
+                handler.onEvent(EndSectionEvent())
+                handler.onEvent(EndVolumeEvent())
+                handler.onEvent(EndDocumentEvent())
+                return false
+            }
+            return true
+        }
+
+        private fun createLineEvents(lineEnd: Int) {
+            if (lineEnd > lineStart) {
+                handler.onEvent(StartLineEvent())
+                handler.onEvent(BrailleEvent.fromAscii(buffer, lineStart, lineEnd - lineStart))
+                handler.onEvent(EndLineEvent())
+            }
+            lineStart = lineEnd
+        }
+
+        @Throws(IOException::class)
+        override fun close() {
+            source.close()
+        }
     }
+
+    private inner class PefDomWalker(inputDoc: Document, private val handler: DocumentHandler) : Walker {
+        private val nodeStack: Deque<Node> = LinkedList()
+        private var nextNode: Node? = inputDoc.documentElement?.takeIf { Optional.of(PEFElementType.PEF) == PEFElementType.findElementType(it) }
+        private val images: DomImageResources? = (nextNode as Element?)?.let { DomImageResources(getResourceNodes(it)) }
+
+        override fun step(): Boolean {
+            // Add any next node to the stack.
+            val descend = if (nextNode != null) {
+                nodeStack.push(nextNode)
+                enterNode(nextNode!!, images!!, handler)
+            } else {
+                false
+            }
+            val curNode = nodeStack.peek() ?: return false
+            nextNode = if (descend) {
+                // Try and descend
+                curNode.firstChild
+            } else {
+                null
+            }
+            // When not able to descend continue to next sibling
+            if (nextNode == null) {
+                nextNode = curNode.nextSibling
+                // Also remove the current node from the stack as we will be leaving the node
+                nodeStack.pop()
+                exitNode(curNode, handler)
+            }
+            return !nodeStack.isEmpty()
+        }
+    }
+
     companion object {
         val log: Logger = LoggerFactory.getLogger(DocumentParser::class.java)
+        private const val BRF_CHUNK_SIZE = 64 * 1024
+        const val DEFAULT_MAPPED_WINDOW_SIZE = 64 * 1024 * 1024
+        private const val MAX_INTERNED_ATTRIBUTES = 1024
+        private val optionsByAttributes: ConcurrentMap<OptionAttributes, Set<*>> = ConcurrentHashMap()
+        private const val MIN_BRF_READ = 4 * 1024
+
+        /**
+         * Factory of the readers of streamed PEF, configured once so PEFs are read without DTDs or external entities.
+         */
+        private val xmlInputFactory: XMLInputFactory = XMLInputFactory.newInstance().apply {
+            setProperty(XMLInputFactory.SUPPORT_DTD, false)
+            setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false)
+        }
+
+        private fun findElementType(namespaceUri: String?, localName: String): PEFElementType? {
+            return PEFElementType.findElementType(namespaceUri, localName).orElse(null)
+        }
     }
 }
\ No newline at end of file
@@ -24,6 +24,7 @@ import java.util.stream.Collectors;
 
 import org.brailleblaster.libembosser.drivers.enablingTechnologies.EnablingTechnologiesDocumentHandler.Builder;
 import org.brailleblaster.libembosser.drivers.utils.DocumentHandler;
+import org.brailleblaster.libembosser.drivers.utils.document.OutputBufferPool;
 import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.Duplex;
@@ -422,4 +423,15 @@ public class EnablingTechnologiesDocumentHandlerTest {
 		}
 		assertEquals(actual, expected);
 	}
+	@Test
+	public void testOutputBufferFromPool() throws IOException {
+		OutputBufferPool pool = new OutputBufferPool(OutputBufferPool.DEFAULT_MAX_POOLED_BYTES);
+		EnablingTechnologiesDocumentHandler handler = createHandlerBuilder().setBufferPool(pool).setSizeHint(256 * 1024).build();
+		for (DocumentEvent event: ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new EndPageEvent(), new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent())) {
+			handler.onEvent(event);
+		}
+		handler.asByteSource().read();
+		handler.reset();
+		assertEquals(pool.getPooledBytes(), 256L * 1024, "The output buffer sized from the hint should be returned to the given pool");
+	}
 }
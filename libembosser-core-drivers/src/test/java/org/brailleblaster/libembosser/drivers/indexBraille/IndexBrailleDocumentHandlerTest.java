@@ -20,6 +20,7 @@ import java.util.List;
 import java.util.OptionalInt;
 
 import org.brailleblaster.libembosser.drivers.utils.DocumentHandler;
+import org.brailleblaster.libembosser.drivers.utils.document.OutputBufferPool;
 import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.Duplex;
@@ -204,6 +205,25 @@ public class IndexBrailleDocumentHandlerTest {
 		assertEquals(actual, expected.getBytes(Charsets.US_ASCII));
 	}
 	@Test
+	public void testOutputBufferFromPool() throws IOException {
+		OutputBufferPool pool = new OutputBufferPool(OutputBufferPool.DEFAULT_MAX_POOLED_BYTES);
+		IndexBrailleDocumentHandler handler = createHandlerBuilder().setBufferPool(pool).setSizeHint(256 * 1024).build();
+		for (DocumentEvent event: ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new EndPageEvent(), new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent())) {
+			handler.onEvent(event);
+		}
+		handler.asByteSource().read();
+		handler.reset();
+		assertEquals(pool.getPooledBytes(), 256L * 1024, "The output buffer sized from the hint should be returned to the given pool");
+	}
+	@Test
+	public void testLenientIgnoresInvalidEvents() throws IOException {
+		IndexBrailleDocumentHandler handler = createHandlerBuilder().setStrict(false).build();
+		for (DocumentEvent event: ImmutableList.of(new StartDocumentEvent(), new EndPageEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new StartLineEvent(), new BrailleEvent("\u2803"), new EndLineEvent(), new EndLineEvent(), new EndPageEvent(), new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent())) {
+			handler.onEvent(event);
+		}
+		assertEquals(handler.asByteSource().asCharSource(Charsets.US_ASCII).read(), "\u001bDBT0,LS50,TD0,PN0,MC1,DP1,BI0,CH40,TM0,LP25;B\f\u001a");
+	}
+	@Test
 	public void testPaperSizeRejectNull() {
 		IndexBrailleDocumentHandler.Builder builder = createHandlerBuilder();
 		expectThrows(NullPointerException.class, () -> builder.setPaper(null));
@@ -0,0 +1,268 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.brailleblaster.libembosser.drivers.utils.DocumentParser.ParseException;
+import org.brailleblaster.libembosser.drivers.utils.document.DocumentEventReader;
+import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndDocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndLineEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndSectionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndVolumeEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartDocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartLineEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartSectionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartVolumeEvent;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+/**
+ * Compare the chunked BRF tokenizer against the original byte at a time parser.
+ */
+public class BrfParserThroughputTest {
+	private static final int BRF_SIZE = 8 * 1024 * 1024;
+	/**
+	 * The size of the buffers the tokenizer reads from an InputStream.
+	 */
+	private static final int BRF_CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * Create a BRF with a mix of line endings, blank lines and pages.
+	 */
+	private static byte[] createBrf(int size, long seed) {
+		Random random = new Random(seed);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size + 128);
+		int lineCount = 0;
+		while (out.size() < size) {
+			int length = random.nextInt(10) == 0 ? 0 : random.nextInt(41);
+			for (int i = 0; i < length; ++i) {
+				out.write(0x20 + random.nextInt(0x40));
+			}
+			if (++lineCount % 25 == 0) {
+				if (random.nextInt(8) == 0) {
+					// A blank page
+					out.write('\f');
+				}
+				out.write('\f');
+			} else if (random.nextBoolean()) {
+				out.write('\r');
+				out.write('\n');
+			} else {
+				out.write(random.nextInt(4) == 0 ? '\r' : '\n');
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Create a BRF with the line break starting at offset, the bytes before it being lines of 40 cells.
+	 */
+	private static byte[] createBrfWithBreakAt(int offset, String lineBreak) {
+		final byte[] tail = (lineBreak + "NEXT\r\n\fLAST").getBytes(Charsets.US_ASCII);
+		final byte[] brf = new byte[offset + tail.length];
+		for (int i = 0; i < offset; ++i) {
+			brf[i] = (byte)(i % 41 == 40 && i < offset - 1 ? '\n' : 'A' + i % 26);
+		}
+		System.arraycopy(tail, 0, brf, offset, tail.length);
+		return brf;
+	}
+
+	/**
+	 * The BRF parser as it was before being replaced by the chunked tokenizer.
+	 */
+	private static void parseBrfPerByte(InputStream input, DocumentHandler handler) throws IOException {
+		final InputStream bufferedInput = new BufferedInputStream(input);
+		final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(100);
+		int newLines = 0;
+		int newPages = 0;
+		int prevByte = -1;
+		handler.onEvent(new StartDocumentEvent());
+		handler.onEvent(new StartVolumeEvent());
+		handler.onEvent(new StartSectionEvent());
+		handler.onEvent(new StartPageEvent());
+		int readByte;
+		while ((readByte = bufferedInput.read()) >= 0) {
+			switch (readByte) {
+			case 0xc:
+				newLines = 0;
+				++newPages;
+				createLineEvents(handler, lineBuffer);
+				break;
+			case 0xa:
+				if (prevByte != 0xd) {
+					++newLines;
+					createLineEvents(handler, lineBuffer);
+				}
+				break;
+			case 0xd:
+				++newLines;
+				createLineEvents(handler, lineBuffer);
+				break;
+			default:
+				while (newPages > 0) {
+					handler.onEvent(new EndPageEvent());
+					handler.onEvent(new StartPageEvent());
+					--newPages;
+				}
+				while (newLines > 1) {
+					handler.onEvent(new StartLineEvent());
+					handler.onEvent(new EndLineEvent());
+					--newLines;
+				}
+				newLines = 0;
+				lineBuffer.write(readByte);
+			}
+			prevByte = readByte;
+		}
+		createLineEvents(handler, lineBuffer);
+		handler.onEvent(new EndPageEvent());
+		handler.onEvent(new EndSectionEvent());
+		handler.onEvent(new EndVolumeEvent());
+		handler.onEvent(new EndDocumentEvent());
+	}
+	private static void createLineEvents(DocumentHandler handler, ByteArrayOutputStream lineBuffer) throws IOException {
+		if (lineBuffer.size() > 0) {
+			handler.onEvent(new StartLineEvent());
+			handler.onEvent(new BrailleEvent(lineBuffer.toString("US-ASCII")));
+			handler.onEvent(new EndLineEvent());
+		}
+		lineBuffer.reset();
+	}
+
+	private static void assertSameEvents(List<DocumentEvent> expected, Iterator<DocumentEvent> actual) {
+		for (int i = 0; i < expected.size(); ++i) {
+			assertSameEvent(expected.get(i), actual, i);
+		}
+		assertFalse(actual.hasNext(), "Got more events than expected");
+	}
+	private static void assertSameEvent(DocumentEvent expectedEvent, Iterator<DocumentEvent> actual, int i) {
+		assertTrue(actual.hasNext(), "Not got the expected number of events");
+		DocumentEvent actualEvent = actual.next();
+		assertEquals(actualEvent.getClass(), expectedEvent.getClass(), String.format("Event %d is not the expected type", i));
+		if (expectedEvent instanceof BrailleEvent) {
+			assertEquals(((BrailleEvent)actualEvent).getBraille(), ((BrailleEvent)expectedEvent).getBraille(), String.format("Event %d has wrong Braille", i));
+		}
+	}
+	/**
+	 * Compare the events of the reader with those of the byte at a time parser as they are produced, so large BRFs do not need all their events held.
+	 */
+	private static void assertSameEvents(byte[] brf, DocumentEventReader actual) throws IOException {
+		final int[] count = {0};
+		parseBrfPerByte(new ByteArrayInputStream(brf), e -> assertSameEvent(e, actual, count[0]++));
+		assertFalse(actual.hasNext(), "Got more events than expected");
+	}
+
+	@Test
+	public void testTokenizerMatchesPerByteParser() throws IOException, ParseException {
+		byte[] brf = createBrf(BRF_SIZE, 42L);
+		List<DocumentEvent> expected = new ArrayList<>();
+		parseBrfPerByte(new ByteArrayInputStream(brf), expected::add);
+		List<DocumentEvent> actual = new ArrayList<>(expected.size());
+		new DocumentParser().parseBrf(new ByteArrayInputStream(brf), actual::add);
+		assertSameEvents(expected, actual.iterator());
+		try (DocumentEventReader reader = new DocumentParser().createBrfReader(new ByteArrayInputStream(brf))) {
+			assertSameEvents(expected, reader);
+		}
+		Path brfFile = Files.createTempFile("throughput", ".brf");
+		try {
+			Files.write(brfFile, brf);
+			try (DocumentEventReader reader = new DocumentParser(1024 * 1024).createBrfReader(brfFile)) {
+				assertSameEvents(expected, reader);
+			}
+		} finally {
+			Files.delete(brfFile);
+		}
+	}
+
+	@DataProvider(name="chunkEdgeProvider")
+	public Object[][] chunkEdgeProvider() {
+		return new Object[][] {
+			{BRF_CHUNK_SIZE - 1, "\r\n"},
+			{BRF_CHUNK_SIZE - 1, "\r\n\f"},
+			{BRF_CHUNK_SIZE - 2, "\r\n\f"},
+			{BRF_CHUNK_SIZE - 1, "\f"},
+			{BRF_CHUNK_SIZE, "\f"},
+			{BRF_CHUNK_SIZE - 1, "\f\f"},
+			{BRF_CHUNK_SIZE, "\r\n"},
+		};
+	}
+
+	@Test(dataProvider="chunkEdgeProvider")
+	public void testTokenizerBreakAtChunkEdge(int offset, String lineBreak) throws IOException, ParseException {
+		final byte[] brf = createBrfWithBreakAt(offset, lineBreak);
+		try (DocumentEventReader reader = new DocumentParser().createBrfReader(new ByteArrayInputStream(brf))) {
+			assertSameEvents(brf, reader);
+		}
+		// The same edge as a window of a mapped file
+		Path brfFile = Files.createTempFile("chunkedge", ".brf");
+		try {
+			Files.write(brfFile, brf);
+			try (DocumentEventReader reader = new DocumentParser(BRF_CHUNK_SIZE).createBrfReader(brfFile)) {
+				assertSameEvents(brf, reader);
+			}
+		} finally {
+			Files.delete(brfFile);
+		}
+	}
+
+	@DataProvider(name="windowEdgeProvider")
+	public Object[][] windowEdgeProvider() {
+		return new Object[][] {
+			{DocumentParser.DEFAULT_MAPPED_WINDOW_SIZE - 1, "\r\n"},
+			{DocumentParser.DEFAULT_MAPPED_WINDOW_SIZE - 1, "\f"},
+		};
+	}
+
+	@Test(dataProvider="windowEdgeProvider")
+	public void testTokenizerBreakAtMappedWindowEdge(int offset, String lineBreak) throws IOException, ParseException {
+		final byte[] brf = createBrfWithBreakAt(offset, lineBreak);
+		Path brfFile = Files.createTempFile("windowedge", ".brf");
+		try {
+			Files.write(brfFile, brf);
+			try (DocumentEventReader reader = new DocumentParser().createBrfReader(brfFile)) {
+				assertSameEvents(brf, reader);
+			}
+		} finally {
+			Files.delete(brfFile);
+		}
+	}
+
+	@Test
+	public void testTokenizerLineLongerThanChunk() throws IOException, ParseException {
+		String longLine = Strings.repeat("ABCDEFGH", 40000);
+		byte[] brf = ("FIRST\r\n" + longLine + "\r\n\f" + longLine).getBytes(Charsets.US_ASCII);
+		List<DocumentEvent> expected = new ArrayList<>();
+		parseBrfPerByte(new ByteArrayInputStream(brf), expected::add);
+		List<DocumentEvent> actual = new ArrayList<>();
+		new DocumentParser().parseBrf(new ByteArrayInputStream(brf), actual::add);
+		assertSameEvents(expected, actual.iterator());
+	}
+}
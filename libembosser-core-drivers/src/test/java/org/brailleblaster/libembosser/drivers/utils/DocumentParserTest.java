@@ -9,18 +9,31 @@
 package org.brailleblaster.libembosser.drivers.utils;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 import java.awt.image.BufferedImage;
+import java.awt.print.PageFormat;
+import java.awt.print.Printable;
+import java.awt.print.PrinterException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
 import javax.xml.parsers.DocumentBuilder;
@@ -28,6 +41,7 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.brailleblaster.libembosser.drivers.utils.DocumentParser.ParseException;
+import org.brailleblaster.libembosser.drivers.utils.document.DocumentEventReader;
 import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.CellsPerLine;
 import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
@@ -42,6 +56,7 @@ import org.brailleblaster.libembosser.drivers.utils.document.events.GraphicOptio
 import org.brailleblaster.libembosser.drivers.utils.document.events.LinesPerPage;
 import org.brailleblaster.libembosser.drivers.utils.document.events.Option;
 import org.brailleblaster.libembosser.drivers.utils.document.events.OptionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.OptionInterner;
 import org.brailleblaster.libembosser.drivers.utils.document.events.RowGap;
 import org.brailleblaster.libembosser.drivers.utils.document.events.StartDocumentEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.StartGraphicEvent;
@@ -50,6 +65,9 @@ import org.brailleblaster.libembosser.drivers.utils.document.events.StartPageEve
 import org.brailleblaster.libembosser.drivers.utils.document.events.StartSectionEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.StartVolumeEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.ValueOption;
+import org.brailleblaster.libembosser.drivers.utils.document.filters.PageFilter;
+import org.brailleblaster.libembosser.drivers.utils.document.filters.PageFilterByteSourceHandler;
+import org.brailleblaster.libembosser.embossing.attribute.PageRanges;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import org.w3c.dom.Document;
@@ -60,6 +78,7 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
+import com.google.common.io.CountingInputStream;
 import com.google.common.io.Resources;
 
 public class DocumentParserTest {
@@ -142,6 +161,81 @@ public class DocumentParserTest {
 		assertEqualEvents(expectedEvents, actualEvents);
 	}
 	
+	@Test(dataProvider="brfProvider")
+	public void testBrfReader(InputStream input, List<DocumentEvent> expectedEvents) throws IOException {
+		try (DocumentEventReader reader = new DocumentParser().createBrfReader(input)) {
+			assertEqualEvents(expectedEvents, ImmutableList.copyOf(reader));
+		}
+	}
+	@Test(dataProvider="brfProvider")
+	public void testParseBrfPath(InputStream input, List<DocumentEvent> expectedEvents) throws IOException, ParseException {
+		Path brf = Files.createTempFile("test", ".brf");
+		try {
+			Files.copy(input, brf, StandardCopyOption.REPLACE_EXISTING);
+			// Use a small window so lines are carried between mapped windows
+			final List<DocumentEvent> actualEvents = new ArrayList<>();
+			new DocumentParser(8).parseBrf(brf, actualEvents::add);
+			assertEqualEvents(expectedEvents, actualEvents);
+			try (DocumentEventReader reader = new DocumentParser(8).createBrfReader(brf)) {
+				assertEqualEvents(expectedEvents, ImmutableList.copyOf(reader));
+			}
+		} finally {
+			Files.delete(brf);
+		}
+	}
+	@Test
+	public void testBrfReaderParsesOnDemand() throws IOException {
+		byte[] brf = Strings.repeat("TEST Braille\r\n\f", 10000).getBytes(Charsets.US_ASCII);
+		CountingInputStream input = new CountingInputStream(new ByteArrayInputStream(brf));
+		try (DocumentEventReader reader = new DocumentParser().createBrfReader(input)) {
+			int pages = 0;
+			while (pages < 2 && reader.hasNext()) {
+				if (reader.next() instanceof StartPageEvent) {
+					++pages;
+				}
+			}
+			assertEquals(pages, 2);
+			assertTrue(input.getCount() < brf.length, "Reader should not have read the whole BRF");
+		}
+	}
+	@Test
+	public void testParseBrfStopsAfterLastPage() throws ParseException {
+		byte[] brf = Strings.repeat("TEST Braille\r\n\f", 10000).getBytes(Charsets.US_ASCII);
+		CountingInputStream input = new CountingInputStream(new ByteArrayInputStream(brf));
+		List<DocumentEvent> events = new ArrayList<>();
+		DocumentToByteSourceHandler delegate = new DocumentToByteSourceHandler() {
+			@Override
+			public void onEvent(DocumentEvent event) {
+				events.add(event);
+			}
+			@Override
+			public ByteSource asByteSource() {
+				return ByteSource.empty();
+			}
+		};
+		new DocumentParser().parseBrf(input, new PageFilterByteSourceHandler(delegate, new PageRanges(2, 3)));
+		assertTrue(input.getCount() < brf.length, "Parser should stop once the last page has been parsed");
+		assertEquals(events.stream().filter(e -> e instanceof StartPageEvent).count(), 2L);
+		assertEquals(events.subList(events.size() - 3, events.size()), ImmutableList.of(new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent()));
+	}
+	@Test
+	public void testPefReaderStopsAfterLastPage() throws IOException {
+		StringBuilder pef = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><pef version=\"2008-1\" xmlns=\"http://www.daisy.org/ns/2008/pef\"><head><meta xmlns:dc=\"http://purl.org/dc/elements/1.1/\"><dc:identifier>test</dc:identifier></meta></head><body><volume cols=\"40\" rows=\"25\" rowgap=\"0\" duplex=\"false\"><section>");
+		for (int i = 0; i < 10000; i++) {
+			pef.append("<page><row>\u2801\u2803</row></page>");
+		}
+		pef.append("</section></volume><volume cols=\"40\" rows=\"25\" rowgap=\"0\" duplex=\"false\"><section><page/></section></volume></body></pef>");
+		byte[] pefBytes = pef.toString().getBytes(Charsets.UTF_8);
+		CountingInputStream input = new CountingInputStream(new ByteArrayInputStream(pefBytes));
+		List<DocumentEvent> events;
+		try (DocumentEventReader reader = new DocumentParser().createPefReader(input)) {
+			events = ImmutableList.copyOf(new PageFilter(new PageRanges(1)).apply(reader));
+		}
+		assertTrue(input.getCount() < pefBytes.length, "Reader should stop once the last page has been parsed");
+		assertEquals(events.stream().filter(e -> e instanceof StartVolumeEvent).count(), 1L);
+		assertEquals(events.subList(events.size() - 3, events.size()), ImmutableList.of(new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent()));
+	}
+	
 	@DataProvider(name="pefProvider")
 	public Iterator<Object[]> pefProvider() throws IOException {
 		List<Object[]> data = new ArrayList<>();
@@ -192,6 +286,215 @@ public class DocumentParserTest {
 		}
 		assertEqualEvents(expectedEvents, actualEvents);
 	}
+	@Test(dataProvider="pefProvider")
+	public void testParsePefStream(ByteSource input, List<DocumentEvent> expectedEvents) {
+		DocumentParser parser = new DocumentParser();
+		final List<DocumentEvent> actualEvents = new ArrayList<>();
+		try(InputStream is = input.openStream()) {
+			parser.parsePef(is, actualEvents::add);
+		} catch (IOException e) {
+			fail("Problem reading the PEF", e);
+		} catch (ParseException e) {
+			fail("Problem parsing the PEF", e);
+		}
+		assertEqualEvents(expectedEvents, actualEvents);
+	}
+	@Test(dataProvider="pefProvider")
+	public void testPefStreamReader(ByteSource input, List<DocumentEvent> expectedEvents) throws IOException {
+		try(InputStream is = input.openStream(); DocumentEventReader reader = new DocumentParser().createPefReader(is)) {
+			assertEqualEvents(expectedEvents, ImmutableList.copyOf(reader));
+		}
+	}
+	@Test(dataProvider="pefProvider")
+	public void testPefDomReader(ByteSource input, List<DocumentEvent> expectedEvents) throws IOException, SAXException, ParserConfigurationException {
+		final DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
+		docBuilderFactory.setNamespaceAware(true);
+		Document inputDoc;
+		try(InputStream is = input.openStream()) {
+			inputDoc = docBuilderFactory.newDocumentBuilder().parse(is);
+		}
+		try (DocumentEventReader reader = new DocumentParser().createPefReader(inputDoc)) {
+			assertEqualEvents(expectedEvents, ImmutableList.copyOf(reader));
+		}
+	}
+	@Test
+	public void testParsePefStreamImagesBeforeBody() throws IOException, ParseException {
+		BufferedImage img = ImageIO.read(this.getClass().getResourceAsStream("APH_Logo.png"));
+		String pef = Resources.asCharSource(Resources.getResource(this.getClass(), "graphics.pef"), Charsets.UTF_8).read();
+		int imagesStart = pef.indexOf("<tg:images>");
+		int imagesEnd = pef.indexOf("</tg:images>") + "</tg:images>".length();
+		String images = pef.substring(imagesStart, imagesEnd);
+		pef = pef.substring(0, imagesStart) + pef.substring(imagesEnd);
+		pef = pef.replace("<body>", images + "<body>").replace("<tg:graphic>", "<tg:graphic idref=\"missing\">");
+		List<DocumentEvent> expectedEvents = ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(ImmutableSet.of(new CellsPerLine(40), new LinesPerPage(25), new Duplex(false), new RowGap(0))), new StartSectionEvent(), new StartPageEvent(), new StartGraphicEvent(), new StartLineEvent(), new BrailleEvent("\u2801\u2803"), new EndLineEvent(), new EndGraphicEvent(), new StartGraphicEvent(ImmutableSet.of(new GraphicOption.ImageData(img), new GraphicOption.Indent(1), new GraphicOption.Width(33), new GraphicOption.Height(10))), new EndGraphicEvent(), new EndPageEvent(), new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent());
+		final List<DocumentEvent> actualEvents = new ArrayList<>();
+		new DocumentParser().parsePef(new ByteArrayInputStream(pef.getBytes(Charsets.UTF_8)), actualEvents::add);
+		assertEqualEvents(expectedEvents, actualEvents);
+	}
+	@Test
+	public void testParsePefStreamIgnoresExternalEntities() throws IOException {
+		final Path secret = Files.createTempFile("secret", ".txt");
+		try {
+			Files.write(secret, "SECRET".getBytes(Charsets.US_ASCII));
+			final String pef = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><!DOCTYPE pef [<!ENTITY xxe SYSTEM \"" + secret.toUri() + "\">]>"
+					+ "<pef xmlns=\"http://www.daisy.org/ns/2008/pef\" version=\"2008-1\"><head/><body><volume cols=\"40\" duplex=\"false\" rowgap=\"0\" rows=\"25\"><section><page><row>&xxe;</row></page></section></volume></body></pef>";
+			final List<DocumentEvent> events = new ArrayList<>();
+			try {
+				new DocumentParser().parsePef(new ByteArrayInputStream(pef.getBytes(Charsets.UTF_8)), events::add);
+			} catch (ParseException e) {
+				// Rejecting the entity is also fine
+			}
+			assertFalse(events.stream().anyMatch(e -> e instanceof BrailleEvent && ((BrailleEvent)e).getBraille().contains("SECRET")), "External entities should not be resolved");
+		} finally {
+			Files.delete(secret);
+		}
+	}
+	@Test
+	public void testParsePefStreamImagesAfterBody() throws IOException {
+		final BufferedImage img = ImageIO.read(this.getClass().getResourceAsStream("APH_Logo.png"));
+		final String pef = createMultiGraphicPef(200, false).replace("idref=\"img002\"", "idref=\"missing\"");
+		final byte[] pefBytes = pef.getBytes(Charsets.UTF_8);
+		final CountingInputStream input = new CountingInputStream(new ByteArrayInputStream(pefBytes));
+		final List<DocumentEvent> events = new ArrayList<>();
+		try (DocumentEventReader reader = new DocumentParser().createPefReader(input)) {
+			while (getImageOptions(events).isEmpty()) {
+				events.add(reader.next());
+			}
+			assertTrue(input.getCount() < pef.indexOf("<tg:images>"), "Graphics should be passed on before the image data is read");
+			reader.forEachRemaining(events::add);
+		}
+		final List<GraphicOption.ImageData> images = getImageOptions(events);
+		assertEquals(images.size(), 200);
+		assertImageEquals((BufferedImage)images.get(0).getValue(), img);
+		assertNull(images.get(1).getValue(), "Image data missing from the document should have no image");
+		assertImageEquals((BufferedImage)images.get(199).getValue(), img);
+	}
+	@Test
+	public void testParsePefStreamReadsImagesAfterHandlerCompletes() throws IOException, ParseException {
+		final BufferedImage img = ImageIO.read(this.getClass().getResourceAsStream("APH_Logo.png"));
+		final List<DocumentEvent> events = new ArrayList<>();
+		final DocumentHandler handler = new DocumentHandler() {
+			@Override
+			public void onEvent(DocumentEvent event) {
+				assertFalse(isComplete(), "No events should be passed on once the handler is complete");
+				events.add(event);
+			}
+			@Override
+			public boolean isComplete() {
+				return events.stream().anyMatch(e -> e instanceof EndPageEvent);
+			}
+		};
+		new DocumentParser().parsePef(new ByteArrayInputStream(createMultiGraphicPef(5, false).getBytes(Charsets.UTF_8)), handler);
+		final List<GraphicOption.ImageData> images = getImageOptions(events);
+		assertEquals(images.size(), 1);
+		assertImageEquals((BufferedImage)images.get(0).getValue(), img);
+	}
+	@Test
+	public void testGraphicsDecodedOnDemand() throws IOException, ParseException {
+		final List<DocumentEvent> events = new ArrayList<>();
+		new DocumentParser().parsePef(new ByteArrayInputStream(createMultiGraphicPef(5, false).getBytes(Charsets.UTF_8)), events::add);
+		final List<GraphicOption.ImageData> imageOptions = getImageOptions(events);
+		assertEquals(imageOptions.size(), 5);
+		for (GraphicOption.ImageData image: imageOptions) {
+			assertFalse(image.isLoaded(), "Images should not be decoded by the parser");
+		}
+		final GraphicOption.ImageData image = imageOptions.get(2);
+		assertNotNull(image.getValue());
+		assertTrue(image.isLoaded());
+		assertFalse(imageOptions.get(1).isLoaded(), "Only the image used should be decoded");
+		image.release();
+		assertFalse(image.isLoaded());
+		assertNotNull(image.getValue(), "Released image should be decoded again when needed");
+	}
+	@Test
+	public void testGraphicsFromIndexedResources() throws IOException, ParseException, ParserConfigurationException, SAXException {
+		// Resources listed in reverse order to the pages using them
+		final String pef = createMultiGraphicPef(5, true);
+		final BufferedImage expected = ImageIO.read(this.getClass().getResourceAsStream("APH_Logo.png"));
+		final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		final org.w3c.dom.Document doc = factory.newDocumentBuilder().parse(new ByteArrayInputStream(pef.getBytes(Charsets.UTF_8)));
+		final ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			for (DocumentParser parser: ImmutableList.of(new DocumentParser(), new DocumentParser(DocumentParser.DEFAULT_MAPPED_WINDOW_SIZE, pool))) {
+				final List<DocumentEvent> domEvents = new ArrayList<>();
+				parser.parsePef(doc, domEvents::add);
+				final List<DocumentEvent> streamEvents = new ArrayList<>();
+				parser.parsePef(new ByteArrayInputStream(pef.getBytes(Charsets.UTF_8)), streamEvents::add);
+				for (List<GraphicOption.ImageData> images: ImmutableList.of(getImageOptions(domEvents), getImageOptions(streamEvents))) {
+					assertEquals(images.size(), 5);
+					for (GraphicOption.ImageData image: images) {
+						assertImageEquals((BufferedImage)image.getValue(), expected);
+					}
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	@Test
+	public void testDecodePoolOnlyDecodesPrintedGraphics() throws IOException, ParseException, PrinterException {
+		final String pef = createMultiGraphicPef(5, false);
+		final ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			// Each decode is a lookup in the cache
+			final ImageCache cache = new ImageCache(ImageCache.DEFAULT_MAX_BYTES);
+			final List<DocumentEvent> events = new ArrayList<>();
+			new DocumentParser(DocumentParser.DEFAULT_MAPPED_WINDOW_SIZE, pool, cache).parsePef(new ByteArrayInputStream(pef.getBytes(Charsets.UTF_8)), events::add);
+			pool.awaitQuiescence(10, TimeUnit.SECONDS);
+			assertEquals(cache.getHitCount() + cache.getMissCount(), 0L, "The parser should not decode images");
+			final Printable printable = new DocumentToPrintableHandler.Builder().build().apply(new PageFilter(new PageRanges(2, 3)).apply(events.iterator()));
+			pool.awaitQuiescence(10, TimeUnit.SECONDS);
+			assertEquals(cache.getHitCount() + cache.getMissCount(), 0L, "Images should not be decoded until they are printed");
+			printable.print(new BufferedImage(850, 1100, BufferedImage.TYPE_BYTE_GRAY).createGraphics(), new PageFormat(), 0);
+			pool.awaitQuiescence(10, TimeUnit.SECONDS);
+			assertEquals(cache.getHitCount() + cache.getMissCount(), 2L, "Only the graphics on the printed page and the next should be decoded");
+			final List<GraphicOption.ImageData> images = getImageOptions(events);
+			assertNotNull(images.get(1).getValue());
+			assertEquals(cache.getHitCount() + cache.getMissCount(), 2L, "Prefetched images should be taken from the pool");
+		} finally {
+			pool.shutdown();
+		}
+	}
+	@Test
+	public void testRepeatedOptionsShareInternedSets() throws ParseException {
+		final String pef = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><pef xmlns=\"http://www.daisy.org/ns/2008/pef\" version=\"2008-1\"><head/><body><volume cols=\"40\" duplex=\"false\" rowgap=\"0\" rows=\"25\"><section>"
+				+ "<page rowgap=\"1\"><row>\u2801</row></page><page rowgap=\"1\"><row>\u2803</row></page><page rowgap=\"2\"><row>\u2809</row></page>"
+				+ "</section></volume></body></pef>";
+		final List<Set<? extends Option>> volumeOptions = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			final List<DocumentEvent> events = new ArrayList<>();
+			new DocumentParser().parsePef(new ByteArrayInputStream(pef.getBytes(Charsets.UTF_8)), events::add);
+			final List<Set<? extends Option>> pageOptions = events.stream().filter(e -> e instanceof StartPageEvent).map(e -> ((StartPageEvent)e).getOptions()).collect(ImmutableList.toImmutableList());
+			assertEquals(pageOptions.size(), 3);
+			assertSame(pageOptions.get(1), pageOptions.get(0), "Pages with the same attributes should share options");
+			assertNotSame(pageOptions.get(2), pageOptions.get(0));
+			assertEquals(((RowGap)pageOptions.get(2).iterator().next()).getValue(), Integer.valueOf(2));
+			events.stream().filter(e -> e instanceof StartVolumeEvent).map(e -> ((StartVolumeEvent)e).getOptions()).forEach(volumeOptions::add);
+		}
+		assertEquals(volumeOptions.size(), 2);
+		assertSame(volumeOptions.get(1), volumeOptions.get(0), "Documents with the same attributes should share options");
+		assertTrue(volumeOptions.get(0).stream().anyMatch(o -> o == OptionInterner.getDefault().intern(new CellsPerLine(40))));
+	}
+	private String createMultiGraphicPef(int count, boolean reverseResources) throws IOException {
+		String pef = Resources.asCharSource(Resources.getResource(this.getClass(), "graphics.pef"), Charsets.UTF_8).read();
+		final int pageStart = pef.indexOf("<page>");
+		final int pageEnd = pef.indexOf("</page>") + "</page>".length();
+		final int imageStart = pef.indexOf("<tg:imageData");
+		final int imageEnd = pef.indexOf("</tg:imageData>") + "</tg:imageData>".length();
+		final String page = pef.substring(pageStart, pageEnd);
+		final String imageData = pef.substring(imageStart, imageEnd);
+		StringBuilder pages = new StringBuilder();
+		StringBuilder images = new StringBuilder();
+		for (int i = 1; i <= count; i++) {
+			pages.append(page.replace("img001", "img00" + i));
+			images.insert(reverseResources ? 0 : images.length(), imageData.replace("img001", "img00" + i));
+		}
+		return pef.substring(0, pageStart) + pages + pef.substring(pageEnd, imageStart) + images + pef.substring(imageEnd);
+	}
+	private static List<GraphicOption.ImageData> getImageOptions(List<DocumentEvent> events) {
+		return events.stream().filter(e -> e instanceof StartGraphicEvent).flatMap(e -> ((StartGraphicEvent)e).getOptions().stream()).filter(o -> o instanceof GraphicOption.ImageData).map(o -> (GraphicOption.ImageData)o).collect(ImmutableList.toImmutableList());
+	}
 	public static void assertImageEquals(BufferedImage imageA, BufferedImage imageB) {
 		if (imageA.getWidth() != imageB.getWidth()) {
 			fail(String.format("Image widths do not match, expected %d but got %d", imageB.getWidth(), imageB.getWidth()));
@@ -10,9 +10,15 @@ package org.brailleblaster.libembosser.drivers.utils;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.expectThrows;
 
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.print.PageFormat;
+import java.awt.print.Printable;
+import java.awt.print.PrinterException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -116,6 +122,18 @@ public class DocumentToPrintableHandlerTest {
 			assertEquals(actualPage, expectedPage);
 		}
 	}
+	@Test(dataProvider="rowProvider")
+	public void testAddingRowsAsPages(List<DocumentEvent> events, List<DocumentToPrintableHandler.Page>pages ) {
+		DocumentToPrintableHandler handler = createHandlerBuilder().build();
+		DocumentHandler collector = PageBlockHandler.collectPages(handler);
+		for (DocumentEvent event: events) {
+			collector.onEvent(event);
+		}
+		assertEquals(handler.getpageCount(), pages.size());
+		for (int i = 0; i < handler.getpageCount(); ++i) {
+			assertEquals(handler.getPage(i), pages.get(i));
+		}
+	}
 	@DataProvider(name="invalidStateChangeProvider")
 	public Iterator<Object[]> invalidStateChangeProvider() {
 		List<Object[]> data = new ArrayList<>();
@@ -248,4 +266,70 @@ public class DocumentToPrintableHandlerTest {
 			assertNotEquals(actualPage, expectedPage);
 		}
 	}
+	@Test
+	public void testPrintOnlyHoldsImagesOfPrintedAndNextPage() throws PrinterException {
+		final int pageCount = 6;
+		final List<CountingLoader> loaders = new ArrayList<>();
+		final List<GraphicOption.ImageData> images = new ArrayList<>();
+		final List<DocumentEvent> events = new ArrayList<>(ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent()));
+		for (int i = 0; i < pageCount; i++) {
+			events.add(new StartPageEvent());
+			for (int j = 0; j < 2; j++) {
+				final CountingLoader loader = new CountingLoader();
+				final GraphicOption.ImageData image = new GraphicOption.ImageData(loader);
+				loaders.add(loader);
+				images.add(image);
+				events.add(new StartGraphicEvent(ImmutableSet.of(image, new GraphicOption.Width(10), new GraphicOption.Height(5))));
+				events.add(new EndGraphicEvent());
+			}
+			events.add(new EndPageEvent());
+		}
+		events.addAll(ImmutableList.of(new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent()));
+		final Printable printable = createHandlerBuilder().build().apply(events.iterator());
+		assertEquals(countHeldImages(loaders, images, -1), 0, "No images should be decoded before printing");
+		final Graphics2D graphics = new BufferedImage(850, 1100, BufferedImage.TYPE_BYTE_GRAY).createGraphics();
+		for (int page = 0; page < pageCount; page++) {
+			// A page may be printed more than once
+			for (int pass = 0; pass < 2; pass++) {
+				printable.print(graphics, new PageFormat(), page);
+				assertEquals(countHeldImages(loaders, images, page), page + 1 < pageCount ? 4 : 2, "Only the images of the printed page and the next should be held");
+			}
+		}
+		printable.print(graphics, new PageFormat(), 0);
+		printable.print(graphics, new PageFormat(), 3);
+		assertEquals(countHeldImages(loaders, images, 3), 4, "Images of a page skipped over should be released");
+		assertEquals(loaders.stream().mapToInt(l -> l.loads).sum(), pageCount * 2 + 4);
+	}
+	/**
+	 * Count the images loaded or prefetched, checking they are only those of the page and the page after it.
+	 */
+	private static int countHeldImages(List<CountingLoader> loaders, List<GraphicOption.ImageData> images, int page) {
+		int held = 0;
+		for (int i = 0; i < images.size(); i++) {
+			if (images.get(i).isLoaded() || loaders.get(i).prefetched) {
+				final int imagePage = i / 2;
+				assertTrue(imagePage == page || imagePage == page + 1, String.format("Image %d of page %d should not be held whilst printing page %d", i, imagePage, page));
+				++held;
+			}
+		}
+		return held;
+	}
+	private static class CountingLoader implements GraphicOption.ImageData.PrefetchingLoader {
+		private boolean prefetched;
+		private int loads;
+		@Override
+		public void prefetch() {
+			prefetched = true;
+		}
+		@Override
+		public void release() {
+			prefetched = false;
+		}
+		@Override
+		public Image get() {
+			prefetched = false;
+			++loads;
+			return new BufferedImage(20, 10, BufferedImage.TYPE_BYTE_GRAY);
+		}
+	}
 }
@@ -0,0 +1,101 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+
+import org.brailleblaster.libembosser.drivers.utils.DocumentParser.ParseException;
+import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.GraphicOption;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartGraphicEvent;
+import org.testng.annotations.Test;
+
+import com.google.common.io.Resources;
+
+public class ImageCacheTest {
+	@Test
+	public void testHitAndMiss() {
+		ImageCache cache = new ImageCache(1024 * 1024);
+		final int[] decodes = new int[1];
+		final Image image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+		Optional<Image> first = cache.get("abcd", d -> {
+			decodes[0]++;
+			return Optional.of(image);
+		});
+		Optional<Image> second = cache.get("abcd", d -> {
+			decodes[0]++;
+			return Optional.of(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB));
+		});
+		assertSame(first.get(), image);
+		assertSame(second.get(), image);
+		assertEquals(decodes[0], 1);
+		assertEquals(cache.getMissCount(), 1L);
+		assertEquals(cache.getHitCount(), 1L);
+		assertFalse(cache.get("efgh", d -> Optional.empty()).isPresent());
+		assertFalse(cache.get("efgh", d -> Optional.of(image)).isPresent(), "Undecodable data should also be cached");
+		assertEquals(cache.getMissCount(), 2L);
+		assertEquals(cache.getHitCount(), 2L);
+	}
+	@Test
+	public void testEvictionByPixelBytes() {
+		// Each image is 40000 bytes, so only two fit
+		ImageCache cache = new ImageCache(100000);
+		for (int i = 0; i < 5; i++) {
+			cache.get("image" + i, d -> Optional.of(new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB)));
+		}
+		assertTrue(cache.getEvictionCount() >= 3L, "Images beyond the byte limit should be evicted");
+		final int[] decodes = new int[1];
+		cache.get("image0", d -> {
+			decodes[0]++;
+			return Optional.empty();
+		});
+		assertEquals(decodes[0], 1, "The least recently used image should have been evicted");
+	}
+	@Test
+	public void testImageBytes() {
+		assertEquals(ImageCache.imageBytes(new BufferedImage(10, 20, BufferedImage.TYPE_INT_ARGB)), 800);
+		assertEquals(ImageCache.imageBytes(new BufferedImage(10, 20, BufferedImage.TYPE_BYTE_GRAY)), 200);
+	}
+	@Test
+	public void testParserSharesImagesBetweenDocuments() throws IOException, ParseException {
+		ImageCache cache = new ImageCache(ImageCache.DEFAULT_MAX_BYTES);
+		DocumentParser parser = new DocumentParser(DocumentParser.DEFAULT_MAPPED_WINDOW_SIZE, null, cache);
+		List<Image> images = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			List<DocumentEvent> events = new ArrayList<>();
+			parser.parsePef(Resources.getResource(getClass(), "graphics.pef").openStream(), events::add);
+			events.stream().filter(e -> e instanceof StartGraphicEvent).flatMap(e -> ((StartGraphicEvent)e).getOptions().stream()).filter(o -> o instanceof GraphicOption.ImageData).forEach(o -> images.add(((GraphicOption.ImageData)o).getValue()));
+		}
+		assertEquals(images.size(), 3);
+		assertSame(images.get(1), images.get(0));
+		assertSame(images.get(2), images.get(0));
+		assertEquals(cache.getMissCount(), 1L);
+		assertEquals(cache.getHitCount(), 2L);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			List<DocumentEvent> events = new ArrayList<>();
+			new DocumentParser(DocumentParser.DEFAULT_MAPPED_WINDOW_SIZE, pool, cache).parsePef(Resources.getResource(getClass(), "graphics.pef").openStream(), events::add);
+			Image image = events.stream().filter(e -> e instanceof StartGraphicEvent).flatMap(e -> ((StartGraphicEvent)e).getOptions().stream()).filter(o -> o instanceof GraphicOption.ImageData).map(o -> ((GraphicOption.ImageData)o).getValue()).findFirst().get();
+			assertSame(image, images.get(0));
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.brailleblaster.libembosser.drivers.utils.DocumentParser.ParseException;
+import org.brailleblaster.libembosser.drivers.utils.document.DocumentEventReader;
+import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartSectionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartVolumeEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.filters.PageFilter;
+import org.brailleblaster.libembosser.embossing.attribute.PageRanges;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class PageIndexTest {
+	private static Path createPef(int volumes, int sections, int pages) throws IOException {
+		StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- Test document -->\n<pef version=\"2008-1\" xmlns=\"http://www.daisy.org/ns/2008/pef\"><head><meta xmlns:dc=\"http://purl.org/dc/elements/1.1/\"><dc:format>application/x-pef+xml</dc:format><dc:identifier>test</dc:identifier></meta></head><body>\n");
+		int page = 0;
+		for (int v = 0; v < volumes; v++) {
+			sb.append("<volume cols=\"").append(30 + v).append("\" rows=\"25\" rowgap=\"0\" duplex=\"false\">\n");
+			for (int s = 0; s < sections; s++) {
+				sb.append("<section rows=\"").append(20 + s).append("\">\n");
+				for (int p = 0; p < pages; p++) {
+					page++;
+					sb.append("<page><row>");
+					for (int i = 0; i < page; i++) {
+						sb.append('\u2801');
+					}
+					sb.append("</row><row/><row>\u2803\u2807</row></page>\n");
+				}
+				sb.append("</section>\n");
+			}
+			sb.append("</volume>\n");
+		}
+		sb.append("</body></pef>\n");
+		Path pef = Files.createTempFile("pageindex", ".pef");
+		Files.write(pef, sb.toString().getBytes(StandardCharsets.UTF_8));
+		return pef;
+	}
+	private static Path createBrf() throws IOException {
+		Path brf = Files.createTempFile("pageindex", ".brf");
+		Files.write(brf, "ONE\r\n\r\nA\f\fTWO\r\nB\r\n\r\n\fTHREE\r\nC\fFOUR\nD\n\fFIVE\r\n\f\r\nSIX\r\n\f".getBytes(StandardCharsets.US_ASCII));
+		return brf;
+	}
+	private static List<DocumentEvent> readAll(DocumentEventReader reader) throws IOException {
+		try (DocumentEventReader r = reader) {
+			return ImmutableList.copyOf(r);
+		}
+	}
+	private static List<DocumentEvent> filterPages(List<DocumentEvent> events, PageRanges pages) {
+		return ImmutableList.copyOf(new PageFilter(pages).apply(events.iterator()));
+	}
+	private static void deleteAll(Path document) throws IOException {
+		Files.deleteIfExists(PageIndex.sidecarPath(document));
+		Files.deleteIfExists(document);
+	}
+	@Test
+	public void testIndexBrf() throws IOException, ParseException {
+		Path brf = createBrf();
+		try {
+			PageIndex index = PageIndex.indexBrf(brf);
+			assertEquals(index.getFormat(), PageIndex.Format.BRF);
+			assertEquals(index.getPageCount(), 7);
+			List<DocumentEvent> events = readAll(new DocumentParser().createBrfReader(brf));
+			assertEquals(events.stream().filter(e -> e instanceof StartPageEvent).count(), 7L);
+		} finally {
+			deleteAll(brf);
+		}
+	}
+	@Test
+	public void testBrfPagesMatchPageFilter() throws IOException, ParseException {
+		Path brf = createBrf();
+		try {
+			PageIndex index = PageIndex.indexBrf(brf);
+			List<DocumentEvent> allEvents = readAll(new DocumentParser().createBrfReader(brf));
+			for (String ranges: new String[] {"1", "2", "7", "1-7", "2,4-5", "3-6", "1,3,5,7", "6-20"}) {
+				PageRanges pages = new PageRanges(ranges);
+				assertEquals(readAll(new DocumentParser().createReader(brf, index, pages)), filterPages(allEvents, pages), "Events differ for pages " + ranges);
+			}
+		} finally {
+			deleteAll(brf);
+		}
+	}
+	@Test
+	public void testPefPagesMatchPageFilter() throws IOException, ParseException {
+		Path pef = createPef(2, 2, 3);
+		try {
+			PageIndex index = PageIndex.indexPef(pef);
+			assertEquals(index.getFormat(), PageIndex.Format.PEF);
+			assertEquals(index.getPageCount(), 12);
+			assertEquals(index.getPageVolume(7), 1);
+			assertEquals(index.getPageSection(7), 2);
+			List<DocumentEvent> allEvents = readAll(new DocumentParser().createPefReader(Files.newInputStream(pef)));
+			// Each range set has pages in every volume and section
+			for (String ranges: new String[] {"1-12", "2-4,6,8-11", "1,5,7,12", "3-10,12"}) {
+				PageRanges pages = new PageRanges(ranges);
+				assertEquals(readAll(new DocumentParser().createReader(pef, index, pages)), filterPages(allEvents, pages), "Events differ for pages " + ranges);
+			}
+		} finally {
+			deleteAll(pef);
+		}
+	}
+	@Test
+	public void testPefOmitsVolumesWithoutPages() throws IOException, ParseException {
+		Path pef = createPef(3, 2, 2);
+		try {
+			PageIndex index = PageIndex.indexPef(pef);
+			List<DocumentEvent> events = readAll(new DocumentParser().createReader(pef, index, new PageRanges("4-5")));
+			assertEquals(events.stream().filter(e -> e instanceof StartVolumeEvent).count(), 2L);
+			assertEquals(events.stream().filter(e -> e instanceof StartSectionEvent).count(), 2L);
+			List<String> firstRows = new ArrayList<>();
+			boolean pageStarted = false;
+			for (DocumentEvent event: events) {
+				if (event instanceof StartPageEvent) {
+					pageStarted = true;
+				} else if (pageStarted && event instanceof BrailleEvent) {
+					firstRows.add(((BrailleEvent)event).getBraille());
+					pageStarted = false;
+				}
+			}
+			assertEquals(firstRows, ImmutableList.of("\u2801\u2801\u2801\u2801", "\u2801\u2801\u2801\u2801\u2801"));
+		} finally {
+			deleteAll(pef);
+		}
+	}
+	@Test
+	public void testWriteAndRead() throws IOException {
+		Path pef = createPef(2, 1, 2);
+		try {
+			PageIndex index = PageIndex.indexPef(pef);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			index.writeTo(out);
+			PageIndex copy = PageIndex.readFrom(new ByteArrayInputStream(out.toByteArray()));
+			assertEquals(copy.getFormat(), index.getFormat());
+			assertEquals(copy.getPageCount(), index.getPageCount());
+			for (int page = 1; page <= index.getPageCount(); page++) {
+				assertEquals(copy.getPageStart(page), index.getPageStart(page));
+				assertEquals(copy.getPageEnd(page), index.getPageEnd(page));
+				assertEquals(copy.getPageVolume(page), index.getPageVolume(page));
+				assertEquals(copy.getPageSection(page), index.getPageSection(page));
+			}
+			assertEquals(copy.createPefSuffix(3), index.createPefSuffix(3));
+		} finally {
+			deleteAll(pef);
+		}
+	}
+	@Test
+	public void testStaleSidecarIgnored() throws IOException {
+		Path brf = createBrf();
+		try {
+			assertFalse(PageIndex.loadSidecar(brf).isPresent());
+			PageIndex.indexBrf(brf).saveSidecar(brf);
+			assertTrue(PageIndex.loadSidecar(brf).isPresent());
+			Files.write(brf, "CHANGED\f".getBytes(StandardCharsets.US_ASCII));
+			Files.setLastModifiedTime(brf, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+			assertFalse(PageIndex.loadSidecar(brf).isPresent(), "Index of a changed document should not be loaded");
+		} finally {
+			deleteAll(brf);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndDocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndLineEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndSectionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndVolumeEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartDocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartLineEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartSectionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartVolumeEvent;
+import org.testng.annotations.Test;
+
+public class DirectBufferArenaTest {
+	private static List<DocumentEvent> createDocument(int pages) {
+		List<DocumentEvent> events = new ArrayList<>();
+		events.add(new StartDocumentEvent());
+		events.add(new StartVolumeEvent());
+		events.add(new StartSectionEvent());
+		for (int page = 0; page < pages; page++) {
+			events.add(new StartPageEvent());
+			for (int line = 0; line < 25; line++) {
+				events.add(new StartLineEvent());
+				events.add(new BrailleEvent("\u2801\u2803\u2809\u2819\u2811\u280b\u281b\u2813\u280a\u281a"));
+				events.add(new EndLineEvent());
+			}
+			events.add(new EndPageEvent());
+		}
+		events.add(new EndSectionEvent());
+		events.add(new EndVolumeEvent());
+		events.add(new EndDocumentEvent());
+		return events;
+	}
+	@Test
+	public void testAcquireSizes() {
+		DirectBufferArena arena = new DirectBufferArena(1024 * 1024);
+		ByteBuffer buffer = arena.acquire(0);
+		assertTrue(buffer.isDirect());
+		assertEquals(buffer.capacity(), DirectBufferArena.MIN_BUFFER_SIZE);
+		assertEquals(arena.acquire(DirectBufferArena.MIN_BUFFER_SIZE + 1).capacity(), DirectBufferArena.MIN_BUFFER_SIZE * 2);
+		assertEquals(arena.acquire(100000).capacity(), 128 * 1024);
+		assertNull(arena.acquire(DirectBufferArena.MAX_BUFFER_SIZE + 1));
+		assertEquals(arena.getUsedBytes(), 4L * 1024 + 8 * 1024 + 128 * 1024);
+		assertEquals(arena.getReservedBytes(), arena.getUsedBytes());
+		assertEquals(arena.getExhaustedCount(), 1L);
+	}
+	@Test
+	public void testReleasedBuffersReused() {
+		DirectBufferArena arena = new DirectBufferArena(1024 * 1024);
+		ByteBuffer small = arena.acquire(1000);
+		ByteBuffer large = arena.acquire(20000);
+		small.put((byte)1);
+		arena.release(small);
+		arena.release(large);
+		assertEquals(arena.getUsedBytes(), 0L);
+		assertEquals(arena.getReservedBytes(), (long)(small.capacity() + large.capacity()));
+		assertSame(arena.acquire(17000), large);
+		ByteBuffer reused = arena.acquire(10);
+		assertSame(reused, small);
+		assertEquals(reused.position(), 0, "Reused buffers should be cleared");
+		assertEquals(arena.getPeakUsedBytes(), (long)(small.capacity() + large.capacity()));
+		expectThrows(IllegalArgumentException.class, () -> arena.release(ByteBuffer.allocate(DirectBufferArena.MIN_BUFFER_SIZE)));
+	}
+	@Test
+	public void testArenaBounded() {
+		DirectBufferArena arena = new DirectBufferArena(4 * DirectBufferArena.MIN_BUFFER_SIZE);
+		ByteBuffer first = arena.acquire(2 * DirectBufferArena.MIN_BUFFER_SIZE);
+		ByteBuffer second = arena.acquire(2 * DirectBufferArena.MIN_BUFFER_SIZE);
+		assertNull(arena.acquire(1), "Arena should be full");
+		assertEquals(arena.getExhaustedCount(), 1L);
+		arena.release(first);
+		arena.release(second);
+		// Free buffers of another size are dropped to make room
+		ByteBuffer whole = arena.acquire(4 * DirectBufferArena.MIN_BUFFER_SIZE);
+		assertEquals(whole.capacity(), 4 * DirectBufferArena.MIN_BUFFER_SIZE);
+		assertEquals(arena.getReservedBytes(), 4L * DirectBufferArena.MIN_BUFFER_SIZE);
+	}
+	@Test
+	public void testHandlerOutputOffHeap() throws IOException {
+		List<DocumentEvent> events = createDocument(20);
+		GenericTextDocumentHandler heapHandler = new GenericTextDocumentHandler.Builder().build();
+		events.forEach(heapHandler::onEvent);
+		DirectBufferArena arena = new DirectBufferArena(1024 * 1024);
+		GenericTextDocumentHandler handler = new GenericTextDocumentHandler.Builder().setBufferArena(arena).setSizeHint(1024).build();
+		for (int i = 0; i < 3; i++) {
+			events.forEach(handler::onEvent);
+			assertTrue(arena.getUsedBytes() > 0);
+			assertEquals(handler.asByteSource().read(), heapHandler.asByteSource().read());
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			handler.asByteSource().copyTo(output);
+			assertEquals(output.toByteArray(), heapHandler.asByteSource().read());
+			handler.reset();
+			assertEquals(arena.getUsedBytes(), 0L, "Buffers should be returned to the arena on reset");
+		}
+	}
+	@Test
+	public void testHandlerSpillsWhenArenaFull() throws IOException {
+		List<DocumentEvent> events = createDocument(100);
+		GenericTextDocumentHandler heapHandler = new GenericTextDocumentHandler.Builder().build();
+		events.forEach(heapHandler::onEvent);
+		DirectBufferArena arena = new DirectBufferArena(8 * 1024);
+		GenericTextDocumentHandler handler = new GenericTextDocumentHandler.Builder().setBufferArena(arena).setSizeHint(1024).build();
+		events.forEach(handler::onEvent);
+		assertTrue(arena.getExhaustedCount() > 0);
+		assertEquals(arena.getUsedBytes(), 0L, "Output moved to a file should free the arena");
+		assertEquals(handler.asByteSource().read(), heapHandler.asByteSource().read());
+		handler.reset();
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.brailleblaster.libembosser.drivers.utils.DocumentParser;
+import org.brailleblaster.libembosser.drivers.utils.DocumentParser.ParseException;
+import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.CellsPerLine;
+import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndDocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndLineEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndSectionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndVolumeEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.RowGap;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartDocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartLineEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartSectionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartVolumeEvent;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+
+public class DocumentTapeTest {
+	@DataProvider(name="pefProvider")
+	public Object[][] pefProvider() {
+		return new Object[][] {
+			{"basic_document.pef"},
+			{"multi_page.pef"},
+			{"multi_volume.pef"},
+			{"options.pef"},
+			{"graphics.pef"}
+		};
+	}
+	@Test(dataProvider="pefProvider")
+	public void testReplayParsedPef(String resource) throws IOException, ParseException {
+		List<DocumentEvent> events = new ArrayList<>();
+		DocumentTape.Recorder recorder = new DocumentTape.Recorder();
+		DocumentParser parser = new DocumentParser();
+		parser.parsePef(Resources.getResource(DocumentParser.class, resource).openStream(), e -> {
+			events.add(e);
+			recorder.onEvent(e);
+		});
+		DocumentTape tape = recorder.build();
+		assertEquals(tape.getEventCount(), events.size());
+		assertEquals(Lists.newArrayList(tape), events);
+		assertEquals(Lists.newArrayList(tape), events, "Replaying the tape again should give the same events");
+	}
+	@Test
+	public void testReplayAsciiBraille() throws ParseException {
+		List<DocumentEvent> events = new ArrayList<>();
+		DocumentTape.Recorder recorder = new DocumentTape.Recorder();
+		new DocumentParser().parseBrf(new ByteArrayInputStream(",a te/ docu;t4\r\n\f,page #b\f".getBytes(StandardCharsets.US_ASCII)), e -> {
+			events.add(e);
+			recorder.onEvent(e);
+		});
+		DocumentTape tape = recorder.build();
+		List<DocumentEvent> replayed = Lists.newArrayList(tape);
+		assertEquals(replayed, events);
+		assertEquals(((BrailleEvent)replayed.get(5)).getBraille(), ((BrailleEvent)events.get(5)).getBraille());
+	}
+	@Test
+	public void testSharesRepeatedStartEvents() {
+		List<DocumentEvent> events = new ArrayList<>();
+		events.add(new StartDocumentEvent());
+		events.add(new StartVolumeEvent());
+		events.add(new StartSectionEvent(ImmutableSet.of(new CellsPerLine(40))));
+		for (int page = 0; page < 100; page++) {
+			events.add(new StartPageEvent(ImmutableSet.of(new RowGap(1))));
+			for (int line = 0; line < 25; line++) {
+				events.add(new StartLineEvent());
+				events.add(new BrailleEvent("\u2801\u2803\u2809\u2819\u2811\u2800\u28ff"));
+				events.add(new EndLineEvent());
+			}
+			events.add(new EndPageEvent());
+		}
+		events.add(new EndSectionEvent());
+		events.add(new EndVolumeEvent());
+		events.add(new EndDocumentEvent());
+		DocumentTape tape = DocumentTape.record(events.iterator());
+		assertEquals(Lists.newArrayList(tape), events);
+		assertEquals(tape.getTableSize(), 5, "Start events with the same options should only be held once");
+		// Each line is 7 cells, 21 bytes as UTF-8
+		assertTrue(tape.getEncodedSize() < 2500 * 21, "Tape should be smaller than the Braille as UTF-8 but was " + tape.getEncodedSize() + " bytes");
+		List<DocumentEvent> first = Lists.newArrayList(tape);
+		List<DocumentEvent> second = Lists.newArrayList(tape);
+		assertSame(second.get(3), first.get(3));
+		assertSame(second.get(first.size() - 1), first.get(first.size() - 1));
+	}
+	@Test
+	public void testBrailleCellsOneBytePerCell() {
+		String cells = "\u2800\u2801\u287f\u2880\u28ff";
+		DocumentTape tape = DocumentTape.record(ImmutableList.<DocumentEvent>of(new BrailleEvent(cells)).iterator());
+		assertEquals(tape.getEncodedSize(), 2 + cells.length());
+		assertEquals(((BrailleEvent)tape.iterator().next()).getBraille(), cells);
+	}
+	@Test
+	public void testLargeDocumentGrowsTape() {
+		List<DocumentEvent> events = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			events.add(new BrailleEvent("abc\u00e9" + i));
+		}
+		DocumentTape tape = DocumentTape.record(events.iterator());
+		assertEquals(Lists.newArrayList(tape), events);
+	}
+	@Test
+	public void testRecordOffHeap() throws IOException, ParseException {
+		DirectBufferArena arena = new DirectBufferArena(1024 * 1024);
+		List<DocumentEvent> events = new ArrayList<>();
+		DocumentTape.Recorder recorder = new DocumentTape.Recorder(arena);
+		new DocumentParser().parsePef(Resources.getResource(DocumentParser.class, "multi_page.pef").openStream(), e -> {
+			events.add(e);
+			recorder.onEvent(e);
+		});
+		DocumentTape tape = recorder.build();
+		assertTrue(tape.isDirect());
+		assertEquals(Lists.newArrayList(tape), events);
+		assertEquals(arena.getUsedBytes(), (long)DirectBufferArena.MIN_BUFFER_SIZE);
+		tape.release();
+		assertEquals(arena.getUsedBytes(), 0L);
+		expectThrows(IllegalStateException.class, tape::iterator);
+		tape.release();
+		assertEquals(arena.getUsedBytes(), 0L, "Releasing twice should not return the buffer twice");
+	}
+	@Test
+	public void testRecordFallsBackToHeapWhenArenaFull() {
+		DirectBufferArena arena = new DirectBufferArena(DirectBufferArena.MIN_BUFFER_SIZE);
+		List<DocumentEvent> events = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			events.add(new BrailleEvent("\u2801\u2803\u2809"));
+		}
+		DocumentTape.Recorder recorder = new DocumentTape.Recorder(arena);
+		events.forEach(recorder::onEvent);
+		DocumentTape tape = recorder.build();
+		assertFalse(tape.isDirect());
+		assertEquals(arena.getUsedBytes(), 0L);
+		assertEquals(Lists.newArrayList(tape), events);
+		DocumentTape.Recorder abandoned = new DocumentTape.Recorder(arena);
+		abandoned.onEvent(new StartDocumentEvent());
+		assertEquals(arena.getUsedBytes(), (long)DirectBufferArena.MIN_BUFFER_SIZE);
+		abandoned.release();
+		assertEquals(arena.getUsedBytes(), 0L);
+	}
+	@Test
+	public void testRecorderRejectsEventsAfterBuild() {
+		DocumentTape.Recorder recorder = new DocumentTape.Recorder();
+		recorder.onEvent(new StartDocumentEvent());
+		recorder.build();
+		expectThrows(IllegalStateException.class, () -> recorder.onEvent(new EndDocumentEvent()));
+		Iterator<DocumentEvent> empty = DocumentTape.record(ImmutableList.<DocumentEvent>of().iterator()).iterator();
+		expectThrows(java.util.NoSuchElementException.class, empty::next);
+	}
+}
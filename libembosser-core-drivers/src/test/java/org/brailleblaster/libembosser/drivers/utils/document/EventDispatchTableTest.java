@@ -0,0 +1,83 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndDocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndGraphicEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndLineEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndSectionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndVolumeEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EventKind;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartDocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartGraphicEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartLineEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartSectionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartVolumeEvent;
+import org.testng.annotations.Test;
+
+public class EventDispatchTableTest {
+	private enum States {
+		OPEN, CLOSED
+	}
+	private static final EventDispatchTable<List<String>, States> TABLE = EventDispatchTable.<List<String>, States>builder(States.class)
+			.on(States.CLOSED, EventKind.START_DOCUMENT, (l, e) -> l.add("start"))
+			.on(States.OPEN, EventKind.BRAILLE, (l, e) -> l.add(((BrailleEvent)e).getBraille()))
+			.on(States.OPEN, EventKind.END_DOCUMENT, (l, e) -> l.add("end"))
+			.ignore(States.OPEN, EventKind.OTHER)
+			.build();
+
+	@Test
+	public void testEventKinds() {
+		assertEquals(new StartDocumentEvent().getKind(), EventKind.START_DOCUMENT);
+		assertEquals(new StartVolumeEvent().getKind(), EventKind.START_VOLUME);
+		assertEquals(new StartSectionEvent().getKind(), EventKind.START_SECTION);
+		assertEquals(new StartPageEvent().getKind(), EventKind.START_PAGE);
+		assertEquals(new StartLineEvent().getKind(), EventKind.START_LINE);
+		assertEquals(new StartGraphicEvent().getKind(), EventKind.START_GRAPHIC);
+		assertEquals(new BrailleEvent("\u2801").getKind(), EventKind.BRAILLE);
+		assertEquals(new EndLineEvent().getKind(), EventKind.END_LINE);
+		assertEquals(new EndGraphicEvent().getKind(), EventKind.END_GRAPHIC);
+		assertEquals(new EndPageEvent().getKind(), EventKind.END_PAGE);
+		assertEquals(new EndSectionEvent().getKind(), EventKind.END_SECTION);
+		assertEquals(new EndVolumeEvent().getKind(), EventKind.END_VOLUME);
+		assertEquals(new EndDocumentEvent().getKind(), EventKind.END_DOCUMENT);
+		assertEquals(new DocumentEvent() {}.getKind(), EventKind.OTHER);
+	}
+	@Test
+	public void testDispatch() {
+		List<String> calls = new ArrayList<>();
+		TABLE.dispatch(calls, States.CLOSED, new StartDocumentEvent(), true);
+		TABLE.dispatch(calls, States.OPEN, new BrailleEvent("\u2801"), true);
+		TABLE.dispatch(calls, States.OPEN, new DocumentEvent() {}, true);
+		TABLE.dispatch(calls, States.OPEN, new EndDocumentEvent(), true);
+		assertEquals(calls, List.of("start", "\u2801", "end"));
+		assertTrue(TABLE.isValid(States.OPEN, EventKind.OTHER));
+		assertFalse(TABLE.isValid(States.CLOSED, EventKind.OTHER));
+	}
+	@Test
+	public void testStrictAndLenient() {
+		List<String> calls = new ArrayList<>();
+		IllegalStateException e = expectThrows(IllegalStateException.class, () -> TABLE.dispatch(calls, States.CLOSED, new EndDocumentEvent(), true));
+		assertEquals(e.getMessage(), "Invalid event " + EndDocumentEvent.class.getName() + " for state CLOSED");
+		TABLE.dispatch(calls, States.CLOSED, new EndDocumentEvent(), false);
+		assertTrue(calls.isEmpty());
+	}
+}
@@ -9,15 +9,24 @@
 package org.brailleblaster.libembosser.drivers.utils.document;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.expectThrows;
 import static org.testng.Assert.fail;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
 import org.brailleblaster.libembosser.drivers.utils.DocumentHandler;
+import org.brailleblaster.libembosser.drivers.utils.DocumentParser;
+import org.brailleblaster.libembosser.drivers.utils.DocumentParser.ParseException;
+import org.brailleblaster.libembosser.drivers.utils.PageBlockHandler;
 import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.Duplex;
@@ -31,12 +40,14 @@ import org.brailleblaster.libembosser.drivers.utils.document.events.StartLineEve
 import org.brailleblaster.libembosser.drivers.utils.document.events.StartPageEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.StartSectionEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.StartVolumeEvent;
+import org.testng.SkipException;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
 
 public class GenericTextDocumentHandlerTest {
 	private GenericTextDocumentHandler.Builder createHandlerBuilder() {
@@ -128,6 +139,146 @@ public class GenericTextDocumentHandlerTest {
 		}
 		assertEquals(actual, expected);
 	}
+	@Test(dataProvider="handlerProvider")
+	public void testDocumentConversionAsPages(GenericTextDocumentHandler handler, List<DocumentEvent> events, byte[] expected) throws IOException {
+		DocumentHandler collector = PageBlockHandler.collectPages(handler);
+		for (DocumentEvent event: events) {
+			collector.onEvent(event);
+		}
+		assertEquals(handler.asByteSource().read(), expected);
+	}
+	@DataProvider(name="passthroughBrfProvider")
+	public Iterator<Object[]> passthroughBrfProvider() {
+		final List<String> brfs = ImmutableList.of("", "\f", ",a te/ docu;t4", ",! F/ L9E4\r\n,second l9e4\n,a ?ird l9e4\r", "f/ page\r\n\fsecond page\r\n\f", "\r\n\r\nline three\r\n\r\n\r\nline six\f\f\fpage four\n\r\r\n", "a\rb\n\nc\r\r\nd\f\r\ne");
+		final List<GenericTextDocumentHandler.Builder> builders = ImmutableList.of(createHandlerBuilder(), createHandlerBuilder().padWithBlankLines(true), createHandlerBuilder().setLeftMargin(3).setTopMargin(2).setCopies(2), createHandlerBuilder().setInterpoint(true).setEopOnFullPage(false).setLinesPerPage(6), createHandlerBuilder().setEndOfLine(new byte[] {'\n'}).setEndOfPage(new byte[] {'\r', '\n', '\f'}).setHeader(new byte[] {0x1b, 'H'}).setFooter(new byte[] {0x1a}));
+		List<Object[]> data = new ArrayList<>();
+		for (String brf: brfs) {
+			for (GenericTextDocumentHandler.Builder builder: builders) {
+				data.add(new Object[] {builder, brf});
+			}
+		}
+		return data.iterator();
+	}
+	@Test(dataProvider="passthroughBrfProvider")
+	public void testPassthroughBrfMatchesPipeline(GenericTextDocumentHandler.Builder builder, String brf) throws IOException, ParseException {
+		final byte[] brfBytes = brf.getBytes(Charsets.US_ASCII);
+		final GenericTextDocumentHandler pipelineHandler = builder.build();
+		new DocumentParser().parseBrf(new ByteArrayInputStream(brfBytes), pipelineHandler);
+		final GenericTextDocumentHandler passthroughHandler = builder.build();
+		final ByteBuffer brfBuffer = ByteBuffer.wrap(brfBytes);
+		assertTrue(passthroughHandler.passthroughBrf(brfBuffer), "BRF should fit the page");
+		assertEquals(brfBuffer.position(), 0);
+		assertEquals(passthroughHandler.asByteSource().read(), pipelineHandler.asByteSource().read());
+	}
+	@Test(dataProvider="passthroughBrfProvider")
+	public void testStreamBrfMatchesPassthrough(GenericTextDocumentHandler.Builder builder, String brf) throws IOException {
+		final ByteBuffer brfBuffer = ByteBuffer.wrap(brf.getBytes(Charsets.US_ASCII));
+		final GenericTextDocumentHandler passthroughHandler = builder.build();
+		assertTrue(passthroughHandler.passthroughBrf(brfBuffer));
+		final GenericTextDocumentHandler streamingHandler = builder.build();
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		if (!streamingHandler.isStreamable()) {
+			expectThrows(IllegalStateException.class, () -> streamingHandler.streamBrf(brfBuffer, output));
+			return;
+		}
+		streamingHandler.streamBrf(brfBuffer, output);
+		assertEquals(brfBuffer.position(), 0);
+		assertEquals(output.toByteArray(), passthroughHandler.asByteSource().read());
+	}
+	@Test(dataProvider="passthroughBrfProvider")
+	public void testStreamToMatchesByteSource(GenericTextDocumentHandler.Builder builder, String brf) throws IOException, ParseException {
+		final List<DocumentEvent> events = new ArrayList<>();
+		new DocumentParser().parseBrf(new ByteArrayInputStream(brf.getBytes(Charsets.US_ASCII)), events::add);
+		final GenericTextDocumentHandler bufferedHandler = builder.build();
+		events.forEach(bufferedHandler::onEvent);
+		final GenericTextDocumentHandler streamingHandler = builder.build();
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		if (!streamingHandler.isStreamable()) {
+			expectThrows(IllegalStateException.class, () -> streamingHandler.streamTo(events.iterator(), output));
+			return;
+		}
+		streamingHandler.streamTo(events.iterator(), output);
+		assertEquals(output.toByteArray(), bufferedHandler.asByteSource().read());
+	}
+	@Test(dataProvider="passthroughBrfProvider")
+	public void testOutputBeyondMemoryThreshold(GenericTextDocumentHandler.Builder builder, String brf) throws IOException, ParseException {
+		final List<DocumentEvent> events = new ArrayList<>();
+		new DocumentParser().parseBrf(new ByteArrayInputStream(Strings.repeat(brf, 50).getBytes(Charsets.US_ASCII)), events::add);
+		final GenericTextDocumentHandler memoryHandler = builder.build();
+		events.forEach(memoryHandler::onEvent);
+		final GenericTextDocumentHandler fileHandler = builder.setMemoryThreshold(8).build();
+		builder.setMemoryThreshold(GenericTextDocumentHandler.DEFAULT_MEMORY_THRESHOLD);
+		events.forEach(fileHandler::onEvent);
+		assertEquals(fileHandler.asByteSource().read(), memoryHandler.asByteSource().read());
+	}
+	@Test
+	public void testStreamToWritesEachPageAsItEnds() throws IOException {
+		final List<DocumentEvent> events = ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new StartLineEvent(), new BrailleEvent("\u2801"), new EndLineEvent(), new EndPageEvent(), new StartPageEvent(), new StartLineEvent(), new BrailleEvent("\u2803"), new EndLineEvent(), new EndPageEvent(), new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent());
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final List<String> writtenBeforePages = new ArrayList<>();
+		final Iterator<DocumentEvent> watched = Iterators.transform(events.iterator(), e -> {
+			if (e instanceof StartPageEvent) {
+				writtenBeforePages.add(new String(output.toByteArray(), Charsets.US_ASCII));
+			}
+			return e;
+		});
+		createHandlerBuilder().setHeader(new byte[] {'H'}).build().streamTo(watched, output);
+		assertEquals(writtenBeforePages, ImmutableList.of("H", "HA\f"));
+		assertEquals(new String(output.toByteArray(), Charsets.US_ASCII), "HA\fB\f");
+	}
+	@DataProvider(name="passthroughBrfFallbackProvider")
+	public Object[][] passthroughBrfFallbackProvider() {
+		return new Object[][] {
+			{createHandlerBuilder().setCellsPerLine(6), ",! F/ L9E4\r\n,second l9e4"},
+			{createHandlerBuilder().setLinesPerPage(2), "line one\r\nline two\r\nline three\fpage two"},
+			{createHandlerBuilder().setLinesPerPage(2), "line one\r\n\r\n\r\nline four"},
+			// Only the last page overflows, after earlier pages would have been written
+			{createHandlerBuilder().setLinesPerPage(2), "page one\r\nline two\fpage two\r\nline two\fpage three\r\nline two\r\nline three"},
+		};
+	}
+	@Test(dataProvider="passthroughBrfFallbackProvider")
+	public void testPassthroughBrfFallsBackWhenNotFitting(GenericTextDocumentHandler.Builder builder, String brf) throws IOException, ParseException {
+		final byte[] brfBytes = brf.getBytes(Charsets.US_ASCII);
+		final GenericTextDocumentHandler pipelineHandler = builder.build();
+		new DocumentParser().parseBrf(new ByteArrayInputStream(brfBytes), pipelineHandler);
+		final GenericTextDocumentHandler handler = builder.build();
+		assertFalse(handler.fitsPage(ByteBuffer.wrap(brfBytes)));
+		assertFalse(handler.passthroughBrf(ByteBuffer.wrap(brfBytes)), "BRF should not fit the page");
+		assertEquals(handler.asByteSource().size(), 0L, "Nothing should be written for a BRF which does not fit");
+		// The handler should be ready to process the BRF through the event pipeline
+		new DocumentParser().parseBrf(new ByteArrayInputStream(brfBytes), handler);
+		assertEquals(handler.asByteSource().read(), pipelineHandler.asByteSource().read());
+	}
+	@DataProvider(name="asciiBrailleProvider")
+	public Object[][] asciiBrailleProvider() {
+		return new Object[][] {
+			{new byte[] {',', 'a', ' ', 't', 'e', '/', ' ', 'd', 'o', 'c', 'u', ';', 't', '4'}, 40},
+			{new byte[] {',', 'A', ' ', 'T', 'E', '/', ' ', 'D', 'O', 'C', 'U', ';', 'T', '4'}, 6},
+			{new byte[] {'`', '{', '|', '}', '~', 0x7f, '@', '[', '\\', ']', '^', '_'}, 40},
+			{new byte[] {'a', (byte)0x80, 'b', (byte)0xff, 'c'}, 40},
+			{new byte[] {'a', (byte)0x80, 'b', (byte)0xff, 'c'}, 2},
+			{new byte[0], 40},
+		};
+	}
+	@Test(dataProvider="asciiBrailleProvider")
+	public void testAsciiBrailleMatchesStringBraille(byte[] asciiBraille, int cellsPerLine) throws IOException {
+		final BrailleEvent asciiEvent = BrailleEvent.fromAscii(ByteBuffer.wrap(asciiBraille), 0, asciiBraille.length);
+		final BrailleEvent stringEvent = new BrailleEvent(new String(asciiBraille, Charsets.US_ASCII));
+		assertTrue(asciiEvent.isAsciiBraille());
+		assertFalse(stringEvent.isAsciiBraille());
+		assertEquals(asciiEvent, stringEvent);
+		assertEquals(asciiEvent.hashCode(), stringEvent.hashCode());
+		final byte[][] results = new byte[2][];
+		int i = 0;
+		for (BrailleEvent brailleEvent: ImmutableList.of(asciiEvent, stringEvent)) {
+			final GenericTextDocumentHandler handler = createHandlerBuilder().setCellsPerLine(cellsPerLine).build();
+			for (DocumentEvent event: ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new StartLineEvent(), brailleEvent, brailleEvent, new EndLineEvent(), new EndPageEvent(), new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent())) {
+				handler.onEvent(event);
+			}
+			results[i++] = handler.asByteSource().read();
+		}
+		assertEquals(results[0], results[1]);
+	}
 	@DataProvider(name="invalidStateChangeProvider")
 	public Iterator<Object[]> invalidStateChangeProvider() {
 		List<Object[]> data = new ArrayList<>();
@@ -205,4 +356,94 @@ public class GenericTextDocumentHandlerTest {
 		}
 		expectThrows(IllegalStateException.class, () -> handler.onEvent(errorEvent));
 	}
+	@Test
+	public void testWriteBrailleReadsCellsWithoutCopying() throws IOException {
+		final String line = "\u2820\u281e\u2811\u280c\u2800\u2819\u2815\u2809\u2825\u280d";
+		final int[] charsRead = {0};
+		// Fails if the handler takes a substring or String of the line rather than mapping the cells in place
+		final CharSequence braille = new CharSequence() {
+			@Override
+			public int length() {
+				return line.length();
+			}
+			@Override
+			public char charAt(int index) {
+				charsRead[0]++;
+				return line.charAt(index);
+			}
+			@Override
+			public CharSequence subSequence(int start, int end) {
+				throw new AssertionError("writeBraille copied part of the line");
+			}
+			@Override
+			public String toString() {
+				throw new AssertionError("writeBraille copied the line to a String");
+			}
+		};
+		final List<DocumentEvent> start = ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new StartLineEvent());
+		final List<DocumentEvent> end = ImmutableList.of(new EndLineEvent(), new EndPageEvent(), new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent());
+		GenericTextDocumentHandler handler = createHandlerBuilder().setCellsPerLine(6).build();
+		start.forEach(handler::onEvent);
+		handler.writeBraille(braille);
+		end.forEach(handler::onEvent);
+		// Only the cells which fit on the line are read
+		assertEquals(charsRead[0], 6);
+		GenericTextDocumentHandler expectedHandler = createHandlerBuilder().setCellsPerLine(6).build();
+		start.forEach(expectedHandler::onEvent);
+		expectedHandler.onEvent(new BrailleEvent(line));
+		end.forEach(expectedHandler::onEvent);
+		assertEquals(handler.asByteSource().read(), expectedHandler.asByteSource().read());
+	}
+	/**
+	 * Allocation measured per thread is affected by the JVM, so this is excluded from the default test run and is run by the allocationTest task.
+	 */
+	@Test(groups = "allocation")
+	public void testWriteBrailleDoesNotAllocate() {
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+			throw new SkipException("Thread allocation measurement not available");
+		}
+		final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		if (!threadBean.isThreadAllocatedMemorySupported() || !threadBean.isThreadAllocatedMemoryEnabled()) {
+			throw new SkipException("Thread allocation measurement not enabled");
+		}
+		final int lines = 20000;
+		// Size the output so the buffer never needs to grow during the measurement
+		GenericTextDocumentHandler handler = createHandlerBuilder().setLinesPerPage(10 * lines).setSizeHint(16 * 1024 * 1024).setMemoryThreshold(16 * 1024 * 1024).build();
+		for (DocumentEvent event: ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent())) {
+			handler.onEvent(event);
+		}
+		final DocumentEvent startLine = new StartLineEvent();
+		final DocumentEvent endLine = new EndLineEvent();
+		final DocumentEvent braille = new BrailleEvent("\u2820\u281e\u2811\u280c\u2800\u2819\u2815\u2809\u2825\u280d\u2811\u281d\u281e\u2800\u2815\u2813\u2800\u2807\u2814\u2811\u2800\u2838\u2801\u2803\u2809\u2819\u2811\u280b\u281b\u2813\u280a\u281a\u2805\u2807\u280d\u281d\u2815\u280f\u281f\u2817");
+		long emptyLineBytes = 0;
+		long brailleLineBytes = 0;
+		// The first round warms up the code, the measurement is from the second
+		for (int round = 0; round < 2; round++) {
+			long start = threadBean.getCurrentThreadAllocatedBytes();
+			for (int i = 0; i < lines; i++) {
+				handler.onEvent(startLine);
+				handler.onEvent(endLine);
+			}
+			emptyLineBytes = threadBean.getCurrentThreadAllocatedBytes() - start;
+			start = threadBean.getCurrentThreadAllocatedBytes();
+			for (int i = 0; i < lines; i++) {
+				handler.onEvent(startLine);
+				handler.onEvent(braille);
+				handler.onEvent(endLine);
+			}
+			brailleLineBytes = threadBean.getCurrentThreadAllocatedBytes() - start;
+		}
+		final double perLine = (double)(brailleLineBytes - emptyLineBytes) / lines;
+		// Copying the line to a String or array would take well over 40 bytes, allow for some noise from the JVM
+		assertTrue(perLine < 16.0, String.format("writeBraille allocated %.2f bytes per line", perLine));
+	}
+	@Test
+	public void testLenientIgnoresInvalidEvents() throws IOException {
+		GenericTextDocumentHandler handler = createHandlerBuilder().setStrict(false).build();
+		List<DocumentEvent> events = ImmutableList.of(new StartDocumentEvent(), new EndPageEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new BrailleEvent("\u2801"), new StartLineEvent(), new StartPageEvent(), new BrailleEvent("\u2803"), new EndLineEvent(), new EndLineEvent(), new EndPageEvent(), new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent());
+		for (DocumentEvent event: events) {
+			handler.onEvent(event);
+		}
+		assertEquals(handler.asByteSource().asCharSource(Charsets.US_ASCII).read(), "B\f");
+	}
 }
@@ -0,0 +1,71 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.brailleblaster.libembosser.drivers.utils.document.events.CellsPerLine;
+import org.brailleblaster.libembosser.drivers.utils.document.events.Duplex;
+import org.brailleblaster.libembosser.drivers.utils.document.events.GraphicOption;
+import org.brailleblaster.libembosser.drivers.utils.document.events.LinesPerPage;
+import org.brailleblaster.libembosser.drivers.utils.document.events.RowGap;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class OptionFrameTest {
+	@Test
+	public void testDefaultsAtRoot() {
+		OptionFrame frame = OptionFrame.root().push(ImmutableSet.of());
+		assertEquals(frame.getCellsPerLine(40), 40);
+		assertEquals(frame.getLinesPerPage(25), 25);
+		assertEquals(frame.getRowGap(0), 0);
+		assertFalse(frame.isSimplex());
+		assertFalse(frame.isInGraphic());
+	}
+	@Test
+	public void testInnermostValueWins() {
+		OptionFrame volume = OptionFrame.root().push(ImmutableSet.of(new CellsPerLine(30), new LinesPerPage(20), new RowGap(1)));
+		OptionFrame section = volume.push(ImmutableSet.of(new CellsPerLine(25)));
+		OptionFrame page = section.push(ImmutableSet.of(new RowGap(0)));
+		assertEquals(page.getCellsPerLine(40), 25);
+		assertEquals(page.getLinesPerPage(25), 20);
+		assertEquals(page.getRowGap(2), 0);
+		assertSame(page.getOptions(), page.getOptions());
+		assertEquals(page.getOptions(), ImmutableSet.of(new RowGap(0)));
+		assertSame(page.pop(), section);
+		assertEquals(page.pop().pop().getRowGap(2), 1);
+		assertSame(page.pop().pop().pop(), OptionFrame.root());
+	}
+	@Test
+	public void testSimplexFromAnyLevel() {
+		OptionFrame volume = OptionFrame.root().push(ImmutableSet.of(new Duplex(false)));
+		OptionFrame section = volume.push(ImmutableSet.of(new Duplex(true)));
+		assertTrue(section.isSimplex(), "Simplex at an enclosing level should apply even when an inner level sets duplex");
+		assertFalse(OptionFrame.root().push(ImmutableSet.of(new Duplex(true))).isSimplex());
+	}
+	@Test
+	public void testInGraphic() {
+		OptionFrame page = OptionFrame.root().push(ImmutableSet.of());
+		OptionFrame graphic = page.push(ImmutableSet.of(new GraphicOption.ImageData(new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY))));
+		OptionFrame line = graphic.push(ImmutableSet.of());
+		assertFalse(page.isInGraphic());
+		assertTrue(graphic.isInGraphic());
+		assertTrue(line.isInGraphic());
+	}
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testPopRoot() {
+		OptionFrame.root().pop();
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.expectThrows;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndDocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndLineEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndSectionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndVolumeEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartDocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartLineEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartSectionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartVolumeEvent;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+
+public class OutputBufferPoolTest {
+	@Test
+	public void testAcquireSizes() {
+		OutputBufferPool pool = new OutputBufferPool(1024 * 1024);
+		assertEquals(pool.acquire(0).length, OutputBufferPool.MIN_BUFFER_SIZE);
+		assertEquals(pool.acquire(OutputBufferPool.MIN_BUFFER_SIZE).length, OutputBufferPool.MIN_BUFFER_SIZE);
+		assertEquals(pool.acquire(OutputBufferPool.MIN_BUFFER_SIZE + 1).length, OutputBufferPool.MIN_BUFFER_SIZE * 2);
+		assertEquals(pool.acquire(100000).length, 128 * 1024);
+		assertEquals(pool.acquire(OutputBufferPool.MAX_BUFFER_SIZE + 1).length, OutputBufferPool.MAX_BUFFER_SIZE + 1);
+		assertEquals(pool.getMissCount(), 5L);
+		assertEquals(pool.getHitCount(), 0L);
+	}
+	@Test
+	public void testReleasedArraysReused() {
+		OutputBufferPool pool = new OutputBufferPool(1024 * 1024);
+		byte[] small = pool.acquire(1000);
+		byte[] large = pool.acquire(20000);
+		pool.release(small);
+		pool.release(large);
+		assertEquals(pool.getPooledBytes(), (long)(small.length + large.length));
+		assertSame(pool.acquire(17000), large, "A pooled array of the same size class should be used");
+		assertSame(pool.acquire(10), small);
+		assertEquals(pool.getHitCount(), 2L);
+		assertEquals(pool.getPooledBytes(), 0L);
+		// Arrays not from the pool are not kept
+		pool.release(new byte[5000]);
+		assertEquals(pool.getPooledBytes(), 0L);
+	}
+	@Test
+	public void testPooledBytesLimited() {
+		OutputBufferPool pool = new OutputBufferPool(3 * OutputBufferPool.MIN_BUFFER_SIZE);
+		for (int i = 0; i < 5; i++) {
+			pool.release(new byte[OutputBufferPool.MIN_BUFFER_SIZE]);
+		}
+		assertEquals(pool.getPooledBytes(), 3L * OutputBufferPool.MIN_BUFFER_SIZE);
+	}
+	@Test
+	public void testHandlerReturnsBufferOnReset() throws IOException {
+		OutputBufferPool pool = new OutputBufferPool(1024 * 1024);
+		GenericTextDocumentHandler handler = new GenericTextDocumentHandler.Builder().setBufferPool(pool).setSizeHint(10000).build();
+		List<DocumentEvent> events = ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new StartLineEvent(), new BrailleEvent("\u2801\u2803"), new EndLineEvent(), new EndPageEvent(), new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent());
+		for (int i = 0; i < 3; i++) {
+			events.forEach(handler::onEvent);
+			assertEquals(new String(handler.asByteSource().read(), Charsets.US_ASCII), "AB\f");
+			handler.reset();
+			assertEquals(pool.getPooledBytes(), 16L * 1024, "Buffer sized from the hint should be returned to the pool");
+		}
+		assertEquals(pool.getMissCount(), 1L);
+		assertEquals(pool.getHitCount(), 2L);
+	}
+	@DataProvider(name="discardedOutputProvider")
+	public Object[][] discardedOutputProvider() {
+		return new Object[][] {
+			{new GenericTextDocumentHandler.Builder().setBufferPool(new OutputBufferPool(1024 * 1024))},
+			{new GenericTextDocumentHandler.Builder().setBufferArena(new DirectBufferArena(1024 * 1024))},
+			// Spilled to a temporary file
+			{new GenericTextDocumentHandler.Builder().setMemoryThreshold(1)},
+		};
+	}
+	@Test(dataProvider="discardedOutputProvider")
+	public void testReadAfterResetFails(GenericTextDocumentHandler.Builder builder) throws IOException {
+		GenericTextDocumentHandler handler = builder.build();
+		List<DocumentEvent> events = ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new StartLineEvent(), new BrailleEvent("\u2801\u2803"), new EndLineEvent(), new EndPageEvent(), new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent());
+		events.forEach(handler::onEvent);
+		ByteSource output = handler.asByteSource();
+		assertEquals(new String(output.read(), Charsets.US_ASCII), "AB\f");
+		try (InputStream input = output.openStream()) {
+			handler.reset();
+			expectThrows(IllegalStateException.class, () -> input.read());
+		}
+		expectThrows(IllegalStateException.class, () -> output.read());
+		// Nor should the source give the output of the next document
+		events.forEach(handler::onEvent);
+		expectThrows(IllegalStateException.class, () -> output.read());
+		assertEquals(new String(handler.asByteSource().read(), Charsets.US_ASCII), "AB\f");
+	}
+	@Test
+	public void testResetAfterIncompleteDocument() throws IOException {
+		GenericTextDocumentHandler handler = new GenericTextDocumentHandler.Builder().build();
+		handler.onEvent(new StartDocumentEvent());
+		handler.onEvent(new StartVolumeEvent());
+		handler.reset();
+		for (DocumentEvent event: ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new EndPageEvent(), new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent())) {
+			handler.onEvent(event);
+		}
+		assertEquals(handler.asByteSource().read(), new byte[] {'\f'});
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.drivers.utils.document;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.brailleblaster.libembosser.drivers.utils.DocumentHandler;
+import org.brailleblaster.libembosser.drivers.utils.PageBlockHandler;
+import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.CellsPerLine;
+import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndDocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndGraphicEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndLineEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndSectionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.EndVolumeEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.RowGap;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartDocumentEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartGraphicEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartLineEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartPageEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartSectionEvent;
+import org.brailleblaster.libembosser.drivers.utils.document.events.StartVolumeEvent;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class PageBlockTest {
+	private static final List<DocumentEvent> PAGE_EVENTS = ImmutableList.of(new StartPageEvent(), new StartLineEvent(ImmutableSet.of(new RowGap(1))), new BrailleEvent("\u2801"), new EndLineEvent(), new StartGraphicEvent(), new StartLineEvent(), new BrailleEvent("\u2803"), new BrailleEvent("\u2809"), new EndLineEvent(), new EndGraphicEvent(), new StartLineEvent(), new EndLineEvent(), new EndPageEvent());
+
+	@Test
+	public void testPageStructure() {
+		OptionFrame section = OptionFrame.root().push(ImmutableSet.of(new CellsPerLine(30), new RowGap(2)));
+		PageBlock page = PageBlock.of(section, PAGE_EVENTS);
+		assertEquals(page.getEvents(), PAGE_EVENTS);
+		assertEquals(page.getFrame().getCellsPerLine(40), 30);
+		assertFalse(page.hasOtherEvents());
+		assertEquals(page.getElements().size(), 3);
+		assertEquals(page.getRows().size(), 3);
+		PageBlock.Row first = (PageBlock.Row)page.getElements().get(0);
+		assertEquals(first.getBraille(), ImmutableList.of(new BrailleEvent("\u2801")));
+		assertEquals(first.getFrame().getRowGap(0), 1);
+		PageBlock.Graphic graphic = (PageBlock.Graphic)page.getElements().get(1);
+		assertEquals(graphic.getRows().size(), 1);
+		assertSame(graphic.getRows().get(0), page.getRows().get(1));
+		assertEquals(graphic.getRows().get(0).getBraille().size(), 2);
+		PageBlock.Row last = (PageBlock.Row)page.getElements().get(2);
+		assertSame(last, page.getRows().get(2));
+		assertTrue(last.getBraille().isEmpty());
+		assertEquals(last.getFrame().getRowGap(0), 2);
+	}
+	@Test
+	public void testMalformedPage() {
+		expectThrows(IllegalArgumentException.class, () -> PageBlock.of(OptionFrame.root(), ImmutableList.of(new StartPageEvent(), new BrailleEvent("\u2801"), new EndPageEvent())));
+		expectThrows(IllegalArgumentException.class, () -> PageBlock.of(OptionFrame.root(), ImmutableList.of(new StartPageEvent(), new StartLineEvent(), new EndPageEvent())));
+		expectThrows(IllegalArgumentException.class, () -> PageBlock.of(OptionFrame.root(), ImmutableList.of(new StartPageEvent(), new StartGraphicEvent(), new StartGraphicEvent(), new EndGraphicEvent(), new EndGraphicEvent(), new EndPageEvent())));
+		expectThrows(IllegalArgumentException.class, () -> PageBlock.of(OptionFrame.root(), ImmutableList.of(new StartPageEvent(), new StartSectionEvent(), new EndPageEvent())));
+		expectThrows(IllegalArgumentException.class, () -> PageBlock.of(OptionFrame.root(), ImmutableList.of(new StartPageEvent())));
+	}
+	@Test
+	public void testCollectAndAdaptRoundTrip() {
+		List<DocumentEvent> events = ImmutableList.<DocumentEvent>builder().add(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent(ImmutableSet.of(new RowGap(2)))).addAll(PAGE_EVENTS).addAll(PAGE_EVENTS).add(new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent()).build();
+		List<DocumentEvent> received = new ArrayList<>();
+		List<Integer> rowGaps = new ArrayList<>();
+		PageBlockHandler eventHandler = PageBlockHandler.adapt(received::add);
+		DocumentHandler collector = PageBlockHandler.collectPages(new PageBlockHandler() {
+			@Override
+			public void onEvent(DocumentEvent event) {
+				eventHandler.onEvent(event);
+			}
+			@Override
+			public void onPage(PageBlock page) {
+				rowGaps.add(page.getRows().get(2).getFrame().getRowGap(0));
+				eventHandler.onPage(page);
+			}
+		});
+		for (DocumentEvent event: events) {
+			collector.onEvent(event);
+		}
+		assertEquals(received, events);
+		assertEquals(rowGaps, ImmutableList.of(2, 2), "Options of enclosing section should be resolved");
+	}
+	@Test
+	public void testCollectorReusesBlock() {
+		List<DocumentEvent> shortPage = ImmutableList.of(new StartPageEvent(), new StartLineEvent(), new BrailleEvent("\u2807"), new EndLineEvent(), new EndPageEvent());
+		List<DocumentEvent> events = ImmutableList.<DocumentEvent>builder().add(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent()).addAll(PAGE_EVENTS).addAll(shortPage).addAll(PAGE_EVENTS).add(new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent()).build();
+		List<PageBlock> pages = new ArrayList<>();
+		List<PageBlock.Row> firstRows = new ArrayList<>();
+		List<List<DocumentEvent>> pageEvents = new ArrayList<>();
+		List<List<BrailleEvent>> firstBraille = new ArrayList<>();
+		List<Integer> elementCounts = new ArrayList<>();
+		PageBlockHandler.deliver(events.iterator(), new PageBlockHandler() {
+			@Override
+			public void onEvent(DocumentEvent event) {
+			}
+			@Override
+			public void onPage(PageBlock page) {
+				pages.add(page);
+				firstRows.add(page.getRows().get(0));
+				pageEvents.add(ImmutableList.copyOf(page.getEvents()));
+				firstBraille.add(ImmutableList.copyOf(page.getRows().get(0).getBraille()));
+				elementCounts.add(page.getElements().size());
+			}
+		});
+		assertEquals(pages.size(), 3);
+		assertSame(pages.get(1), pages.get(0), "Each page should fill the same block");
+		assertSame(pages.get(2), pages.get(0), "Each page should fill the same block");
+		assertSame(firstRows.get(1), firstRows.get(0), "Rows should be reused across pages");
+		assertSame(firstRows.get(2), firstRows.get(0), "Rows should be reused across pages");
+		assertEquals(pageEvents, ImmutableList.of(PAGE_EVENTS, shortPage, PAGE_EVENTS));
+		assertEquals(firstBraille, ImmutableList.of(ImmutableList.of(new BrailleEvent("\u2801")), ImmutableList.of(new BrailleEvent("\u2807")), ImmutableList.of(new BrailleEvent("\u2801"))));
+		assertEquals(elementCounts, ImmutableList.of(3, 1, 3));
+	}
+	@Test
+	public void testCollectorPassesMalformedPagesAsEvents() {
+		List<DocumentEvent> events = ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new BrailleEvent("\u2801"), new EndPageEvent(), new StartPageEvent(), new StartLineEvent(), new EndSectionEvent());
+		List<DocumentEvent> received = new ArrayList<>();
+		DocumentHandler collector = PageBlockHandler.collectPages(PageBlockHandler.adapt(received::add));
+		for (DocumentEvent event: events) {
+			collector.onEvent(event);
+		}
+		assertEquals(received, events);
+		GenericTextDocumentHandler handler = new GenericTextDocumentHandler.Builder().build();
+		DocumentHandler strictCollector = PageBlockHandler.collectPages(handler);
+		for (DocumentEvent event: events.subList(0, 5)) {
+			strictCollector.onEvent(event);
+		}
+		expectThrows(IllegalStateException.class, () -> strictCollector.onEvent(new EndPageEvent()));
+	}
+	@Test
+	public void testDeliverPassesUnendedPage() {
+		List<DocumentEvent> events = ImmutableList.<DocumentEvent>builder().add(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent()).addAll(PAGE_EVENTS).addAll(PAGE_EVENTS.subList(0, 4)).build();
+		List<DocumentEvent> received = new ArrayList<>();
+		List<PageBlock> pages = new ArrayList<>();
+		PageBlockHandler eventHandler = PageBlockHandler.adapt(received::add);
+		PageBlockHandler.deliver(events.iterator(), new PageBlockHandler() {
+			@Override
+			public void onEvent(DocumentEvent event) {
+				eventHandler.onEvent(event);
+			}
+			@Override
+			public void onPage(PageBlock page) {
+				pages.add(page);
+				eventHandler.onPage(page);
+			}
+		});
+		assertEquals(received, events, "Events of a page which is not ended should still be passed on");
+		assertEquals(pages.size(), 1);
+	}
+}
@@ -9,12 +9,17 @@
 package org.brailleblaster.libembosser.drivers.utils.document.filters;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.Function;
 
+import org.brailleblaster.libembosser.drivers.utils.DocumentToByteSourceHandler;
 import org.brailleblaster.libembosser.drivers.utils.document.events.BrailleEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.DocumentEvent;
 import org.brailleblaster.libembosser.drivers.utils.document.events.EndDocumentEvent;
@@ -32,6 +37,8 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.io.ByteSource;
 
 public class PageFilterTest {
 	private Object[] createPageFilterDataEntry(String[][][][] inputBraille, PageRanges pages) {
@@ -90,6 +97,15 @@ public class PageFilterTest {
 		curEvent = new EndDocumentEvent();
 		inputEvents.add(curEvent);
 		expectedEvents.add(curEvent);
+		// The filter ends the section, volume and document itself once the last page has ended
+		final int lastPage = Arrays.stream(pages.getMembers()).mapToInt(r -> r[1]).max().getAsInt();
+		if (lastPage <= pageCounter) {
+			final int endOfLastPage = expectedEvents.lastIndexOf(new EndPageEvent());
+			expectedEvents = new ArrayList<>(expectedEvents.subList(0, endOfLastPage + 1));
+			expectedEvents.add(new EndSectionEvent());
+			expectedEvents.add(new EndVolumeEvent());
+			expectedEvents.add(new EndDocumentEvent());
+		}
 		return new Object[] {inputEvents, pages, expectedEvents};
 	}
 	@DataProvider(name="filteredPagesProvider")
@@ -117,7 +133,64 @@ public class PageFilterTest {
 		List<DocumentEvent> actualEvents = ImmutableList.copyOf(filter.apply(inputEvents.iterator()));
 		assertEquals(actualEvents.size(), expectedEvents.size(), "Not got the expected number of events.");
 		for (int i = 0; i < actualEvents.size(); ++i) {
-			assertSame(actualEvents.get(i), expectedEvents.get(i), String.format("Events are not the same at index %d", i));
+			final DocumentEvent expectedEvent = expectedEvents.get(i);
+			if (inputEvents.stream().anyMatch(e -> e == expectedEvent)) {
+				assertSame(actualEvents.get(i), expectedEvents.get(i), String.format("Events are not the same at index %d", i));
+			} else {
+				assertEquals(actualEvents.get(i), expectedEvents.get(i), String.format("Events are not equal at index %d", i));
+			}
 		}
 	}
+	@Test
+	public void testStopsReadingAfterLastPage() {
+		final List<DocumentEvent> events = ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new EndPageEvent(), new StartPageEvent(), new EndPageEvent(), new StartPageEvent(), new EndPageEvent(), new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent());
+		final int[] consumed = new int[1];
+		final Iterator<DocumentEvent> counted = Iterators.transform(events.iterator(), e -> {
+			consumed[0]++;
+			return e;
+		});
+		final List<DocumentEvent> actualEvents = ImmutableList.copyOf(new PageFilter(new PageRanges(2)).apply(counted));
+		assertEquals(consumed[0], 7, "Events after the last page should not be read");
+		assertEquals(actualEvents, ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new EndPageEvent(), new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent()));
+	}
+	@Test
+	public void testByteSourceHandlerCompletesAfterLastPage() {
+		final List<DocumentEvent> received = new ArrayList<>();
+		final DocumentToByteSourceHandler delegate = new DocumentToByteSourceHandler() {
+			@Override
+			public void onEvent(DocumentEvent event) {
+				received.add(event);
+			}
+			@Override
+			public ByteSource asByteSource() {
+				return ByteSource.empty();
+			}
+		};
+		final PageFilterByteSourceHandler handler = new PageFilterByteSourceHandler(delegate, new PageRanges(1));
+		final List<DocumentEvent> events = ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new EndPageEvent());
+		for (DocumentEvent event: events) {
+			assertFalse(handler.isComplete());
+			handler.onEvent(event);
+		}
+		assertTrue(handler.isComplete());
+		handler.onEvent(new StartPageEvent());
+		assertEquals(received, ImmutableList.of(new StartDocumentEvent(), new StartVolumeEvent(), new StartSectionEvent(), new StartPageEvent(), new EndPageEvent(), new EndSectionEvent(), new EndVolumeEvent(), new EndDocumentEvent()));
+	}
+	@Test
+	public void testUnrestricted() {
+		assertTrue(new PageFilter(new PageRanges()).isUnrestricted());
+		assertTrue(new PageFilter(new PageRanges("1-5,3-" + Integer.MAX_VALUE)).isUnrestricted());
+		assertFalse(new PageFilter(new PageRanges(1, 4)).isUnrestricted());
+		assertFalse(new PageFilter(new PageRanges(2, Integer.MAX_VALUE)).isUnrestricted());
+	}
+	@Test
+	public void testAndThenExposesHandler() {
+		final PageFilter filter = new PageFilter(new PageRanges(2));
+		final Function<Iterator<DocumentEvent>, Integer> counter = Iterators::size;
+		final PageFilter.FilteredHandler<Integer> handler = filter.andThen(counter);
+		assertSame(handler.getFilter(), filter);
+		assertSame(handler.getHandler(), counter);
+		final List<DocumentEvent> events = ImmutableList.of(new StartDocumentEvent(), new StartPageEvent(), new EndPageEvent(), new StartPageEvent(), new EndPageEvent(), new EndDocumentEvent());
+		assertEquals(handler.apply(events.iterator()), Integer.valueOf(4));
+	}
 }
@@ -8,6 +8,7 @@
 
 package org.brailleblaster.libembosser.drivers
 
+import org.brailleblaster.libembosser.drivers.utils.BrailleFilterChannel
 import org.brailleblaster.libembosser.drivers.utils.BrailleFilterInputStream
 import kotlin.test.assertEquals
 import kotlin.test.fail
@@ -15,6 +16,8 @@ import kotlin.test.Test
 import java.io.ByteArrayInputStream
 import java.io.IOException
 import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
 import java.util.*
 
 class BrailleFilterInputStreamTest {
@@ -53,4 +56,38 @@ class BrailleFilterInputStreamTest {
         }
         assertEquals(counter, input.size)
     }
+    @Test
+    fun testReadIntoOffset() {
+        val input = "abc`{|}~xyz".toByteArray(Charsets.US_ASCII)
+        val buffer = "----------------".toByteArray(Charsets.US_ASCII)
+        BrailleFilterInputStream(ByteArrayInputStream(input)).use {
+            assertEquals(it.read(buffer, 3, 5), 5)
+            assertEquals(it.read(buffer, 8, 8), 6)
+        }
+        assertEquals(String(buffer, Charsets.US_ASCII), "---ABC@[\\]^XYZ--")
+    }
+    @Test
+    fun testChannelTranslatesDirectBuffer() {
+        val input = ByteArray(10000)
+        random.nextBytes(input)
+        val expected = BrailleFilterInputStream(ByteArrayInputStream(input)).use { it.readAllBytes() }
+        val channel = BrailleFilterChannel(Channels.newChannel(ByteArrayInputStream(input)))
+        val buffer = ByteBuffer.allocateDirect(4096)
+        val output = ByteArray(input.size)
+        var count = 0
+        buffer.put("!!!".toByteArray(Charsets.US_ASCII))
+        while (channel.read(buffer) >= 0) {
+            buffer.flip()
+            if (count == 0) {
+                assertEquals(buffer.get(), '!'.code.toByte())
+                buffer.position(3)
+            }
+            val n = buffer.remaining()
+            buffer.get(output, count, n)
+            count += n
+            buffer.clear()
+        }
+        assertEquals(count, input.size)
+        assertEquals(output.toList(), expected.toList())
+    }
 }
\ No newline at end of file
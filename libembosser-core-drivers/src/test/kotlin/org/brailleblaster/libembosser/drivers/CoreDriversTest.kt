@@ -13,6 +13,7 @@ import com.google.common.base.Strings
 import com.google.common.primitives.Bytes
 import org.brailleblaster.libembosser.EmbosserService
 import org.brailleblaster.libembosser.drivers.generic.GenericGraphicsEmbosser
+import org.brailleblaster.libembosser.drivers.utils.BaseTextEmbosser
 import org.brailleblaster.libembosser.embossing.attribute.Copies
 import org.brailleblaster.libembosser.embossing.attribute.PaperLayout
 import org.brailleblaster.libembosser.embossing.attribute.PaperMargins
@@ -21,14 +22,24 @@ import org.brailleblaster.libembosser.spi.*
 import org.brailleblaster.libembosser.utils.EmbossToStreamPrintServiceFactory
 import org.testng.annotations.DataProvider
 import kotlin.test.assertEquals
+import kotlin.test.assertFalse
 import kotlin.test.assertTrue
 import kotlin.test.fail
 import kotlin.test.Test
 import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.io.SequenceInputStream
+import java.lang.reflect.Proxy
 import java.math.BigDecimal
+import java.nio.file.Files
 import java.util.*
+import javax.print.CancelablePrintJob
+import javax.print.Doc
+import javax.print.PrintException
+import javax.print.PrintService
 import javax.print.StreamPrintServiceFactory
 
 class CoreDriversTest {
@@ -203,6 +214,87 @@ class CoreDriversTest {
             expected.contentToString(), Arrays.toString(outBytes)))
     }
 
+    @Test(dataProvider = "simpleEmbossProvider")
+    fun testSimpleEmbossPath(id: String, input: String, attrs: EmbossingAttributeSet, expected: ByteArray) {
+        val embosser = EmbosserService.getInstance().embosserStream.filter { e: Embosser -> e.id == id }.findFirst().get()
+        val out = ByteArrayOutputStream()
+        val sps = EmbossToStreamPrintServiceFactory().getPrintService(out)
+        val brf = Files.createTempFile("test", ".brf")
+        try {
+            Files.write(brf, input.toByteArray(Charsets.US_ASCII))
+            embosser.embossBrf(sps, brf, attrs)
+        } catch (e: EmbossException) {
+            fail("Unexpected exception whilst embossing", e)
+        } finally {
+            Files.delete(brf)
+        }
+        val outBytes = out.toByteArray()
+        assertEquals(outBytes, expected, String.format("Output did not match, output expected: %s was: %s",
+            expected.contentToString(), Arrays.toString(outBytes)))
+    }
+
+    @Test
+    fun testBrfStreamBeyondPassthroughLimit() {
+        // One case for each embosser, repeated so the BRF is too large to be passed through from a stream
+        for ((id, input, attrs) in simpleEmbossProvider().asSequence().filter { (it[1] as String).isNotEmpty() }.distinctBy { it[0] }.map { Triple(it[0] as String, it[1] as String, it[2] as EmbossingAttributeSet) }) {
+            val embosser = EmbosserService.getInstance().embosserStream.filter { e: Embosser -> e.id == id }.findFirst().get()
+            val brfBytes = "$input\u000c".repeat(BaseTextEmbosser.BRF_PASSTHROUGH_LIMIT / (input.length + 1) + 1).toByteArray(Charsets.US_ASCII)
+            val streamOut = ByteArrayOutputStream()
+            ByteArrayInputStream(brfBytes).use { embosser.embossBrf(EmbossToStreamPrintServiceFactory().getPrintService(streamOut), it, attrs) }
+            val pathOut = ByteArrayOutputStream()
+            val brf = Files.createTempFile("test", ".brf")
+            try {
+                Files.write(brf, brfBytes)
+                embosser.embossBrf(EmbossToStreamPrintServiceFactory().getPrintService(pathOut), brf, attrs)
+            } finally {
+                Files.delete(brf)
+            }
+            assertTrue(brfBytes.size > BaseTextEmbosser.BRF_PASSTHROUGH_LIMIT)
+            assertTrue(streamOut.toByteArray().contentEquals(pathOut.toByteArray()), "Output of $id from a stream should match the output from a file")
+        }
+    }
+
+    @Test
+    fun testBrfStreamFailingMidDocument() {
+        val embosser = EmbosserService.getInstance().embosserStream.filter { e: Embosser -> e.id == "libembosser.generic.text" }.findFirst().get()
+        val brfBytes = "page\u000c".repeat(BaseTextEmbosser.BRF_PASSTHROUGH_LIMIT / 5 + 1).toByteArray(Charsets.US_ASCII)
+        val sourceFailure = IOException("Source failed")
+        val failing = object : InputStream() {
+            override fun read(): Int = throw sourceFailure
+        }
+        // A print job which like a real printer only fails when reading the document fails
+        var jobCompleted = false
+        var jobCancelled = false
+        val job = Proxy.newProxyInstance(javaClass.classLoader, arrayOf(CancelablePrintJob::class.java)) { _, method, args ->
+            when (method.name) {
+                "print" -> try {
+                    ((args[0] as Doc).printData as InputStream).transferTo(OutputStream.nullOutputStream())
+                    jobCompleted = true
+                    null
+                } catch (ex: IOException) {
+                    throw PrintException(ex)
+                }
+                "cancel" -> {
+                    jobCancelled = true
+                    null
+                }
+                else -> null
+            }
+        }
+        val printService = Proxy.newProxyInstance(javaClass.classLoader, arrayOf(PrintService::class.java)) { _, method, _ ->
+            if (method.name == "createPrintJob") job else null
+        } as PrintService
+        val e = try {
+            SequenceInputStream(ByteArrayInputStream(brfBytes), failing).use { embosser.embossBrf(printService, it, EmbossingAttributeSet()) }
+            fail("Embossing a document which fails should throw an EmbossException")
+        } catch (ex: EmbossException) {
+            ex
+        }
+        assertTrue(generateSequence<Throwable>(e) { it.cause }.any { it === sourceFailure }, "The failure of the document should be reported")
+        assertFalse(jobCompleted, "A truncated document should not be sent to the embosser")
+        assertTrue(jobCancelled, "The print job should be cancelled")
+    }
+
     @Test
     fun genericGraphicsSupportsInterpoint() {
         val e = GenericGraphicsEmbosser()
@@ -0,0 +1,60 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Time to map a 40 cell line of Braille with each mapper.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class BrailleMapperBenchmark {
+	private static final String UNICODE_LINE = "\u2820\u281e\u2811\u280c\u2800\u2819\u2815\u2809\u2825\u280d\u2811\u281d\u281e\u2800\u2815\u2813\u2800\u2807\u2814\u2811\u2800\u2838\u2801\u2803\u2809\u2819\u2811\u280b\u281b\u2813\u280a\u281a\u2805\u2807\u280d\u281d\u2815\u280f\u281f\u2817";
+	@Param({"UNICODE_TO_ASCII", "UNICODE_TO_ASCII_FAST", "ASCII_TO_UNICODE", "ASCII_TO_UNICODE_FAST"})
+	public BrailleMapper mapper;
+	private String line;
+	private char[] chars;
+	private char[] mapped;
+	private byte[] bytes;
+
+	@Setup
+	public void setup() {
+		line = mapper.name().startsWith("UNICODE") ? UNICODE_LINE : BrailleMapper.UNICODE_TO_ASCII_FAST.map(UNICODE_LINE);
+		chars = line.toCharArray();
+		mapped = new char[chars.length];
+		bytes = new byte[chars.length * 3];
+	}
+
+	@Benchmark
+	public String mapString() {
+		return mapper.map(line);
+	}
+
+	@Benchmark
+	public char[] mapChars() {
+		mapper.map(chars, 0, mapped, 0, chars.length);
+		return mapped;
+	}
+
+	@Benchmark
+	public int mapToBytes() {
+		return mapper.map(line, 0, line.length(), bytes, 0);
+	}
+}
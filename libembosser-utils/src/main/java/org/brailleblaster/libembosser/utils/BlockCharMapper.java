@@ -35,19 +35,13 @@ public class BlockCharMapper implements CharMapperFunction {
 			return new BlockCharMapper(mappingsBuilder.build());
 		}
 	}
-	private int[] starts;
-	private String[] blocks;
-	private int[] ends;
+	private final CharTable table;
 	public BlockCharMapper(char startChar, String mapToChars) {
 		this(ImmutableSortedMap.of((int)startChar, mapToChars));
 	}
 	private BlockCharMapper(SortedMap<Integer, String> mappings) {
 		int prevEnd = 0;
-		final int size = mappings.size();
-		starts = new int[size];
-		blocks = new String[size];
-		ends = new int[size];
-		int i = 0;
+		final CharTable.Builder tableBuilder = new CharTable.Builder();
 		for (Map.Entry<Integer, String> entry: mappings.entrySet()) {
 			int start = entry.getKey();
 			String block = entry.getValue();
@@ -56,24 +50,17 @@ public class BlockCharMapper implements CharMapperFunction {
 				// Block overlaps
 				throw new IllegalStateException("Overlapping blocks in input characters");
 			}
-			starts[i] = start;
-			blocks[i] = block;
-			ends[i] = end;
+			for (int c = start; c < end; c++) {
+				tableBuilder.put((char)c, block.charAt(c - start));
+			}
 			prevEnd = end;
-			i++;
 		}
+		table = tableBuilder.build();
 	}
 
 	@Override
 	public char applyAsChar(char operand) {
-		for (int i = 0; i < starts.length; i++) {
-			int startChar = starts[i];
-			int endChar = ends[i];
-			if (operand >= startChar && operand < endChar) {
-				return blocks[i].charAt(operand - startChar);
-			}
-		}
-		return operand;
+		return table.applyAsChar(operand);
 	}
 
 }
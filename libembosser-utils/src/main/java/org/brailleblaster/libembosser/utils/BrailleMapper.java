@@ -8,23 +8,81 @@
  
 package org.brailleblaster.libembosser.utils;
 
-import java.util.stream.IntStream;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
 
 public enum BrailleMapper {
 	UNICODE_TO_ASCII(new PropertyCharMapper("unicodeToAscii")),
 	UNICODE_TO_ASCII_FAST(new BlockCharMapper.Builder().add('`', "@ABCDEFGHIJKLMNOPQRSTUVWXYZ[\\]^_").add('\u2800', " A1B'K2L@CIF/MSP\"E3H9O6R^DJG>NTQ,*5<-U8V.%[$+X!&;:4\\0Z7(_?W]#Y)=").build()),
 	ASCII_TO_UNICODE(new PropertyCharMapper("asciiToUnicode")),
 	ASCII_TO_UNICODE_FAST(new BlockCharMapper.Builder().add(' ', "\u2800\u282e\u2810\u283c\u282b\u2829\u282f\u2804\u2837\u283e\u2821\u282c\u2820\u2824\u2828\u280c\u2834\u2802\u2806\u2812\u2832\u2822\u2816\u2836\u2826\u2814\u2831\u2830\u2823\u283f\u281c\u2839\u2808\u2801\u2803\u2809\u2819\u2811\u280b\u281b\u2813\u280a\u281a\u2805\u2807\u280d\u281d\u2815\u280f\u281f\u2817\u280e\u281e\u2825\u2827\u283a\u282d\u283d\u2835\u282a\u2833\u283b\u2818\u2838\u2808\u2801\u2803\u2809\u2819\u2811\u280b\u281b\u2813\u280a\u281a\u2805\u2807\u280d\u281d\u2815\u280f\u281f\u2817\u280e\u281e\u2825\u2827\u283a\u282d\u283d\u2835\u282a\u2833\u283b\u2818\u2838").add('\u00a0', "\u2800").build());
-	private final CharMapperFunction mapper;
+	private final CharTable table;
 	BrailleMapper(CharMapperFunction mapper) {
-		this.mapper = mapper;
+		this.table = CharTable.compile(mapper);
 	}
 	public String map(String inputText) {
 		char[] chars = inputText.toCharArray();
-		IntStream.range(0, chars.length).forEach(i -> chars[i] = mapper.applyAsChar(chars[i]));
+		table.map(chars, 0, chars, 0, chars.length);
 		return String.valueOf(chars);
 	}
 	public char map(char ch) {
-		return mapper.applyAsChar(ch);
+		return table.applyAsChar(ch);
+	}
+	/**
+	 * Map a range of characters from one array in to another.
+	 * <p>
+	 * The source and destination may be the same array, so a buffer can be mapped in place.
+	 * 
+	 * @param src The characters to map.
+	 * @param srcOff The index of the first character to map.
+	 * @param dst The array to write the mapped characters to.
+	 * @param dstOff The index in dst of the first mapped character.
+	 * @param len The number of characters to map.
+	 */
+	public void map(char[] src, int srcOff, char[] dst, int dstOff, int len) {
+		table.map(src, srcOff, dst, dstOff, len);
+	}
+	/**
+	 * Map characters and write the result as UTF-8 bytes.
+	 * <p>
+	 * This gives the same bytes as map(src.subSequence(off, off + len).toString()).getBytes(UTF_8) without creating any strings or arrays, so is suitable for writing lines of Braille straight into an output buffer. A character may take up to three bytes, so dst should have room for 3 * len bytes.
+	 * 
+	 * @param src The characters to map.
+	 * @param off The index in src of the first character to map.
+	 * @param len The number of characters to map.
+	 * @param dst The array to write the bytes to.
+	 * @param dstOff The index in dst to write the first byte to.
+	 * @return The number of bytes written.
+	 */
+	public int map(CharSequence src, int off, int len, byte[] dst, int dstOff) {
+		checkPositionIndexes(off, off + len, src.length());
+		final int end = off + len;
+		int pos = dstOff;
+		for (int i = off; i < end; i++) {
+			final char ch = table.applyAsChar(src.charAt(i));
+			if (ch < 0x80) {
+				dst[pos++] = (byte)ch;
+			} else if (ch < 0x800) {
+				dst[pos++] = (byte)(0xc0 | (ch >> 6));
+				dst[pos++] = (byte)(0x80 | (ch & 0x3f));
+			} else if (!Character.isSurrogate(ch)) {
+				dst[pos++] = (byte)(0xe0 | (ch >> 12));
+				dst[pos++] = (byte)(0x80 | ((ch >> 6) & 0x3f));
+				dst[pos++] = (byte)(0x80 | (ch & 0x3f));
+			} else {
+				final char low = i + 1 < end ? table.applyAsChar(src.charAt(i + 1)) : 0;
+				if (Character.isHighSurrogate(ch) && Character.isLowSurrogate(low)) {
+					final int codePoint = Character.toCodePoint(ch, low);
+					dst[pos++] = (byte)(0xf0 | (codePoint >> 18));
+					dst[pos++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+					dst[pos++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+					dst[pos++] = (byte)(0x80 | (codePoint & 0x3f));
+					i++;
+				} else {
+					// Unpaired surrogates are replaced in the same way as by the UTF-8 encoder
+					dst[pos++] = '?';
+				}
+			}
+		}
+		return pos - dstOff;
 	}
 }
@@ -0,0 +1,83 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * An InputStream reading the remaining bytes of a ByteBuffer.
+ * <p>
+ * The stream reads from a duplicate of the buffer so the position of the buffer passed in is not changed. This is mainly intended for reading memory mapped files without copying them through a stream buffer.
+ */
+public class ByteBufferInputStream extends InputStream {
+	private final ByteBuffer buffer;
+	private int mark;
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		this.buffer = buffer.duplicate();
+		this.mark = this.buffer.position();
+	}
+	/**
+	 * Open a stream of the whole of a file.
+	 * <p>
+	 * Where the file is small enough to be mapped in one region it will be memory mapped, otherwise it is read through the channel.
+	 *
+	 * @param channel The channel of the file to read.
+	 * @return A stream of the file content. Closing the stream does not close the channel.
+	 * @throws IOException When there is a problem mapping the file.
+	 */
+	public static InputStream openMapped(FileChannel channel) throws IOException {
+		final long size = channel.size();
+		if (size <= Integer.MAX_VALUE) {
+			return new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+		}
+		return Channels.newInputStream(channel);
+	}
+	@Override
+	public int read() {
+		return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+	}
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		if (!buffer.hasRemaining()) {
+			return -1;
+		}
+		final int n = Math.min(len, buffer.remaining());
+		buffer.get(b, off, n);
+		return n;
+	}
+	@Override
+	public long skip(long n) {
+		final int skipped = (int)Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + skipped);
+		return skipped;
+	}
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+	@Override
+	public synchronized void mark(int readlimit) {
+		mark = buffer.position();
+	}
+	@Override
+	public synchronized void reset() {
+		buffer.position(mark);
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.utils;
+
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * A character mapping held as a two level lookup table.
+ * <p>
+ * The characters are split in to pages of 256 by their high byte. Only pages containing a mapped character have an array, characters in any other page map to themselves. Looking up a character is two array reads whatever the mapping, and as mappings for Braille only touch a few pages the table is small.
+ */
+public final class CharTable implements CharMapperFunction {
+	private static final int PAGE_SHIFT = 8;
+	private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	private final char[][] pages;
+
+	private CharTable(char[][] pages) {
+		this.pages = pages;
+	}
+
+	/**
+	 * Compile a mapper in to a table.
+	 * <p>
+	 * The mapper is called once for every char value, so it must give the same result every time it is called.
+	 *
+	 * @param mapper The mapper to compile.
+	 * @return A table giving the same mapping as mapper.
+	 */
+	public static CharTable compile(CharMapperFunction mapper) {
+		if (mapper instanceof CharTable) {
+			return (CharTable)mapper;
+		}
+		final Builder builder = new Builder();
+		for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+			final char mapped = mapper.applyAsChar((char)c);
+			if (mapped != c) {
+				builder.put((char)c, mapped);
+			}
+		}
+		return builder.build();
+	}
+
+	@Override
+	public char applyAsChar(char operand) {
+		final char[] page = pages[operand >>> PAGE_SHIFT];
+		return page == null ? operand : page[operand & PAGE_MASK];
+	}
+
+	/**
+	 * Map a range of characters.
+	 * <p>
+	 * The source and destination may be the same array.
+	 *
+	 * @param src The characters to map.
+	 * @param srcOff The index of the first character to map.
+	 * @param dst The array to write the mapped characters to.
+	 * @param dstOff The index in dst of the first mapped character.
+	 * @param len The number of characters to map.
+	 */
+	public void map(char[] src, int srcOff, char[] dst, int dstOff, int len) {
+		checkPositionIndexes(srcOff, srcOff + len, src.length);
+		checkPositionIndexes(dstOff, dstOff + len, dst.length);
+		final char[][] pages = this.pages;
+		for (int i = 0; i < len; i++) {
+			final char c = src[srcOff + i];
+			final char[] page = pages[c >>> PAGE_SHIFT];
+			dst[dstOff + i] = page == null ? c : page[c & PAGE_MASK];
+		}
+	}
+
+	public static final class Builder {
+		private final char[][] pages = new char[(Character.MAX_VALUE + 1) >>> PAGE_SHIFT][];
+		private boolean built = false;
+
+		/**
+		 * Map a character.
+		 *
+		 * @param from The character to map.
+		 * @param to The character it maps to.
+		 * @return This builder.
+		 */
+		public Builder put(char from, char to) {
+			if (built) {
+				throw new IllegalStateException("Table has already been built");
+			}
+			final int pageIndex = from >>> PAGE_SHIFT;
+			char[] page = pages[pageIndex];
+			if (page == null) {
+				if (from == to) {
+					return this;
+				}
+				page = new char[PAGE_SIZE];
+				final int pageStart = pageIndex << PAGE_SHIFT;
+				for (int i = 0; i < PAGE_SIZE; i++) {
+					page[i] = (char)(pageStart + i);
+				}
+				pages[pageIndex] = page;
+			}
+			page[from & PAGE_MASK] = to;
+			return this;
+		}
+		public CharTable build() {
+			built = true;
+			return new CharTable(pages);
+		}
+	}
+}
@@ -8,14 +8,16 @@
 
 package org.brailleblaster.libembosser.utils;
 
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Predicate;
 
 import org.w3c.dom.Element;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 public enum PEFElementType {
 	PEF(PEFNamespaceContext.PEF_NAMESPACE, "pef", ImmutableList.of(e -> "2008-1".equals(e.getAttribute("version")))),
@@ -29,6 +31,21 @@ public enum PEFElementType {
 	SECTION(PEFNamespaceContext.PEF_NAMESPACE, "section"),
 	PAGE(PEFNamespaceContext.PEF_NAMESPACE, "page"),
 	ROW(PEFNamespaceContext.PEF_NAMESPACE, "row");
+	/**
+	 * The element types keyed by namespace URI and then local name.
+	 * <p>
+	 * The values are held as Optional so lookups do not need to allocate.
+	 */
+	private static final Map<String, Map<String, Optional<PEFElementType>>> TYPES_BY_NAME;
+	static {
+		Map<String, ImmutableMap.Builder<String, Optional<PEFElementType>>> builders = new HashMap<>();
+		for (PEFElementType t: values()) {
+			builders.computeIfAbsent(t.ns, k -> ImmutableMap.builder()).put(t.elemName, Optional.of(t));
+		}
+		ImmutableMap.Builder<String, Map<String, Optional<PEFElementType>>> typesBuilder = ImmutableMap.builder();
+		builders.forEach((k, v) -> typesBuilder.put(k, v.build()));
+		TYPES_BY_NAME = typesBuilder.build();
+	}
 	private String ns;
 	private String elemName;
 	private List<Predicate<Element>> additionalChecks;
@@ -47,10 +64,33 @@ public enum PEFElementType {
 		return this.elemName;
 	}
 	public static Optional<PEFElementType> findElementType(Element element) {
-		return Arrays.stream(PEFElementType.values()).filter(t -> 
-			t.ns.equals(element.getNamespaceURI())
-			&& t.elemName.equals(element.getLocalName())
-			&& t.additionalChecks.stream().allMatch(c -> c.test(element))
-		).findFirst();
+		final Optional<PEFElementType> candidate = findElementType(element.getNamespaceURI(), element.getLocalName());
+		if (candidate.isPresent()) {
+			for (Predicate<Element> check: candidate.get().additionalChecks) {
+				if (!check.test(element)) {
+					return Optional.empty();
+				}
+			}
+		}
+		return candidate;
+	}
+	/**
+	 * Find the element type by name alone.
+	 * <p>
+	 * Unlike findElementType(Element) no additional checks of the element's attributes or content are made, so this is suitable for when there is no DOM element such as when reading with a XMLStreamReader.
+	 *
+	 * @param namespaceUri The namespace URI of the element.
+	 * @param localName The local name of the element.
+	 * @return The element type with the name.
+	 */
+	public static Optional<PEFElementType> findElementType(String namespaceUri, String localName) {
+		if (namespaceUri == null || localName == null) {
+			return Optional.empty();
+		}
+		final Map<String, Optional<PEFElementType>> types = TYPES_BY_NAME.get(namespaceUri);
+		if (types == null) {
+			return Optional.empty();
+		}
+		return types.getOrDefault(localName, Optional.empty());
 	}
 }
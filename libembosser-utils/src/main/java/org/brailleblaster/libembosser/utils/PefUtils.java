@@ -8,31 +8,33 @@
 
 package org.brailleblaster.libembosser.utils;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.util.Arrays;
-import java.util.Deque;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.stream.Stream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.brailleblaster.libembosser.utils.xml.NodeUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import com.google.common.base.Charsets;
-import com.google.common.primitives.Ints;
 
 
 public final class PefUtils {
-	private static final int[] LINE_ENDINGS = new int[] { '\r', '\n', '\f', -1 };
+	private static final String PEF_VERSION = "2008-1";
+	private static final String PEF_FORMAT = "application/x-pef+xml";
+	private static final int BRF_BUFFER_SIZE = 8192;
 	/**
 	 * Create a PEF from a BRF.
 	 * 
@@ -46,7 +48,7 @@ public final class PefUtils {
 	 * @throws IOException When there is a problem reading the BRF.
 	 */
 	public static Document fromBrf(InputStream brf, String id, int cells, int lines, boolean duplex) throws ParserConfigurationException, IOException {
-		return fromBrf(new BufferedReader(new InputStreamReader(brf, Charsets.US_ASCII)), id, cells, lines, duplex);
+		return fromBrf(new InputStreamReader(brf, Charsets.US_ASCII), id, cells, lines, duplex);
 	}
 	/**
 	 * Create a PEF from a BRF.
@@ -66,12 +68,12 @@ public final class PefUtils {
 		DocumentBuilder db = dbf.newDocumentBuilder();
 		Document doc = db.newDocument();
 		Element root = doc.createElementNS(PEFElementType.PEF.getNamespaceUri(), PEFElementType.PEF.getElementName());
-		root.setAttribute("version", "2008-1");
+		root.setAttribute("version", PEF_VERSION);
 		doc.appendChild(root);
 		Element head = doc.createElementNS(PEFElementType.HEAD.getNamespaceUri(), PEFElementType.HEAD.getElementName());
 		Element meta = doc.createElementNS(PEFElementType.META.getNamespaceUri(), PEFElementType.META.getElementName());
 		Element dcFormat = doc.createElementNS(PEFElementType.DC_FORMAT.getNamespaceUri(), "dc:" + PEFElementType.DC_FORMAT.getElementName());
-		dcFormat.setTextContent("application/x-pef+xml");
+		dcFormat.setTextContent(PEF_FORMAT);
 		meta.appendChild(dcFormat);
 		Element dcIdentifier = doc.createElementNS(PEFElementType.DC_IDENTIFIER.getNamespaceUri(), "dc:" + PEFElementType.DC_IDENTIFIER.getElementName());
 		dcIdentifier.setTextContent(id);
@@ -84,39 +86,165 @@ public final class PefUtils {
 		volume.setAttribute("rows", Integer.toString(lines));
 		volume.setAttribute("duplex", Boolean.toString(duplex));
 		Element section = doc.createElementNS(PEFElementType.SECTION.getNamespaceUri(), PEFElementType.SECTION.getElementName());
-		int prevChar = 0;
-		int curChar = 0;
-		do {
-			Element page = doc.createElementNS(PEFElementType.PAGE.getNamespaceUri(),
-					PEFElementType.PAGE.getElementName());
-			Deque<String> rows = new LinkedList<>();
-			do {
-				StringBuilder buf = new StringBuilder();
-				prevChar = curChar;
-				while (!Ints.contains(LINE_ENDINGS, (curChar = brf.read()))) {
-					buf.append((char) curChar);
-				}
-				// Handle the \r\n (dos) line ending.
-				if (!(prevChar == (int)'\r' && curChar == (int)'\n')) {
-					rows.addLast(BrailleMapper.ASCII_TO_UNICODE_FAST.map(buf.toString()));
-				} 
-			} while (curChar != (int)'\f' && curChar != -1);
-			// Trim the trailing empty lines
-			while (!rows.isEmpty() && rows.getLast().isEmpty()) {
-				rows.removeLast();
+		scanBrf(brf, new BrfPageVisitor<RuntimeException>() {
+			private Element page;
+			@Override
+			public void startPage() {
+				page = doc.createElementNS(PEFElementType.PAGE.getNamespaceUri(), PEFElementType.PAGE.getElementName());
 			}
-			for (String row: rows) {
+			@Override
+			public void row(char[] cells, int length) {
 				Element rowElem = doc.createElementNS(PEFElementType.ROW.getNamespaceUri(), PEFElementType.ROW.getElementName());
-				rowElem.setTextContent(row);
+				rowElem.setTextContent(new String(cells, 0, length));
 				page.appendChild(rowElem);
 			}
-			section.appendChild(page);
-		} while (curChar != -1);
+			@Override
+			public void endPage() {
+				section.appendChild(page);
+			}
+		});
 		volume.appendChild(section);
 		body.appendChild(volume);
 		root.appendChild(body);
 		return doc;
 	}
+	/**
+	 * Convert a BRF to PEF writing the PEF to a stream.
+	 * <p>
+	 * Unlike creating a PEF Document, the PEF is written as the BRF is read so memory use does not grow with the size of the BRF. The PEF is written in UTF-8 and is the same as would be created by fromBrf(InputStream, String, int, int, boolean).
+	 * 
+	 * @param brf The BRF to convert.
+	 * @param pef The stream to write the PEF to, this is not closed.
+	 * @param id The identifier to be used for this document.
+	 * @param cells The number of cells per line.
+	 * @param lines The number of lines per page.
+	 * @param duplex Whether this document should be considered duplex.
+	 * @throws XMLStreamException When there is a problem writing the PEF.
+	 * @throws IOException When there is a problem reading the BRF.
+	 */
+	public static void fromBrf(InputStream brf, OutputStream pef, String id, int cells, int lines, boolean duplex) throws XMLStreamException, IOException {
+		fromBrf(new InputStreamReader(brf, Charsets.US_ASCII), pef, id, cells, lines, duplex);
+	}
+	/**
+	 * Convert a BRF to PEF writing the PEF to a stream.
+	 * 
+	 * @param brf The BRF as a Reader.
+	 * @param pef The stream to write the PEF to, this is not closed.
+	 * @param id The identifier to be used for this document.
+	 * @param cells The number of cells per line.
+	 * @param lines The number of lines per page.
+	 * @param duplex Whether this document should be considered duplex.
+	 * @throws XMLStreamException When there is a problem writing the PEF.
+	 * @throws IOException When there is a problem reading the BRF.
+	 */
+	public static void fromBrf(Reader brf, OutputStream pef, String id, int cells, int lines, boolean duplex) throws XMLStreamException, IOException {
+		final String pefNs = PEFNamespaceContext.PEF_NAMESPACE;
+		final String dcNs = PEFNamespaceContext.DC_NAMESPACE;
+		final XMLStreamWriter writer = XMLOutputFactory.newFactory().createXMLStreamWriter(pef, "UTF-8");
+		writer.writeStartDocument("UTF-8", "1.0");
+		writer.writeStartElement("", PEFElementType.PEF.getElementName(), pefNs);
+		writer.writeDefaultNamespace(pefNs);
+		writer.writeAttribute("version", PEF_VERSION);
+		writer.writeStartElement(pefNs, PEFElementType.HEAD.getElementName());
+		writer.writeStartElement(pefNs, PEFElementType.META.getElementName());
+		writer.writeStartElement("dc", PEFElementType.DC_FORMAT.getElementName(), dcNs);
+		writer.writeNamespace("dc", dcNs);
+		writer.writeCharacters(PEF_FORMAT);
+		writer.writeEndElement();
+		writer.writeStartElement("dc", PEFElementType.DC_IDENTIFIER.getElementName(), dcNs);
+		writer.writeNamespace("dc", dcNs);
+		writer.writeCharacters(id);
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.writeStartElement(pefNs, PEFElementType.BODY.getElementName());
+		writer.writeStartElement(pefNs, PEFElementType.VOLUME.getElementName());
+		writer.writeAttribute("cols", Integer.toString(cells));
+		writer.writeAttribute("rows", Integer.toString(lines));
+		writer.writeAttribute("duplex", Boolean.toString(duplex));
+		writer.writeStartElement(pefNs, PEFElementType.SECTION.getElementName());
+		scanBrf(brf, new BrfPageVisitor<XMLStreamException>() {
+			@Override
+			public void startPage() throws XMLStreamException {
+				writer.writeStartElement(pefNs, PEFElementType.PAGE.getElementName());
+			}
+			@Override
+			public void row(char[] cells, int length) throws XMLStreamException {
+				writer.writeStartElement(pefNs, PEFElementType.ROW.getElementName());
+				writer.writeCharacters(cells, 0, length);
+				writer.writeEndElement();
+			}
+			@Override
+			public void endPage() throws XMLStreamException {
+				writer.writeEndElement();
+			}
+		});
+		writer.writeEndDocument();
+		writer.flush();
+		writer.close();
+	}
+	private interface BrfPageVisitor<E extends Exception> {
+		void startPage() throws E;
+		/**
+		 * Receive a row of the page.
+		 * 
+		 * @param cells Buffer holding the Unicode Braille of the row, the buffer is reused for the next row.
+		 * @param length The number of cells in the row.
+		 */
+		void row(char[] cells, int length) throws E;
+		void endPage() throws E;
+	}
+	/**
+	 * Split a BRF in to pages and rows.
+	 * <p>
+	 * Trailing blank rows of each page are dropped, blank rows followed by content are held as a count until the content is found.
+	 */
+	private static <E extends Exception> void scanBrf(Reader brf, BrfPageVisitor<E> visitor) throws IOException, E {
+		final char[] input = new char[BRF_BUFFER_SIZE];
+		int inputPos = 0;
+		int inputLimit = 0;
+		char[] row = new char[64];
+		int prevChar = 0;
+		int curChar = 0;
+		do {
+			visitor.startPage();
+			int blankRows = 0;
+			do {
+				int rowLength = 0;
+				prevChar = curChar;
+				while (true) {
+					if (inputPos == inputLimit) {
+						inputLimit = brf.read(input, 0, input.length);
+						inputPos = 0;
+						if (inputLimit < 0) {
+							inputLimit = 0;
+							curChar = -1;
+							break;
+						}
+						continue;
+					}
+					curChar = input[inputPos++];
+					if (curChar == '\r' || curChar == '\n' || curChar == '\f') {
+						break;
+					}
+					if (rowLength == row.length) {
+						row = Arrays.copyOf(row, row.length * 2);
+					}
+					row[rowLength++] = BrailleMapper.ASCII_TO_UNICODE_FAST.map((char)curChar);
+				}
+				if (rowLength > 0) {
+					for (; blankRows > 0; --blankRows) {
+						visitor.row(row, 0);
+					}
+					visitor.row(row, rowLength);
+				} else if (!(prevChar == '\r' && curChar == '\n')) {
+					// Only count the blank row when not the \n of a \r\n (dos) line ending
+					++blankRows;
+				}
+			} while (curChar != '\f' && curChar != -1);
+			visitor.endPage();
+		} while (curChar != -1);
+	}
 	
 	public static Stream<Element> findMatchingDescendants(Element element, PEFElementType... elementTypes) {
 		List<PEFElementType> typesList = Arrays.asList(elementTypes);
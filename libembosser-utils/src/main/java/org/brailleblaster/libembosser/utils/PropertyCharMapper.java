@@ -18,7 +18,7 @@ import com.google.common.collect.Maps;
 
 public class PropertyCharMapper implements CharMapperFunction {
 
-	private final Map<String, String> map;
+	private final CharTable table;
 	public PropertyCharMapper(String key) {
 		Map<String, String> tmpMap;
 		try (InputStream in = getClass().getResourceAsStream(String.format("/org/brailleblaster/libembosser/brailleMappings/%s.properties", key))) {
@@ -29,11 +29,17 @@ public class PropertyCharMapper implements CharMapperFunction {
 			// Log the problem and just provide an empty map
 			tmpMap = ImmutableMap.of();
 		}
-		map = tmpMap;
+		final CharTable.Builder tableBuilder = new CharTable.Builder();
+		for (Map.Entry<String, String> entry: tmpMap.entrySet()) {
+			// Characters are looked up individually, so only single character keys can ever match
+			if (entry.getKey().length() == 1 && !entry.getValue().isEmpty()) {
+				tableBuilder.put(entry.getKey().charAt(0), entry.getValue().charAt(0));
+			}
+		}
+		table = tableBuilder.build();
 	}
 	@Override
 	public char applyAsChar(char operand) {
-		String input = Character.toString(operand);
-		return map.getOrDefault(input, input).charAt(0);
+		return table.applyAsChar(operand);
 	}
 }
@@ -10,6 +10,8 @@ package org.brailleblaster.libembosser.utils;
 
 import static org.testng.Assert.assertEquals;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -62,4 +64,26 @@ public class BrailleMapperTest {
 			assertEquals(basicResult.charAt(i), fastResult.charAt(i));
 		}
 	}
+	@DataProvider(name="bulkMapProvider")
+	public Object[][] bulkMapProvider() {
+		return new Object[][] {
+			{BrailleMapper.UNICODE_TO_ASCII_FAST, "\u2820\u281e\u2811\u280c\u2800\u2819\u2815\u2809", 0, 8},
+			{BrailleMapper.UNICODE_TO_ASCII_FAST, "\u2820\u281e\u2811\u280c\u2800\u2819\u2815\u2809", 2, 4},
+			{BrailleMapper.UNICODE_TO_ASCII_FAST, "abc\u00e9\u2801\u2840\u20ac", 0, 7},
+			{BrailleMapper.UNICODE_TO_ASCII_FAST, "\u2801\ud83d\ude00\u2803", 0, 4},
+			// Truncating between the two halves of a surrogate pair
+			{BrailleMapper.UNICODE_TO_ASCII_FAST, "\u2801\ud83d\ude00\u2803", 0, 2},
+			{BrailleMapper.UNICODE_TO_ASCII_FAST, "\ude00\u2801", 0, 2},
+			{BrailleMapper.ASCII_TO_UNICODE_FAST, "a te/ docu;t4", 0, 13},
+			{BrailleMapper.UNICODE_TO_ASCII, "\u2801\u2803abc", 1, 3},
+		};
+	}
+	@Test(dataProvider="bulkMapProvider")
+	public void testBulkMapMatchesStringMap(BrailleMapper mapper, String input, int off, int len) {
+		final byte[] expected = mapper.map(input.substring(off, off + len)).getBytes(StandardCharsets.UTF_8);
+		final byte[] dst = new byte[len * 3 + 2];
+		final int written = mapper.map(input, off, len, dst, 2);
+		assertEquals(written, expected.length);
+		assertEquals(Arrays.copyOfRange(dst, 2, 2 + written), expected);
+	}
 }
@@ -0,0 +1,63 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.utils;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.testng.annotations.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class ByteBufferInputStreamTest {
+	@Test
+	public void testReadRemainingBytes() throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(new byte[] {1, 2, 3, (byte)0xff, 5});
+		buffer.position(1);
+		InputStream input = new ByteBufferInputStream(buffer);
+		assertEquals(input.available(), 4);
+		assertEquals(input.read(), 2);
+		byte[] b = new byte[4];
+		assertEquals(input.read(b, 1, 3), 3);
+		assertEquals(b, new byte[] {0, 3, (byte)0xff, 5});
+		assertEquals(input.read(), -1);
+		assertEquals(input.read(b, 0, 4), -1);
+		assertEquals(buffer.position(), 1, "The position of the original buffer should not change");
+	}
+	@Test
+	public void testMarkAndReset() throws IOException {
+		InputStream input = new ByteBufferInputStream(ByteBuffer.wrap(new byte[] {1, 2, 3, 4}));
+		assertEquals(input.skip(1), 1L);
+		input.mark(10);
+		assertEquals(input.read(), 2);
+		assertEquals(input.skip(10), 2L);
+		input.reset();
+		assertEquals(ByteStreams.toByteArray(input), new byte[] {2, 3, 4});
+	}
+	@Test
+	public void testOpenMapped() throws IOException {
+		Path file = Files.createTempFile("mapped", ".brf");
+		try {
+			byte[] content = "TEST Braille\r\n".getBytes("US-ASCII");
+			Files.write(file, content);
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ); InputStream input = ByteBufferInputStream.openMapped(channel)) {
+				assertEquals(ByteStreams.toByteArray(input), content);
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.utils;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.expectThrows;
+
+import org.testng.annotations.Test;
+
+public class CharTableTest {
+	@Test
+	public void testBuilder() {
+		CharTable table = new CharTable.Builder().put('a', 'A').put('\u2801', 'A').put('b', 'b').build();
+		assertEquals(table.applyAsChar('a'), 'A');
+		assertEquals(table.applyAsChar('\u2801'), 'A');
+		assertEquals(table.applyAsChar('b'), 'b');
+		assertEquals(table.applyAsChar('c'), 'c');
+		assertEquals(table.applyAsChar('\u2802'), '\u2802');
+		assertEquals(table.applyAsChar('\uffff'), '\uffff');
+	}
+	@Test
+	public void testCompileMatchesMapper() {
+		CharMapperFunction mapper = new BlockCharMapper.Builder().add('`', "@ABC").add('\u2800', " A1B").build();
+		CharTable table = CharTable.compile(mapper);
+		for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+			assertEquals(table.applyAsChar((char)c), mapper.applyAsChar((char)c));
+		}
+		assertSame(CharTable.compile(table), table);
+	}
+	@Test
+	public void testMapRange() {
+		CharTable table = new CharTable.Builder().put('\u2801', 'A').put('\u2803', 'B').build();
+		char[] src = "x\u2801\u2803\u2800y".toCharArray();
+		char[] dst = new char[4];
+		table.map(src, 1, dst, 1, 3);
+		assertEquals(dst, new char[] {0, 'A', 'B', '\u2800'});
+		table.map(src, 0, src, 0, src.length);
+		assertEquals(new String(src), "xAB\u2800y");
+		expectThrows(IndexOutOfBoundsException.class, () -> table.map(src, 3, dst, 0, 3));
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * Copyright (c) 2023 American Printing House for the Blind
+ */
+
+package org.brailleblaster.libembosser.utils;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Optional;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import com.google.common.base.Charsets;
+
+public class PEFElementTypeTest {
+	@DataProvider(name="elementProvider")
+	public Object[][] elementProvider() {
+		return new Object[][] {
+			{"<pef xmlns=\"http://www.daisy.org/ns/2008/pef\" version=\"2008-1\"/>", Optional.of(PEFElementType.PEF)},
+			{"<pef xmlns=\"http://www.daisy.org/ns/2008/pef\" version=\"2010-1\"/>", Optional.empty()},
+			{"<pef xmlns=\"http://www.daisy.org/ns/2008/pef\"/>", Optional.empty()},
+			{"<volume xmlns=\"http://www.daisy.org/ns/2008/pef\"/>", Optional.of(PEFElementType.VOLUME)},
+			{"<row xmlns=\"http://www.daisy.org/ns/2008/pef\"/>", Optional.of(PEFElementType.ROW)},
+			{"<row xmlns=\"some.other.ns\"/>", Optional.empty()},
+			{"<row/>", Optional.empty()},
+			{"<graphic xmlns=\"http://www.daisy.org/ns/2008/pef\"/>", Optional.empty()},
+			{"<graphic xmlns=\"" + PEFNamespaceContext.TG_NAMESPACE + "\"/>", Optional.of(PEFElementType.GRAPHIC)},
+			{"<format xmlns=\"" + PEFNamespaceContext.DC_NAMESPACE + "\">application/x-pef+xml</format>", Optional.of(PEFElementType.DC_FORMAT)},
+			{"<format xmlns=\"" + PEFNamespaceContext.DC_NAMESPACE + "\">text/plain</format>", Optional.empty()},
+		};
+	}
+	@Test(dataProvider="elementProvider")
+	public void testFindElementType(String xml, Optional<PEFElementType> expected) throws ParserConfigurationException, SAXException, IOException {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Element element = factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes(Charsets.UTF_8))).getDocumentElement();
+		assertEquals(PEFElementType.findElementType(element), expected);
+	}
+	@Test
+	public void testFindElementTypeByName() {
+		for (PEFElementType t: PEFElementType.values()) {
+			assertEquals(PEFElementType.findElementType(t.getNamespaceUri(), t.getElementName()), Optional.of(t));
+		}
+		assertEquals(PEFElementType.findElementType(PEFNamespaceContext.PEF_NAMESPACE, "graphic"), Optional.empty());
+		assertEquals(PEFElementType.findElementType(null, "row"), Optional.empty());
+	}
+}
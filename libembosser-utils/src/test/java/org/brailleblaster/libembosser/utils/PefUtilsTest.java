@@ -12,9 +12,11 @@ import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.fail;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -23,6 +25,7 @@ import java.util.stream.Stream;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -71,6 +74,22 @@ public class PefUtilsTest {
 		}
 		
 	}
+	@Test(dataProvider="brfProvider")
+	public void testFromBrfToStream(String pefResource, String brfResource, String id, int cells, int lines, boolean duplex) {
+		try(InputStream expected = getClass().getResourceAsStream(pefResource); InputStream brf = getClass().getResourceAsStream(brfResource)) {
+			ByteArrayOutputStream actual = new ByteArrayOutputStream();
+			PefUtils.fromBrf(brf, actual, id, cells, lines, duplex);
+			XmlAssert.assertThat(actual.toString(Charsets.UTF_8.name())).and(expected).normalizeWhitespace().areIdentical();
+		} catch (XMLStreamException | IOException e) {
+			fail("Problem writing the PEF");
+		}
+	}
+	@Test
+	public void testFromBrfDosLineEndings() throws ParserConfigurationException, IOException {
+		Document actual = PefUtils.fromBrf(new StringReader("AB\r\n\r\nCD\rEF\n"), "DosLines", 40, 25, false);
+		List<String> rows = PefUtils.findMatchingDescendants(actual.getDocumentElement(), PEFElementType.ROW).map(Element::getTextContent).collect(ImmutableList.toImmutableList());
+		assertEquals(rows, ImmutableList.of("\u2801\u2803", "", "\u2809\u2819", "\u2811\u280b"));
+	}
 	@DataProvider(name="findMatchingDescendantsProvider")
 	public Object[][] findMatchingDescendantsProvider() {
 		return new Object[][] {